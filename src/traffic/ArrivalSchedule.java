@@ -0,0 +1,236 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  {@code ArrivalSchedule} holds the precomputed arrivals of one
+ *  {@code Road}.  Arrivals are generated a chunk of ticks at a time
+ *  as a Poisson process following the road's {@code DemandProfile},
+ *  with the type of each arrival already picked from the road's
+ *  {@code VehicleMix}.  Each arrival is packed into one {@code int}:
+ *  its tick within the chunk in the high 16 bits and its type code
+ *  in the low 16 bits.  A tick only has to look at the cursor.
+ *  @version 2026101902
+ *  @author Richard Barton
+ */
+final class ArrivalSchedule {
+    /**
+     *  Number of ticks generated at a time.
+     */
+    static final int    CHUNK_TICKS     = 4096;
+
+    private final DemandProfile demand;
+    private final VehicleMix    mix;
+    private final RandomStream  random;
+    private long                chunkStart;
+    private int                 arrival[];
+    private int                 count;
+    private int                 cursor;
+
+    /**
+     *  @param demand how many vehicles arrive
+     *  @param mix what types they are
+     *  @param random where the randomness comes from
+     *  @param fromTick first tick to schedule
+     */
+    ArrivalSchedule(DemandProfile demand, VehicleMix mix,
+                    RandomStream random, long fromTick)
+    {
+        this.demand = demand;
+        this.mix = mix;
+        this.random = random;
+        arrival = new int[64];
+        fill(fromTick);
+    }
+
+    /**
+     *  @param demand how many vehicles arrive
+     *  @param mix what types they are
+     *  @param random where the randomness comes from
+     *  @param in a checkpoint to take the arrivals from
+     *  @throws IOException if the checkpoint can't be read
+     */
+    ArrivalSchedule(DemandProfile demand, VehicleMix mix,
+                    RandomStream random, Checkpoint.Reader in)
+        throws IOException
+    {
+        this.demand = demand;
+        this.mix = mix;
+        this.random = random;
+        chunkStart = in.getLong();
+        cursor = in.getInt();
+        count = in.getInt();
+        arrival = new int[Math.max(64, count)];
+        for (int i = 0; (i < count); ++i) {
+            arrival[i] = in.getInt();
+        }
+    }
+
+    /*
+     *  Generate the chunk of arrivals starting at the given tick.
+     */
+    private void fill(long start)
+    {
+        long    end;
+        long    t;
+
+        chunkStart = start;
+        count = 0;
+        cursor = 0;
+        end = start + CHUNK_TICKS;
+        for (t = start; (t < end); ) {
+            long        pieceEnd;
+            double      rate;
+
+            /*
+             *  The rate is constant up to the next change, so we can
+             *  step from arrival to arrival with exponential gaps.
+             *  The process is memoryless, so starting over at each
+             *  change is fine.
+             */
+            pieceEnd = Math.min(end, demand.nextChange(t));
+            if (pieceEnd <= t) {
+                pieceEnd = t + 1;
+            }
+            rate = demand.rateAt(t);
+            if (rate > 0) {
+                double  x;
+
+                x = t;
+                for (;;) {
+                    VehicleType type;
+
+                    x -= Math.log(1.0 - random.nextDouble()) / rate;
+                    if (x >= pieceEnd) {
+                        break;
+                    }
+                    type = mix.nextArrival(random.nextDouble());
+                    if (type == null) {
+                        continue;
+                    }
+                    if (count == arrival.length) {
+                        arrival = Arrays.copyOf(arrival, count * 2);
+                    }
+                    arrival[count++] = ((int)((long)x - start) << 16) |
+                            type.getCode();
+                }
+            }
+            t = pieceEnd;
+        }
+    }
+
+    /*
+     *  Make sure the chunk holding the tick is the one we have.
+     */
+    private void reach(long tick)
+    {
+        while (tick >= chunkStart + CHUNK_TICKS) {
+            fill(chunkStart + CHUNK_TICKS);
+        }
+    }
+
+    /**
+     *  @param tick the current tick
+     *  @return whether an arrival scheduled at or before the tick
+     *  hasn't been taken yet
+     */
+    boolean     hasArrival(long tick)
+    {
+        reach(tick);
+        return((cursor < count) &&
+                (chunkStart + (arrival[cursor] >>> 16) <= tick));
+    }
+
+    /**
+     *  Throw away arrivals before the tick.
+     *  @param tick the current tick
+     *  @return how many were thrown away
+     */
+    int skipBefore(long tick)
+    {
+        int     skipped;
+
+        skipped = 0;
+        while (hasArrival(tick - 1) == true) {
+            ++cursor;
+            ++skipped;
+        }
+
+        return(skipped);
+    }
+
+    /**
+     *  @return the type code of the next arrival, which is then
+     *  taken off the schedule
+     */
+    int takeCode()
+    {
+        return(arrival[cursor++] & 0xffff);
+    }
+
+    /**
+     *  @return the tick of the next arrival that hasn't been taken
+     *  yet
+     */
+    long        peekTick()
+    {
+        return(chunkStart + (arrival[cursor] >>> 16));
+    }
+
+    /**
+     *  @param limit last tick worth looking at
+     *  @return the tick of the next arrival that hasn't been taken
+     *  yet, a tick after {@code limit} to look again if there's none
+     *  up to {@code limit}, or {@code Long.MAX_VALUE} if the demand
+     *  has gone quiet for good
+     */
+    long        nextArrival(long limit)
+    {
+        for (;;) {
+            long        nextChunk;
+
+            if (cursor < count) {
+                return(peekTick());
+            }
+
+            /*
+             *  Nothing more in this chunk.  Don't generate chunks
+             *  forever for a profile that has gone quiet or too far
+             *  ahead of the caller.
+             */
+            nextChunk = chunkStart + CHUNK_TICKS;
+            if ((demand.rateAt(nextChunk) <= 0) &&
+                    (demand.nextChange(nextChunk) == Long.MAX_VALUE)) {
+                return(Long.MAX_VALUE);
+            }
+            if (nextChunk > limit) {
+                return(nextChunk);
+            }
+            fill(nextChunk);
+        }
+    }
+
+    /*
+     *  Write the chunk of arrivals to a checkpoint, and where we are
+     *  in it, for the constructor to read back.  The random numbers
+     *  belong to the road.
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putLong(chunkStart);
+        out.putInt(cursor);
+        out.putInt(count);
+        for (int i = 0; (i < count); ++i) {
+            out.putInt(arrival[i]);
+        }
+    }
+
+    /**
+     *  @return the demand the schedule follows
+     */
+    DemandProfile       getDemand()
+    {
+        return(demand);
+    }
+}
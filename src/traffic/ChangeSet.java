@@ -0,0 +1,122 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code ChangeSet} lists the positions of a {@code Road} whose
+ *  vehicles changed, with the type code of what's there now, so a
+ *  viewer can keep up with a road at a cost that grows with how much
+ *  moved rather than with the road's length.  Positions are as in
+ *  {@code Road.snapshot()}, whichever way the road flows.  A road
+ *  can feed a change set to each of its readers, and adds to all of
+ *  them as it goes, across ticks, each until its own reader clears
+ *  it, so no reader loses changes to another.  A change set is fed
+ *  by one road at a time.  A position can be listed more than once;
+ *  the last entry for it is what's there.  The arrays are kept and
+ *  reused, so reading and clearing a change set every tick makes no
+ *  garbage.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public final class ChangeSet {
+    /**
+     *  The code of a vehicle whose type was never registered.
+     */
+    public static final int     UNREGISTERED_CODE       = -1;
+
+    private int                 position[];
+    private int                 code[];
+    private int                 size;
+
+    /*
+     *  The next change set the same road feeds, and whether a road
+     *  feeds this one.
+     */
+    ChangeSet                   next;
+    boolean                     fed;
+
+    /**
+     *  Construct an empty change set.
+     */
+    public ChangeSet()
+    {
+        position = new int[64];
+        code = new int[64];
+    }
+
+    /**
+     *  @return the number of changes
+     */
+    public int  size()
+    {
+        return(size);
+    }
+
+    /**
+     *  @param which a change, from 0 to size() - 1
+     *  @return the position that changed
+     */
+    public int  position(int which)
+    {
+        return(position[which]);
+    }
+
+    /**
+     *  @param which a change, from 0 to size() - 1
+     *  @return the type code of the vehicle at the position now,
+     *  {@code VehicleType.EMPTY_CODE} if there's none or
+     *  {@code UNREGISTERED_CODE}
+     */
+    public int  code(int which)
+    {
+        return(code[which]);
+    }
+
+    /**
+     *  Forget the changes, keeping the room they took.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     *  Bring a copy of a snapshot up to date.
+     *  @param glyphs the snapshot, as it was when the change set was
+     *  last cleared
+     *  @throws ArrayIndexOutOfBoundsException if a position is past
+     *  its end
+     */
+    public void applyTo(char glyphs[])
+    {
+        for (int i = 0; (i < size); ++i) {
+            glyphs[position[i]] = (code[i] == UNREGISTERED_CODE) ?
+                    '?' : VehicleType.glyphFor(code[i]);
+        }
+    }
+
+    /*
+     *  A position changed, for this change set and the ones after it.
+     */
+    void        add(int which, int now)
+    {
+        for (ChangeSet set = this; (set != null); set = set.next) {
+            if (set.size == set.position.length) {
+                set.position = Arrays.copyOf(set.position,
+                        set.size * 2);
+                set.code = Arrays.copyOf(set.code, set.size * 2);
+            }
+            set.position[set.size] = which;
+            set.code[set.size++] = now;
+        }
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[size=" + size + "]");
+    }
+}
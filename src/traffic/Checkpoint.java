@@ -0,0 +1,283 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ *  {@code Checkpoint} holds the file format of a checkpoint of a
+ *  {@code Network}.  A checkpoint is a flat run of numbers in the
+ *  byte order of the machine that wrote it, after a magic number
+ *  that gives the order away.  Each part of the network writes and
+ *  reads its own state in turn, so the format is whatever they
+ *  write, in order.
+ *  <p>
+ *  A {@code Writer} gathers small numbers in a buffer off the heap
+ *  and writes it, and anything big like a lane kept off the heap,
+ *  to the file channel in bulk.  A {@code Reader} maps the file into
+ *  memory a large window at a time, so nothing is read that isn't
+ *  used and nothing is copied twice.
+ *  @version 2026101902
+ *  @author Richard Barton
+ */
+final class Checkpoint {
+    /**
+     *  "TRAFFIC" and the version of the format.
+     */
+    static final long           MAGIC   = 0x5452414646494303L;
+
+    private static final int    BUFFER  = 1 << 20;
+    private static final long   WINDOW  = 1L << 30;
+
+    private Checkpoint()
+    {
+    }
+
+    /**
+     *  Writes a checkpoint.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel       channel;
+        private final ByteBuffer        buffer;
+
+        /**
+         *  @param path the file to write, replacing it if it's there
+         *  @throws IOException if the file can't be written
+         */
+        Writer(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            buffer = ByteBuffer.allocateDirect(BUFFER).order(
+                    ByteOrder.nativeOrder());
+            putLong(MAGIC);
+        }
+
+        private ByteBuffer      room(int bytes) throws IOException
+        {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+
+            return(buffer);
+        }
+
+        private void    flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining() == true) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void    putByte(int value) throws IOException
+        {
+            room(1).put((byte)value);
+        }
+
+        void    putShort(int value) throws IOException
+        {
+            room(2).putShort((short)value);
+        }
+
+        void    putInt(int value) throws IOException
+        {
+            room(4).putInt(value);
+        }
+
+        void    putLong(long value) throws IOException
+        {
+            room(8).putLong(value);
+        }
+
+        void    putDouble(double value) throws IOException
+        {
+            room(8).putDouble(value);
+        }
+
+        void    putString(String value) throws IOException
+        {
+            byte    bytes[];
+
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (byte b : bytes) {
+                putByte(b);
+            }
+        }
+
+        /**
+         *  Write a block of memory straight to the file.  It has to
+         *  be in the machine's byte order.
+         *  @param block the memory from its position to its limit
+         *  @throws IOException if the file can't be written
+         */
+        void    putBlock(ByteBuffer block) throws IOException
+        {
+            ByteBuffer  from;
+
+            flush();
+            from = block.duplicate();
+            while (from.hasRemaining() == true) {
+                channel.write(from);
+            }
+        }
+
+        /**
+         *  Write what's left and make sure it's on the disk.
+         *  @throws IOException if the file can't be written
+         */
+        public void     close() throws IOException
+        {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     *  Reads a checkpoint.
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel       channel;
+        private final long              size;
+        private final ByteOrder         order;
+        private ByteBuffer              window;
+        private long                    windowStart;
+
+        /**
+         *  @param path the file to read
+         *  @throws IOException if the file can't be read
+         *  @throws IllegalArgumentException if it isn't a checkpoint
+         */
+        Reader(Path path) throws IOException
+        {
+            long    magic;
+
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+            window = ByteBuffer.allocate(0);
+            windowStart = 0;
+            magic = getLong();
+            if (magic == MAGIC) {
+                order = window.order();
+            } else if (magic == Long.reverseBytes(MAGIC)) {
+                order = (window.order() == ByteOrder.BIG_ENDIAN) ?
+                        ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            } else {
+                channel.close();
+                throw new IllegalArgumentException(path +
+                        " isn't a checkpoint");
+            }
+            window.order(order);
+        }
+
+        /*
+         *  Map the file from where we are if there isn't enough of it
+         *  left in the window.
+         */
+        private ByteBuffer      need(int bytes) throws IOException
+        {
+            if (window.remaining() < bytes) {
+                long    at;
+                long    length;
+
+                at = windowStart + window.position();
+                length = Math.min(Math.max(WINDOW, bytes), size - at);
+                if (length < bytes) {
+                    throw new IllegalArgumentException("checkpoint" +
+                            " ends early");
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, at,
+                        length).order((order == null) ?
+                        ByteOrder.BIG_ENDIAN : order);
+                windowStart = at;
+            }
+
+            return(window);
+        }
+
+        /**
+         *  @return the byte order of the numbers in the file
+         */
+        ByteOrder       order()
+        {
+            return(order);
+        }
+
+        int     getByte() throws IOException
+        {
+            return(need(1).get());
+        }
+
+        int     getShort() throws IOException
+        {
+            return(need(2).getShort());
+        }
+
+        int     getInt() throws IOException
+        {
+            return(need(4).getInt());
+        }
+
+        long    getLong() throws IOException
+        {
+            return(need(8).getLong());
+        }
+
+        double  getDouble() throws IOException
+        {
+            return(need(8).getDouble());
+        }
+
+        String  getString() throws IOException
+        {
+            byte    bytes[];
+
+            bytes = new byte[getInt()];
+            need(bytes.length).get(bytes);
+
+            return(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        /**
+         *  @param bytes how many bytes
+         *  @return a block of the file, mapped rather than copied
+         *  @throws IOException if the file can't be read
+         */
+        ByteBuffer      getBlock(int bytes) throws IOException
+        {
+            ByteBuffer  block;
+
+            block = need(bytes).slice().limit(bytes);
+            window.position(window.position() + bytes);
+
+            return(block.order(order));
+        }
+
+        /**
+         *  @throws IllegalArgumentException unless the whole file has
+         *  been read
+         *  @throws IOException if the file can't be read
+         */
+        void    expectEnd() throws IOException
+        {
+            if (windowStart + window.position() != size) {
+                throw new IllegalArgumentException("checkpoint goes" +
+                        " on past the network");
+            }
+        }
+
+        public void     close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
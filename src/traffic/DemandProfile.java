@@ -0,0 +1,56 @@
+package traffic;
+
+/**
+ *  {@code DemandProfile} describes how many vehicles want to enter a
+ *  {@code Road} as a function of the tick.  The rate is the expected
+ *  number of arrivals per tick.  Profiles are only evaluated when a
+ *  road precomputes its arrival schedule, never on every tick.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public interface DemandProfile {
+    /**
+     *  @param tick the tick of interest
+     *  @return expected arrivals per tick at {@code tick}
+     */
+    double      rateAt(long tick);
+
+    /**
+     *  @param tick the tick of interest
+     *  @return the first tick after {@code tick} where the rate may
+     *  be different, or {@code Long.MAX_VALUE} if it never changes
+     */
+    long        nextChange(long tick);
+
+    /**
+     *  @param factor what to multiply the rate by
+     *  @return this profile with its rate multiplied by
+     *  {@code factor}
+     */
+    default DemandProfile       scaled(double factor)
+    {
+        DemandProfile   base;
+
+        base = this;
+        return(new DemandProfile() {
+            public double rateAt(long tick)
+            {
+                return(base.rateAt(tick) * factor);
+            }
+
+            public long nextChange(long tick)
+            {
+                return(base.nextChange(tick));
+            }
+        });
+    }
+
+    /**
+     *  @param rate expected arrivals per tick
+     *  @return a profile that never changes
+     */
+    static DemandProfile        constant(double rate)
+    {
+        return(new PiecewiseDemand(new long[]{0}, new double[]{rate}));
+    }
+}
@@ -0,0 +1,613 @@
+package traffic;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ *  {@code Distributed} runs one {@code Network} split over several
+ *  processes on this machine.  Each process builds the whole network
+ *  but ticks only the roads it owns.  The roads are split into
+ *  connected parts by a {@code Partition}, with all the approaches of
+ *  a signal kept together.  At each tick the processes trade, over
+ *  sockets, the vehicles offered to roads owned by a neighbour, the
+ *  offers granted and the roads upstream to wake, and they all wait
+ *  for each other at the end of it.  See {@code HaloExchange}.
+ *  <p>
+ *  The run comes out as it would in one process:  the same vehicles
+ *  of the same types in the same places and the same counts.  The
+ *  vehicles have the same identifiers too.  The processes tell each
+ *  other which roads spawn on each tick, so each numbers its own
+ *  spawns as one process would, and a vehicle handed over to
+ *  another process takes its identifier with it.
+ *  <p>
+ *  The network is built by a class implementing
+ *  {@code Supplier<Network>} with a constructor taking nothing,
+ *  named so that the other processes can build it too.  The process
+ *  running the {@code Distributed} is the first of them and starts
+ *  the others, with the same class path, and collects the results.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public final class Distributed {
+    private final String        builder;
+    private final int           processes;
+
+    /**
+     *  What a run came to, over all the processes.
+     */
+    public static final class Result {
+        private long            exits;
+        private long            vehicles;
+        private final String    snapshot[];
+        private final int       identifiers[][];
+
+        private Result(int roads)
+        {
+            snapshot = new String[roads];
+            identifiers = new int[roads][];
+        }
+
+        /**
+         *  @return the number of vehicles that left the network
+         */
+        public long     getExitCount()
+        {
+            return(exits);
+        }
+
+        /**
+         *  @return the number of vehicles on the roads at the end
+         */
+        public long     getVehicleCount()
+        {
+            return(vehicles);
+        }
+
+        /**
+         *  @param road index of a road in the network
+         *  @return a snapshot of the road at the end
+         */
+        public String   getSnapshot(int road)
+        {
+            return(snapshot[road]);
+        }
+
+        /**
+         *  @param road index of a road in the network
+         *  @return the identifiers of the vehicles on the road at the
+         *  end, in the order of the flow
+         */
+        public int[]    getIdentifiers(int road)
+        {
+            return(identifiers[road].clone());
+        }
+
+        /**
+         *  @return {@code String} representation of object
+         */
+        public String toString()
+        {
+            return(getClass().getName() +
+                    "[exits=" + exits +
+                    ",vehicles=" + vehicles + "]");
+        }
+    }
+
+    /**
+     *  @param builder name of the class that builds the network
+     *  @param processes how many processes to split it over
+     *  @throws IllegalArgumentException if the number isn't positive
+     */
+    public Distributed(String builder, int processes)
+    {
+        if (processes < 1) {
+            throw new IllegalArgumentException("processes " +
+                    processes + " isn't positive");
+        }
+        this.builder = builder;
+        this.processes = processes;
+    }
+
+    /**
+     *  Start the other processes, run the network for some ticks
+     *  from a seed, as {@code Network.reset} would, and stop them.
+     *  @param seed seed of the run
+     *  @param ticks how many ticks
+     *  @return the results of all the processes
+     *  @throws IllegalArgumentException if the network can't be
+     *  built
+     *  @throws IllegalStateException if the processes can't be
+     *  started or don't finish
+     */
+    public Result       run(long seed, long ticks)
+    {
+        List<Process>           started;
+        Network                 network;
+        int                     owner[];
+        SocketChannel           peer[];
+        int                     listen[];
+        ByteBuffer              table;
+        Result                  result;
+        String                  java;
+
+        network = build(builder);
+        java = Paths.get(System.getProperty("java.home"), "bin",
+                "java").toString();
+        owner = owners(network, processes);
+        peer = new SocketChannel[processes];
+        listen = new int[processes];
+        started = new ArrayList<>();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), 0));
+            for (int p = 1; (p < processes); ++p) {
+                started.add(new ProcessBuilder(java, "-cp",
+                        System.getProperty("java.class.path"),
+                        Distributed.class.getName(), "worker",
+                        Integer.toString(p),
+                        Integer.toString(processes),
+                        Integer.toString(((InetSocketAddress)
+                        server.getLocalAddress()).getPort()),
+                        builder, Long.toString(seed),
+                        Long.toString(ticks)).inheritIO().start());
+            }
+
+            /*
+             *  Each process says where it listens for the ones after
+             *  it, and is told where the others listen and who owns
+             *  which road.
+             */
+            for (int p = 1; (p < processes); ++p) {
+                SocketChannel   channel;
+                ByteBuffer      hello;
+                int             rank;
+
+                channel = server.accept();
+                hello = read(channel, 8);
+                rank = hello.getInt();
+                peer[rank] = channel;
+                listen[rank] = hello.getInt();
+            }
+            table = ByteBuffer.allocate(4 * (processes + 2 +
+                    owner.length));
+            for (int p = 0; (p < processes); ++p) {
+                table.putInt(listen[p]);
+            }
+            table.putInt(Vehicle.peekIdentifier());
+            table.putInt(owner.length);
+            for (int p : owner) {
+                table.putInt(p);
+            }
+            table.flip();
+            for (int p = 1; (p < processes); ++p) {
+                table.rewind();
+                while (table.hasRemaining() == true) {
+                    peer[p].write(table);
+                }
+            }
+
+            result = simulate(network, owner, 0, peer, seed, ticks);
+            for (Process process : started) {
+                if (process.waitFor() != 0) {
+                    throw new IllegalStateException("process exited " +
+                            process.exitValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } finally {
+            for (Process process : started) {
+                process.destroy();
+            }
+        }
+
+        return(result);
+    }
+
+    /*
+     *  Build the network with the named class.
+     */
+    @SuppressWarnings("unchecked")
+    private static Network      build(String builder)
+    {
+        try {
+            return(((Supplier<Network>)Class.forName(builder).
+                    getDeclaredConstructor().newInstance()).get());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("can't build a network" +
+                    " with " + builder, e);
+        }
+    }
+
+    /*
+     *  @return the process owning each road.  The approaches of a
+     *  signal go with the first, so that each signal sees all its
+     *  queues.
+     */
+    static int[]        owners(Network network, int processes)
+    {
+        Partition       partition;
+        Signals         signals;
+        int             owner[];
+
+        partition = network.split(processes);
+        owner = new int[network.getRoads().size()];
+        for (int i = 0; (i < owner.length); ++i) {
+            owner[i] = partition.partOf(i);
+        }
+        signals = network.getSignals();
+        for (int which = 0; (which < signals.size()); ++which) {
+            int         approach[];
+
+            approach = signals.approaches(which);
+            for (int road : approach) {
+                owner[road] = owner[approach[0]];
+            }
+        }
+
+        return(owner);
+    }
+
+    /*
+     *  Run this process's share of the network and gather the results
+     *  in the first process.
+     *  @return the results in the first process, null in the others
+     */
+    private static Result       simulate(Network network, int owner[],
+                                         int rank, SocketChannel peer[],
+                                         long seed, long ticks)
+        throws IOException
+    {
+        HaloExchange    halo;
+        boolean         none[];
+        boolean         first[];
+        boolean         rest[];
+        Result          result;
+
+        halo = new HaloExchange(rank, peer);
+        none = new boolean[peer.length];
+        first = new boolean[peer.length];
+        first[0] = true;
+        rest = new boolean[peer.length];
+        Arrays.fill(rest, 1, rest.length, true);
+        try {
+            network.reset(seed);
+            network.restrictTo(owner, rank, halo);
+            for (long t = 0; (t < ticks); ++t) {
+                network.step();
+            }
+
+            if (rank != 0) {
+                report(network, owner, halo);
+                halo.exchange(network.getTick(), HaloExchange.RESULTS,
+                        first, none, null);
+                return(null);
+            }
+            result = new Result(owner.length);
+            result.exits = network.getExitCount();
+            result.vehicles = network.getVehicleCount();
+            for (int i = 0; (i < owner.length); ++i) {
+                if (owner[i] == 0) {
+                    result.snapshot[i] = network.road(i).snapshot();
+                    result.identifiers[i] = identifiers(
+                            network.road(i));
+                }
+            }
+            halo.exchange(network.getTick(), HaloExchange.RESULTS, none,
+                    rest, (from, payload) -> {
+                result.exits += payload.getLong();
+                result.vehicles += payload.getLong();
+                while (payload.hasRemaining() == true) {
+                    byte    bytes[];
+                    int     road;
+                    int     on[];
+
+                    road = payload.getInt();
+                    bytes = new byte[payload.getInt()];
+                    payload.get(bytes);
+                    result.snapshot[road] = new String(bytes,
+                            StandardCharsets.UTF_8);
+                    on = new int[payload.getInt()];
+                    for (int k = 0; (k < on.length); ++k) {
+                        on[k] = payload.getInt();
+                    }
+                    result.identifiers[road] = on;
+                }
+            });
+        } finally {
+            halo.close();
+        }
+
+        return(result);
+    }
+
+    /*
+     *  Put the counts of a process and the snapshots of its roads,
+     *  with the identifiers of their vehicles, in its frame to the
+     *  first process.
+     */
+    private static void report(Network network, int owner[],
+                               HaloExchange halo)
+    {
+        ByteBuffer      buffer;
+
+        buffer = halo.room(0, 16);
+        buffer.putLong(network.getExitCount());
+        buffer.putLong(network.getVehicleCount());
+        for (int i = 0; (i < owner.length); ++i) {
+            byte    bytes[];
+            int     on[];
+
+            if (owner[i] != halo.rank()) {
+                continue;
+            }
+            bytes = network.road(i).snapshot().getBytes(
+                    StandardCharsets.UTF_8);
+            on = identifiers(network.road(i));
+            buffer = halo.room(0, 12 + bytes.length + 4 * on.length);
+            buffer.putInt(i);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+            buffer.putInt(on.length);
+            for (int identifier : on) {
+                buffer.putInt(identifier);
+            }
+        }
+    }
+
+    /*
+     *  @return the identifiers of the vehicles on a road
+     */
+    private static int[]        identifiers(Road road)
+    {
+        return(road.vehicles().mapToInt(
+                Vehicle::getIdentifier).toArray());
+    }
+
+    /*
+     *  Read so many bytes from a blocking channel.
+     */
+    private static ByteBuffer   read(SocketChannel channel, int bytes)
+        throws IOException
+    {
+        ByteBuffer      buffer;
+
+        buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining() == true) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed");
+            }
+        }
+        buffer.flip();
+
+        return(buffer);
+    }
+
+    /*
+     *  Run as one of the processes after the first:  connect to it,
+     *  then to every other process, and run.
+     */
+    private static void worker(String[] args) throws IOException
+    {
+        int             rank;
+        int             processes;
+        SocketChannel   peer[];
+        int             listen[];
+        int             owner[];
+        ByteBuffer      table;
+        Network         network;
+
+        rank = Integer.parseInt(args[1]);
+        processes = Integer.parseInt(args[2]);
+        network = build(args[4]);
+        peer = new SocketChannel[processes];
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            ByteBuffer  hello;
+
+            server.bind(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), 0));
+            peer[0] = SocketChannel.open(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(args[3])));
+            hello = ByteBuffer.allocate(8);
+            hello.putInt(rank).putInt(((InetSocketAddress)
+                    server.getLocalAddress()).getPort()).flip();
+            while (hello.hasRemaining() == true) {
+                peer[0].write(hello);
+            }
+
+            table = read(peer[0], 4 * (processes + 2));
+            listen = new int[processes];
+            for (int p = 0; (p < processes); ++p) {
+                listen[p] = table.getInt();
+            }
+            Vehicle.setNextIdentifier(table.getInt());
+            table = read(peer[0], 4 * table.getInt());
+            owner = new int[table.remaining() / 4];
+            for (int i = 0; (i < owner.length); ++i) {
+                owner[i] = table.getInt();
+            }
+
+            /*
+             *  Connect to the processes before this one and take
+             *  connections from the ones after.
+             */
+            for (int p = 1; (p < rank); ++p) {
+                peer[p] = SocketChannel.open(new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(), listen[p]));
+                hello = ByteBuffer.allocate(4);
+                hello.putInt(rank).flip();
+                while (hello.hasRemaining() == true) {
+                    peer[p].write(hello);
+                }
+            }
+            for (int p = rank + 1; (p < processes); ++p) {
+                SocketChannel   channel;
+
+                channel = server.accept();
+                peer[read(channel, 4).getInt()] = channel;
+            }
+        }
+
+        simulate(network, owner, rank, peer, Long.parseLong(args[5]),
+                Long.parseLong(args[6]));
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[builder=" + builder +
+                ",processes=" + processes + "]");
+    }
+
+    /*
+     *  Corridors that merge pairwise halfway along, under fixed and
+     *  actuated signals, with roads of different periods and a
+     *  blocked outlet for a while.
+     */
+    static final class Sample implements Supplier<Network> {
+        public Network  get()
+        {
+            Network     network;
+            Road        road[][];
+
+            network = new Network();
+            road = new Road[8][6];
+            for (int c = 0; (c < road.length); ++c) {
+                for (int k = 0; (k < road[c].length); ++k) {
+                    road[c][k] = new Road("R" + c + "." + k,
+                            5 + ((c + k) % 4), (c % 2) == 1);
+                    road[c][k].setTickPeriod(
+                            ((c + k) % 3 == 0) ? 2 : 1);
+                    road[c][k].setDemand(DemandProfile.constant(
+                            (k == 0) ? 0.25 : 0.02));
+                    network.add(road[c][k]);
+                }
+            }
+            for (int c = 0; (c < road.length); ++c) {
+                for (int k = 0; (k < road[c].length - 1); ++k) {
+                    if (((c % 2) == 1) && (k == 2)) {
+                        network.connect(road[c][k], road[c - 1][k + 1]);
+                    } else {
+                        network.connect(road[c][k], road[c][k + 1]);
+                    }
+                }
+                network.drain(road[c][road[c].length - 1]);
+            }
+            for (int c = 1; (c < road.length); c += 2) {
+                Road    approach[];
+
+                approach = new Road[]{road[c - 1][2], road[c][2]};
+                if ((c % 4) == 1) {
+                    network.getSignals().addFixed(approach,
+                            new int[]{5, 4}, 1, c);
+                } else {
+                    network.getSignals().addActuated(approach, 3, 9,
+                            1, 4);
+                }
+            }
+            network.schedule(100, Network.EVENT_BLOCK_OUTLET,
+                    road[2][4], 0);
+            network.schedule(160, Network.EVENT_OPEN_OUTLET,
+                    road[2][4], 0);
+
+            return(network);
+        }
+    }
+
+    /**
+     *  Runs as one of the processes if the first argument is
+     *  {@code worker}, otherwise performs a unit test on the
+     *  {@code Distributed} class.
+     *  @param args arguments to the unit test or of the process
+     *  @throws IOException if a process can't talk to the others
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int             errors;
+        Network         single;
+        Result          split;
+        int             owner[];
+        int             crossing;
+        int             first;
+
+        if ((args.length == 7) && (args[0].equals("worker") == true)) {
+            worker(args);
+            return;
+        }
+        errors = 0;
+
+        /*
+         *  The split has to put traffic across processes to test
+         *  anything.
+         */
+        single = new Sample().get();
+        owner = owners(single, 3);
+        crossing = 0;
+        for (int i = 0; (i < owner.length); ++i) {
+            Road        next;
+
+            next = single.getDownstream(single.road(i));
+            if ((next != null) &&
+                    (owner[single.indexOf(next)] != owner[i])) {
+                ++crossing;
+            }
+        }
+        System.out.println(crossing + " connections between processes");
+        if (crossing == 0) {
+            System.out.println("*** ERROR *** nothing crosses");
+            ++errors;
+        }
+
+        /*
+         *  Three processes end up where one does.
+         */
+        single.reset(44);
+        first = Vehicle.peekIdentifier();
+        single.step(700);
+        Vehicle.setNextIdentifier(first);
+        split = new Distributed(Sample.class.getName(), 3).run(44, 700);
+        System.out.println(split);
+        if ((split.getExitCount() != single.getExitCount()) ||
+                (split.getVehicleCount() != single.getVehicleCount())) {
+            System.out.println("*** ERROR *** " + split + " != " +
+                    single.getExitCount() + " exits and " +
+                    single.getVehicleCount() + " vehicles");
+            ++errors;
+        }
+        for (int i = 0; (i < owner.length); ++i) {
+            if (single.road(i).snapshot().equals(
+                    split.getSnapshot(i)) == false) {
+                System.out.println("*** ERROR *** road " + i + " " +
+                        split.getSnapshot(i) + " != " +
+                        single.road(i).snapshot());
+                ++errors;
+            } else if (Arrays.equals(identifiers(single.road(i)),
+                    split.getIdentifiers(i)) == false) {
+                System.out.println("*** ERROR *** road " + i +
+                        " has vehicles " + Arrays.toString(
+                        split.getIdentifiers(i)) + ", not " +
+                        Arrays.toString(identifiers(single.road(i))));
+                ++errors;
+            }
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ *  {@code Ensemble} runs many replicas of the same {@code Network},
+ *  each with its own seed, for Monte Carlo studies.  Replicas run in
+ *  parallel on a number of threads.  Each thread builds the network
+ *  once and resets it for each replica it runs, so the roads and
+ *  their lanes are reused rather than allocated over and over.
+ *  <p>
+ *  Nothing is kept about a replica once it's done except what it
+ *  adds to the statistics of the ensemble:  the throughput, in
+ *  vehicles leaving the network per tick, and the occupancy, the
+ *  fraction of the positions on the roads holding a vehicle, averaged
+ *  over the measured ticks.  The statistics can be read while the
+ *  ensemble runs.
+ *  <p>
+ *  Replica {@code r} is seeded from the ensemble's seed and
+ *  {@code r}, so a replica comes out the same however many threads
+ *  there are and whichever one runs it.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class Ensemble {
+    private final Supplier<Network>     builder;
+    private final long                  seed;
+    private int                         threads;
+    private long                        completed;
+    private final Statistics            throughput;
+    private final Statistics            occupancy;
+
+    /**
+     *  @param builder builds the network the replicas run.  It's
+     *  called once for each thread and has to build the same network
+     *  every time.
+     *  @param seed seed of the ensemble
+     */
+    public Ensemble(Supplier<Network> builder, long seed)
+    {
+        this.builder = builder;
+        this.seed = seed;
+        threads = Runtime.getRuntime().availableProcessors();
+        throughput = new Statistics();
+        occupancy = new Statistics();
+    }
+
+    /**
+     *  @return the number of threads replicas run on
+     */
+    public int  getThreads()
+    {
+        return(threads);
+    }
+
+    /**
+     *  @param threads the number of threads replicas run on
+     *  @throws IllegalArgumentException if the number isn't positive
+     */
+    public void setThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads " + threads +
+                    " isn't positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     *  Run some more replicas.  They're numbered on from the ones
+     *  already run, so running 100 twice is the same as running 200.
+     *  @param replicas how many
+     *  @param warmup ticks to run each replica before measuring
+     *  @param ticks ticks to measure each replica for
+     *  @throws IllegalArgumentException if the numbers are out of
+     *  range
+     *  @throws IllegalStateException if interrupted
+     */
+    public void run(int replicas, long warmup, long ticks)
+    {
+        ExecutorService         executor;
+        List<Callable<Object>>  workers;
+        AtomicLong              next;
+        long                    end;
+        int                     i;
+
+        if ((replicas < 0) || (warmup < 0) || (ticks < 1)) {
+            throw new IllegalArgumentException(replicas +
+                    " replicas of " + warmup + " + " + ticks +
+                    " ticks");
+        }
+        synchronized (this) {
+            next = new AtomicLong(completed);
+            end = completed + replicas;
+        }
+
+        workers = new ArrayList<>();
+        for (i = 0; (i < Math.min(threads, replicas)); ++i) {
+            workers.add(() -> {
+                work(next, end, warmup, ticks);
+                return(null);
+            });
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1,
+                workers.size()));
+        try {
+            for (Future<Object> done : executor.invokeAll(workers)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     *  Run replicas on one network until there are none left.
+     */
+    private void        work(AtomicLong next, long end, long warmup,
+                             long ticks)
+    {
+        Network         network;
+        long            positions;
+        long            replica;
+
+        network = builder.get();
+        positions = 0;
+        for (Road road : network.getRoads()) {
+            positions += road.getCarCount();
+        }
+
+        while ((replica = next.getAndIncrement()) < end) {
+            long        exits;
+            long        occupied;
+            long        t;
+
+            network.reset(RandomStream.seedFor(seed, replica));
+            network.step((int)warmup);
+            exits = network.getExitCount();
+            occupied = 0;
+            for (t = 0; (t < ticks); ++t) {
+                network.step();
+                occupied += network.getVehicleCount();
+            }
+            record((double)(network.getExitCount() - exits) / ticks,
+                    (positions == 0) ? 0 :
+                    ((double)occupied / ticks / positions));
+        }
+    }
+
+    private synchronized void   record(double flow, double occupied)
+    {
+        throughput.add(flow);
+        occupancy.add(occupied);
+        ++completed;
+    }
+
+    /**
+     *  @return the number of replicas run so far
+     */
+    public synchronized long    getCompleted()
+    {
+        return(completed);
+    }
+
+    /**
+     *  @return statistics, over the replicas run so far, of the
+     *  vehicles leaving the network per tick
+     */
+    public synchronized Statistics      getThroughput()
+    {
+        return(new Statistics(throughput));
+    }
+
+    /**
+     *  @return statistics, over the replicas run so far, of the
+     *  fraction of positions holding a vehicle
+     */
+    public synchronized Statistics      getOccupancy()
+    {
+        return(new Statistics(occupancy));
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[seed=" + seed +
+                ",threads=" + threads +
+                ",completed=" + getCompleted() + "]");
+    }
+
+    /*
+     *  Two roads merging into a third that drains, with a signal on
+     *  the merge.
+     */
+    private static Network      merge()
+    {
+        Network         network;
+        Road            left;
+        Road            right;
+        Road            out;
+
+        network = new Network();
+        left = new Road("Left", 6, false);
+        right = new Road("Right", 6, true);
+        out = new Road("Out", 10, false);
+        left.setDemand(DemandProfile.constant(0.2));
+        right.setDemand(DemandProfile.constant(0.15));
+        out.setDemand(DemandProfile.constant(0));
+        for (Road road : new Road[]{left, right, out}) {
+            network.add(road);
+        }
+        network.connect(left, out);
+        network.connect(right, out);
+        network.drain(out);
+        network.getSignals().addFixed(new Road[]{left, right},
+                new int[]{6, 4}, 1, 0);
+
+        return(network);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Ensemble} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        Ensemble        one;
+        Ensemble        many;
+        Ensemble        single;
+        Network         fresh;
+        Network         reused;
+        double          expected;
+
+        errors = 0;
+
+        /*
+         *  A replica run on a network that has run others matches
+         *  the same replica on a new network.
+         */
+        fresh = merge();
+        reused = merge();
+        reused.reset(1);
+        reused.step(500);
+        fresh.reset(99);
+        reused.reset(99);
+        fresh.step(700);
+        reused.step(700);
+        for (int i = 0; (i < fresh.getRoads().size()); ++i) {
+            if (fresh.getRoads().get(i).snapshot().equals(
+                    reused.getRoads().get(i).snapshot()) == false) {
+                System.out.println("*** ERROR *** road " + i + ": " +
+                        fresh.getRoads().get(i).snapshot() + " != " +
+                        reused.getRoads().get(i).snapshot());
+                ++errors;
+            }
+        }
+        if ((fresh.getExitCount() != reused.getExitCount()) ||
+                (fresh.getVehicleCount() != reused.getVehicleCount())) {
+            System.out.println("*** ERROR *** " +
+                    fresh.getExitCount() + " != " +
+                    reused.getExitCount() + " exits");
+            ++errors;
+        }
+
+        /*
+         *  The same replicas on one thread and on four.
+         */
+        one = new Ensemble(Ensemble::merge, 32);
+        one.setThreads(1);
+        one.run(200, 100, 1000);
+        many = new Ensemble(Ensemble::merge, 32);
+        many.setThreads(4);
+        many.run(120, 100, 1000);
+        many.run(80, 100, 1000);
+        System.out.println("throughput " + many.getThroughput());
+        System.out.println("occupancy " + many.getOccupancy());
+        if ((many.getCompleted() != 200) ||
+                (Math.abs(one.getThroughput().getMean() -
+                many.getThroughput().getMean()) > 1e-12) ||
+                (Math.abs(one.getOccupancy().getVariance() -
+                many.getOccupancy().getVariance()) > 1e-12) ||
+                (one.getThroughput().getMaximum() !=
+                many.getThroughput().getMaximum())) {
+            System.out.println("*** ERROR *** " + one.getThroughput() +
+                    " != " + many.getThroughput());
+            ++errors;
+        }
+
+        /*
+         *  A lone road that drains lets through a vehicle on every
+         *  tick with at least one arrival.
+         */
+        single = new Ensemble(() -> {
+            Network     network;
+            Road        road;
+
+            network = new Network();
+            road = new Road("Lone", 8, false);
+            road.setDemand(DemandProfile.constant(0.3));
+            network.add(road);
+            network.drain(road);
+            return(network);
+        }, 7);
+        single.run(400, 50, 2000);
+        expected = 1 - Math.exp(-0.3);
+        System.out.println("lone road " + single.getThroughput());
+        if ((Math.abs(single.getThroughput().getMean() - expected) >
+                4 * single.getThroughput().getStandardError() +
+                1e-3) ||
+                (Math.abs(single.getOccupancy().getMean() - expected) >
+                0.01)) {
+            System.out.println("*** ERROR *** throughput " +
+                    single.getThroughput().getMean() +
+                    " and occupancy " +
+                    single.getOccupancy().getMean() + " should be " +
+                    expected);
+            ++errors;
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
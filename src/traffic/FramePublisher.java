@@ -0,0 +1,739 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code FramePublisher} publishes the frames of a {@code Network},
+ *  the snapshots of all its roads after each tick, to subscribers
+ *  that take them at their own pace.  The network is only stepped
+ *  when there are subscribers asking for frames, so however slow they
+ *  are, nothing piles up:  a subscriber's {@code request(n)} lets the
+ *  network run up to {@code n} ticks further, in one go, on the
+ *  publisher's executor.
+ *  <p>
+ *  What happens when some subscribers have asked for more frames than
+ *  others depends on how the publisher is set to treat the slow ones.
+ *  With {@code BLOCK} the network only steps when every subscriber
+ *  has asked for another frame, so everyone gets every frame.  With
+ *  {@code DROP} it steps while anyone has asked, and subscribers that
+ *  haven't miss the frames.  With {@code CONFLATE} it steps the same
+ *  way, but a subscriber that hasn't asked keeps the latest frame it
+ *  missed and gets that first when it does.
+ *  <p>
+ *  Signals to all the subscribers come from one task at a time, and
+ *  a subscriber can ask for more from inside {@code onNext()}.
+ *  Nothing else may step the network while it's being published.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class FramePublisher implements
+        Flow.Publisher<FramePublisher.Frame>, AutoCloseable {
+    /**
+     *  Step only when every subscriber has asked for a frame.
+     */
+    public static final int     BLOCK   = 0;
+    /**
+     *  Step when any subscriber has asked for a frame; the others
+     *  miss it.
+     */
+    public static final int     DROP    = 1;
+    /**
+     *  Step when any subscriber has asked for a frame; the others get
+     *  the latest frame they missed when they ask.
+     */
+    public static final int     CONFLATE        = 2;
+
+    private final Network       network;
+    private final int           overflow;
+    private final Executor      executor;
+    private final List<Link>    links;
+    private final AtomicInteger wip;
+    private volatile boolean    closed;
+    private boolean             done;
+    private Throwable           failure;
+    private final AtomicLong    skippedCount;
+
+    /**
+     *  The roads of a network as they were after a tick.
+     */
+    public static final class Frame {
+        private final long      tick;
+        private final String    snapshot[];
+
+        private Frame(long tick, String snapshot[])
+        {
+            this.tick = tick;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         *  @return the tick
+         */
+        public long     getTick()
+        {
+            return(tick);
+        }
+
+        /**
+         *  @return the number of roads
+         */
+        public int      getRoadCount()
+        {
+            return(snapshot.length);
+        }
+
+        /**
+         *  @param road a road, in the order of the network's
+         *  @return its snapshot
+         */
+        public String   snapshot(int road)
+        {
+            return(snapshot[road]);
+        }
+
+        /**
+         *  @return {@code String} representation of object
+         */
+        public String   toString()
+        {
+            return(getClass().getName() +
+                    "[tick=" + tick +
+                    ",roads=" + snapshot.length + "]");
+        }
+    }
+
+    /*
+     *  A subscriber and what it has asked for.
+     */
+    private final class Link implements Flow.Subscription {
+        final Flow.Subscriber<? super Frame>    subscriber;
+        final AtomicLong        demand;
+        volatile boolean        cancelled;
+        boolean                 started;
+        Frame                   missed;
+
+        /*
+         *  A request for no frames or fewer, or 1 if there wasn't one.
+         */
+        volatile long           wrong;
+
+        Link(Flow.Subscriber<? super Frame> subscriber)
+        {
+            this.subscriber = subscriber;
+            demand = new AtomicLong();
+            wrong = 1;
+        }
+
+        public void     request(long n)
+        {
+            if (n <= 0) {
+                wrong = n;
+            } else {
+                demand.getAndAccumulate(n, (had, more) ->
+                        (had + more < 0) ? Long.MAX_VALUE : had + more);
+            }
+            signal();
+        }
+
+        public void     cancel()
+        {
+            cancelled = true;
+            signal();
+        }
+
+        /*
+         *  Pass a frame on, or cancel a subscriber that throws.
+         */
+        void    next(Frame frame)
+        {
+            if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+            }
+            try {
+                subscriber.onNext(frame);
+            } catch (RuntimeException e) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     *  Publish a network on the common pool.
+     *  @param network the network
+     *  @param overflow how to treat slow subscribers:  {@code BLOCK},
+     *  {@code DROP} or {@code CONFLATE}
+     *  @throws IllegalArgumentException if it isn't one of them
+     */
+    public FramePublisher(Network network, int overflow)
+    {
+        this(network, overflow, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *  @param network the network
+     *  @param overflow how to treat slow subscribers:  {@code BLOCK},
+     *  {@code DROP} or {@code CONFLATE}
+     *  @param executor runs the tasks that step the network and pass
+     *  the frames on
+     *  @throws IllegalArgumentException if the overflow isn't one of
+     *  them
+     */
+    public FramePublisher(Network network, int overflow,
+                          Executor executor)
+    {
+        if ((overflow != BLOCK) && (overflow != DROP) &&
+                (overflow != CONFLATE)) {
+            throw new IllegalArgumentException("no overflow " +
+                    overflow);
+        }
+        this.network = network;
+        this.overflow = overflow;
+        this.executor = executor;
+        links = new CopyOnWriteArrayList<>();
+        wip = new AtomicInteger();
+        skippedCount = new AtomicLong();
+    }
+
+    /**
+     *  Add a subscriber.  It's sent {@code onSubscribe()} from the
+     *  publisher's executor, and then {@code onComplete()} straight
+     *  away if the publisher has been closed.
+     *  @param subscriber the subscriber
+     *  @throws NullPointerException if it's null
+     */
+    public void subscribe(Flow.Subscriber<? super Frame> subscriber)
+    {
+        links.add(new Link(Objects.requireNonNull(subscriber)));
+        signal();
+    }
+
+    /**
+     *  Stop publishing.  Subscribers are sent {@code onComplete()}
+     *  once what's being sent has gone.
+     */
+    public void close()
+    {
+        closed = true;
+        signal();
+    }
+
+    /*
+     *  Make sure a task is going to look at what's changed.
+     */
+    private void        signal()
+    {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /*
+     *  Do everything there is to do, counting the signals taken care
+     *  of so only one task runs at a time.
+     */
+    private void        drain()
+    {
+        int     signals;
+
+        signals = 1;
+        do {
+            while (true) {
+                tidy();
+                if (done == true) {
+                    break;
+                }
+                if (closed == true) {
+                    finish(null);
+                } else if (canStep() == true) {
+                    step();
+                } else {
+                    break;
+                }
+            }
+            signals = wip.addAndGet(-signals);
+        } while (signals != 0);
+    }
+
+    /*
+     *  Start new subscribers, drop ones that have gone and pass on
+     *  what's been missed to the ones asking for it.
+     */
+    private void        tidy()
+    {
+        for (Link link : links) {
+            if (link.started == false) {
+                link.started = true;
+                link.subscriber.onSubscribe(link);
+                if (done == true) {
+                    end(link);
+                }
+            }
+            if ((link.wrong <= 0) && (link.cancelled == false)) {
+                link.cancelled = true;
+                link.subscriber.onError(new IllegalArgumentException(
+                        "requested " + link.wrong + " frames"));
+            }
+            if (link.cancelled == true) {
+                links.remove(link);
+                continue;
+            }
+            if ((link.missed != null) && (link.demand.get() > 0)) {
+                link.next(link.missed);
+                link.missed = null;
+            }
+        }
+    }
+
+    /*
+     *  @return whether the subscribers want another tick
+     */
+    private boolean     canStep()
+    {
+        boolean some;
+
+        some = false;
+        for (Link link : links) {
+            if ((link.started == false) || (link.cancelled == true)) {
+                continue;
+            }
+            if (link.demand.get() > 0) {
+                some = true;
+            } else if (overflow == BLOCK) {
+                return(false);
+            }
+        }
+
+        return(some);
+    }
+
+    /*
+     *  Step the network and pass the frame on.
+     */
+    private void        step()
+    {
+        Frame   frame;
+        String  snapshot[];
+
+        try {
+            network.step();
+        } catch (RuntimeException e) {
+            finish(e);
+            return;
+        }
+        snapshot = new String[network.getRoads().size()];
+        for (int r = 0; (r < snapshot.length); ++r) {
+            snapshot[r] = network.getRoads().get(r).snapshot();
+        }
+        frame = new Frame(network.getTick(), snapshot);
+        for (Link link : links) {
+            if ((link.started == false) || (link.cancelled == true)) {
+                continue;
+            }
+            if (link.demand.get() > 0) {
+                link.next(frame);
+                continue;
+            }
+            skippedCount.incrementAndGet();
+            if (overflow == CONFLATE) {
+                link.missed = frame;
+            }
+        }
+    }
+
+    /*
+     *  End every subscription, with an error if there is one.
+     */
+    private void        finish(Throwable error)
+    {
+        done = true;
+        failure = error;
+        for (Link link : links) {
+            if (link.started == true) {
+                end(link);
+            }
+        }
+    }
+
+    private void        end(Link link)
+    {
+        if (link.cancelled == false) {
+            link.cancelled = true;
+            if (failure == null) {
+                link.subscriber.onComplete();
+            } else {
+                link.subscriber.onError(failure);
+            }
+        }
+        links.remove(link);
+    }
+
+    /**
+     *  @return the number of frames subscribers missed, counting
+     *  each subscriber that missed one
+     */
+    public long getSkippedCount()
+    {
+        return(skippedCount.get());
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[overflow=" + overflow +
+                ",subscribers=" + links.size() +
+                ",closed=" + closed + "]");
+    }
+
+    /*
+     *  Takes frames, asking for some to start with and some more with
+     *  each one, and notes what it gets.
+     */
+    private static final class Recorder
+            implements Flow.Subscriber<Frame> {
+        final long              first;
+        final long              each;
+        final int               cancelAfter;
+        final List<Frame>       frames;
+        final AtomicInteger     inside;
+        volatile Flow.Subscription      subscription;
+        boolean                 subscribed;
+        boolean                 completed;
+        Throwable               error;
+        boolean                 overlapped;
+        final CountDownLatch    over;
+
+        Recorder(long first, long each, int cancelAfter,
+                 AtomicInteger inside)
+        {
+            this.first = first;
+            this.each = each;
+            this.cancelAfter = cancelAfter;
+            this.inside = inside;
+            frames = new ArrayList<>();
+            over = new CountDownLatch(1);
+        }
+
+        public void     onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscribed = true;
+            if (first > 0) {
+                subscription.request(first);
+            }
+        }
+
+        public void     onNext(Frame frame)
+        {
+            if (inside.incrementAndGet() != 1) {
+                overlapped = true;
+            }
+            frames.add(frame);
+            if (frames.size() == cancelAfter) {
+                subscription.cancel();
+                over.countDown();
+            } else if (each > 0) {
+                subscription.request(each);
+            }
+            inside.decrementAndGet();
+        }
+
+        public void     onError(Throwable error)
+        {
+            this.error = error;
+            over.countDown();
+        }
+
+        public void     onComplete()
+        {
+            completed = true;
+            over.countDown();
+        }
+
+        /*
+         *  @return the ticks of the frames, counting from some tick
+         */
+        String  ticks(long from)
+        {
+            StringBuilder       ticks;
+
+            ticks = new StringBuilder();
+            for (Frame frame : frames) {
+                ticks.append((ticks.length() > 0) ? "," : "").append(
+                        frame.getTick() - from);
+            }
+
+            return(ticks.toString());
+        }
+    }
+
+    private static Network      network()
+    {
+        Network network;
+
+        network = new Network();
+        for (int i = 0; (i < 6); ++i) {
+            Road    road;
+
+            road = new Road("Frames " + i, 20 + i, (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 2) == 0) ? 0.5 : 0));
+            network.add(road);
+            if ((i % 2) == 1) {
+                network.connect(network.getRoads().get(i - 1), road);
+                network.drain(road);
+            }
+        }
+
+        return(network);
+    }
+
+    private static String       count(int from, int to)
+    {
+        StringBuilder   ticks;
+
+        ticks = new StringBuilder();
+        for (int t = from; (t <= to); ++t) {
+            ticks.append((t > from) ? "," : "").append(t);
+        }
+
+        return(ticks.toString());
+    }
+
+    private static int  check(String what, String got, String expected)
+    {
+        if (got.equals(expected) == false) {
+            System.out.println("*** ERROR *** " + what + " got " + got +
+                    ", not " + expected);
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  With a subscriber taking frames one at a time as fast as it
+     *  can and another asking for a batch now and then, the network
+     *  goes as far as the slow one asks, and both see every frame.
+     */
+    private static int  testBlock()
+    {
+        int             errors;
+        Network         network;
+        FramePublisher  publisher;
+        Recorder        fast;
+        Recorder        slow;
+        AtomicInteger   inside;
+        long            start;
+
+        errors = 0;
+        network = network();
+        start = network.getTick();
+        publisher = new FramePublisher(network, BLOCK, Runnable::run);
+        inside = new AtomicInteger();
+        fast = new Recorder(1, 1, 0, inside);
+        slow = new Recorder(0, 0, 0, inside);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        errors += check("tick before asking", Long.toString(
+                network.getTick() - start), "0");
+        slow.subscription.request(30);
+        errors += check("tick", Long.toString(
+                network.getTick() - start), "30");
+        slow.subscription.request(20);
+        errors += check("fast", fast.ticks(start), count(1, 50));
+        errors += check("slow", slow.ticks(start), count(1, 50));
+        errors += check("skipped", Long.toString(
+                publisher.getSkippedCount()), "0");
+        if ((slow.frames.get(49).getTick() != network.getTick()) ||
+                (slow.frames.get(49).snapshot(2).equals(
+                network.getRoads().get(2).snapshot()) == false)) {
+            System.out.println("*** ERROR *** last frame " +
+                    slow.frames.get(49) + " isn't the network's");
+            ++errors;
+        }
+
+        /*
+         *  Closing completes the subscribers, and one that comes
+         *  along later is completed as soon as it's subscribed.
+         */
+        publisher.close();
+        fast.subscription.request(5);
+        errors += check("tick after closing", Long.toString(
+                network.getTick() - start), "50");
+        slow = new Recorder(1, 0, 0, inside);
+        publisher.subscribe(slow);
+        if ((fast.completed == false) || (slow.subscribed == false) ||
+                (slow.completed == false)) {
+            System.out.println("*** ERROR *** not completed on close");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  A subscriber that asks for everything and cancels after a
+     *  while, and one that only asks for a few.  The network runs as
+     *  far as the greedy one goes, and what the other makes of the
+     *  frames it didn't ask for depends on the overflow.
+     */
+    private static int  testSkip(int overflow, String expected)
+    {
+        int             errors;
+        Network         network;
+        FramePublisher  publisher;
+        Recorder        greedy;
+        Recorder        slow;
+        AtomicInteger   inside;
+        Queue<Runnable> tasks;
+        long            start;
+
+        /*
+         *  Hold the tasks back until both have subscribed.
+         */
+        errors = 0;
+        network = network();
+        start = network.getTick();
+        tasks = new ArrayDeque<>();
+        publisher = new FramePublisher(network, overflow, tasks::add);
+        inside = new AtomicInteger();
+        greedy = new Recorder(Long.MAX_VALUE, 0, 100, inside);
+        slow = new Recorder(5, 0, 0, inside);
+        publisher.subscribe(slow);
+        publisher.subscribe(greedy);
+        while (tasks.isEmpty() == false) {
+            tasks.remove().run();
+        }
+        errors += check("greedy", greedy.ticks(start), count(1, 100));
+        errors += check("skipped", Long.toString(
+                publisher.getSkippedCount()), "95");
+        slow.subscription.request(3);
+        while (tasks.isEmpty() == false) {
+            tasks.remove().run();
+        }
+        errors += check("slow with overflow " + overflow,
+                slow.ticks(start), expected);
+        publisher.close();
+
+        return(errors);
+    }
+
+    /*
+     *  Asking for no frames is an error.
+     */
+    private static int  testWrongRequest()
+    {
+        int             errors;
+        Network         network;
+        FramePublisher  publisher;
+        Recorder        wrong;
+
+        errors = 0;
+        network = network();
+        publisher = new FramePublisher(network, DROP, Runnable::run);
+        wrong = new Recorder(0, 0, 0, new AtomicInteger());
+        publisher.subscribe(wrong);
+        wrong.subscription.request(0);
+        if ((wrong.error instanceof IllegalArgumentException) ==
+                false) {
+            System.out.println("*** ERROR *** request(0) gave " +
+                    wrong.error);
+            ++errors;
+        }
+        try {
+            new FramePublisher(network, 3);
+            System.out.println("*** ERROR *** overflow 3 accepted");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            /*
+             *  As it should.
+             */
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Subscribers on a pool, each asking for one frame at a time from
+     *  inside onNext(), all see the same frames, one signal at a time.
+     */
+    private static int  testPool()
+    {
+        int             errors;
+        Network         network;
+        FramePublisher  publisher;
+        Recorder        recorder[];
+        AtomicInteger   inside;
+        ExecutorService pool;
+        long            start;
+
+        errors = 0;
+        network = network();
+        start = network.getTick();
+        pool = Executors.newFixedThreadPool(4);
+        publisher = new FramePublisher(network, BLOCK, pool);
+        inside = new AtomicInteger();
+        recorder = new Recorder[3];
+        for (int i = 0; (i < recorder.length); ++i) {
+            recorder[i] = new Recorder(0, 1, 300, inside);
+            publisher.subscribe(recorder[i]);
+        }
+        try {
+            for (Recorder which : recorder) {
+                while (which.subscription == null) {
+                    Thread.sleep(1);
+                }
+            }
+            for (int i = 0; (i < recorder.length); ++i) {
+                recorder[i].subscription.request(1 + i);
+            }
+            for (Recorder which : recorder) {
+                if (which.over.await(30, TimeUnit.SECONDS) == false) {
+                    System.out.println("*** ERROR *** timed out with " +
+                            which.frames.size() + " frames");
+                    return(errors + 1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return(errors + 1);
+        } finally {
+            pool.shutdown();
+        }
+        for (Recorder which : recorder) {
+            errors += check("pooled", which.ticks(start),
+                    count(1, 300));
+            if ((which.overlapped == true) ||
+                    (which.frames.get(299) != recorder[0].frames.get(
+                    299))) {
+                System.out.println("*** ERROR *** frames overlapped" +
+                        " or differ");
+                ++errors;
+            }
+        }
+
+        return(errors);
+    }
+
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = testBlock();
+        errors += testSkip(DROP, count(1, 5) + ",101,102,103");
+        errors += testSkip(CONFLATE, count(1, 5) + ",100,101,102");
+        errors += testWrongRequest();
+        errors += testPool();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
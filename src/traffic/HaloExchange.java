@@ -0,0 +1,328 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ *  {@code HaloExchange} trades messages between the processes a
+ *  {@code Network} is split over, once or more a tick.  Every pair of
+ *  processes shares a socket.  In each round of a tick a process
+ *  sends one frame to each process it talks to in that round, with
+ *  every message for it batched in, and waits for a frame from each
+ *  process it hears from.  A frame is
+ *  <pre>
+ *      int     length of what follows
+ *      long    tick
+ *      byte    round
+ *      ...     messages
+ *  </pre>
+ *  in network byte order.  Sending and receiving are interleaved on
+ *  non-blocking channels, so two processes sending each other more
+ *  than a socket holds don't deadlock.  The frames are read in the
+ *  order of the processes' ranks, whichever arrived first, so what a
+ *  process makes of them doesn't depend on timing.  A round that
+ *  every process takes part in is a barrier.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+final class HaloExchange {
+    /**
+     *  Vehicles offered to roads owned by the receiver.
+     */
+    static final int    OFFERS  = 0;
+    /**
+     *  Offers the receiver made that were granted.
+     */
+    static final int    GRANTS  = 1;
+    /**
+     *  Roads of the receiver to look at on the next tick.
+     */
+    static final int    WAKES   = 2;
+    /**
+     *  Whatever a process reports at the end of a run.
+     */
+    static final int    RESULTS = 3;
+
+    private static final int    HEADER  = 4 + 8 + 1;
+    private static final long   TIMEOUT = 60000;
+
+    /**
+     *  Takes in the messages of a frame.
+     */
+    interface   Reader {
+        /**
+         *  @param from rank of the sender
+         *  @param payload the messages, from its position to its
+         *  limit
+         */
+        void    read(int from, ByteBuffer payload);
+    }
+
+    private final int           rank;
+    private final SocketChannel peer[];
+    private final Selector      selector;
+    private final ByteBuffer    out[];
+    private final ByteBuffer    in[];
+    private final int           frame[];
+
+    /**
+     *  @param rank rank of this process
+     *  @param peer connected sockets to the other processes, indexed
+     *  by rank, with null for this one
+     *  @throws IOException if the sockets can't be selected on
+     */
+    HaloExchange(int rank, SocketChannel peer[]) throws IOException
+    {
+        this.rank = rank;
+        this.peer = peer;
+        selector = Selector.open();
+        out = new ByteBuffer[peer.length];
+        in = new ByteBuffer[peer.length];
+        frame = new int[peer.length];
+        for (int p = 0; (p < peer.length); ++p) {
+            if (p == rank) {
+                continue;
+            }
+            peer[p].configureBlocking(false);
+            peer[p].socket().setTcpNoDelay(true);
+            peer[p].register(selector, SelectionKey.OP_READ, p);
+            out[p] = ByteBuffer.allocateDirect(4096);
+            out[p].position(HEADER);
+            in[p] = ByteBuffer.allocateDirect(4096);
+        }
+    }
+
+    /**
+     *  @return the number of processes
+     */
+    int peers()
+    {
+        return(peer.length);
+    }
+
+    /**
+     *  @return the rank of this process
+     */
+    int rank()
+    {
+        return(rank);
+    }
+
+    /**
+     *  Make room for a message to a process in the next frame to it.
+     *  @param to rank of the receiver
+     *  @param bytes size of the message
+     *  @return the buffer to put the message in
+     */
+    ByteBuffer  room(int to, int bytes)
+    {
+        if (out[to].remaining() < bytes) {
+            ByteBuffer  larger;
+
+            larger = ByteBuffer.allocateDirect(Math.max(
+                    out[to].capacity() * 2,
+                    out[to].position() + bytes));
+            out[to].flip();
+            larger.put(out[to]);
+            out[to] = larger;
+        }
+
+        return(out[to]);
+    }
+
+    /**
+     *  Run a round:  send what's been put in the frames to some
+     *  processes and read the frames of others.  Frames to processes
+     *  not sent to this round are kept for a later one.
+     *  @param tick the tick the round belongs to
+     *  @param round the kind of round
+     *  @param to the processes to send to, by rank
+     *  @param from the processes to hear from, by rank
+     *  @param reader takes in what was heard, or null to ignore it
+     *  @throws IllegalStateException if a process goes away, sends
+     *  a frame out of step or doesn't answer in time
+     */
+    void        exchange(long tick, int round, boolean to[],
+                         boolean from[], Reader reader)
+    {
+        int     sending;
+        int     waiting;
+        long    deadline;
+
+        sending = 0;
+        waiting = 0;
+        for (int p = 0; (p < peer.length); ++p) {
+            if (to[p] == true) {
+                out[p].putInt(0, out[p].position() - 4);
+                out[p].putLong(4, tick);
+                out[p].put(12, (byte)round);
+                out[p].flip();
+                ++sending;
+            }
+            frame[p] = -1;
+            if (from[p] == true) {
+                ++waiting;
+            }
+        }
+
+        try {
+            deadline = System.currentTimeMillis() + TIMEOUT;
+            waiting -= framesIn(from, tick, round);
+            while ((sending > 0) || (waiting > 0)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("round " + round +
+                            " of tick " + tick + " timed out");
+                }
+                for (SelectionKey key : selector.keys()) {
+                    int     p;
+                    int     ops;
+
+                    p = (Integer)key.attachment();
+                    ops = 0;
+                    if ((from[p] == true) && (frame[p] < 0)) {
+                        ops |= SelectionKey.OP_READ;
+                    }
+                    if ((to[p] == true) &&
+                            (out[p].hasRemaining() == true)) {
+                        ops |= SelectionKey.OP_WRITE;
+                    }
+                    key.interestOps(ops);
+                }
+                selector.select(1000);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    int     p;
+
+                    p = (Integer)key.attachment();
+                    if ((key.isWritable() == true) &&
+                            (out[p].hasRemaining() == true)) {
+                        peer[p].write(out[p]);
+                        if (out[p].hasRemaining() == false) {
+                            --sending;
+                        }
+                    }
+                    if (key.isReadable() == true) {
+                        receive(p);
+                    }
+                }
+                selector.selectedKeys().clear();
+                waiting -= framesIn(from, tick, round);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("round " + round +
+                    " of tick " + tick + ": " + e.getMessage(), e);
+        }
+
+        for (int p = 0; (p < peer.length); ++p) {
+            if (to[p] == true) {
+                out[p].clear();
+                out[p].position(HEADER);
+            }
+            if (frame[p] < 0) {
+                continue;
+            }
+            if (reader != null) {
+                ByteBuffer      payload;
+
+                payload = in[p].duplicate();
+                payload.position(HEADER).limit(frame[p]);
+                reader.read(p, payload);
+            }
+            in[p].flip();
+            in[p].position(frame[p]);
+            in[p].compact();
+        }
+    }
+
+    /*
+     *  Read what a process has sent, making room for a whole frame.
+     */
+    private void        receive(int p) throws IOException
+    {
+        if ((in[p].position() >= 4) &&
+                (in[p].getInt(0) + 4 > in[p].capacity())) {
+            ByteBuffer  larger;
+
+            larger = ByteBuffer.allocateDirect(in[p].getInt(0) + 4);
+            in[p].flip();
+            larger.put(in[p]);
+            in[p] = larger;
+        } else if (in[p].hasRemaining() == false) {
+            ByteBuffer  larger;
+
+            larger = ByteBuffer.allocateDirect(in[p].capacity() * 2);
+            in[p].flip();
+            larger.put(in[p]);
+            in[p] = larger;
+        }
+        if (peer[p].read(in[p]) < 0) {
+            throw new IllegalStateException("process " + p +
+                    " went away");
+        }
+    }
+
+    /*
+     *  Note the processes whose frame for this round has come in
+     *  whole.
+     *  @return how many there are that weren't noted before
+     */
+    private int framesIn(boolean from[], long tick, int round)
+    {
+        int     count;
+
+        count = 0;
+        for (int p = 0; (p < peer.length); ++p) {
+            int     length;
+
+            if ((from[p] == false) || (frame[p] >= 0) ||
+                    (in[p].position() < HEADER)) {
+                continue;
+            }
+            length = in[p].getInt(0) + 4;
+            if (in[p].position() < length) {
+                continue;
+            }
+            if ((in[p].getLong(4) != tick) ||
+                    (in[p].get(12) != round)) {
+                throw new IllegalStateException("process " + p +
+                        " sent round " + in[p].get(12) + " of tick " +
+                        in[p].getLong(4) + " for round " + round +
+                        " of tick " + tick);
+            }
+            frame[p] = length;
+            ++count;
+        }
+
+        return(count);
+    }
+
+    /**
+     *  Close the sockets.
+     */
+    void        close()
+    {
+        try {
+            selector.close();
+            for (SocketChannel channel : peer) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            /*
+             *  Nothing left to lose.
+             */
+        }
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[rank=" + rank +
+                ",peers=" + peer.length + "]");
+    }
+}
@@ -0,0 +1,52 @@
+package traffic;
+
+import java.nio.*;
+
+/**
+ *  {@code LaneStore} hands out memory off the heap for the lanes of
+ *  roads.  Memory is taken from the operating system in large chunks
+ *  and carved up, so a network of millions of short roads doesn't
+ *  make millions of allocations, each with its own bookkeeping.  A
+ *  chunk goes back when nothing carved from it is used any more.
+ *  Lanes too long for a chunk get memory of their own.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+final class LaneStore {
+    private static final int    CHUNK   = 1 << 26;
+    /*
+     *  Pieces start on a boundary of this many bytes.
+     */
+    private static final int    ALIGN   = 8;
+
+    private static ByteBuffer   chunk;
+
+    private LaneStore()
+    {
+    }
+
+    /**
+     *  @param bytes how much memory
+     *  @return zeroed memory off the heap, in the machine's byte
+     *  order, exactly that long however much was set aside
+     */
+    static synchronized ByteBuffer      allocate(int bytes)
+    {
+        ByteBuffer      piece;
+        int             size;
+
+        size = (bytes + ALIGN - 1) & -ALIGN;
+        if (size > CHUNK / 4) {
+            return(ByteBuffer.allocateDirect(size).slice(0,
+                    bytes).order(ByteOrder.nativeOrder()));
+        }
+        if ((chunk == null) || (chunk.remaining() < size)) {
+            chunk = ByteBuffer.allocateDirect(CHUNK);
+        }
+        piece = chunk.slice(chunk.position(), bytes).order(
+                ByteOrder.nativeOrder());
+        chunk.position(chunk.position() + size);
+
+        return(piece);
+    }
+}
@@ -0,0 +1,969 @@
+package traffic;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code LiveServer} streams the roads of a running {@code Network}
+ *  to any number of viewers over TCP.  It has every road feed it a
+ *  {@code ChangeSet}, alongside any the road feeds other readers,
+ *  and after each step the thread ticking the network calls
+ *  {@code publish()}, which copies what changed into a batch for the
+ *  server's own thread, taking back the last one to add to if the
+ *  server hasn't got to it yet.  Nothing the ticking thread does
+ *  waits on the server or on a viewer.
+ *  <p>
+ *  The server's thread keeps the glyph at every position of every
+ *  road and, for each viewer, which of them changed since the viewer
+ *  was last sent a frame.  A viewer is sent a new frame only when
+ *  the last one has gone out in full, with the glyphs the changed
+ *  positions have by then, so a slow viewer gets fewer, bigger
+ *  frames instead of falling behind, and no viewer ever holds up
+ *  another.  A new viewer is sent the roads and then every position.
+ *  <p>
+ *  Each frame is
+ *  <pre>
+ *      int     length of what follows
+ *      byte    kind
+ *      ...     the rest
+ *  </pre>
+ *  where the rest is made of numbers of seven bits to a byte, low
+ *  bits first, with the top bit set on every byte but the last of a
+ *  number.  A {@code ROADS} frame is the number of roads, then the
+ *  length of each one's name in bytes of UTF-8, the name and its
+ *  number of positions.  A {@code CHANGES} frame is the tick, then
+ *  for each road with changes
+ *  <pre>
+ *      varint  road, counting from 0 in the order of the network's
+ *      varint  number of positions that changed
+ *      varint  positions skipped since the last one, then its glyph
+ *      ...     one pair for each position, by increasing position
+ *  </pre>
+ *  up to the end of the frame.  Positions are as in
+ *  {@code Road.snapshot()}.
+ *  @version 2026101902
+ *  @author Richard Barton
+ */
+public final class LiveServer implements Closeable {
+    /**
+     *  The kind of frame naming the roads.
+     */
+    public static final int     ROADS   = 0;
+    /**
+     *  The kind of frame listing changed positions.
+     */
+    public static final int     CHANGES = 1;
+
+    private static final int    HEADER  = 4 + 1;
+
+    private final Network       network;
+    private final List<Road>    roads;
+    private final int           offset[];
+    private final ChangeSet     changes[];
+    private final ServerSocketChannel   server;
+    private final Selector      selector;
+    private final Thread        thread;
+    private final byte          hello[];
+    private volatile boolean    open;
+    private volatile IOException        failure;
+    private final AtomicInteger clientCount;
+
+    /*
+     *  The batch handed to the server's thread and one the server's
+     *  thread is done with.
+     */
+    private final AtomicReference<Batch>        handed;
+    private final AtomicReference<Batch>        spare;
+
+    /*
+     *  The server's thread's glyph at every position of every road,
+     *  the roads laid end to end, and the last tick it heard of.
+     */
+    private final char          glyph[];
+    private long                tick;
+
+    /*
+     *  Changed positions, the roads laid end to end, with the glyphs
+     *  they changed to.
+     */
+    private static final class Batch {
+        final char              glyph[];
+        final Dirty             dirty;
+        long                    tick;
+
+        Batch(int cells)
+        {
+            glyph = new char[cells];
+            dirty = new Dirty(cells);
+        }
+    }
+
+    /*
+     *  A set of positions, the roads laid end to end, that lists them
+     *  in no particular order.
+     */
+    private static final class Dirty {
+        final boolean           marked[];
+        final int               list[];
+        int                     size;
+
+        Dirty(int cells)
+        {
+            marked = new boolean[cells];
+            list = new int[cells];
+        }
+
+        void    mark(int which)
+        {
+            if (marked[which] == false) {
+                marked[which] = true;
+                list[size++] = which;
+            }
+        }
+
+        void    clear()
+        {
+            for (int i = 0; (i < size); ++i) {
+                marked[list[i]] = false;
+            }
+            size = 0;
+        }
+    }
+
+    /*
+     *  A viewer, with what's left to write to it.
+     */
+    private final class Client {
+        final SocketChannel     channel;
+        final Dirty             dirty;
+        ByteBuffer              out;
+
+        Client(SocketChannel channel)
+        {
+            this.channel = channel;
+            dirty = new Dirty(glyph.length);
+            for (int i = 0; (i < glyph.length); ++i) {
+                dirty.mark(i);
+            }
+            out = ByteBuffer.allocate(Math.max(4096, hello.length));
+            out.put(hello).flip();
+        }
+    }
+
+    /**
+     *  Start serving the roads of a network.  Roads added to it later
+     *  aren't served.  Each road feeds the server a change set of its
+     *  own.
+     *  @param network the network
+     *  @param address where to listen, with a port of 0 for any
+     *  @throws IOException if it can't listen there
+     */
+    public LiveServer(Network network, InetSocketAddress address)
+            throws IOException
+    {
+        int                     cells;
+        ByteArrayOutputStream   names;
+
+        this.network = network;
+        roads = new ArrayList<>(network.getRoads());
+        offset = new int[roads.size() + 1];
+        names = new ByteArrayOutputStream();
+        put(names, roads.size());
+        for (int r = 0; (r < roads.size()); ++r) {
+            byte    bytes[];
+
+            bytes = roads.get(r).getName().getBytes(
+                    StandardCharsets.UTF_8);
+            put(names, bytes.length);
+            names.write(bytes, 0, bytes.length);
+            put(names, roads.get(r).getCarCount());
+            offset[r + 1] = offset[r] + roads.get(r).getCarCount();
+        }
+        hello = frame(ROADS, names);
+        cells = offset[roads.size()];
+        glyph = new char[cells];
+        for (int r = 0; (r < roads.size()); ++r) {
+            roads.get(r).snapshot().getChars(0,
+                    roads.get(r).getCarCount(), glyph, offset[r]);
+        }
+        tick = network.getTick();
+        handed = new AtomicReference<>();
+        spare = new AtomicReference<>();
+        clientCount = new AtomicInteger();
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        changes = new ChangeSet[roads.size()];
+        for (int r = 0; (r < roads.size()); ++r) {
+            changes[r] = new ChangeSet();
+            roads.get(r).addChangeSet(changes[r]);
+        }
+        open = true;
+        thread = new Thread(this::serve, "LiveServer " +
+                server.getLocalAddress());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /*
+     *  A whole frame of some kind with what's been put in a stream.
+     */
+    private static byte[]       frame(int kind,
+                                      ByteArrayOutputStream rest)
+    {
+        ByteBuffer      frame;
+
+        frame = ByteBuffer.allocate(HEADER + rest.size());
+        frame.putInt(1 + rest.size());
+        frame.put((byte)kind);
+        frame.put(rest.toByteArray());
+
+        return(frame.array());
+    }
+
+    private static void put(ByteArrayOutputStream out, long value)
+    {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+    /*
+     *  Add a number that isn't negative to a buffer with room for it.
+     */
+    private static void put(ByteBuffer out, long value)
+    {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+    /**
+     *  Pass on what changed on the roads since the last call.  Call
+     *  it from the thread that steps the network, after a step.
+     *  @throws IllegalStateException if the server has been closed or
+     *  has failed
+     */
+    public void publish()
+    {
+        Batch   batch;
+
+        if (open == false) {
+            throw new IllegalStateException("server closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("server failed: " +
+                    failure.getMessage(), failure);
+        }
+        /*
+         *  Add to the last batch if the server's thread hasn't taken
+         *  it, or else to the spare one.
+         */
+        batch = handed.getAndSet(null);
+        if (batch == null) {
+            batch = spare.getAndSet(null);
+            if (batch == null) {
+                batch = new Batch(glyph.length);
+            }
+        }
+        for (int r = 0; (r < roads.size()); ++r) {
+            for (int i = 0; (i < changes[r].size()); ++i) {
+                int     which;
+                int     code;
+
+                which = offset[r] + changes[r].position(i);
+                code = changes[r].code(i);
+                batch.glyph[which] =
+                        (code == ChangeSet.UNREGISTERED_CODE) ?
+                        '?' : VehicleType.glyphFor(code);
+                batch.dirty.mark(which);
+            }
+            changes[r].clear();
+        }
+        batch.tick = network.getTick();
+        handed.set(batch);
+
+        /*
+         *  Even a batch taken back needs a wake up call:  the server's
+         *  thread may have looked for it while it was.
+         */
+        selector.wakeup();
+    }
+
+    /*
+     *  The server's thread.
+     */
+    private void        serve()
+    {
+        List<Client>    clients;
+        ByteBuffer      scratch;
+
+        clients = new ArrayList<>();
+        scratch = ByteBuffer.allocate(4096);
+        try {
+            while (open == true) {
+                Batch   batch;
+
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() == false) {
+                        continue;
+                    }
+                    if (key.isAcceptable() == true) {
+                        accept(clients);
+                    } else if (key.isReadable() == true) {
+                        Client  client;
+
+                        /*
+                         *  Viewers have nothing to say; reading only
+                         *  notices them going away.
+                         */
+                        client = (Client)key.attachment();
+                        scratch.clear();
+                        try {
+                            if (client.channel.read(scratch) < 0) {
+                                drop(clients, client);
+                            }
+                        } catch (IOException e) {
+                            drop(clients, client);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                batch = handed.getAndSet(null);
+                if (batch != null) {
+                    take(batch, clients);
+                    spare.set(batch);
+                }
+                for (int c = clients.size() - 1; (c >= 0); --c) {
+                    send(clients, clients.get(c));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            for (Client client : clients) {
+                try {
+                    client.channel.close();
+                } catch (IOException e) {
+                    /*
+                     *  Nothing left to lose.
+                     */
+                }
+            }
+            clientCount.set(0);
+        }
+    }
+
+    private void        accept(List<Client> clients) throws IOException
+    {
+        SocketChannel   channel;
+
+        while ((channel = server.accept()) != null) {
+            Client  client;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            client = new Client(channel);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+            clientCount.incrementAndGet();
+        }
+    }
+
+    private void        drop(List<Client> clients, Client client)
+    {
+        if (clients.remove(client) == true) {
+            clientCount.decrementAndGet();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            /*
+             *  It's gone either way.
+             */
+        }
+    }
+
+    /*
+     *  Take in a batch handed over by the ticking thread.
+     */
+    private void        take(Batch batch, List<Client> clients)
+    {
+        for (int i = 0; (i < batch.dirty.size); ++i) {
+            int     which;
+
+            which = batch.dirty.list[i];
+            glyph[which] = batch.glyph[which];
+            for (Client client : clients) {
+                client.dirty.mark(which);
+            }
+        }
+        batch.dirty.clear();
+        tick = batch.tick;
+    }
+
+    /*
+     *  Write what a viewer can take, starting a new frame of the
+     *  positions that changed for it whenever the last one is out.
+     */
+    private void        send(List<Client> clients, Client client)
+    {
+        SelectionKey    key;
+
+        try {
+            while ((client.out.hasRemaining() == true) ||
+                    (client.dirty.size > 0)) {
+                if (client.out.hasRemaining() == false) {
+                    changes(client);
+                }
+                client.channel.write(client.out);
+                if (client.out.hasRemaining() == true) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            drop(clients, client);
+            return;
+        }
+        key = client.channel.keyFor(selector);
+        if (key != null) {
+            key.interestOps((client.out.hasRemaining() == true) ?
+                    SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+                    SelectionKey.OP_READ);
+        }
+    }
+
+    /*
+     *  Fill a viewer's buffer with a frame of the positions that
+     *  changed for it.
+     */
+    private void        changes(Client client)
+    {
+        Dirty   dirty;
+        ByteBuffer      out;
+        int     road;
+        int     i;
+
+        dirty = client.dirty;
+        Arrays.sort(dirty.list, 0, dirty.size);
+        if (client.out.capacity() < HEADER + 10 + dirty.size * 8 +
+                roads.size() * 10) {
+            client.out = ByteBuffer.allocate(Math.max(
+                    client.out.capacity() * 2,
+                    HEADER + 10 + dirty.size * 8 + roads.size() * 10));
+        }
+        out = client.out;
+        out.clear();
+        out.position(HEADER);
+        put(out, tick);
+        road = 0;
+        i = 0;
+        while (i < dirty.size) {
+            int     end;
+            int     last;
+
+            while (dirty.list[i] >= offset[road + 1]) {
+                ++road;
+            }
+            end = i;
+            while ((end < dirty.size) &&
+                    (dirty.list[end] < offset[road + 1])) {
+                ++end;
+            }
+            put(out, road);
+            put(out, end - i);
+            last = -1;
+            for (; (i < end); ++i) {
+                int     position;
+
+                position = dirty.list[i] - offset[road];
+                put(out, position - last - 1);
+                put(out, glyph[dirty.list[i]]);
+                last = position;
+            }
+        }
+        out.putInt(0, out.position() - 4);
+        out.put(4, (byte)CHANGES);
+        out.flip();
+        dirty.clear();
+    }
+
+    /**
+     *  @return the address the server listens on
+     *  @throws IOException if it can't be found
+     */
+    public InetSocketAddress    getAddress() throws IOException
+    {
+        return((InetSocketAddress)server.getLocalAddress());
+    }
+
+    /**
+     *  @return the number of viewers connected
+     */
+    public int  getClientCount()
+    {
+        return(clientCount.get());
+    }
+
+    /**
+     *  Stop serving, disconnect the viewers and have the roads stop
+     *  feeding the server, leaving any change sets they feed other
+     *  readers as they are.  Call it from the thread that steps the
+     *  network.
+     *  @throws IOException if the server's socket can't be closed
+     */
+    public void close() throws IOException
+    {
+        if (open == false) {
+            return;
+        }
+        open = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int r = 0; (r < roads.size()); ++r) {
+            roads.get(r).removeChangeSet(changes[r]);
+        }
+        try {
+            server.close();
+        } finally {
+            selector.close();
+        }
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + roads.size() +
+                ",positions=" + glyph.length +
+                ",clients=" + clientCount.get() +
+                ",open=" + open + "]");
+    }
+
+    /*
+     *  A viewer for the tests, keeping a copy of every road from the
+     *  frames it reads.
+     */
+    private static final class Viewer {
+        final SocketChannel     channel;
+        ByteBuffer              in;
+        char                    road[][];
+        long                    tick;
+        int                     frames;
+        long                    bytes;
+
+        Viewer(InetSocketAddress address, int buffer)
+                throws IOException
+        {
+            channel = SocketChannel.open();
+            if (buffer > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF,
+                        buffer);
+            }
+            channel.connect(address);
+            channel.configureBlocking(false);
+            in = ByteBuffer.allocate(4096);
+            tick = -1;
+        }
+
+        /*
+         *  Read what's there and take in every whole frame.
+         */
+        void    poll() throws IOException
+        {
+            int     got;
+
+            while ((got = channel.read(in)) > 0) {
+                bytes += got;
+                if (in.hasRemaining() == false) {
+                    in = ByteBuffer.allocate(in.capacity() * 2).put(
+                            in.flip());
+                }
+            }
+            if (got < 0) {
+                throw new EOFException("server went away");
+            }
+            in.flip();
+            while ((in.remaining() >= 4) &&
+                    (in.remaining() >= 4 + in.getInt(in.position()))) {
+                int     end;
+
+                end = in.position() + 4 + in.getInt();
+                read(in.get(), in, end);
+                in.position(end);
+                ++frames;
+            }
+            in.compact();
+        }
+
+        private void    read(int kind, ByteBuffer frame, int end)
+        {
+            if (kind == ROADS) {
+                road = new char[(int)get(frame)][];
+                for (int r = 0; (r < road.length); ++r) {
+                    int     name;
+
+                    name = (int)get(frame);
+                    frame.position(frame.position() + name);
+                    road[r] = new char[(int)get(frame)];
+                }
+                return;
+            }
+            tick = get(frame);
+            while (frame.position() < end) {
+                int     r;
+                int     position;
+
+                r = (int)get(frame);
+                position = -1;
+                for (long n = get(frame); (n > 0); --n) {
+                    position += 1 + (int)get(frame);
+                    road[r][position] = (char)get(frame);
+                }
+            }
+        }
+
+        private static long     get(ByteBuffer frame)
+        {
+            long    value;
+            int     shift;
+            int     b;
+
+            value = 0;
+            shift = 0;
+            do {
+                b = frame.get();
+                value |= (long)(b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return(value);
+        }
+
+        /*
+         *  @return whether the copy is of the roads at a tick
+         */
+        boolean shows(List<Road> roads, long at)
+        {
+            if ((road == null) || (tick != at)) {
+                return(false);
+            }
+            for (int r = 0; (r < road.length); ++r) {
+                if (roads.get(r).snapshot().equals(
+                        new String(road[r])) == false) {
+                    return(false);
+                }
+            }
+
+            return(true);
+        }
+    }
+
+    /*
+     *  Chains of busy roads watched by a viewer that keeps up and one
+     *  that reads nothing until the end.  The network mustn't wait on
+     *  the slow one, which should get the changes run together into
+     *  far fewer frames, and both have to end up with every road as
+     *  it is.
+     */
+    private static int  testViewers() throws IOException
+    {
+        int             errors;
+        Network         network;
+        LiveServer      live;
+        Viewer          fast;
+        Viewer          slow;
+        long            deadline;
+        long            longest;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 200); ++i) {
+            Road    road;
+
+            road = new Road("Live " + i, 500 + 10 * i, (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 4) == 0) ? 0.8 : 0));
+            network.add(road);
+            if ((i % 4) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+            if ((i % 4) == 3) {
+                network.drain(road);
+            }
+        }
+        network.step(100);
+
+        live = new LiveServer(network, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        fast = new Viewer(live.getAddress(), 0);
+        slow = new Viewer(live.getAddress(), 4096);
+        deadline = System.currentTimeMillis() + 10000;
+        while ((live.getClientCount() < 2) &&
+                (System.currentTimeMillis() < deadline)) {
+            Thread.onSpinWait();
+        }
+        if (live.getClientCount() != 2) {
+            System.out.println("*** ERROR *** " +
+                    live.getClientCount() + " viewers connected");
+            ++errors;
+        }
+
+        longest = 0;
+        for (int t = 0; (t < 1000); ++t) {
+            long    start;
+
+            network.step();
+            start = System.nanoTime();
+            live.publish();
+            longest = Math.max(longest, System.nanoTime() - start);
+            fast.poll();
+        }
+
+        deadline = System.currentTimeMillis() + 30000;
+        while (((fast.shows(network.getRoads(), network.getTick()) ==
+                false) ||
+                (slow.shows(network.getRoads(), network.getTick()) ==
+                false)) && (System.currentTimeMillis() < deadline)) {
+            fast.poll();
+            slow.poll();
+        }
+        System.out.println("    fast viewer " + fast.frames +
+                " frames, " + fast.bytes + " bytes, slow viewer " +
+                slow.frames + " frames, " + slow.bytes +
+                " bytes, longest publish " + longest / 1000 + "us");
+        if (fast.shows(network.getRoads(), network.getTick()) ==
+                false) {
+            System.out.println("*** ERROR *** fast viewer at tick " +
+                    fast.tick + " doesn't show tick " +
+                    network.getTick());
+            ++errors;
+        }
+        if (slow.shows(network.getRoads(), network.getTick()) ==
+                false) {
+            System.out.println("*** ERROR *** slow viewer at tick " +
+                    slow.tick + " doesn't show tick " +
+                    network.getTick());
+            ++errors;
+        }
+        if (slow.frames * 3 > fast.frames) {
+            System.out.println("*** ERROR *** slow viewer got " +
+                    slow.frames + " frames, fast viewer " +
+                    fast.frames);
+            ++errors;
+        }
+
+        /*
+         *  A viewer going away is noticed.
+         */
+        slow.channel.close();
+        deadline = System.currentTimeMillis() + 10000;
+        while ((live.getClientCount() > 1) &&
+                (System.currentTimeMillis() < deadline)) {
+            network.step();
+            live.publish();
+            fast.poll();
+        }
+        if (live.getClientCount() != 1) {
+            System.out.println("*** ERROR *** " +
+                    live.getClientCount() + " viewers after one left");
+            ++errors;
+        }
+        live.close();
+        fast.channel.close();
+        if (network.getRoads().get(0).getChangeSet() != null) {
+            System.out.println("*** ERROR *** change set left behind");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  A server and a state file on the same roads, which already feed
+     *  a change set of their own.  Neither may take changes from the
+     *  other or from the road's own reader, and closing one leaves
+     *  the others going.
+     */
+    private static int  testTogether() throws IOException
+    {
+        int             errors;
+        Network         network;
+        Road            first;
+        ChangeSet       mine;
+        char            mirror[];
+        Path            path;
+        LiveServer      live;
+        StateFile       state;
+        StateFile.View  view;
+        Viewer          viewer;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 12); ++i) {
+            Road    road;
+
+            road = new Road("Together " + i, 200 + 20 * i,
+                    (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 3) == 0) ? 0.7 : 0));
+            network.add(road);
+            if ((i % 3) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+            if ((i % 3) == 2) {
+                network.drain(road);
+            }
+        }
+        network.step(50);
+        first = network.getRoads().get(0);
+        mine = new ChangeSet();
+        first.setChangeSet(mine);
+        mirror = first.snapshot().toCharArray();
+
+        path = Files.createTempFile("network", ".state");
+        live = new LiveServer(network, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        state = new StateFile(network, path);
+        view = new StateFile.View(path);
+        viewer = new Viewer(live.getAddress(), 0);
+        try {
+            new Road("Other", 100, false).addChangeSet(mine);
+            System.out.println("*** ERROR *** change set fed by two" +
+                    " roads");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            /*
+             *  As it should.
+             */
+        }
+        for (int t = 0; (t < 300); ++t) {
+            network.step();
+            live.publish();
+            state.publish();
+            viewer.poll();
+            mine.applyTo(mirror);
+            mine.clear();
+        }
+        errors += together(network, view, viewer, "both open");
+
+        /*
+         *  The server goes on once the file is closed.
+         */
+        state.close();
+        state.close();
+        for (int t = 0; (t < 300); ++t) {
+            network.step();
+            live.publish();
+            viewer.poll();
+            mine.applyTo(mirror);
+            mine.clear();
+        }
+        errors += together(network, null, viewer, "file closed");
+        live.close();
+        viewer.channel.close();
+        view.close();
+        Files.delete(path);
+
+        network.step(100);
+        mine.applyTo(mirror);
+        if (first.getChangeSet() != mine) {
+            System.out.println("*** ERROR *** road's own change set" +
+                    " not left feeding");
+            ++errors;
+        }
+        if (new String(mirror).equals(first.snapshot()) == false) {
+            System.out.println("*** ERROR *** road's own change set" +
+                    " lost changes " + new String(mirror) + " != " +
+                    first.snapshot());
+            ++errors;
+        }
+        if (network.getRoads().get(1).getChangeSet() != null) {
+            System.out.println("*** ERROR *** change set left behind");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  @return the number of readers that don't show the roads
+     */
+    private static int  together(Network network, StateFile.View view,
+                                 Viewer viewer, String when)
+            throws IOException
+    {
+        int     errors;
+        long    deadline;
+
+        errors = 0;
+        if (view != null) {
+            for (int r = 0; (r < view.getRoadCount()); ++r) {
+                if (view.snapshot(r).equals(network.getRoads().get(
+                        r).snapshot()) == false) {
+                    System.out.println("*** ERROR *** " + when +
+                            ", file has road " + r + " " +
+                            view.snapshot(r) + " != " +
+                            network.getRoads().get(r).snapshot());
+                    ++errors;
+                }
+            }
+        }
+        deadline = System.currentTimeMillis() + 10000;
+        while ((viewer.shows(network.getRoads(), network.getTick()) ==
+                false) && (System.currentTimeMillis() < deadline)) {
+            viewer.poll();
+        }
+        if (viewer.shows(network.getRoads(), network.getTick()) ==
+                false) {
+            System.out.println("*** ERROR *** " + when +
+                    ", viewer at tick " + viewer.tick +
+                    " doesn't show tick " + network.getTick());
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int     errors;
+
+        errors = testViewers();
+        errors += testTogether();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,3387 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ *  {@code Network} ticks a collection of connected {@code Road}s.
+ *  A vehicle reaching the outgoing end of a road moves onto the
+ *  incoming end of the road it's connected to, when there's room,
+ *  or leaves the network if the road drains.
+ *  <p>
+ *  Each step runs in three phases so that no road depends on the
+ *  order in which the others are ticked:  first every road with a
+ *  vehicle waiting at its outgoing end claims the incoming slot of
+ *  the next road, then every road lets go of its granted vehicle and
+ *  advances the rest, and finally every road takes in what it was
+ *  handed and spawns.  When several roads feed one, the claim goes to
+ *  them in turn.
+ *  <p>
+ *  Only active roads are ticked.  A road whose tick changed nothing
+ *  goes dormant, because the next one won't either, until something
+ *  wakes it:  an arrival coming due, a vehicle waiting to be handed
+ *  to it, room opening up at the incoming end of the road it feeds
+ *  or a change to its demand.  The cost of a step depends on the
+ *  number of active roads, not the size of the network.
+ *  <p>
+ *  A road may tick less often than the network by declaring a tick
+ *  period.  Roads waiting for their next tick sit in a timing wheel,
+ *  so a step only touches the roads that are due.  A road that isn't
+ *  due can still be handed a vehicle if its incoming slot is empty;
+ *  it won't take another until it has ticked and moved it along.
+ *  <p>
+ *  Timed events, like signals blocking the outgoing end of a road,
+ *  lane closures and demand spikes, are kept in a
+ *  {@code TimingWheel} and fired at the start of the step they're
+ *  due on.  The wake up calls of dormant roads are kept there too.
+ *  <p>
+ *  Traffic signals at the outgoing ends of roads are kept in the
+ *  network's {@code Signals} and evaluated at the start of each step.
+ *  <p>
+ *  Within each phase the roads only touch their own state, so a
+ *  network with a parallelism above 1 ticks its roads on a pool of
+ *  threads.  The roads are split into connected regions, one for
+ *  each thread, by a {@code Partition} that keeps the traffic
+ *  crossing between regions down.  Each thread ticks the active
+ *  roads of its own region.  A vehicle handed to a road in another
+ *  region is put in the outbox of the thread handing it over, and
+ *  the outboxes are emptied between phases, so threads never write
+ *  the same memory.  When the threads take noticeably different
+ *  times, the regions are rebalanced.  What the phases find is then
+ *  acted on one road at a time, in the order of the active roads,
+ *  so a network gives the same results, down to the identifiers of
+ *  the vehicles it spawns, however many threads it uses.
+ *  <p>
+ *  A network can also be split over several processes, each owning
+ *  some of the roads and ticking only those.  Offers of vehicles to
+ *  roads owned elsewhere, the grants that answer them and wake up
+ *  calls for roads upstream go through a {@code HaloExchange}, so
+ *  the processes end up where one process would have.
+ *  <p>
+ *  A network can write a checkpoint of everything that changes as
+ *  it runs and be restored from one, and then carries on exactly as
+ *  it would have.  The roads, connections, signals and demands
+ *  aren't in the checkpoint:  it's restored into a network built the
+ *  same way.
+ *  <p>
+ *  Everything a network does follows from where it is, apart from
+ *  what its roads spawn, so a run can be kept as a {@code SpawnLog}
+ *  of its spawns instead of its frames.  Replaying the log into a
+ *  network built the same way spawns what the log says instead of
+ *  what the demands pick, and brings back every tick of the run.
+ *  @version 2026101918
+ *  @author Richard Barton
+ */
+public class Network {
+    /**
+     *  Block the outgoing end of the target road.
+     */
+    public static final int     EVENT_BLOCK_OUTLET      = 1;
+    /**
+     *  Unblock the outgoing end of the target road.
+     */
+    public static final int     EVENT_OPEN_OUTLET       = 2;
+    /**
+     *  Close the position, given by the argument, of the target road.
+     */
+    public static final int     EVENT_CLOSE_SLOT        = 3;
+    /**
+     *  Open the position, given by the argument, of the target road.
+     */
+    public static final int     EVENT_OPEN_SLOT         = 4;
+    /**
+     *  Scale the demand of the target road by the factor whose bits,
+     *  from {@code Double.doubleToLongBits()}, are the argument.
+     */
+    public static final int     EVENT_SCALE_DEMAND      = 5;
+    /**
+     *  Events of this kind and higher go to the event handler set
+     *  with {@code setEventHandler()}.
+     */
+    public static final int     EVENT_USER              = 1024;
+
+    private static final int    NONE    = -1;
+    private static final int    EVENT_WAKE      = 0;
+    /*
+     *  How far ahead to look for the next arrival of a dormant road
+     *  before giving up and checking again later.
+     */
+    private static final long   LOOKAHEAD       =
+            16 * ArrivalSchedule.CHUNK_TICKS;
+    /*
+     *  Fewest roads or signals worth handing to a thread.
+     */
+    private static final int    GRAIN   = 2048;
+    /*
+     *  What the phases found out about each road.
+     */
+    private static final int    MOVED   = 0x1;
+    private static final int    FREED   = 0x2;
+    private static final long   WAKE_NEXT       = Long.MIN_VALUE;
+    /*
+     *  How often to compare the times of the threads and how far
+     *  apart they have to be to rebalance the regions.
+     */
+    private static final int    REBALANCE_STEPS = 1024;
+    private static final double DRIFT   = 1.25;
+
+    private final List<Road>    roads;
+    private int                 downstream[];
+    private boolean             drains[];
+    private int                 upstreamStart[];
+    private int                 upstream[];
+    private boolean             upstreamDirty;
+
+    /*
+     *  The other roads each road's vehicles can be routed onto, the
+     *  road its outgoing vehicle is going to on this step, and the
+     *  tables and weights the routes come from.
+     */
+    private int                 turns[][];
+    private int                 target[];
+    private double              routeWeight[];
+    private Routes              routes;
+    private boolean             routesDirty;
+    private long                tick;
+    private long                exitCount;
+    private long                vehicleCount;
+
+    /*
+     *  The roads being ticked this step.  A road is on the list if
+     *  its stamp is this tick.
+     */
+    private int                 active[];
+    private int                 activeCount;
+    private long                activeStamp[];
+
+    /*
+     *  The timing wheel of roads waiting for their next tick.  A road
+     *  due at tick t is in slot t % wheel.length and its stamp says
+     *  which tick it's really waiting for, so stale entries can be
+     *  skipped.  There are more slots than the longest tick period,
+     *  so a slot never mixes ticks.  Roads handed a vehicle when they
+     *  aren't due are passive for the step.
+     */
+    private int                 wheel[][];
+    private int                 wheelCount[];
+    private long                dueStamp[];
+    private long                nextFor;
+    private int                 passive[];
+    private int                 passiveCount;
+
+    /*
+     *  Offers of vehicles to the next road, granted offers, vehicles
+     *  being handed over and what else the phases found, indexed by
+     *  road.
+     */
+    private long                offerStamp[];
+    private long                grantStamp[];
+    private Vehicle             carry[];
+    private int                 found[];
+    private int                 spawnCode[];
+    private int                 spawning[];
+    private long                wakeAt[];
+
+    /*
+     *  The log being recorded, and the log being replayed with the
+     *  type code each road spawns on this step.
+     */
+    private SpawnLog            recording;
+    private SpawnLog            replayLog;
+    private SpawnLog.Cursor     replaying;
+    private int                 replayCode[];
+
+    private final TimingWheel   events;
+    private final TimingWheel.Handler   dispatcher;
+    private TimingWheel.Handler         userHandler;
+    private long                wakeHandle[];
+    private final Signals       signals;
+    private int                 woken[];
+
+    /*
+     *  Threads for the phases, or null to run them on the caller's.
+     */
+    private int                 parallelism;
+    private ForkJoinPool        pool;
+    private final Kernel        offerKernel;
+    private final Kernel        grantKernel;
+    private final Kernel        advanceKernel;
+    private final Kernel        arriveKernel;
+    private final Kernel        signalKernel;
+
+    /*
+     *  The regions of the threads, with the active roads of each
+     *  region, the vehicles each region hands to another and the
+     *  time each region's thread has spent on the phases.
+     */
+    private Partition           partition;
+    private boolean             partitionDirty;
+    private int                 bucket[][];
+    private int                 bucketCount[];
+    private int                 outboxRoad[][];
+    private Vehicle             outboxVehicle[][];
+    private int                 outboxCount[];
+    private long                regionTime[];
+    private int                 sinceBalance;
+    private long                boundaryCount;
+
+    /*
+     *  The process owning each road, or null if this one owns them
+     *  all, the processes sharing a connection with this one and the
+     *  offers from roads elsewhere to roads here.
+     */
+    private int                 owner[];
+    private int                 rank;
+    private HaloExchange        halo;
+    private boolean             neighbor[];
+    private boolean             everyone[];
+    private int                 remoteFeeder[];
+    private int                 remoteCode[];
+    private int                 remoteIdentifier[];
+    private int                 remoteDestination[];
+    private int                 remoteCount;
+    private int                 remoteSpawns[];
+    private int                 remoteSpawnCount;
+    private int                 spawnCount;
+    private final HaloExchange.Reader   offerReader;
+    private final HaloExchange.Reader   grantReader;
+    private final HaloExchange.Reader   wakeReader;
+
+    /*
+     *  A phase, run over a range of a list of roads, or of the
+     *  signals.
+     */
+    private interface   Kernel {
+        void    run(int[] list, int from, int to);
+    }
+
+    /*
+     *  Splits a range in halves until the pieces are small enough to
+     *  run.
+     */
+    private static final class  Slice extends RecursiveAction {
+        private static final long       serialVersionUID        = 1L;
+        private final Kernel    kernel;
+        private final int       list[];
+        private final int       from;
+        private final int       to;
+
+        Slice(Kernel kernel, int[] list, int from, int to)
+        {
+            this.kernel = kernel;
+            this.list = list;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void  compute()
+        {
+            int     middle;
+
+            if (to - from <= GRAIN) {
+                kernel.run(list, from, to);
+                return;
+            }
+            middle = (from + to) >>> 1;
+            invokeAll(new Slice(kernel, list, from, middle),
+                    new Slice(kernel, list, middle, to));
+        }
+    }
+
+    /*
+     *  Runs a phase over the active roads of a region and keeps
+     *  track of the time it took.
+     */
+    private final class Region extends RecursiveAction {
+        private static final long       serialVersionUID        = 1L;
+        private final Kernel    kernel;
+        private final int       region;
+
+        Region(Kernel kernel, int region)
+        {
+            this.kernel = kernel;
+            this.region = region;
+        }
+
+        protected void  compute()
+        {
+            long    start;
+
+            start = System.nanoTime();
+            kernel.run(bucket[region], 0, bucketCount[region]);
+            regionTime[region] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     *  Construct an empty network at tick 0.
+     */
+    public Network()
+    {
+        roads = new ArrayList<>();
+        downstream = new int[16];
+        drains = new boolean[16];
+        turns = new int[16][];
+        target = new int[16];
+        routeWeight = new double[16];
+        active = new int[16];
+        activeStamp = new long[16];
+        dueStamp = new long[16];
+        passive = new int[16];
+        wheel = new int[2][16];
+        wheelCount = new int[2];
+        offerStamp = new long[16];
+        grantStamp = new long[16];
+        carry = new Vehicle[16];
+        found = new int[16];
+        spawnCode = new int[16];
+        spawning = new int[16];
+        wakeAt = new long[16];
+        events = new TimingWheel(0);
+        dispatcher = this::dispatch;
+        wakeHandle = new long[16];
+        upstreamDirty = true;
+        signals = new Signals(this);
+        woken = new int[16];
+        parallelism = 1;
+        offerKernel = this::offer;
+        grantKernel = this::grant;
+        advanceKernel = this::advance;
+        arriveKernel = this::arrive;
+        signalKernel = (list, from, to) ->
+                signals.evaluate(from, to, tick);
+        offerReader = this::readOffers;
+        grantReader = this::readGrants;
+        wakeReader = this::readWakes;
+    }
+
+    /**
+     *  Add a road to the network.  The road joins at the network's
+     *  current tick and is active.
+     *  @param road the road to add
+     *  @return the road's index in the network
+     *  @throws IllegalArgumentException if the road is already in a
+     *  network
+     */
+    public int  add(Road road)
+    {
+        int     index;
+
+        if (road.getNetwork() != null) {
+            throw new IllegalArgumentException(road +
+                    " is already in a network");
+        }
+
+        index = roads.size();
+        if (index == downstream.length) {
+            grow(index * 2);
+        }
+        roads.add(road);
+        road.joinNetwork(this, index);
+        road.startAt(tick);
+        downstream[index] = NONE;
+        turns[index] = null;
+        target[index] = NONE;
+        routeWeight[index] = Math.max(1, road.getCarCount());
+        routesDirty = true;
+        activeStamp[index] = -1;
+        dueStamp[index] = -1;
+        offerStamp[index] = -1;
+        grantStamp[index] = -1;
+        wakeHandle[index] = -1;
+        upstreamDirty = true;
+        partitionDirty = true;
+        for (int i = 0; (i < road.getCarCount()); ++i) {
+            if (road.vehicleAt(i) != null) {
+                ++vehicleCount;
+            }
+        }
+        wake(road);
+
+        return(index);
+    }
+
+    /*
+     *  Make room for more roads.
+     */
+    private void        grow(int size)
+    {
+        downstream = Arrays.copyOf(downstream, size);
+        drains = Arrays.copyOf(drains, size);
+        turns = Arrays.copyOf(turns, size);
+        target = Arrays.copyOf(target, size);
+        routeWeight = Arrays.copyOf(routeWeight, size);
+        active = Arrays.copyOf(active, size);
+        activeStamp = Arrays.copyOf(activeStamp, size);
+        dueStamp = Arrays.copyOf(dueStamp, size);
+        passive = Arrays.copyOf(passive, size);
+        offerStamp = Arrays.copyOf(offerStamp, size);
+        grantStamp = Arrays.copyOf(grantStamp, size);
+        carry = Arrays.copyOf(carry, size);
+        found = Arrays.copyOf(found, size);
+        spawnCode = Arrays.copyOf(spawnCode, size);
+        spawning = Arrays.copyOf(spawning, size);
+        wakeAt = Arrays.copyOf(wakeAt, size);
+        wakeHandle = Arrays.copyOf(wakeHandle, size);
+    }
+
+    /*
+     *  @return the index of a road that must be in this network
+     */
+    int indexOf(Road road)
+    {
+        if (road.getNetwork() != this) {
+            throw new IllegalArgumentException(road +
+                    " isn't in this network");
+        }
+
+        return(road.networkIndex());
+    }
+
+    /*
+     *  @return the road with the index
+     */
+    Road        road(int which)
+    {
+        return(roads.get(which));
+    }
+
+    /**
+     *  Send the vehicles leaving one road onto another.
+     *  @param from the road vehicles leave
+     *  @param to the road they move onto or {@code null} to
+     *  disconnect {@code from}
+     */
+    public void connect(Road from, Road to)
+    {
+        int     which;
+
+        which = indexOf(from);
+        downstream[which] = (to == null) ? NONE : indexOf(to);
+        drains[which] = false;
+        upstreamDirty = true;
+        routesDirty = true;
+        partitionDirty = true;
+        wake(from);
+    }
+
+    /**
+     *  Have the vehicles leaving a road leave the network.
+     *  @param road the road that drains
+     */
+    public void drain(Road road)
+    {
+        int     which;
+
+        which = indexOf(road);
+        downstream[which] = NONE;
+        drains[which] = true;
+        upstreamDirty = true;
+        routesDirty = true;
+        partitionDirty = true;
+        wake(road);
+    }
+
+    /**
+     *  Simulate the roads near an area under study cell by cell and
+     *  the rest as queues, for a run over a whole region that costs
+     *  a fraction of simulating every cell.  Every road gets {@code
+     *  Road.AUTO} detail, and is watched if it's no more than so many
+     *  connections from a road in the area, upstream or down.  Roads
+     *  something else is looking at closely stay cell by cell too.
+     *  @param area the roads under study
+     *  @param hops how far from them to watch
+     *  @throws IllegalArgumentException if hops is negative or a
+     *  road isn't in this network
+     */
+    public void focus(Collection<Road> area, int hops)
+    {
+        int     distance[];
+        int     found[];
+        int     count;
+
+        if (hops < 0) {
+            throw new IllegalArgumentException("can't watch " + hops +
+                    " connections away");
+        }
+        if (upstreamDirty == true) {
+            buildUpstream();
+        }
+        distance = new int[roads.size()];
+        found = new int[roads.size()];
+        Arrays.fill(distance, -1);
+        count = 0;
+        for (Road road : area) {
+            int     which;
+
+            which = indexOf(road);
+            if (distance[which] < 0) {
+                distance[which] = 0;
+                found[count++] = which;
+            }
+        }
+        for (int i = 0; (i < count); ++i) {
+            int     which;
+            int     next;
+
+            which = found[i];
+            if (distance[which] == hops) {
+                continue;
+            }
+            next = downstream[which];
+            if ((next != NONE) && (distance[next] < 0)) {
+                distance[next] = distance[which] + 1;
+                found[count++] = next;
+            }
+            if (turns[which] != null) {
+                for (int turn : turns[which]) {
+                    if (distance[turn] < 0) {
+                        distance[turn] = distance[which] + 1;
+                        found[count++] = turn;
+                    }
+                }
+            }
+            for (int j = upstreamStart[which];
+                 (j < upstreamStart[which + 1]); ++j) {
+                if (distance[upstream[j]] < 0) {
+                    distance[upstream[j]] = distance[which] + 1;
+                    found[count++] = upstream[j];
+                }
+            }
+        }
+        for (int i = 0; (i < distance.length); ++i) {
+            roads.get(i).setWatched(distance[i] >= 0);
+            roads.get(i).setDetail(Road.AUTO);
+        }
+    }
+
+    /**
+     *  @param road a road in the network
+     *  @return the road its vehicles move onto or {@code null}
+     */
+    public Road getDownstream(Road road)
+    {
+        int     which;
+
+        which = downstream[indexOf(road)];
+        return((which == NONE) ? null : roads.get(which));
+    }
+
+    /**
+     *  Let the vehicles leaving a road turn onto another one as well
+     *  as the one it's connected to, when their destinations are
+     *  nearer that way.  Vehicles with no destination, or none they
+     *  can get to from here, keep going to the connected road.
+     *  @param from the road vehicles leave
+     *  @param to another road they can move onto
+     *  @throws IllegalArgumentException if {@code from} drains or
+     *  can already move onto {@code to}, or a road isn't in this
+     *  network
+     */
+    public void addTurn(Road from, Road to)
+    {
+        int     which;
+        int     onto;
+        int     list[];
+
+        which = indexOf(from);
+        onto = indexOf(to);
+        if ((drains[which] == true) || (downstream[which] == onto)) {
+            throw new IllegalArgumentException("can't turn from " +
+                    from + " onto " + to);
+        }
+        list = (turns[which] == null) ? new int[0] : turns[which];
+        for (int turn : list) {
+            if (turn == onto) {
+                throw new IllegalArgumentException("already turns " +
+                        "from " + from + " onto " + to);
+            }
+        }
+        list = Arrays.copyOf(list, list.length + 1);
+        list[list.length - 1] = onto;
+        turns[which] = list;
+        upstreamDirty = true;
+        routesDirty = true;
+        partitionDirty = true;
+        wake(from);
+    }
+
+    /**
+     *  Make a road somewhere vehicles can be sent.  A vehicle heading
+     *  for it is routed the cheapest way there by the weights of the
+     *  roads, and leaves the network once it reaches the end of it.
+     *  @param road the road
+     *  @return the identifier to give vehicles heading there, the
+     *  same one if the road was made a destination before
+     *  @throws IllegalArgumentException if the road isn't in this
+     *  network
+     */
+    public int addDestination(Road road)
+    {
+        int     which;
+
+        which = indexOf(road);
+        if (routes == null) {
+            routes = new Routes();
+            routesDirty = true;
+        }
+
+        return(routes.add(which));
+    }
+
+    /**
+     *  Send the vehicles arriving on a road to destinations, picked
+     *  the same way as their types are.
+     *  @param origin the road
+     *  @param destinations identifiers from {@code addDestination()},
+     *  or none for vehicles that just follow the connected roads
+     *  @throws IllegalArgumentException if one isn't a destination
+     *  of this network
+     */
+    public void setDestinations(Road origin, int... destinations)
+    {
+        for (int destination : destinations) {
+            if ((routes == null) || (destination < 0) ||
+                    (destination >= routes.destinations())) {
+                throw new IllegalArgumentException(
+                        "no such destination:  " + destination);
+            }
+        }
+        indexOf(origin);
+        origin.setTrips((destinations.length == 0) ? null :
+                destinations.clone());
+    }
+
+    /**
+     *  Change what it costs to route vehicles along a road, for
+     *  steering them around congestion.  Only the tables of the
+     *  destinations the change can make a difference to are built
+     *  again.  A road starts off costing its number of cells.
+     *  @param road the road
+     *  @param cost the new cost, {@code Double.POSITIVE_INFINITY} to
+     *  close it to vehicles being routed
+     *  @throws IllegalArgumentException if cost is negative or NaN,
+     *  or the road isn't in this network
+     */
+    public void setRouteWeight(Road road, double cost)
+    {
+        int     which;
+
+        if ((cost >= 0) == false) {
+            throw new IllegalArgumentException("bad cost:  " + cost);
+        }
+        which = indexOf(road);
+        if ((routes != null) && (routesDirty == false)) {
+            routes.setWeight(which, cost);
+        } else {
+            routeWeight[which] = cost;
+        }
+    }
+
+    /**
+     *  @param road a road in the network
+     *  @return what it costs to route vehicles along it
+     */
+    public double getRouteWeight(Road road)
+    {
+        return(routeWeight[indexOf(road)]);
+    }
+
+    /**
+     *  @param from a road in the network
+     *  @param destination an identifier from {@code addDestination()}
+     *  @return the road to leave {@code from} onto to get there, or
+     *  {@code null} if it can't be got to or {@code from} is it
+     *  @throws IllegalArgumentException if destination isn't one of
+     *  this network's
+     */
+    public Road nextHop(Road from, int destination)
+    {
+        int     which;
+        int     next;
+
+        which = indexOf(from);
+        if ((routes == null) || (destination < 0) ||
+                (destination >= routes.destinations())) {
+            throw new IllegalArgumentException("no such destination:  "
+                    + destination);
+        }
+        if (upstreamDirty == true) {
+            buildUpstream();
+        }
+        refreshRoutes();
+        next = routes.next(destination, which);
+        return((next == Routes.NONE) ? null : roads.get(next));
+    }
+
+    /*
+     *  Give the routes the roads as they're connected now if that's
+     *  changed, and build the tables that were thrown out.
+     */
+    private void        refreshRoutes()
+    {
+        if (routesDirty == true) {
+            routes.setGraph(roads.size(), downstream, turns, drains,
+                    routeWeight);
+            routesDirty = false;
+        }
+        routes.refresh((pool != null) ? pool :
+                ForkJoinPool.commonPool());
+    }
+
+    /*
+     *  @return whether the vehicle leaving a road has got to where it
+     *  was heading
+     */
+    private boolean     arrived(int which, Road road)
+    {
+        int     destination;
+
+        if (routes == null) {
+            return(false);
+        }
+        destination = road.outletVehicle().getDestination();
+        return((destination >= 0) &&
+                (destination < routes.destinations()) &&
+                (routes.roadOf(destination) == which));
+    }
+
+    /*
+     *  @return the road the vehicle leaving a road goes onto:  the
+     *  next one on its way if it's heading somewhere it can get to,
+     *  otherwise the connected one
+     */
+    private int         route(int which, Road road)
+    {
+        int     destination;
+        int     next;
+
+        if ((routes == null) || (turns[which] == null)) {
+            return(downstream[which]);
+        }
+        destination = road.outletVehicle().getDestination();
+        if ((destination < 0) ||
+                (destination >= routes.destinations())) {
+            return(downstream[which]);
+        }
+        next = routes.next(destination, which);
+        return((next == Routes.NONE) ? downstream[which] : next);
+    }
+
+    /*
+     *  Build the lists of roads feeding each road, all in one array.
+     *  The roads feeding road i are upstream[upstreamStart[i]] up to
+     *  upstream[upstreamStart[i + 1]].
+     */
+    private void        buildUpstream()
+    {
+        int     count;
+        int     fill[];
+        int     i;
+
+        count = roads.size();
+        upstreamStart = new int[count + 1];
+        for (i = 0; (i < count); ++i) {
+            if (downstream[i] != NONE) {
+                ++upstreamStart[downstream[i] + 1];
+            }
+            if (turns[i] != null) {
+                for (int turn : turns[i]) {
+                    ++upstreamStart[turn + 1];
+                }
+            }
+        }
+        for (i = 0; (i < count); ++i) {
+            upstreamStart[i + 1] += upstreamStart[i];
+        }
+        upstream = new int[upstreamStart[count]];
+        fill = Arrays.copyOf(upstreamStart, count);
+        for (i = 0; (i < count); ++i) {
+            if (downstream[i] != NONE) {
+                upstream[fill[downstream[i]]++] = i;
+            }
+        }
+        for (i = 0; (i < count); ++i) {
+            if (turns[i] != null) {
+                for (int turn : turns[i]) {
+                    upstream[fill[turn]++] = i;
+                }
+            }
+        }
+        upstreamDirty = false;
+    }
+
+    /**
+     *  Make sure a road is ticked on its next tick.
+     *  @param road a road in the network
+     */
+    public void wake(Road road)
+    {
+        int     which;
+
+        which = indexOf(road);
+        if (road.getTickPeriod() >= wheel.length) {
+            resizeWheel(road.getTickPeriod());
+        }
+        wakeNext(which);
+    }
+
+    /*
+     *  Make the wheel big enough for the period and put every waiting
+     *  road back in its slot.
+     */
+    private void        resizeWheel(int period)
+    {
+        int     size;
+        int     i;
+
+        size = Integer.highestOneBit(period) * 2;
+        wheel = new int[size][16];
+        wheelCount = new int[size];
+        for (i = 0; (i < roads.size()); ++i) {
+            if (dueStamp[i] >= nextFor) {
+                addToWheel(i, dueStamp[i]);
+            }
+        }
+    }
+
+    private void        addToWheel(int which, long due)
+    {
+        int     slot;
+
+        slot = (int)(due & (wheel.length - 1));
+        if (wheelCount[slot] == wheel[slot].length) {
+            wheel[slot] = Arrays.copyOf(wheel[slot],
+                    wheelCount[slot] * 2);
+        }
+        wheel[slot][wheelCount[slot]++] = which;
+    }
+
+    /*
+     *  @return the first tick, no earlier than from, that the road
+     *  ticks on.  Roads with the same period are spread over the
+     *  ticks of the period.
+     */
+    private long        nextDue(int which, long from)
+    {
+        int     period;
+
+        period = roads.get(which).getTickPeriod();
+        if (period == 1) {
+            return(from);
+        }
+
+        return(from + Math.floorMod((which % period) - from,
+                (long)period));
+    }
+
+    /*
+     *  Put a road in the wheel for its next tick.
+     */
+    private void        wakeNext(int which)
+    {
+        long    due;
+
+        if (isOwned(which) == false) {
+            return;
+        }
+        due = nextDue(which, nextFor);
+        if (dueStamp[which] != due) {
+            dueStamp[which] = due;
+            addToWheel(which, due);
+        }
+    }
+
+    /*
+     *  Put a road that's due on the list for this step.
+     */
+    private void        wakeNow(int which)
+    {
+        if (activeStamp[which] != tick) {
+            activeStamp[which] = tick;
+            active[activeCount++] = which;
+            if (partition != null) {
+                int     region;
+
+                region = partition.partOf(which);
+                bucket[region][bucketCount[region]++] = which;
+            }
+            roads.get(which).catchUp(tick);
+        }
+    }
+
+    /*
+     *  Wake the roads feeding a road.
+     */
+    private void        wakeUpstream(int which)
+    {
+        int     i;
+
+        for (i = upstreamStart[which];
+             (i < upstreamStart[which + 1]); ++i) {
+            int     feeder;
+
+            feeder = upstream[i];
+            if (isOwned(feeder) == true) {
+                wakeNext(feeder);
+            } else {
+                halo.room(owner[feeder], 4).putInt(feeder);
+            }
+        }
+    }
+
+    /**
+     *  Advance every road in the network by one tick.
+     *  @throws IllegalStateException if the log being replayed has
+     *  run out
+     */
+    public void step()
+    {
+        int     slot;
+        int     i;
+
+        if ((replaying != null) && (tick >= replayLog.getEndTick())) {
+            throw new IllegalStateException("spawn log ends at tick " +
+                    replayLog.getEndTick());
+        }
+        if (upstreamDirty == true) {
+            buildUpstream();
+        }
+        if (routes != null) {
+            refreshRoutes();
+        }
+        if ((partitionDirty == true) || ((partition == null) !=
+                (pool == null))) {
+            buildPartition();
+        }
+        if (partition != null) {
+            Arrays.fill(bucketCount, 0);
+        }
+
+        /*
+         *  Fire the events due on this tick first, so whatever they
+         *  wake is ticked on this step.
+         */
+        events.advance(tick, dispatcher);
+
+        /*
+         *  The roads in this tick's slot of the wheel make up the
+         *  active roads.
+         */
+        activeCount = 0;
+        passiveCount = 0;
+        nextFor = tick + 1;
+        slot = (int)(tick & (wheel.length - 1));
+        for (i = 0; (i < wheelCount[slot]); ++i) {
+            int     which;
+
+            which = wheel[slot][i];
+            if (dueStamp[which] == tick) {
+                wakeNow(which);
+            }
+        }
+        wheelCount[slot] = 0;
+        if (replaying != null) {
+            replaySpawns();
+        }
+
+        /*
+         *  Approaches whose signal turned green have somewhere to go.
+         */
+        if (signals.size() > 0) {
+            int     turned;
+
+            parallel(signals.size(), signalKernel);
+            if (woken.length < signals.size()) {
+                woken = new int[signals.size()];
+            }
+            turned = signals.turnedGreen(woken);
+            for (i = 0; (i < turned); ++i) {
+                if (isOwned(woken[i]) == false) {
+                    continue;
+                }
+                if (isDue(woken[i]) == true) {
+                    wakeNow(woken[i]);
+                } else {
+                    wakeNext(woken[i]);
+                }
+            }
+        }
+
+        claim();
+        advance();
+        finish();
+        if (halo != null) {
+            /*
+             *  Every process has to be done with the tick before any
+             *  starts the next, and the wake up calls for roads
+             *  elsewhere go with it, as do the roads that spawn, so
+             *  the vehicles can be numbered as in one process.
+             */
+            remoteSpawnCount = 0;
+            halo.exchange(tick, HaloExchange.WAKES, everyone, everyone,
+                    wakeReader);
+            spawn();
+        }
+        if (recording != null) {
+            recording.endTick(tick);
+        }
+        ++tick;
+        if ((partition != null) &&
+                (++sinceBalance >= REBALANCE_STEPS)) {
+            rebalance();
+        }
+    }
+
+    /**
+     *  Advance every road in the network by some ticks.
+     *  @param ticks how many
+     */
+    public void step(int ticks)
+    {
+        for (; (ticks > 0); --ticks) {
+            step();
+        }
+    }
+
+    /**
+     *  @return the number of threads a step runs on
+     */
+    public int  getParallelism()
+    {
+        return(parallelism);
+    }
+
+    /**
+     *  Run the phases of each step on some threads.  Results don't
+     *  depend on the number.
+     *  @param parallelism how many threads, 1 for the caller's only
+     *  @throws IllegalArgumentException if the number isn't positive
+     */
+    public void setParallelism(int parallelism)
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism " +
+                    parallelism + " isn't positive");
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.parallelism = parallelism;
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        partitionDirty = true;
+    }
+
+    /*
+     *  Split the roads into a region for each thread.
+     */
+    private void        buildPartition()
+    {
+        int     count;
+        int     regions;
+
+        partitionDirty = false;
+        partition = null;
+        if (pool == null) {
+            return;
+        }
+
+        count = roads.size();
+        regions = parallelism;
+        partition = split(regions);
+        bucket = new int[regions][count];
+        bucketCount = new int[regions];
+        outboxRoad = new int[regions][16];
+        outboxVehicle = new Vehicle[regions][16];
+        outboxCount = new int[regions];
+        regionTime = new long[regions];
+        sinceBalance = 0;
+    }
+
+    /*
+     *  Split the roads into some regions.  A road costs about its
+     *  length on each of its ticks, plus a little to look at, and the
+     *  traffic between two roads is the most that the roads upstream
+     *  could send, as far as a vehicle a tick.
+     */
+    Partition           split(int regions)
+    {
+        int     count;
+        double  weight[];
+        double  flow[];
+        int     i;
+
+        count = roads.size();
+        weight = new double[count];
+        flow = new double[count];
+        for (i = 0; (i < count); ++i) {
+            Road    road;
+
+            road = roads.get(i);
+            weight[i] = (road.getCarCount() + 4.0) /
+                    road.getTickPeriod();
+            flow[i] = road.expectedRate(tick);
+        }
+        for (int pass = 0; (pass < 8); ++pass) {
+            double  next[];
+
+            next = new double[count];
+            for (i = 0; (i < count); ++i) {
+                next[i] += roads.get(i).expectedRate(tick);
+                if (downstream[i] != NONE) {
+                    next[downstream[i]] += flow[i];
+                }
+            }
+            for (i = 0; (i < count); ++i) {
+                flow[i] = Math.min(1.0, next[i]);
+            }
+        }
+        for (i = 0; (i < count); ++i) {
+            flow[i] += 0.01;
+        }
+
+        return(new Partition(regions, weight, downstream, flow));
+    }
+
+    /*
+     *  Move roads out of the regions whose threads are slow.
+     */
+    private void        rebalance()
+    {
+        long    slowest;
+        long    fastest;
+        double  time[];
+
+        sinceBalance = 0;
+        slowest = 0;
+        fastest = Long.MAX_VALUE;
+        time = new double[regionTime.length];
+        for (int region = 0; (region < regionTime.length); ++region) {
+            slowest = Math.max(slowest, regionTime[region]);
+            fastest = Math.min(fastest, regionTime[region]);
+            time[region] = regionTime[region];
+        }
+        Arrays.fill(regionTime, 0);
+        if (slowest > DRIFT * Math.max(1, fastest)) {
+            partition.rebalance(time);
+        }
+    }
+
+    /**
+     *  @param road a road in the network
+     *  @return the region, and so the thread, the road is ticked in
+     *  or 0 if the network runs on one thread
+     */
+    public int  getRegion(Road road)
+    {
+        int     which;
+
+        which = indexOf(road);
+        if ((partitionDirty == true) || ((partition == null) !=
+                (pool == null))) {
+            buildPartition();
+        }
+
+        return((partition == null) ? 0 : partition.partOf(which));
+    }
+
+    /**
+     *  @return the number of vehicles that have been handed from a
+     *  road in one region to a road in another
+     */
+    public long getBoundaryCount()
+    {
+        return(boundaryCount);
+    }
+
+    /*
+     *  Run a phase over the signals, split over the threads if
+     *  there are enough to be worth it.
+     */
+    private void        parallel(int count, Kernel kernel)
+    {
+        if ((pool == null) || (count <= GRAIN)) {
+            kernel.run(null, 0, count);
+        } else {
+            pool.invoke(new Slice(kernel, null, 0, count));
+        }
+    }
+
+    /*
+     *  Run a phase over the active roads, each region on its own
+     *  thread if there are enough to be worth it.
+     */
+    private void        parallelRoads(Kernel kernel)
+    {
+        Region  task[];
+
+        if ((partition == null) || (activeCount <= GRAIN)) {
+            kernel.run(active, 0, activeCount);
+            return;
+        }
+        task = new Region[partition.parts()];
+        for (int region = 0; (region < task.length); ++region) {
+            task[region] = new Region(kernel, region);
+        }
+        pool.invoke(new RecursiveAction() {
+            private static final long   serialVersionUID        = 1L;
+
+            protected void      compute()
+            {
+                invokeAll(task);
+            }
+        });
+    }
+
+    /*
+     *  Phase 1:  vehicles waiting to leave offer themselves to the
+     *  road they're headed for, which takes the one first in turn.
+     */
+    private void        claim()
+    {
+        int     count;
+        int     i;
+
+        count = activeCount;
+        parallelRoads(offerKernel);
+        if (halo != null) {
+            sendOffers();
+        }
+        parallelRoads(grantKernel);
+        if (halo != null) {
+            sendGrants();
+        }
+
+        /*
+         *  A dormant road being handed a vehicle has to be ticked now
+         *  if it's due.  Otherwise it just takes the vehicle.
+         */
+        for (i = 0; (i < count); ++i) {
+            int     which;
+            int     to;
+
+            which = active[i];
+            to = target[which];
+            if ((grantStamp[which] == tick) && (to != NONE) &&
+                    (isOwned(to) == true)) {
+                take(to);
+            }
+        }
+    }
+
+    /*
+     *  Tick a road being handed a vehicle now if it's due, or just
+     *  have it take the vehicle.
+     */
+    private void        take(int which)
+    {
+        if (isDue(which) == true) {
+            wakeNow(which);
+        } else {
+            passive[passiveCount++] = which;
+        }
+    }
+
+    /*
+     *  Send the offers to roads owned elsewhere and take in the
+     *  offers to roads here that have room.
+     */
+    private void        sendOffers()
+    {
+        int     i;
+
+        for (i = 0; (i < activeCount); ++i) {
+            int             which;
+            int             to;
+            Vehicle         leaving;
+            VehicleType     type;
+
+            which = active[i];
+            to = target[which];
+            if ((offerStamp[which] != tick) || (to == NONE) ||
+                    (isOwned(to) == true)) {
+                continue;
+            }
+            leaving = roads.get(which).outletVehicle();
+            type = leaving.getVehicleType();
+            if (type == null) {
+                throw new IllegalStateException("vehicle " +
+                        leaving + " has no registered type to send");
+            }
+            halo.room(owner[to], 18).putInt(which).putInt(to).putShort(
+                    (short)type.getCode()).putInt(
+                    leaving.getIdentifier()).putInt(
+                    leaving.getDestination());
+        }
+        remoteCount = 0;
+        halo.exchange(tick, HaloExchange.OFFERS, neighbor, neighbor,
+                offerReader);
+    }
+
+    private void        readOffers(int from, ByteBuffer payload)
+    {
+        while (payload.hasRemaining() == true) {
+            int     feeder;
+            int     to;
+            int     code;
+            int     identifier;
+            int     destination;
+
+            feeder = payload.getInt();
+            to = payload.getInt();
+            code = payload.getShort() & 0xffff;
+            identifier = payload.getInt();
+            destination = payload.getInt();
+            if (roads.get(to).inletFree() == true) {
+                offerStamp[feeder] = tick;
+                target[feeder] = to;
+                remoteFeeder[remoteCount] = feeder;
+                remoteCode[remoteCount] = code;
+                remoteIdentifier[remoteCount] = identifier;
+                remoteDestination[remoteCount++] = destination;
+            }
+        }
+    }
+
+    /*
+     *  Answer the offers from roads owned elsewhere that won their
+     *  turn, with the vehicle they're letting go of, and find out
+     *  which of the offers from here were granted.
+     */
+    private void        sendGrants()
+    {
+        int     i;
+
+        for (i = 0; (i < remoteCount); ++i) {
+            int     feeder;
+            int     to;
+
+            feeder = remoteFeeder[i];
+            if (wins(feeder) == false) {
+                continue;
+            }
+            to = target[feeder];
+            grantStamp[feeder] = tick;
+            halo.room(owner[feeder], 4).putInt(feeder);
+            carry[to] = Vehicle.revive(VehicleType.forCode(
+                    remoteCode[i]), remoteIdentifier[i],
+                    remoteDestination[i]);
+            ++vehicleCount;
+            take(to);
+        }
+        halo.exchange(tick, HaloExchange.GRANTS, neighbor, neighbor,
+                grantReader);
+    }
+
+    private void        readGrants(int from, ByteBuffer payload)
+    {
+        while (payload.hasRemaining() == true) {
+            grantStamp[payload.getInt()] = tick;
+        }
+    }
+
+    /*
+     *  A road to wake, or -1 less a road of the sender that spawns
+     *  on this tick.
+     */
+    private void        readWakes(int from, ByteBuffer payload)
+    {
+        while (payload.hasRemaining() == true) {
+            int     which;
+
+            which = payload.getInt();
+            if (which >= 0) {
+                wakeNext(which);
+            } else {
+                remoteSpawns[remoteSpawnCount++] = -1 - which;
+            }
+        }
+    }
+
+    /*
+     *  Find the roads with a vehicle that can leave.  Roads that
+     *  drain don't have to wait their turn.
+     */
+    private void        offer(int[] list, int from, int to)
+    {
+        int     i;
+
+        for (i = from; (i < to); ++i) {
+            int     which;
+            int     next;
+            Road    road;
+
+            which = list[i];
+            road = roads.get(which);
+            if ((road.outletEmpty() == true) ||
+                    (road.isOutletBlocked() == true) ||
+                    (signals.isGreen(which) == false)) {
+                continue;
+            }
+            if ((drains[which] == true) ||
+                    (arrived(which, road) == true)) {
+                target[which] = NONE;
+                grantStamp[which] = tick;
+                continue;
+            }
+            /*
+             *  Whether a road owned elsewhere has room is for its
+             *  owner to say.
+             */
+            next = route(which, road);
+            target[which] = next;
+            if ((next != NONE) && ((isOwned(next) == false) ||
+                    (roads.get(next).inletFree() == true))) {
+                offerStamp[which] = tick;
+            }
+        }
+    }
+
+    /*
+     *  Each road with an offer looks at the other roads feeding the
+     *  same one and takes the slot if it's first in turn.  Feeders
+     *  take turns, starting from a different one each tick.
+     */
+    private void        grant(int[] list, int from, int to)
+    {
+        int     i;
+
+        for (i = from; (i < to); ++i) {
+            int     which;
+
+            which = list[i];
+            if ((offerStamp[which] == tick) &&
+                    (isOwned(target[which]) == true) &&
+                    (wins(which) == true)) {
+                grantStamp[which] = tick;
+            }
+        }
+    }
+
+    /*
+     *  @return whether a road with an offer is first in turn of the
+     *  roads offering to the same one
+     */
+    private boolean     wins(int which)
+    {
+        int     next;
+        int     feeders;
+        int     first;
+        int     best;
+
+        next = target[which];
+        first = upstreamStart[next];
+        feeders = upstreamStart[next + 1] - first;
+        best = feeders;
+        for (int j = 0; (j < feeders); ++j) {
+            if ((offerStamp[upstream[first + j]] == tick) &&
+                    (target[upstream[first + j]] == next)) {
+                best = Math.min(best, (int)Math.floorMod(j - tick,
+                        (long)feeders));
+            }
+        }
+
+        return(upstream[first + (int)Math.floorMod(best + tick,
+                (long)feeders)] == which);
+    }
+
+    /*
+     *  @return whether the road ticks on this tick
+     */
+    private boolean     isDue(int which)
+    {
+        return(nextDue(which, tick) == tick);
+    }
+
+    /*
+     *  Phase 2:  let go of the granted vehicles and advance the rest.
+     */
+    private void        advance()
+    {
+        int     i;
+
+        parallelRoads(advanceKernel);
+        if (partition != null) {
+            /*
+             *  Hand over the vehicles that crossed between regions.
+             */
+            for (int region = 0; (region < outboxCount.length);
+                 ++region) {
+                for (i = 0; (i < outboxCount[region]); ++i) {
+                    carry[outboxRoad[region][i]] =
+                            outboxVehicle[region][i];
+                    outboxVehicle[region][i] = null;
+                }
+                boundaryCount += outboxCount[region];
+                outboxCount[region] = 0;
+            }
+        }
+        for (i = 0; (i < activeCount); ++i) {
+            int         which;
+
+            which = active[i];
+            if ((grantStamp[which] == tick) &&
+                    (target[which] == NONE)) {
+                ++exitCount;
+                --vehicleCount;
+            } else if ((grantStamp[which] == tick) &&
+                    (isOwned(target[which]) == false)) {
+                /*
+                 *  Handed to a road owned elsewhere.
+                 */
+                --vehicleCount;
+            }
+            if ((found[which] & MOVED) != 0) {
+                /*
+                 *  Moved something, so look again next step.
+                 */
+                wakeNext(which);
+            }
+            if ((found[which] & FREED) != 0) {
+                /*
+                 *  Room opened up at the incoming end, so wake the
+                 *  roads feeding this one.
+                 */
+                wakeUpstream(which);
+            }
+        }
+    }
+
+    private void        advance(int[] list, int from, int to)
+    {
+        int     i;
+
+        for (i = from; (i < to); ++i) {
+            int         which;
+            Road        road;
+            boolean     inletWasFull;
+
+            which = list[i];
+            road = roads.get(which);
+            inletWasFull = (road.inletFree() == false);
+            if (grantStamp[which] == tick) {
+                Vehicle leaving;
+
+                leaving = road.releaseOutlet();
+                if (target[which] != NONE) {
+                    handOver(which, target[which], leaving);
+                }
+            }
+
+            found[which] = 0;
+            if (road.advance() > 0) {
+                found[which] |= MOVED;
+            }
+            if ((inletWasFull == true) && (road.inletFree() == true)) {
+                found[which] |= FREED;
+            }
+        }
+    }
+
+    /*
+     *  Hand a vehicle to the next road, straight away if it's in the
+     *  same region or through the outbox if it isn't.
+     */
+    private void        handOver(int from, int to, Vehicle vehicle)
+    {
+        int     region;
+
+        if (isOwned(to) == false) {
+            /*
+             *  The owner of the road made its own copy when it
+             *  granted the offer.
+             */
+            return;
+        }
+        if ((partition == null) ||
+                (partition.partOf(to) == partition.partOf(from))) {
+            carry[to] = vehicle;
+            return;
+        }
+        region = partition.partOf(from);
+        if (outboxCount[region] == outboxRoad[region].length) {
+            outboxRoad[region] = Arrays.copyOf(outboxRoad[region],
+                    outboxCount[region] * 2);
+            outboxVehicle[region] = Arrays.copyOf(outboxVehicle[region],
+                    outboxCount[region] * 2);
+        }
+        outboxRoad[region][outboxCount[region]] = to;
+        outboxVehicle[region][outboxCount[region]++] = vehicle;
+    }
+
+    /*
+     *  Phase 3:  take in what was handed over, spawn and decide which
+     *  roads to look at next step.  What spawns is picked in
+     *  parallel, but the vehicles are created in the order of the
+     *  roads, so they get the same identifiers whatever order the
+     *  roads were woken in.
+     */
+    private void        finish()
+    {
+        int     i;
+        int     spawns;
+
+        parallelRoads(arriveKernel);
+        spawns = 0;
+        for (i = 0; (i < activeCount); ++i) {
+            int         which;
+
+            which = active[i];
+            if (spawnCode[which] == VehicleType.EMPTY_CODE) {
+                roads.get(which).finishTick(VehicleType.EMPTY_CODE);
+            } else {
+                spawning[spawns++] = which;
+            }
+            if (wakeAt[which] == WAKE_NEXT) {
+                wakeNext(which);
+            } else if (wakeAt[which] != Long.MAX_VALUE) {
+                /*
+                 *  Going dormant.  Come back when the next vehicle
+                 *  arrives.
+                 */
+                events.cancel(wakeHandle[which]);
+                wakeHandle[which] = events.schedule(nextDue(which,
+                        Math.max(wakeAt[which], tick + 1)), EVENT_WAKE,
+                        which, 0);
+            }
+        }
+
+        Arrays.sort(spawning, 0, spawns);
+        spawnCount = spawns;
+        if (halo == null) {
+            spawn();
+        } else {
+            for (int p = 0; (p < everyone.length); ++p) {
+                ByteBuffer  buffer;
+
+                if (everyone[p] == false) {
+                    continue;
+                }
+                buffer = halo.room(p, 4 * spawns);
+                for (i = 0; (i < spawns); ++i) {
+                    buffer.putInt(-1 - spawning[i]);
+                }
+            }
+        }
+
+        /*
+         *  Roads that were handed a vehicle between their own ticks.
+         */
+        for (i = 0; (i < passiveCount); ++i) {
+            int         which;
+
+            which = passive[i];
+            roads.get(which).admit(carry[which]);
+            carry[which] = null;
+            wakeNext(which);
+        }
+    }
+
+    /*
+     *  Create the vehicles spawned on this tick, in the order of the
+     *  roads.  A network split over processes skips the identifiers of
+     *  the vehicles spawned elsewhere on roads before each one.
+     */
+    private void        spawn()
+    {
+        int     first;
+        int     ahead;
+
+        first = Vehicle.peekIdentifier();
+        ahead = 0;
+        if (halo != null) {
+            Arrays.sort(remoteSpawns, 0, remoteSpawnCount);
+        }
+        for (int i = 0; (i < spawnCount); ++i) {
+            int         which;
+
+            which = spawning[i];
+            if (halo != null) {
+                while ((ahead < remoteSpawnCount) &&
+                        (remoteSpawns[ahead] < which)) {
+                    ++ahead;
+                }
+                Vehicle.setNextIdentifier(first + i + ahead);
+            }
+            roads.get(which).finishTick(spawnCode[which]);
+            ++vehicleCount;
+            if (recording != null) {
+                recording.spawn(which, spawnCode[which]);
+            }
+        }
+        if (halo != null) {
+            Vehicle.setNextIdentifier(first + spawnCount +
+                    remoteSpawnCount);
+        }
+    }
+
+    private void        arrive(int[] list, int from, int to)
+    {
+        int     i;
+
+        for (i = from; (i < to); ++i) {
+            int         which;
+            Road        road;
+            boolean     changed;
+            boolean     free;
+
+            which = list[i];
+            road = roads.get(which);
+            changed = (grantStamp[which] == tick);
+            if (carry[which] != null) {
+                road.admit(carry[which]);
+                carry[which] = null;
+                changed = true;
+            }
+            if (replaying == null) {
+                spawnCode[which] = road.arrival();
+            } else {
+                spawnCode[which] = replayCode[which];
+                replayCode[which] = VehicleType.EMPTY_CODE;
+            }
+            if (spawnCode[which] != VehicleType.EMPTY_CODE) {
+                changed = true;
+            }
+
+            /*
+             *  An empty incoming slot waits for an arrival, unless
+             *  the log being replayed wakes the road when it spawns.
+             */
+            free = ((changed == false) && (road.inletFree() == true) &&
+                    (replaying == null));
+            if ((changed == true) ||
+                    ((free == true) &&
+                    (road.spawnsEveryTick() == true))) {
+                wakeAt[which] = WAKE_NEXT;
+            } else if (free == true) {
+                wakeAt[which] = road.nextArrival(tick + LOOKAHEAD);
+            } else {
+                wakeAt[which] = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /*
+     *  @return whether this process ticks the road
+     */
+    boolean     isOwned(int which)
+    {
+        return((owner == null) || (owner[which] == rank));
+    }
+
+    /*
+     *  Tick only the roads a process owns, trading what crosses to
+     *  the roads of the others through an exchange.  The roads
+     *  elsewhere are left alone.
+     */
+    void        restrictTo(int owner[], int rank, HaloExchange halo)
+    {
+        int     count;
+        int     i;
+
+        if (upstreamDirty == true) {
+            buildUpstream();
+        }
+        count = roads.size();
+        this.owner = owner;
+        this.rank = rank;
+        this.halo = halo;
+        neighbor = new boolean[halo.peers()];
+        everyone = new boolean[halo.peers()];
+        Arrays.fill(everyone, true);
+        everyone[rank] = false;
+        for (int to = 0; (to < count); ++to) {
+            for (int j = upstreamStart[to];
+                 (j < upstreamStart[to + 1]); ++j) {
+                i = upstream[j];
+                if (owner[i] == owner[to]) {
+                    continue;
+                }
+                if (owner[i] == rank) {
+                    neighbor[owner[to]] = true;
+                } else if (owner[to] == rank) {
+                    neighbor[owner[i]] = true;
+                }
+            }
+        }
+        remoteFeeder = new int[count];
+        remoteCode = new int[count];
+        remoteIdentifier = new int[count];
+        remoteDestination = new int[count];
+        remoteSpawns = new int[count];
+
+        Arrays.fill(wheelCount, 0);
+        Arrays.fill(dueStamp, -1);
+        vehicleCount = 0;
+        for (i = 0; (i < count); ++i) {
+            Road    road;
+
+            if (isOwned(i) == false) {
+                continue;
+            }
+            road = roads.get(i);
+            wakeNext(i);
+            vehicleCount += road.occupancy();
+        }
+    }
+
+    /**
+     *  @return the traffic signals of the network
+     */
+    public Signals      getSignals()
+    {
+        return(signals);
+    }
+
+    /**
+     *  Schedule an event.
+     *  @param tick when the event fires
+     *  @param kind one of the {@code EVENT_} kinds
+     *  @param road the road the event is for or {@code null}
+     *  @param argument anything else the event needs
+     *  @return a handle for cancelling the event
+     *  @throws IllegalArgumentException if the kind isn't one of the
+     *  {@code EVENT_} kinds
+     */
+    public long schedule(long tick, int kind, Road road, long argument)
+    {
+        if ((kind < EVENT_BLOCK_OUTLET) ||
+                ((kind > EVENT_SCALE_DEMAND) && (kind < EVENT_USER))) {
+            throw new IllegalArgumentException("unknown event kind " +
+                    kind);
+        }
+
+        return(events.schedule(tick, kind,
+                (road == null) ? NONE : indexOf(road), argument));
+    }
+
+    /**
+     *  @param handle what {@code schedule()} returned
+     *  @return whether the event was still pending and is now
+     *  cancelled
+     */
+    public boolean      cancel(long handle)
+    {
+        return(events.cancel(handle));
+    }
+
+    /**
+     *  @param handler what to call for events of kind
+     *  {@code EVENT_USER} and higher.  The target is the index of
+     *  the road in the network or -1.
+     */
+    public void setEventHandler(TimingWheel.Handler handler)
+    {
+        userHandler = handler;
+    }
+
+    /**
+     *  @return the number of events waiting to fire, including the
+     *  network's own
+     */
+    public int  getPendingEvents()
+    {
+        return(events.size());
+    }
+
+    /*
+     *  Carry out an event.  Anything that changes a road wakes it.
+     */
+    private void        dispatch(long when, int kind, int target,
+                                 long argument)
+    {
+        Road    road;
+
+        road = (target == NONE) ? null : roads.get(target);
+        switch (kind) {
+        case EVENT_WAKE:
+            wakeHandle[target] = -1;
+            wakeNext(target);
+            break;
+        case EVENT_BLOCK_OUTLET:
+            road.setOutletBlocked(true);
+            break;
+        case EVENT_OPEN_OUTLET:
+            road.setOutletBlocked(false);
+            break;
+        case EVENT_CLOSE_SLOT:
+            road.setSlotClosed((int)argument, true);
+            break;
+        case EVENT_OPEN_SLOT:
+            road.setSlotClosed((int)argument, false);
+            break;
+        case EVENT_SCALE_DEMAND:
+            road.setDemandScale(Double.longBitsToDouble(argument));
+            break;
+        default:
+            if (userHandler != null) {
+                userHandler.fire(when, kind, target, argument);
+            }
+            break;
+        }
+    }
+
+    /**
+     *  @return the number of steps the network has taken
+     */
+    public long getTick()
+    {
+        return(tick);
+    }
+
+    /**
+     *  Empty every road and start over at tick 0, with each road's
+     *  random numbers seeded from the seed.  The roads, connections,
+     *  signals and demands stay, and nothing is allocated, so one
+     *  network can run replica after replica of a study.  Pending
+     *  events are dropped.
+     *  @param seed seed of the replica
+     */
+    public void reset(long seed)
+    {
+        int     i;
+
+        tick = 0;
+        exitCount = 0;
+        vehicleCount = 0;
+        activeCount = 0;
+        passiveCount = 0;
+        nextFor = 0;
+        Arrays.fill(wheelCount, 0);
+        Arrays.fill(activeStamp, -1);
+        Arrays.fill(dueStamp, -1);
+        Arrays.fill(offerStamp, -1);
+        Arrays.fill(grantStamp, -1);
+        Arrays.fill(wakeHandle, -1);
+        Arrays.fill(carry, null);
+        events.clear(0);
+        signals.reset(0);
+        recording = null;
+        replaying = null;
+        for (i = 0; (i < roads.size()); ++i) {
+            roads.get(i).reset(RandomStream.seedFor(seed, i));
+            wakeNext(i);
+        }
+    }
+
+    /**
+     *  Write a checkpoint of the network:  the vehicles on its roads,
+     *  with their identifiers and types, the random numbers of the
+     *  roads, the pending arrivals and events, the signals, the
+     *  counts and the identifier counter of the vehicles.
+     *  @param path the file to write
+     *  @throws IOException if the file can't be written
+     *  @throws IllegalArgumentException if a vehicle on a road has
+     *  no registered type
+     */
+    public void checkpoint(Path path) throws IOException
+    {
+        try (Checkpoint.Writer out = new Checkpoint.Writer(path)) {
+            int     count;
+
+            /*
+             *  What the network has to look like to take it back.
+             */
+            count = roads.size();
+            out.putInt(count);
+            for (Road road : roads) {
+                out.putInt(road.getCarCount());
+                out.putByte((road.getDemand() != null) ? 1 : 0);
+            }
+            out.putInt(VehicleType.codeLimit());
+            for (VehicleType type : VehicleType.all()) {
+                out.putString(type.getName());
+            }
+
+            Vehicle.save(out);
+            out.putLong(tick);
+            out.putLong(exitCount);
+            out.putLong(vehicleCount);
+            out.putLong(boundaryCount);
+            out.putLong(nextFor);
+            out.putInt(wheel.length);
+            for (int slot = 0; (slot < wheel.length); ++slot) {
+                out.putInt(wheelCount[slot]);
+                for (int i = 0; (i < wheelCount[slot]); ++i) {
+                    out.putInt(wheel[slot][i]);
+                }
+            }
+            for (int i = 0; (i < count); ++i) {
+                out.putLong(dueStamp[i]);
+                out.putLong(wakeHandle[i]);
+            }
+            events.save(out);
+            signals.save(out);
+            for (Road road : roads) {
+                road.save(out);
+            }
+        }
+    }
+
+    /**
+     *  Restore the network from a checkpoint written by a network
+     *  built the same way, maybe in another run.  Vehicle identifiers
+     *  carry on from where they were, and handles of the pending
+     *  events stay good.
+     *  @param path the file to read
+     *  @throws IOException if the file can't be read
+     *  @throws IllegalArgumentException if the file isn't a
+     *  checkpoint of a network like this one
+     */
+    public void restore(Path path) throws IOException
+    {
+        try (Checkpoint.Reader in = new Checkpoint.Reader(path)) {
+            int     count;
+
+            count = in.getInt();
+            if (count != roads.size()) {
+                throw new IllegalArgumentException("checkpoint has " +
+                        count + " roads, not " + roads.size());
+            }
+            for (Road road : roads) {
+                if ((in.getInt() != road.getCarCount()) ||
+                        ((in.getByte() != 0) !=
+                        (road.getDemand() != null))) {
+                    throw new IllegalArgumentException("checkpoint" +
+                            " doesn't match " + road.getName());
+                }
+            }
+            if (in.getInt() != VehicleType.codeLimit()) {
+                throw new IllegalArgumentException("checkpoint has" +
+                        " different vehicle types");
+            }
+            for (VehicleType type : VehicleType.all()) {
+                if (in.getString().equals(type.getName()) == false) {
+                    throw new IllegalArgumentException("checkpoint" +
+                            " has no vehicle type " + type.getName());
+                }
+            }
+
+            Vehicle.restore(in);
+            tick = in.getLong();
+            exitCount = in.getLong();
+            vehicleCount = in.getLong();
+            boundaryCount = in.getLong();
+            nextFor = in.getLong();
+            wheel = new int[in.getInt()][];
+            wheelCount = new int[wheel.length];
+            for (int slot = 0; (slot < wheel.length); ++slot) {
+                wheelCount[slot] = in.getInt();
+                wheel[slot] = new int[Math.max(16, wheelCount[slot])];
+                for (int i = 0; (i < wheelCount[slot]); ++i) {
+                    wheel[slot][i] = in.getInt();
+                }
+            }
+            for (int i = 0; (i < count); ++i) {
+                dueStamp[i] = in.getLong();
+                wakeHandle[i] = in.getLong();
+            }
+            events.restore(in);
+            signals.restore(in);
+            for (Road road : roads) {
+                road.restore(in);
+            }
+            in.expectEnd();
+        }
+
+        /*
+         *  Nothing is left over from a step between steps.
+         */
+        activeCount = 0;
+        passiveCount = 0;
+        Arrays.fill(activeStamp, -1);
+        Arrays.fill(offerStamp, -1);
+        Arrays.fill(grantStamp, -1);
+        Arrays.fill(carry, null);
+        partitionDirty = true;
+        recording = null;
+        replaying = null;
+    }
+
+    /**
+     *  Record what the network spawns from now on.  Resetting or
+     *  restoring the network stops the recording.
+     *  @param log an empty log, or null to stop recording
+     *  @throws IllegalArgumentException if the log isn't empty
+     */
+    public void record(SpawnLog log)
+    {
+        if (log != null) {
+            log.start(roads.size(), tick);
+        }
+        recording = log;
+    }
+
+    /**
+     *  Spawn what a log says from now on, rather than what the
+     *  demands of the roads pick.  The network has to be built the
+     *  same way as the one that recorded the log and be where that
+     *  one was when it started:  new, reset with the same seed or
+     *  restored from the same checkpoint.  Resetting or restoring
+     *  the network stops the replay.
+     *  @param log a recorded log, or null to stop replaying
+     *  @throws IllegalArgumentException if the log starts on another
+     *  tick or was recorded on a network with other roads or vehicle
+     *  types
+     */
+    public void replay(SpawnLog log)
+    {
+        replaying = null;
+        if (log == null) {
+            return;
+        }
+        if (log.getStartTick() != tick) {
+            throw new IllegalArgumentException("spawn log starts at" +
+                    " tick " + log.getStartTick() + ", not " + tick);
+        }
+        replaying = log.replay(roads.size());
+        replayLog = log;
+        replayCode = new int[roads.size()];
+    }
+
+    /*
+     *  Wake the roads the log being replayed spawns on this tick.
+     *  They spawned when it was recorded, so they're due.
+     */
+    private void        replaySpawns()
+    {
+        while (replaying.next(tick) == true) {
+            replayCode[replaying.road()] = replaying.code();
+            wakeNow(replaying.road());
+        }
+    }
+
+    /**
+     *  @return the number of roads ticked on the last step
+     */
+    public int  getActiveCount()
+    {
+        return(activeCount);
+    }
+
+    /**
+     *  @return the number of vehicles that have left the network
+     */
+    public long getExitCount()
+    {
+        return(exitCount);
+    }
+
+    /**
+     *  @return the number of vehicles on the roads
+     */
+    public long getVehicleCount()
+    {
+        return(vehicleCount);
+    }
+
+    /**
+     *  @return the roads in the network, in index order
+     */
+    public List<Road>   getRoads()
+    {
+        return(Collections.unmodifiableList(roads));
+    }
+
+    /**
+     *  Stream the roads in index order.  A parallel stream splits
+     *  them into halves with the same number of roads.  No roads
+     *  may be added while the stream is used.
+     *  @return the roads
+     */
+    public Stream<Road> roads()
+    {
+        return(getRoads().stream());
+    }
+
+    /**
+     *  Stream the vehicles on every road, road by road in index
+     *  order, as {@code Road.vehicles()} does for one.  The network
+     *  mustn't step while the stream is used.
+     *  @return the vehicles
+     */
+    public Stream<Vehicle>      vehicles()
+    {
+        return(roads().flatMap(Road::vehicles));
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + roads.size() +
+                ",tick=" + tick + "]");
+    }
+
+    /*
+     *  Chains of roads simulated as queues have to match chains
+     *  simulated cell by cell, since nothing merges, and a network
+     *  focused on a few roads has to keep count of its vehicles
+     *  while it runs in a fraction of the time.
+     */
+    private static int  testDetail()
+    {
+        int             errors;
+        Network         network[];
+        long            took[];
+
+        errors = 0;
+        network = new Network[2];
+        took = new long[2];
+        for (int run = 0; (run < 2); ++run) {
+            network[run] = new Network();
+            for (int i = 0; (i < 3000); ++i) {
+                Road    road;
+
+                road = new Road("Detail " + i, 200, (i & 0x1) != 0);
+                road.setSeed(i);
+                road.setDemand(DemandProfile.constant(
+                        ((i % 3) == 0) ? 0.4 : 0));
+                road.setDetail((run == 0) ? Road.CELLS : Road.QUEUE);
+                network[run].add(road);
+                if ((i % 3) != 0) {
+                    network[run].connect(
+                            network[run].getRoads().get(i - 1), road);
+                }
+                if ((i % 3) == 2) {
+                    network[run].drain(road);
+                }
+            }
+        }
+        for (int t = 0; (t < 800); ++t) {
+            for (int run = 0; (run < 2); ++run) {
+                took[run] -= System.nanoTime();
+                network[run].step();
+                took[run] += System.nanoTime();
+            }
+            if ((t % 50) != 0) {
+                continue;
+            }
+            for (int i = 0; (i < 3000); ++i) {
+                if (network[0].getRoads().get(i).snapshot().equals(
+                        network[1].getRoads().get(i).snapshot()) ==
+                        false) {
+                    System.out.println("*** ERROR *** road " + i +
+                            " differs at " + t);
+                    return(errors + 1);
+                }
+            }
+        }
+        System.out.printf("cells %.1f ms, queues %.1f ms, %d out\n",
+                took[0] / 1e6, took[1] / 1e6,
+                network[1].getExitCount());
+        if (network[0].getExitCount() != network[1].getExitCount()) {
+            System.out.println("*** ERROR *** " +
+                    network[1].getExitCount() + " left, not " +
+                    network[0].getExitCount());
+            ++errors;
+        }
+
+        /*
+         *  Jam the last road of each chain and watch a few.
+         */
+        for (int i = 2; (i < 3000); i += 3) {
+            network[1].getRoads().get(i).setOutletBlocked(
+                    (i % 2) == 0);
+        }
+        network[1].focus(network[1].getRoads().subList(0, 31), 1);
+        for (int t = 0; (t < 600); ++t) {
+            network[1].step();
+            if ((t % 150) != 149) {
+                continue;
+            }
+            if (network[1].roads().mapToInt(
+                    Road::occupancy).sum() !=
+                    network[1].getVehicleCount()) {
+                System.out.println("*** ERROR *** " +
+                        network[1].getVehicleCount() +
+                        " vehicles counted");
+                ++errors;
+            }
+        }
+        if ((network[1].roads().filter(
+                Road::isQueued).count() != 3000 - 32) ||
+                (network[1].getRoads().get(31).isWatched() ==
+                false) ||
+                (network[1].getRoads().get(32).isWatched() == true)) {
+            System.out.println("*** ERROR *** " + network[1].roads(
+                    ).filter(Road::isQueued).count() + " queued");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Vehicles from one road head for two others, alternately, along
+     *  the shortest way there, and go the long way round once the
+     *  short way is closed.  Every vehicle has to get where it was
+     *  going, including the ones that went through a road kept off
+     *  the heap, and a change that can't make a difference to a
+     *  table mustn't build it again.
+     */
+    private static int  testRoutes()
+    {
+        int             errors;
+        Network         network;
+        Road            origin;
+        Road            shortWay;
+        Road            longWay;
+        Road            west;
+        Road            east;
+        int             toWest;
+        int             toEast;
+        long            built;
+
+        errors = 0;
+        network = new Network();
+        origin = new Road("Origin", 30, false);
+        shortWay = new Road("Short way", 30, false);
+        longWay = new Road("Long way", 60, false);
+        west = new Road("West", 20, false);
+        east = new Road("East", 20, false);
+        longWay.setOffHeap(true);
+        for (Road road : List.of(origin, shortWay, longWay, west,
+                east)) {
+            road.setDemand(DemandProfile.constant(
+                    (road == origin) ? 0.3 : 0));
+            network.add(road);
+        }
+        network.connect(origin, shortWay);
+        network.addTurn(origin, longWay);
+        network.connect(shortWay, west);
+        network.addTurn(shortWay, east);
+        network.connect(longWay, east);
+        network.addTurn(longWay, west);
+        try {
+            network.addTurn(origin, shortWay);
+            System.out.println("*** ERROR *** turned onto the " +
+                    "connected road");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+        }
+        toWest = network.addDestination(west);
+        toEast = network.addDestination(east);
+        network.setDestinations(origin, toWest, toEast);
+        if ((network.addDestination(west) != toWest) ||
+                (network.nextHop(origin, toEast) != shortWay) ||
+                (network.nextHop(shortWay, toEast) != east) ||
+                (network.nextHop(east, toEast) != null)) {
+            System.out.println("*** ERROR *** wrong way to the east");
+            ++errors;
+        }
+        for (int t = 0; (t < 600); ++t) {
+            network.step();
+        }
+        if ((network.getExitCount() == 0) ||
+                (longWay.occupancy() != 0)) {
+            System.out.println("*** ERROR *** " +
+                    network.getExitCount() + " arrived, " +
+                    longWay.occupancy() + " the long way");
+            ++errors;
+        }
+
+        /*
+         *  Nothing is routed through the long way, so it costing
+         *  more changes nothing.
+         */
+        built = network.routes.getBuildCount();
+        network.setRouteWeight(longWay, 500);
+        network.nextHop(origin, toWest);
+        if (network.routes.getBuildCount() != built) {
+            System.out.println("*** ERROR *** built " +
+                    (network.routes.getBuildCount() - built) +
+                    " tables for nothing");
+            ++errors;
+        }
+        network.setRouteWeight(longWay, 60);
+        network.setRouteWeight(shortWay, Double.POSITIVE_INFINITY);
+        if ((network.nextHop(origin, toWest) != longWay) ||
+                (network.nextHop(origin, toEast) != longWay)) {
+            System.out.println("*** ERROR *** not routed round " +
+                    "the closed road");
+            ++errors;
+        }
+        for (int t = 0; (t < 600); ++t) {
+            network.step();
+        }
+        if ((shortWay.occupancy() != 0) ||
+                (longWay.occupancy() == 0)) {
+            System.out.println("*** ERROR *** " +
+                    shortWay.occupancy() + " still the short way");
+            ++errors;
+        }
+        origin.setDemand(DemandProfile.constant(0));
+        for (int t = 0; (t < 600); ++t) {
+            network.step();
+        }
+        if (network.getVehicleCount() != 0) {
+            System.out.println("*** ERROR *** " +
+                    network.getVehicleCount() + " never arrived");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  A road feeding a jammed one is left alone while it can't
+     *  change, but the arrivals it missed meanwhile have to wait in
+     *  its entry queue and get on once the jam clears, so the
+     *  network lets through all a road on its own would have seen
+     *  arrive.
+     */
+    private static int  testEntryQueue()
+    {
+        int             errors;
+        Road            alone;
+        long            arrived;
+
+        errors = 0;
+        alone = entryRoad(-1);
+        for (int t = 0; (t < 1000); ++t) {
+            alone.tick();
+        }
+        arrived = alone.occupancy() + alone.getEntryQueueLength();
+        for (int bound : new int[]{0, 5000}) {
+            Network     network;
+            Road        entry;
+            Road        exit;
+
+            network = new Network();
+            entry = entryRoad(bound);
+            exit = entryRoad(0);
+            exit.setDemand(DemandProfile.constant(0));
+            exit.setOutletBlocked(true);
+            network.add(entry);
+            network.add(exit);
+            network.connect(entry, exit);
+            network.drain(exit);
+            network.step(1000);
+            exit.setOutletBlocked(false);
+            network.step(3000);
+            if ((network.getExitCount() +
+                    entry.getTurnedAwayCount() != arrived) ||
+                    ((bound > 0) != (entry.getTurnedAwayCount() ==
+                    0)) || ((bound > 0) &&
+                    (entry.getEntryWaits().getCount() != arrived))) {
+                System.out.println("*** ERROR *** " +
+                        network.getExitCount() + " through and " +
+                        entry.getTurnedAwayCount() + " turned away, " +
+                        "not " + arrived + " arrived");
+                ++errors;
+            }
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  @return a road with a rush of arrivals and an entry queue,
+     *  one that holds everything if the bound is negative
+     */
+    private static Road entryRoad(int bound)
+    {
+        Road    road;
+
+        road = new Road("Entry", 20, false);
+        road.setSeed(53);
+        road.setDemand(new PiecewiseDemand(new long[]{0, 500},
+                new double[]{0.6, 0}));
+        road.setEntryQueueBound((bound < 0) ? 1000 : bound);
+
+        return(road);
+    }
+
+    /*
+     *  The vehicles and roads streamed in parallel come in the order
+     *  a plain walk over the roads finds them.
+     */
+    private static int  testStreams()
+    {
+        int             errors;
+        Network         network;
+        List<Integer>   expected;
+        List<Integer>   streamed;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 5000); ++i) {
+            Road    road;
+
+            road = new Road("Streamed " + i, 10 + (i % 40),
+                    (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 2) == 0) ? 0.5 : 0));
+            network.add(road);
+            if ((i % 2) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+        }
+        network.step(60);
+
+        expected = new ArrayList<>();
+        for (Road road : network.getRoads()) {
+            for (int i = 0; (i < road.getCarCount()); ++i) {
+                if (road.vehicleAt(i) != null) {
+                    expected.add(road.vehicleAt(i).getIdentifier());
+                }
+            }
+        }
+        streamed = network.vehicles().parallel().map(
+                Vehicle::getIdentifier).collect(Collectors.toList());
+        if ((network.roads().parallel().collect(
+                Collectors.toList()).equals(
+                network.getRoads()) == false) ||
+                (network.roads().parallel().mapToInt(
+                Road::occupancy).sum() != expected.size()) ||
+                (streamed.equals(expected) == false)) {
+            System.out.println("*** ERROR *** streamed " +
+                    streamed.size() + " vehicles, not " +
+                    expected.size());
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Tick a network and the same roads on their own, with the same
+     *  seeds, and make sure they agree.  Roads in a network that
+     *  aren't connected must behave just like roads on their own.
+     */
+    private static int  testSameAsRoads()
+    {
+        int             errors;
+        Network         network;
+        Road            alone[];
+        Road            networked[];
+        int             i;
+
+        errors = 0;
+        network = new Network();
+        alone = new Road[6];
+        networked = new Road[alone.length];
+        for (i = 0; (i < alone.length); ++i) {
+            alone[i] = new Road("Alone " + i, 5 + i, (i & 0x1) == 0);
+            networked[i] = new Road("Networked " + i, 5 + i,
+                    (i & 0x1) == 0);
+            if (i >= 3) {
+                /*
+                 *  Half of them follow a demand profile that goes
+                 *  quiet, so they'll go dormant.
+                 */
+                for (Road which : new Road[]{alone[i],
+                        networked[i]}) {
+                    which.setDemand(new PiecewiseDemand(
+                            new long[]{0, 10, 300},
+                            new double[]{0.3, 0, 0.5}));
+                }
+            }
+            alone[i].setSeed(i);
+            networked[i].setSeed(i);
+            network.add(networked[i]);
+        }
+
+        for (int t = 0; (t < 400); ++t) {
+            network.step();
+            for (i = 0; (i < alone.length); ++i) {
+                alone[i].tick();
+                if (alone[i].snapshot().equals(
+                        networked[i].snapshot()) == false) {
+                    System.out.println("*** ERROR *** tick " + t +
+                            ": " + alone[i].snapshot() + " != " +
+                            networked[i].snapshot());
+                    ++errors;
+                }
+            }
+            if ((t == 150) && (network.getActiveCount() > 3)) {
+                /*
+                 *  The quiet roads are empty or stuck by now.
+                 */
+                System.out.println("*** ERROR *** " +
+                        network.getActiveCount() + " roads active at" +
+                        " tick " + t);
+                ++errors;
+            }
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Run vehicles down a chain of roads that drains, with a second
+     *  road merging into the middle, and make sure every vehicle is
+     *  accounted for and none appear twice.
+     */
+    private static int  testChain()
+    {
+        int             errors;
+        Network         network;
+        Road            first;
+        Road            middle;
+        Road            last;
+        Road            merge;
+        Set<Vehicle>    seen;
+        long            spawned;
+        int             t;
+
+        errors = 0;
+        network = new Network();
+        first = new Road("First", 6, false);
+        middle = new Road("Middle", 4, true);
+        last = new Road("Last", 5, false);
+        merge = new Road("Merge", 3, false);
+        for (Road which : new Road[]{first, middle, last, merge}) {
+            network.add(which);
+            which.setSeed(which.getIdentifier());
+        }
+        first.setDemand(DemandProfile.constant(0.4));
+        merge.setDemand(DemandProfile.constant(0.4));
+        middle.setDemand(DemandProfile.constant(0));
+        last.setDemand(DemandProfile.constant(0));
+        network.connect(first, middle);
+        network.connect(merge, middle);
+        network.connect(middle, last);
+        network.drain(last);
+
+        /*
+         *  Count every vehicle that ever shows up.  Everything seen
+         *  is either still on a road or has left the network.
+         */
+        seen = new HashSet<>();
+        for (t = 0; (t < 2000); ++t) {
+            int     onRoads;
+
+            network.step();
+            onRoads = 0;
+            for (Road which : network.getRoads()) {
+                for (int i = 0; (i < which.getCarCount()); ++i) {
+                    Vehicle     vehicle;
+
+                    vehicle = which.vehicleAt(i);
+                    if (vehicle != null) {
+                        seen.add(vehicle);
+                        ++onRoads;
+                    }
+                }
+            }
+            if ((t % 400) == 0) {
+                System.out.println(t + ": " + first.snapshot() + " " +
+                        merge.snapshot() + " > " + middle.snapshot() +
+                        " > " + last.snapshot());
+            }
+            spawned = seen.size();
+            if (spawned != onRoads + network.getExitCount()) {
+                System.out.println("*** ERROR *** tick " + t + ": " +
+                        spawned + " vehicles seen but " + onRoads +
+                        " on the roads and " + network.getExitCount() +
+                        " gone");
+                ++errors;
+                break;
+            }
+        }
+        if (network.getExitCount() < 500) {
+            System.out.println("*** ERROR *** only " +
+                    network.getExitCount() + " vehicles drained");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  A big network of roads with no demand should cost nothing to
+     *  step once everything has settled.
+     */
+    private static int  testQuiet()
+    {
+        int             errors;
+        Network         network;
+        Road            busy;
+        int             i;
+
+        errors = 0;
+        network = new Network();
+        for (i = 0; (i < 100000); ++i) {
+            Road    which;
+
+            which = new Road("Quiet " + i, 10, false);
+            which.setDemand(DemandProfile.constant(0));
+            network.add(which);
+        }
+        network.step(2);
+        if (network.getActiveCount() != 0) {
+            System.out.println("*** ERROR *** " +
+                    network.getActiveCount() + " quiet roads active");
+            ++errors;
+        }
+
+        /*
+         *  A change of demand wakes a road.
+         */
+        busy = network.getRoads().get(12345);
+        busy.setDemand(DemandProfile.constant(1));
+        network.step();
+        if (network.getActiveCount() != 1) {
+            System.out.println("*** ERROR *** " +
+                    network.getActiveCount() + " roads active after" +
+                    " waking one");
+            ++errors;
+        }
+        network.step(100);
+        if ((busy.snapshot().indexOf('_') >= 0) ||
+                (busy.getTick() != network.getTick())) {
+            System.out.println("*** ERROR *** " + busy.snapshot() +
+                    " at tick " + busy.getTick() + " should be full" +
+                    " at " + network.getTick());
+            ++errors;
+        }
+        if (network.getActiveCount() != 0) {
+            System.out.println("*** ERROR *** " +
+                    network.getActiveCount() + " roads active after" +
+                    " filling up");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Roads with tick periods.  A slow road on its own must match a
+     *  road ticked every period, only the roads that are due may be
+     *  ticked and vehicles must survive handoffs between fast and
+     *  slow roads.
+     */
+    private static int  testPeriods()
+    {
+        int             errors;
+        Network         network;
+        Road            alone;
+        Road            slow;
+        Road            chain[];
+        int             period[]        = {1, 5, 2, 1, 3};
+        Set<Vehicle>    seen;
+        int             t;
+
+        errors = 0;
+        network = new Network();
+        alone = new Road("Alone", 12, false);
+        slow = new Road("Slow", 12, false);
+        alone.setSeed(29);
+        slow.setSeed(29);
+        network.add(slow);
+        slow.setTickPeriod(3);
+        for (t = 0; (t < 60); ++t) {
+            network.step();
+            if ((t % 3) == 0) {
+                /*
+                 *  The slow road is index 0, so it ticks on multiples
+                 *  of its period.
+                 */
+                alone.tick();
+            }
+            if (alone.snapshot().equals(slow.snapshot()) == false) {
+                System.out.println("*** ERROR *** tick " + t + ": " +
+                        alone.snapshot() + " != " + slow.snapshot());
+                ++errors;
+            }
+        }
+
+        /*
+         *  A thousand busy roads with a period of 5 are spread evenly
+         *  over the ticks.
+         */
+        network = new Network();
+        for (int i = 0; (i < 1000); ++i) {
+            Road    which;
+
+            which = new Road("Busy " + i, 10, false);
+            which.setTickPeriod(5);
+            network.add(which);
+            network.drain(which);
+        }
+        for (t = 0; (t < 20); ++t) {
+            network.step();
+            if (network.getActiveCount() != 200) {
+                System.out.println("*** ERROR *** tick " + t + ": " +
+                        network.getActiveCount() + " roads active");
+                ++errors;
+            }
+        }
+
+        /*
+         *  A chain of roads with different periods.
+         */
+        network = new Network();
+        chain = new Road[period.length];
+        for (int i = 0; (i < chain.length); ++i) {
+            chain[i] = new Road("Chain " + i, 4 + i, (i & 0x1) == 0);
+            chain[i].setSeed(i);
+            chain[i].setDemand(DemandProfile.constant(
+                    (i == 0) ? 0.7 : 0.05));
+            network.add(chain[i]);
+            chain[i].setTickPeriod(period[i]);
+            if (i > 0) {
+                network.connect(chain[i - 1], chain[i]);
+            }
+        }
+        network.drain(chain[chain.length - 1]);
+        seen = new HashSet<>();
+        for (t = 0; (t < 3000); ++t) {
+            int     onRoads;
+
+            network.step();
+            onRoads = 0;
+            for (Road which : chain) {
+                for (int i = 0; (i < which.getCarCount()); ++i) {
+                    Vehicle     vehicle;
+
+                    vehicle = which.vehicleAt(i);
+                    if (vehicle != null) {
+                        seen.add(vehicle);
+                        ++onRoads;
+                    }
+                }
+            }
+            if (seen.size() != onRoads + network.getExitCount()) {
+                System.out.println("*** ERROR *** tick " + t + ": " +
+                        seen.size() + " vehicles seen but " + onRoads +
+                        " on the roads and " + network.getExitCount() +
+                        " gone");
+                ++errors;
+                break;
+            }
+        }
+        System.out.println("periods " + Arrays.toString(period) +
+                ": " + network.getExitCount() + " drained");
+        if (network.getExitCount() < 3000 / 5 / 2) {
+            /*
+             *  The slowest road lets a vehicle through at most every
+             *  other one of its ticks.
+             */
+            System.out.println("*** ERROR *** only " +
+                    network.getExitCount() + " drained");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Script a red light, a lane closure and a demand spike with
+     *  events and make sure the roads do what they're told, when
+     *  they're told.
+     */
+    private static int  testEvents()
+    {
+        int             errors;
+        Network         network;
+        Road            approach;
+        Road            exit;
+        Road            closed;
+        long            handle;
+        long            exitsAtRed;
+        final int       userEvents[]    = {0};
+        int             t;
+
+        errors = 0;
+        network = new Network();
+        approach = new Road("Approach", 8, false);
+        exit = new Road("Exit", 4, false);
+        closed = new Road("Closed", 10, true);
+        for (Road which : new Road[]{approach, exit, closed}) {
+            network.add(which);
+            which.setSeed(which.getIdentifier());
+        }
+        approach.setDemand(DemandProfile.constant(0.5));
+        exit.setDemand(DemandProfile.constant(0));
+        closed.setDemand(DemandProfile.constant(0.0001));
+        network.connect(approach, exit);
+        network.drain(exit);
+
+        /*
+         *  Red from 100 to 200, a lane closure on the other road at
+         *  position 3 from 50 and a spike of demand from 300.  One
+         *  more red that gets cancelled.
+         */
+        network.schedule(100, EVENT_BLOCK_OUTLET, approach, 0);
+        network.schedule(200, EVENT_OPEN_OUTLET, approach, 0);
+        network.schedule(50, EVENT_CLOSE_SLOT, closed, 3);
+        network.schedule(300, EVENT_SCALE_DEMAND, closed,
+                Double.doubleToLongBits(10000));
+        handle = network.schedule(250, EVENT_BLOCK_OUTLET, approach, 0);
+        network.schedule(400, EVENT_USER + 1, null, 0);
+        network.setEventHandler((tick, kind, target, argument) -> {
+            ++userEvents[0];
+        });
+        if ((network.cancel(handle) == false) ||
+                (network.cancel(handle) == true)) {
+            System.out.println("*** ERROR *** cancel didn't work");
+            ++errors;
+        }
+
+        exitsAtRed = 0;
+        for (t = 0; (t < 500); ++t) {
+            network.step();
+            if (t == 100 + exit.getCarCount() + 1) {
+                exitsAtRed = network.getExitCount();
+            }
+            if ((t > 100 + exit.getCarCount() + 1) && (t < 200) &&
+                    (network.getExitCount() != exitsAtRed)) {
+                System.out.println("*** ERROR *** tick " + t + ": " +
+                        "vehicles got through the red light");
+                ++errors;
+                break;
+            }
+            if ((t == 199) && (approach.isOutletBlocked() == false)) {
+                System.out.println("*** ERROR *** light isn't red");
+                ++errors;
+            }
+        }
+        if ((approach.isOutletBlocked() == true) ||
+                (network.getExitCount() <= exitsAtRed)) {
+            System.out.println("*** ERROR *** light never went green");
+            ++errors;
+        }
+
+        /*
+         *  The spike fills the closed road up to the closure and no
+         *  further.  It flows from position 9 towards position 0.
+         */
+        System.out.println("closed at 3: " + closed.snapshot());
+        if ((closed.isSlotClosed(3) == false) ||
+                (closed.vehicleAt(4) == null) ||
+                (closed.vehicleAt(3) != null) ||
+                (closed.vehicleAt(0) != null)) {
+            System.out.println("*** ERROR *** lane closure leaked: " +
+                    closed.snapshot());
+            ++errors;
+        }
+        if ((userEvents[0] != 1) || (network.getPendingEvents() > 3)) {
+            System.out.println("*** ERROR *** " + userEvents[0] +
+                    " user events, " + network.getPendingEvents() +
+                    " pending");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Build a network of merging chains with signals on the merges.
+     */
+    private static Network      grid(int parallelism)
+    {
+        Network         network;
+        Road            last;
+        int             i;
+
+        network = new Network();
+        network.setParallelism(parallelism);
+        last = null;
+        for (i = 0; (i < 9000); ++i) {
+            Road        road;
+
+            road = new Road("Grid " + i, 3 + (i % 7), (i & 0x1) == 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(0.02 * (i % 5)));
+            network.add(road);
+            road.setTickPeriod(1 + (i % 3));
+            if ((i % 3) == 2) {
+                /*
+                 *  Two roads merge into every third one.
+                 */
+                network.connect(network.getRoads().get(i - 2), road);
+                network.connect(network.getRoads().get(i - 1), road);
+                network.getSignals().addFixed(new Road[]{
+                        network.getRoads().get(i - 2),
+                        network.getRoads().get(i - 1)},
+                        new int[]{4 + (i % 5), 5}, 1, i);
+                if (last != null) {
+                    network.connect(last, road);
+                }
+                last = ((i % 9) == 8) ? null : road;
+                if (last == null) {
+                    network.drain(road);
+                }
+            }
+        }
+        for (Road road : network.getRoads()) {
+            if (network.getDownstream(road) == null) {
+                network.drain(road);
+            }
+        }
+
+        return(network);
+    }
+
+    /*
+     *  The same network run on one thread and on several must agree
+     *  on every position of every road, down to which vehicle is
+     *  where.  Identifiers are counted from the first one each run
+     *  could have handed out.
+     */
+    private static int  testParallel()
+    {
+        int             errors;
+        Network         one;
+        Network         many;
+        int             base[];
+
+        errors = 0;
+        base = new int[2];
+        one = grid(1);
+        base[0] = new Car().getIdentifier();
+        one.step(REBALANCE_STEPS + 100);
+        many = grid(4);
+        base[1] = new Car().getIdentifier();
+        many.step(REBALANCE_STEPS + 100);
+        for (int i = 0; (i < one.roads.size()); ++i) {
+            Road    a;
+            Road    b;
+
+            a = one.roads.get(i);
+            b = many.roads.get(i);
+            for (int j = 0; (j < a.getCarCount()); ++j) {
+                Vehicle     x;
+                Vehicle     y;
+
+                x = a.vehicleAt(j);
+                y = b.vehicleAt(j);
+                if ((x == null) && (y == null)) {
+                    continue;
+                }
+                if ((x == null) || (y == null) ||
+                        (x.getGlyph() != y.getGlyph()) ||
+                        (x.getIdentifier() - base[0] !=
+                        y.getIdentifier() - base[1])) {
+                    System.out.println("*** ERROR *** road " + i +
+                            ": " + a.snapshot() + " != " +
+                            b.snapshot());
+                    ++errors;
+                    return(errors);
+                }
+            }
+        }
+        System.out.println("parallel: " + one.getExitCount() + " and " +
+                many.getExitCount() + " through, " +
+                many.getActiveCount() + " active, " +
+                many.getBoundaryCount() + " between regions");
+        if (one.getExitCount() != many.getExitCount()) {
+            System.out.println("*** ERROR *** exits don't agree");
+            ++errors;
+        }
+
+        /*
+         *  The roads merging into one another are few enough to keep
+         *  together, so hardly any vehicle changes regions.
+         */
+        if (many.getBoundaryCount() * 20 > many.getExitCount()) {
+            System.out.println("*** ERROR *** " +
+                    many.getBoundaryCount() + " vehicles crossed" +
+                    " between regions");
+            ++errors;
+        }
+
+        /*
+         *  One long chain can't help crossing between regions, but
+         *  only where it's cut.
+         */
+        one = new Network();
+        many = new Network();
+        many.setParallelism(4);
+        for (Network network : new Network[]{one, many}) {
+            for (int i = 0; (i < 6000); ++i) {
+                Road    road;
+
+                road = new Road("Chain " + i, 3, false);
+                road.setSeed(i);
+                road.setDemand(DemandProfile.constant(
+                        ((i % 500) == 0) ? 0.5 : 0));
+                network.add(road);
+                if (i > 0) {
+                    network.connect(network.roads.get(i - 1), road);
+                }
+            }
+            network.drain(network.roads.get(5999));
+            network.step(20000);
+        }
+        for (int i = 0; (i < one.roads.size()); ++i) {
+            if (one.roads.get(i).snapshot().equals(
+                    many.roads.get(i).snapshot()) == false) {
+                System.out.println("*** ERROR *** chain " + i + ": " +
+                        one.roads.get(i).snapshot() + " != " +
+                        many.roads.get(i).snapshot());
+                ++errors;
+                break;
+            }
+        }
+        System.out.println("chain: " + many.getExitCount() +
+                " through, " + many.getBoundaryCount() +
+                " between regions");
+        if ((one.getExitCount() != many.getExitCount()) ||
+                (many.getBoundaryCount() == 0) ||
+                (many.getBoundaryCount() > 4 * (many.getExitCount() +
+                many.getVehicleCount()))) {
+            System.out.println("*** ERROR *** chain didn't agree or" +
+                    " crossed too often");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Sum up where every vehicle in a network is, and which one it
+     *  is, along with the counts.
+     */
+    private static long state(Network network)
+    {
+        long    hash;
+
+        hash = network.getExitCount() * 31 + network.getVehicleCount();
+        for (Road road : network.getRoads()) {
+            for (int i = 0; (i < road.getCarCount()); ++i) {
+                Vehicle vehicle;
+
+                vehicle = road.vehicleAt(i);
+                hash = hash * 31 + ((vehicle == null) ? -1 :
+                        ((long)vehicle.getIdentifier() << 8) +
+                        vehicle.getGlyph());
+            }
+        }
+
+        return(hash);
+    }
+
+    /*
+     *  The grid with some roads off the heap and events pending when
+     *  it's checkpointed.
+     */
+    private static Network      eventfulGrid()
+    {
+        Network         network;
+
+        network = grid(1);
+        for (int i = 0; (i < network.getRoads().size()); i += 4) {
+            network.road(i).setOffHeap(true);
+        }
+        network.schedule(250, EVENT_CLOSE_SLOT, network.road(7), 1);
+        network.schedule(700, EVENT_OPEN_SLOT, network.road(7), 1);
+        network.schedule(350, EVENT_SCALE_DEMAND, network.road(30),
+                Double.doubleToLongBits(4));
+        network.schedule(600, EVENT_BLOCK_OUTLET, network.road(2), 0);
+        network.schedule(650, EVENT_OPEN_OUTLET, network.road(2), 0);
+
+        return(network);
+    }
+
+    /*
+     *  A network restored from a checkpoint, into a new network that
+     *  had already run a little, has to replay the rest of the run
+     *  exactly as the uninterrupted network went on, events and all.
+     */
+    private static int  testCheckpoint()
+    {
+        int             errors;
+        Network         network;
+        Network         restored;
+        Path            path;
+        long            expected[];
+        long            handle;
+        long            start;
+
+        errors = 0;
+        try {
+            path = Files.createTempFile("network", ".checkpoint");
+            network = eventfulGrid();
+            network.step(300);
+            handle = network.schedule(900, EVENT_USER, null, 0);
+            start = System.nanoTime();
+            network.checkpoint(path);
+            System.out.printf("checkpoint of %d bytes in %.1f ms\n",
+                    Files.size(path),
+                    (System.nanoTime() - start) / 1e6);
+
+            /*
+             *  Carry on, then go back and carry on from the
+             *  checkpoint in a new network.  They have to match
+             *  exactly, down to the identifiers of the vehicles.
+             */
+            expected = new long[500];
+            for (int t = 0; (t < expected.length); ++t) {
+                network.step();
+                expected[t] = state(network);
+            }
+            if (network.cancel(handle) == false) {
+                System.out.println("*** ERROR *** no event to cancel");
+                ++errors;
+            }
+
+            restored = eventfulGrid();
+            restored.step(17);
+            start = System.nanoTime();
+            restored.restore(path);
+            System.out.printf("restored in %.1f ms\n",
+                    (System.nanoTime() - start) / 1e6);
+            for (int t = 0; (t < expected.length); ++t) {
+                restored.step();
+                if (state(restored) != expected[t]) {
+                    System.out.println("*** ERROR *** restored" +
+                            " network differs after " + (t + 1) +
+                            " steps");
+                    ++errors;
+                    break;
+                }
+            }
+            if ((restored.getTick() != network.getTick()) ||
+                    (restored.cancel(handle) == false) ||
+                    (restored.getPendingEvents() !=
+                    network.getPendingEvents())) {
+                System.out.println("*** ERROR *** restored events" +
+                        " differ");
+                ++errors;
+            }
+
+            /*
+             *  A checkpoint only goes back into a network like the
+             *  one it came from.
+             */
+            try {
+                new Network().restore(path);
+                System.out.println("*** ERROR *** restored into an" +
+                        " empty network");
+                ++errors;
+            } catch (IllegalArgumentException e) {
+            }
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  A run replayed from its spawn log has to match the run
+     *  exactly, down to the identifiers of the vehicles, and the log
+     *  has to be a small part of the frames of the run.
+     */
+    private static int  testReplay()
+    {
+        int             errors;
+        Network         network;
+        Network         replayed;
+        SpawnLog        log;
+        Path            path;
+        long            expected[];
+        long            frameBytes;
+
+        errors = 0;
+        try {
+            path = Files.createTempFile("network", ".spawns");
+            network = eventfulGrid();
+            log = new SpawnLog();
+            network.record(log);
+            expected = new long[1000];
+            frameBytes = 0;
+            for (int t = 0; (t < expected.length); ++t) {
+                network.step();
+                expected[t] = state(network);
+                for (Road road : network.getRoads()) {
+                    frameBytes += road.getCarCount();
+                }
+            }
+            network.record(null);
+            network.step();
+            log.write(path);
+            System.out.printf("spawn log of %d bytes for %d spawns," +
+                    " %.0f times smaller than %d bytes of frames\n",
+                    Files.size(path), log.getSpawnCount(),
+                    (double)frameBytes / Files.size(path), frameBytes);
+            if (frameBytes < Files.size(path) * 100) {
+                System.out.println("*** ERROR *** spawn log too big");
+                ++errors;
+            }
+
+            log = SpawnLog.read(path);
+            replayed = eventfulGrid();
+            replayed.replay(log);
+            for (int t = 0; (t < expected.length); ++t) {
+                replayed.step();
+                if (state(replayed) != expected[t]) {
+                    System.out.println("*** ERROR *** replayed" +
+                            " network differs after " + (t + 1) +
+                            " steps");
+                    ++errors;
+                    break;
+                }
+            }
+            try {
+                replayed.step();
+                System.out.println("*** ERROR *** replayed past the" +
+                        " end of the log");
+                ++errors;
+            } catch (IllegalStateException e) {
+            }
+
+            /*
+             *  A log only replays from where it was recorded.
+             */
+            try {
+                replayed.replay(log);
+                System.out.println("*** ERROR *** replayed from the" +
+                        " wrong tick");
+                ++errors;
+            } catch (IllegalArgumentException e) {
+            }
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Network} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = 0;
+        errors += testSameAsRoads();
+        errors += testChain();
+        errors += testQuiet();
+        errors += testPeriods();
+        errors += testEvents();
+        errors += testParallel();
+        errors += testCheckpoint();
+        errors += testReplay();
+        errors += testStreams();
+        errors += testDetail();
+        errors += testRoutes();
+        errors += testEntryQueue();
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
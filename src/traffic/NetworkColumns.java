@@ -0,0 +1,554 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code NetworkColumns} holds the state of every road of a
+ *  {@code Network} after a tick as columns of ints, a row for each
+ *  road in the network's order, for analysis that wants whole
+ *  columns at a time rather than a road at a time.  The columns are
+ *  <ul>
+ *  <li>{@code ROAD}, the identifier of the road,
+ *  <li>{@code VEHICLES}, the number of vehicles on it,
+ *  <li>{@code HEAD_QUEUE}, how many are lined up at the outgoing
+ *  end,
+ *  <li>{@code TAIL_QUEUE}, how many are lined up at the incoming
+ *  end, and
+ *  <li>{@code TYPE_PREFIX} and the name of each vehicle type
+ *  registered when the columns were made, the number of vehicles of
+ *  that type.
+ *  </ul>
+ *  The columns are made once and {@code fill()} writes over them,
+ *  splitting the roads over the common fork/join pool when there
+ *  are enough of them, so filling them every tick makes no garbage.
+ *  <p>
+ *  {@code write()} saves them to a file that says what's in it: in
+ *  little-endian order, the magic number, the number of rows, the
+ *  number of columns and the tick, then for each column the length
+ *  of its name in bytes, the name in UTF-8 and a type byte, {@code
+ *  'i'} for 32-bit ints, and last the values of each column in turn.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class NetworkColumns {
+    /**
+     *  The name of the column of road identifiers.
+     */
+    public static final String  ROAD            = "road";
+    /**
+     *  The name of the column of vehicle counts.
+     */
+    public static final String  VEHICLES        = "vehicles";
+    /**
+     *  The name of the column of queues at the outgoing end.
+     */
+    public static final String  HEAD_QUEUE      = "head queue";
+    /**
+     *  The name of the column of queues at the incoming end.
+     */
+    public static final String  TAIL_QUEUE      = "tail queue";
+    /**
+     *  What the names of the columns counting a type start with.
+     */
+    public static final String  TYPE_PREFIX     = "type ";
+
+    private static final long   MAGIC   = 0x314c4f4346415254L;
+    private static final int    TYPES   = 4;
+    private static final int    GRAIN   = 2048;
+
+    private final String        name[];
+    private final int           column[][];
+    private final int           byCode[][];
+    private final int           rows;
+    private long                tick;
+    private ByteBuffer          buffer;
+
+    /*
+     *  Fills the rows of a range of roads, splitting it in half until
+     *  it's small enough.
+     */
+    private final class Slice extends RecursiveAction {
+        private static final long       serialVersionUID        = 1L;
+        private final List<Road>        roads;
+        private final int       from;
+        private final int       to;
+
+        Slice(List<Road> roads, int from, int to)
+        {
+            this.roads = roads;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void  compute()
+        {
+            int     middle;
+
+            if (to - from <= GRAIN) {
+                fillRows(roads, from, to);
+                return;
+            }
+            middle = (from + to) >>> 1;
+            invokeAll(new Slice(roads, from, middle),
+                    new Slice(roads, middle, to));
+        }
+    }
+
+    /**
+     *  Make the columns for a network as it is now, with a column
+     *  for each vehicle type registered so far.  The columns are
+     *  empty until {@code fill()} is called.
+     *  @param network the network whose roads make the rows
+     */
+    public NetworkColumns(Network network)
+    {
+        this(names(VehicleType.all()), network.getRoads().size());
+    }
+
+    /*
+     *  Make empty columns with names.
+     */
+    private NetworkColumns(String name[], int rows)
+    {
+        this.name = name;
+        this.rows = rows;
+        column = new int[name.length][rows];
+        byCode = new int[VehicleType.codeLimit()][];
+        for (int i = TYPES; (i < name.length); ++i) {
+            VehicleType     type;
+
+            if (name[i].startsWith(TYPE_PREFIX) == false) {
+                continue;
+            }
+            type = VehicleType.forName(
+                    name[i].substring(TYPE_PREFIX.length()));
+            if ((type != null) && (type.getCode() < byCode.length)) {
+                byCode[type.getCode()] = column[i];
+            }
+        }
+    }
+
+    /*
+     *  The names of the columns for some vehicle types.
+     */
+    private static String[]     names(List<VehicleType> types)
+    {
+        String  name[];
+
+        name = new String[TYPES + types.size()];
+        name[0] = ROAD;
+        name[1] = VEHICLES;
+        name[2] = HEAD_QUEUE;
+        name[3] = TAIL_QUEUE;
+        for (int i = 0; (i < types.size()); ++i) {
+            name[TYPES + i] = TYPE_PREFIX + types.get(i).getName();
+        }
+
+        return(name);
+    }
+
+    /**
+     *  Fill the columns with the state of a network's roads.  Types
+     *  registered after the columns were made count in {@code
+     *  VEHICLES} but have no column of their own.
+     *  @param network the network, with as many roads as rows
+     *  @throws IllegalArgumentException if the network doesn't have
+     *  as many roads as there are rows
+     */
+    public void fill(Network network)
+    {
+        List<Road>      roads;
+
+        roads = network.getRoads();
+        if (roads.size() != rows) {
+            throw new IllegalArgumentException(roads.size() +
+                    " roads for " + rows + " rows");
+        }
+        if (rows <= GRAIN) {
+            fillRows(roads, 0, rows);
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new Slice(roads, 0, rows));
+        }
+        tick = network.getTick();
+    }
+
+    /*
+     *  Fill the rows of a range of roads.
+     */
+    private void        fillRows(List<Road> roads, int from, int to)
+    {
+        for (int row = from; (row < to); ++row) {
+            Road    road;
+
+            road = roads.get(row);
+            for (int code = 1; (code < byCode.length); ++code) {
+                if (byCode[code] != null) {
+                    byCode[code][row] = 0;
+                }
+            }
+            column[0][row] = road.getIdentifier();
+            column[1][row] = road.occupancy();
+            column[2][row] = road.queueLength(road.getCarCount());
+            column[3][row] = road.census(byCode, row);
+        }
+    }
+
+    /**
+     *  @return the number of rows, one for each road
+     */
+    public int  getRowCount()
+    {
+        return(rows);
+    }
+
+    /**
+     *  @return the tick the columns were last filled at
+     */
+    public long getTick()
+    {
+        return(tick);
+    }
+
+    /**
+     *  @return the names of the columns, in order
+     */
+    public List<String> getColumnNames()
+    {
+        return(Collections.unmodifiableList(Arrays.asList(name)));
+    }
+
+    /**
+     *  Get a column.  It's the one {@code fill()} writes over, not a
+     *  copy.
+     *  @param which the name of the column
+     *  @return the column, or null if there's none of that name
+     */
+    public int[]        column(String which)
+    {
+        for (int i = 0; (i < name.length); ++i) {
+            if (name[i].equals(which) == true) {
+                return(column[i]);
+            }
+        }
+
+        return(null);
+    }
+
+    /**
+     *  Save the columns to a file, replacing anything there.
+     *  @param path where to save them
+     *  @throws IOException if they couldn't be saved
+     */
+    public void write(Path path) throws IOException
+    {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(1 << 16).order(
+                    ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putLong(MAGIC).putInt(rows).putInt(name.length);
+            buffer.putLong(tick);
+            for (int i = 0; (i < name.length); ++i) {
+                byte    bytes[];
+
+                bytes = name[i].getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < bytes.length + 5) {
+                    drain(channel);
+                }
+                buffer.putInt(bytes.length).put(bytes).put((byte)'i');
+            }
+            for (int i = 0; (i < name.length); ++i) {
+                for (int row = 0; (row < rows); ++row) {
+                    if (buffer.remaining() < 4) {
+                        drain(channel);
+                    }
+                    buffer.putInt(column[i][row]);
+                }
+            }
+            drain(channel);
+        }
+    }
+
+    /*
+     *  Write out what's in the buffer and empty it.
+     */
+    private void        drain(FileChannel channel) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining() == true) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     *  Load columns saved by {@code write()}.  The columns counting
+     *  types are matched to the types registered now by name, so
+     *  they can be filled again if the types are still there.
+     *  @param path where they were saved
+     *  @return the columns
+     *  @throws IOException if they couldn't be read or the file
+     *  isn't a file of columns
+     */
+    public static NetworkColumns        read(Path path)
+            throws IOException
+    {
+        ByteBuffer      in;
+        NetworkColumns  columns;
+        String          name[];
+        int             rows;
+        long            tick;
+
+        in = ByteBuffer.wrap(Files.readAllBytes(path)).order(
+                ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getLong() != MAGIC) {
+                throw new IOException(path + " isn't a column file");
+            }
+            rows = in.getInt();
+            name = new String[in.getInt()];
+            tick = in.getLong();
+            if ((rows < 0) || (name.length < TYPES) ||
+                    ((long)rows * name.length * 4 > in.remaining())) {
+                throw new IOException(path + " is damaged");
+            }
+            for (int i = 0; (i < name.length); ++i) {
+                byte    bytes[];
+
+                bytes = new byte[in.getInt()];
+                in.get(bytes);
+                name[i] = new String(bytes, StandardCharsets.UTF_8);
+                if (in.get() != 'i') {
+                    throw new IOException(path + " has column " +
+                            name[i] + " of an unknown type");
+                }
+            }
+            columns = new NetworkColumns(name, rows);
+            columns.tick = tick;
+            for (int i = 0; (i < name.length); ++i) {
+                in.asIntBuffer().get(columns.column[i]);
+                in.position(in.position() + rows * 4);
+            }
+        } catch (BufferUnderflowException |
+                NegativeArraySizeException e) {
+            throw new IOException(path + " is damaged", e);
+        }
+
+        return(columns);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[rows=" + rows +
+                ",columns=" + name.length +
+                ",tick=" + tick + "]");
+    }
+
+    /*
+     *  Fill the columns for a big network and check every row
+     *  against the snapshots of the roads.
+     */
+    private static int  testFill()
+    {
+        int             errors;
+        Network         network;
+        NetworkColumns  columns;
+        List<VehicleType>       types;
+        long            filled;
+        long            parsed;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 6000); ++i) {
+            Road    road;
+
+            road = new Road("Columns " + i, 20 + (i % 61),
+                    (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 3) == 0) ? 0.7 : 0));
+            network.add(road);
+            if ((i % 3) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+            if ((i % 6) == 5) {
+                network.drain(road);
+            }
+        }
+        network.step(120);
+
+        columns = new NetworkColumns(network);
+        types = VehicleType.all();
+        for (int round = 0; (round < 3); ++round) {
+            network.step(7);
+            filled = System.nanoTime();
+            columns.fill(network);
+            filled = System.nanoTime() - filled;
+            parsed = System.nanoTime();
+            for (int row = 0; (row < columns.getRowCount()); ++row) {
+                Road    road;
+                String  glyphs;
+                int     vehicles;
+                int     head;
+                int     tail;
+                int     in;
+                int     out;
+
+                road = network.getRoads().get(row);
+                glyphs = road.snapshot();
+                in = ((row & 0x1) != 0) ? glyphs.length() - 1 : 0;
+                out = glyphs.length() - 1 - in;
+                vehicles = 0;
+                for (int i = 0; (i < glyphs.length()); ++i) {
+                    if (glyphs.charAt(i) != VehicleType.EMPTY_GLYPH) {
+                        ++vehicles;
+                    }
+                }
+                head = run(glyphs, out, (out == 0) ? 1 : -1);
+                tail = run(glyphs, in, (in == 0) ? 1 : -1);
+                if ((columns.column(ROAD)[row] !=
+                        road.getIdentifier()) ||
+                        (columns.column(VEHICLES)[row] != vehicles) ||
+                        (columns.column(HEAD_QUEUE)[row] != head) ||
+                        (columns.column(TAIL_QUEUE)[row] != tail)) {
+                    System.out.println("*** ERROR *** row " + row +
+                            " doesn't match " + glyphs);
+                    ++errors;
+                }
+                for (VehicleType type : types) {
+                    int     count;
+
+                    count = 0;
+                    for (int i = 0; (i < glyphs.length()); ++i) {
+                        if (glyphs.charAt(i) == type.getGlyph()) {
+                            ++count;
+                        }
+                    }
+                    if (columns.column(TYPE_PREFIX +
+                            type.getName())[row] != count) {
+                        System.out.println("*** ERROR *** row " + row +
+                                " has the wrong count of " +
+                                type.getName());
+                        ++errors;
+                    }
+                }
+                if (errors > 10) {
+                    return(errors);
+                }
+            }
+            parsed = System.nanoTime() - parsed;
+            System.out.printf("fill %.2f ms, snapshots parsed" +
+                    " %.2f ms\n", filled / 1e6, parsed / 1e6);
+        }
+        if (columns.getTick() != network.getTick()) {
+            System.out.println("*** ERROR *** filled at tick " +
+                    columns.getTick());
+            ++errors;
+        }
+        errors += testFile(columns);
+
+        network.add(new Road("One too many", 10, false));
+        try {
+            columns.fill(network);
+            System.out.println("*** ERROR *** filled " +
+                    network.getRoads().size() + " roads");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  The number of vehicles in a row from a place in a snapshot.
+     */
+    private static int  run(String glyphs, int from, int step)
+    {
+        int     count;
+
+        count = 0;
+        for (int i = from; (i >= 0) && (i < glyphs.length()) &&
+                (glyphs.charAt(i) != VehicleType.EMPTY_GLYPH);
+             i += step) {
+            ++count;
+        }
+
+        return(count);
+    }
+
+    /*
+     *  Write columns to a file and read them back.
+     */
+    private static int  testFile(NetworkColumns columns)
+    {
+        int             errors;
+        NetworkColumns  back;
+        Path            path;
+
+        errors = 0;
+        try {
+            path = Files.createTempFile("columns", ".col");
+            columns.write(path);
+            back = read(path);
+            if ((back.getTick() != columns.getTick()) ||
+                    (back.getRowCount() != columns.getRowCount()) ||
+                    (back.getColumnNames().equals(
+                    columns.getColumnNames()) == false)) {
+                System.out.println("*** ERROR *** read " + back +
+                        " for " + columns);
+                ++errors;
+            }
+            for (String which : columns.getColumnNames()) {
+                if (Arrays.equals(back.column(which),
+                        columns.column(which)) == false) {
+                    System.out.println("*** ERROR *** column " +
+                            which + " came back different");
+                    ++errors;
+                }
+            }
+            Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+            try {
+                read(path);
+                System.out.println("*** ERROR *** read a bad file");
+                ++errors;
+            } catch (IOException e) {
+            }
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /**
+     *  Unit test.
+     *  @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = testFill();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package traffic;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ *  {@code OccupancyIndex} counts the vehicles on stretches of a
+ *  {@code Road} without looking at every position.  It's told when
+ *  a position fills or empties, and keeps two segment trees over the
+ *  positions:  one of how many vehicles there are under each node,
+ *  for the number on any stretch in time proportional to the log of
+ *  the road's length, and one of how many there are in the window of
+ *  a set width starting at each position, with the most under each
+ *  node, for the densest window at a glance.  A change costs a walk
+ *  up the first tree and a range update of the second.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+final class OccupancyIndex {
+    /*
+     *  Less than any count, for the starts past the last window.
+     */
+    private static final int    NONE    = Integer.MIN_VALUE / 2;
+
+    private final int           cells;
+    private final int           window;
+    private final int           size;
+    private final int           count[];
+    private final int           starts;
+    private final int           startSize;
+    private final int           most[];
+    private final int           added[];
+
+    /**
+     *  @param cells the number of positions
+     *  @param window the width of the windows to find the densest of,
+     *  no wider than the positions
+     */
+    OccupancyIndex(int cells, int window)
+    {
+        this.cells = cells;
+        this.window = window;
+        size = treeSize(cells);
+        count = new int[2 * size];
+        starts = cells - window + 1;
+        startSize = treeSize(starts);
+        most = new int[2 * startSize];
+        added = new int[2 * startSize];
+    }
+
+    private static int  treeSize(int leaves)
+    {
+        return((leaves <= 1) ? 1 :
+                Integer.highestOneBit(leaves - 1) * 2);
+    }
+
+    /**
+     *  @return the width of the windows
+     */
+    int window()
+    {
+        return(window);
+    }
+
+    /**
+     *  Count every position over again.
+     *  @param occupied whether there's a vehicle at a position
+     */
+    void        rebuild(IntPredicate occupied)
+    {
+        int     sum;
+
+        for (int i = 0; (i < size); ++i) {
+            count[size + i] = ((i < cells) &&
+                    (occupied.test(i) == true)) ? 1 : 0;
+        }
+        for (int node = size - 1; (node > 0); --node) {
+            count[node] = count[2 * node] + count[2 * node + 1];
+        }
+
+        /*
+         *  Slide the first window along for the rest.
+         */
+        sum = count(0, window);
+        for (int s = 0; (s < startSize); ++s) {
+            if (s >= starts) {
+                most[startSize + s] = NONE;
+                continue;
+            }
+            if (s > 0) {
+                sum += count[size + s + window - 1] -
+                        count[size + s - 1];
+            }
+            most[startSize + s] = sum;
+        }
+        for (int node = startSize - 1; (node > 0); --node) {
+            most[node] = Math.max(most[2 * node], most[2 * node + 1]);
+        }
+        Arrays.fill(added, 0);
+    }
+
+    /**
+     *  A position filled or emptied.
+     *  @param which the position
+     *  @param delta 1 if it filled, -1 if it emptied
+     */
+    void        add(int which, int delta)
+    {
+        for (int node = size + which; (node > 0); node >>>= 1) {
+            count[node] += delta;
+        }
+        addToStarts(1, 0, startSize - 1,
+                Math.max(0, which - window + 1),
+                Math.min(which, starts - 1), delta);
+    }
+
+    /*
+     *  Add to the windows starting from one position to another,
+     *  under a node covering some starts.  What's added to all of a
+     *  node's starts is kept at the node.
+     */
+    private void        addToStarts(int node, int low, int high,
+                                    int from, int to, int delta)
+    {
+        int     middle;
+
+        if ((to < low) || (from > high)) {
+            return;
+        }
+        if ((from <= low) && (high <= to)) {
+            most[node] += delta;
+            added[node] += delta;
+            return;
+        }
+        middle = (low + high) >>> 1;
+        addToStarts(2 * node, low, middle, from, to, delta);
+        addToStarts(2 * node + 1, middle + 1, high, from, to, delta);
+        most[node] = Math.max(most[2 * node], most[2 * node + 1]) +
+                added[node];
+    }
+
+    /**
+     *  @param from the first position
+     *  @param to the position after the last
+     *  @return the number of vehicles from one to the other
+     */
+    int count(int from, int to)
+    {
+        int     sum;
+
+        sum = 0;
+        for (from += size, to += size; (from < to);
+             from >>>= 1, to >>>= 1) {
+            if ((from & 0x1) != 0) {
+                sum += count[from++];
+            }
+            if ((to & 0x1) != 0) {
+                sum += count[--to];
+            }
+        }
+
+        return(sum);
+    }
+
+    /**
+     *  Skip over the empty positions from one on, a whole empty node
+     *  of the tree at a time.
+     *  @param from the first position to look at
+     *  @return the first position from there with a vehicle, or the
+     *  number of positions if there's none
+     */
+    int next(int from)
+    {
+        int     node;
+
+        if (from >= cells) {
+            return(cells);
+        }
+        node = size + from;
+        if (count[node] == 0) {
+            while (((node & 0x1) != 0) || (count[node + 1] == 0)) {
+                node >>>= 1;
+                if (node <= 1) {
+                    return(cells);
+                }
+            }
+            ++node;
+            while (node < size) {
+                node = (count[2 * node] > 0) ? 2 * node : 2 * node + 1;
+            }
+        }
+
+        return(node - size);
+    }
+
+    /**
+     *  @return the first position of the first window with the most
+     *  vehicles in it
+     */
+    int densest()
+    {
+        int     node;
+
+        node = 1;
+        while (node < startSize) {
+            int     below;
+
+            below = most[node] - added[node];
+            node = (most[2 * node] == below) ? 2 * node : 2 * node + 1;
+        }
+
+        return(node - startSize);
+    }
+}
@@ -0,0 +1,558 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code Partition} splits the roads of a network into regions, one
+ *  for each worker thread, so that connected roads share a region
+ *  and few vehicles cross from one region to another.  Each road
+ *  weighs what it costs to tick, which grows with its length and how
+ *  often it ticks, and each connection weighs the traffic expected
+ *  over it.
+ *  <p>
+ *  Regions are grown one at a time from a road on the edge of what's
+ *  left, always taking the neighbouring road most strongly connected
+ *  to the region, until the region has its share of the weight.
+ *  Roads on the borders are then moved to the region they're most
+ *  strongly connected to, as long as the regions stay balanced.  When
+ *  the workers turn out to take different times for the same weight,
+ *  the weights are corrected and roads on the borders of the slow
+ *  regions are handed to their neighbours.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+final class Partition {
+    /*
+     *  How far a region's weight may stray above or below its share.
+     */
+    private static final double SLACK   = 0.05;
+    private static final int    NONE    = -1;
+    private static final int    PASSES  = 8;
+
+    private final int           parts;
+    private final int           count;
+    private final double        weight[];
+    private final int           edgeStart[];
+    private final int           edgeTo[];
+    private final double        edgeWeight[];
+    private final int           part[];
+    private final double        load[];
+    private double              share;
+
+    /**
+     *  @param parts how many regions
+     *  @param weight what each road costs to tick
+     *  @param downstream the road each road feeds, or -1
+     *  @param flow the traffic expected out of each road
+     */
+    Partition(int parts, double[] weight, int[] downstream,
+              double[] flow)
+    {
+        int     degree[];
+        int     fill[];
+        int     i;
+
+        this.parts = parts;
+        count = weight.length;
+        this.weight = weight.clone();
+        part = new int[count];
+        load = new double[parts];
+
+        /*
+         *  Connections both ways, all in one array.  The neighbours
+         *  of road i are edgeTo[edgeStart[i]] up to
+         *  edgeTo[edgeStart[i + 1]].
+         */
+        degree = new int[count + 1];
+        for (i = 0; (i < count); ++i) {
+            if ((downstream[i] >= 0) && (downstream[i] != i)) {
+                ++degree[i + 1];
+                ++degree[downstream[i] + 1];
+            }
+        }
+        for (i = 0; (i < count); ++i) {
+            degree[i + 1] += degree[i];
+        }
+        edgeStart = degree;
+        edgeTo = new int[edgeStart[count]];
+        edgeWeight = new double[edgeTo.length];
+        fill = Arrays.copyOf(edgeStart, count);
+        for (i = 0; (i < count); ++i) {
+            int         to;
+            double      w;
+
+            to = downstream[i];
+            if ((to < 0) || (to == i)) {
+                continue;
+            }
+            w = flow[i];
+            edgeTo[fill[i]] = to;
+            edgeWeight[fill[i]++] = w;
+            edgeTo[fill[to]] = i;
+            edgeWeight[fill[to]++] = w;
+        }
+
+        grow();
+        refine();
+        balance();
+    }
+
+    /*
+     *  Grow the regions, one after another.
+     */
+    private void        grow()
+    {
+        double                  total;
+        double                  connection[];
+        PriorityQueue<double[]> frontier;
+        int                     lowest;
+        int                     p;
+
+        total = 0;
+        for (double w : weight) {
+            total += w;
+        }
+        share = total / parts;
+        Arrays.fill(part, NONE);
+        connection = new double[count];
+        frontier = new PriorityQueue<>((a, b) -> Double.compare(b[0],
+                a[0]));
+        lowest = 0;
+        for (p = 0; (p < parts); ++p) {
+            frontier.clear();
+            while ((p == parts - 1) || (load[p] < share)) {
+                double  next[];
+                int     road;
+
+                next = frontier.poll();
+                if (next == null) {
+                    /*
+                     *  Nothing left next to the region, so start
+                     *  again from the edge of what's left.
+                     */
+                    while ((lowest < count) && (part[lowest] != NONE)) {
+                        ++lowest;
+                    }
+                    if (lowest == count) {
+                        break;
+                    }
+                    road = peripheral(lowest);
+                } else {
+                    road = (int)next[1];
+                    if ((part[road] != NONE) ||
+                            (next[0] != connection[road])) {
+                        /*
+                         *  Taken already or a stale entry.
+                         */
+                        continue;
+                    }
+                }
+
+                part[road] = p;
+                load[p] += weight[road];
+                for (int e = edgeStart[road];
+                     (e < edgeStart[road + 1]); ++e) {
+                    int     other;
+
+                    other = edgeTo[e];
+                    if (part[other] == NONE) {
+                        connection[other] += edgeWeight[e] + 1e-9;
+                        frontier.add(new double[]{connection[other],
+                                other});
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *  @return the road furthest from a road, counting connections,
+     *  among the roads that aren't in a region yet
+     */
+    private int peripheral(int from)
+    {
+        ArrayDeque<Integer>     queue;
+        Set<Integer>            seen;
+        int                     last;
+
+        queue = new ArrayDeque<>();
+        seen = new HashSet<>();
+        queue.add(from);
+        seen.add(from);
+        last = from;
+        while (queue.isEmpty() == false) {
+            last = queue.poll();
+            for (int e = edgeStart[last];
+                 (e < edgeStart[last + 1]); ++e) {
+                int     other;
+
+                other = edgeTo[e];
+                if ((part[other] == NONE) &&
+                        (seen.add(other) == true)) {
+                    queue.add(other);
+                }
+            }
+        }
+
+        return(last);
+    }
+
+    /*
+     *  @return the part, other than its own, a road is most strongly
+     *  connected to, or NONE.  The strength of the connection to its
+     *  own part and to the returned one are left in strength.
+     */
+    private int strongest(int road, double[] strength)
+    {
+        int     best;
+        int     e;
+
+        best = NONE;
+        strength[0] = 0;
+        strength[1] = 0;
+        for (e = edgeStart[road]; (e < edgeStart[road + 1]); ++e) {
+            int         other;
+            double      toOther;
+
+            other = part[edgeTo[e]];
+            if (other == part[road]) {
+                strength[0] += edgeWeight[e];
+                continue;
+            }
+            if (other == best) {
+                continue;
+            }
+            toOther = 0;
+            for (int f = edgeStart[road]; (f < edgeStart[road + 1]);
+                 ++f) {
+                if (part[edgeTo[f]] == other) {
+                    toOther += edgeWeight[f];
+                }
+            }
+            if ((best == NONE) || (toOther > strength[1])) {
+                best = other;
+                strength[1] = toOther;
+            }
+        }
+
+        return(best);
+    }
+
+    private void        move(int road, int to)
+    {
+        load[part[road]] -= weight[road];
+        load[to] += weight[road];
+        part[road] = to;
+    }
+
+    /*
+     *  Move roads on the borders to the region they're more strongly
+     *  connected to, if the regions stay within their slack.
+     */
+    private void        refine()
+    {
+        double  strength[];
+        int     pass;
+
+        strength = new double[2];
+        for (pass = 0; (pass < PASSES); ++pass) {
+            int     moved;
+
+            moved = 0;
+            for (int road = 0; (road < count); ++road) {
+                int     to;
+
+                to = strongest(road, strength);
+                if ((to != NONE) && (strength[1] > strength[0]) &&
+                        (load[to] + weight[road] <=
+                        share * (1 + SLACK)) &&
+                        (load[part[road]] - weight[road] >=
+                        share * (1 - SLACK))) {
+                    move(road, to);
+                    ++moved;
+                }
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+    }
+
+    /*
+     *  Move roads out of regions over their slack, to a neighbouring
+     *  region under its share if there is one, or else to the
+     *  lightest region.  Roads on borders go first, those that cost
+     *  least to move first of all.
+     */
+    private void        balance()
+    {
+        double  strength[];
+        int     pass;
+
+        strength = new double[2];
+        for (pass = 0; (pass < PASSES); ++pass) {
+            int     moved;
+
+            moved = 0;
+            for (int road = 0; (road < count); ++road) {
+                int     from;
+                int     to;
+
+                from = part[road];
+                if (load[from] - weight[road] < share) {
+                    continue;
+                }
+                if (load[from] <= share * (1 + SLACK)) {
+                    continue;
+                }
+                to = strongest(road, strength);
+                if ((to == NONE) && (pass >= PASSES / 2)) {
+                    to = lightest();
+                }
+                if ((to != NONE) && (to != from) &&
+                        (load[to] + weight[road] <= share) &&
+                        ((pass > 0) || (strength[1] >= strength[0]))) {
+                    move(road, to);
+                    ++moved;
+                }
+            }
+            if ((moved == 0) && (pass >= PASSES / 2)) {
+                break;
+            }
+        }
+    }
+
+    private int lightest()
+    {
+        int     best;
+
+        best = 0;
+        for (int p = 1; (p < parts); ++p) {
+            if (load[p] < load[best]) {
+                best = p;
+            }
+        }
+
+        return(best);
+    }
+
+    /**
+     *  The workers took the times given for their regions.  Correct
+     *  the weights of the roads so each region's weight follows its
+     *  time, then move roads from the slow regions to their
+     *  neighbours.
+     *  @param time what each region took, in any unit
+     */
+    void        rebalance(double[] time)
+    {
+        double  factor[];
+        double  total;
+        int     p;
+
+        factor = new double[parts];
+        total = 0;
+        for (p = 0; (p < parts); ++p) {
+            total += time[p];
+        }
+        if (total <= 0) {
+            return;
+        }
+        for (p = 0; (p < parts); ++p) {
+            factor[p] = (load[p] > 0) ? (time[p] / total) /
+                    (load[p] / (share * parts)) : 1;
+        }
+        Arrays.fill(load, 0);
+        total = 0;
+        for (int road = 0; (road < count); ++road) {
+            weight[road] *= factor[part[road]];
+            load[part[road]] += weight[road];
+            total += weight[road];
+        }
+        share = total / parts;
+        balance();
+        refine();
+    }
+
+    /**
+     *  @param road index of a road
+     *  @return the region the road is in
+     */
+    int partOf(int road)
+    {
+        return(part[road]);
+    }
+
+    /**
+     *  @return the number of regions
+     */
+    int parts()
+    {
+        return(parts);
+    }
+
+    /**
+     *  @param p a region
+     *  @return the weight of the roads in it
+     */
+    double      load(int p)
+    {
+        return(load[p]);
+    }
+
+    /**
+     *  @return the number of connections between regions
+     */
+    int boundary()
+    {
+        int     cut;
+
+        cut = 0;
+        for (int road = 0; (road < count); ++road) {
+            for (int e = edgeStart[road];
+                 (e < edgeStart[road + 1]); ++e) {
+                if (part[edgeTo[e]] != part[road]) {
+                    ++cut;
+                }
+            }
+        }
+
+        return(cut / 2);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        double  spread[];
+
+        spread = new double[parts];
+        for (int p = 0; (p < parts); ++p) {
+            spread[p] = Math.round(load[p] / share * 100) / 100.0;
+        }
+
+        return(getClass().getName() +
+                "[roads=" + count +
+                ",boundary=" + boundary() +
+                ",loads=" + Arrays.toString(spread) + "]");
+    }
+
+    /*
+     *  @return whether every region is within its slack
+     */
+    private boolean     balanced()
+    {
+        for (int p = 0; (p < parts); ++p) {
+            if (Math.abs(load[p] - share) > share * SLACK * 2) {
+                return(false);
+            }
+        }
+
+        return(true);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Partition} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        int             count;
+        double          weight[];
+        double          flow[];
+        int             downstream[];
+        Partition       partition;
+        Random          random;
+        int             roundRobin;
+        int             slow;
+        int             i;
+
+        errors = 0;
+        random = new Random(33);
+
+        /*
+         *  A long chain splits into a few runs of roads.
+         */
+        count = 10000;
+        weight = new double[count];
+        flow = new double[count];
+        downstream = new int[count];
+        for (i = 0; (i < count); ++i) {
+            weight[i] = 1 + random.nextInt(10);
+            flow[i] = random.nextDouble();
+            downstream[i] = (i + 1 < count) ? i + 1 : -1;
+        }
+        partition = new Partition(4, weight, downstream, flow);
+        System.out.println("chain: " + partition);
+        if ((partition.boundary() > 6) ||
+                (partition.balanced() == false)) {
+            System.out.println("*** ERROR *** chain split badly");
+            ++errors;
+        }
+
+        /*
+         *  Trees of roads merging towards a few drains, numbered in
+         *  no useful order.  Round robin cuts nearly everything.
+         */
+        for (i = 0; (i < count); ++i) {
+            downstream[i] = (i < 20) ? -1 : random.nextInt(i);
+        }
+        partition = new Partition(8, weight, downstream, flow);
+        roundRobin = 0;
+        for (i = 0; (i < count); ++i) {
+            if ((downstream[i] >= 0) &&
+                    ((i % 8) != (downstream[i] % 8))) {
+                ++roundRobin;
+            }
+        }
+        System.out.println("trees: " + partition + ", round robin" +
+                " cuts " + roundRobin);
+        if ((partition.boundary() * 4 > roundRobin) ||
+                (partition.balanced() == false)) {
+            System.out.println("*** ERROR *** trees split badly");
+            ++errors;
+        }
+
+        /*
+         *  Region 0 turns out to be three times as slow as the rest.
+         *  It has to give up roads.
+         */
+        slow = 0;
+        for (i = 0; (i < count); ++i) {
+            if (partition.partOf(i) == 0) {
+                ++slow;
+            }
+        }
+        partition.rebalance(new double[]{3, 1, 1, 1, 1, 1, 1, 1});
+        System.out.println("rebalanced: " + partition);
+        for (i = 0; (i < count); ++i) {
+            if (partition.partOf(i) == 0) {
+                --slow;
+            }
+        }
+        if ((partition.balanced() == false) ||
+                (slow < count / 8 / 2)) {
+            System.out.println("*** ERROR *** didn't rebalance");
+            ++errors;
+        }
+
+        /*
+         *  Disconnected roads still get spread out.
+         */
+        Arrays.fill(downstream, -1);
+        partition = new Partition(3, weight, downstream, flow);
+        System.out.println("unconnected: " + partition);
+        if (partition.balanced() == false) {
+            System.out.println("*** ERROR *** unconnected roads" +
+                    " aren't balanced");
+            ++errors;
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code PiecewiseDemand} is a {@code DemandProfile} made of
+ *  constant rates that start at given ticks, optionally repeating
+ *  every period (a day of rush hours, for instance).
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class PiecewiseDemand implements DemandProfile {
+    private final long          starts[];
+    private final double        rates[];
+    private final long          period;
+
+    /**
+     *  @param starts ascending ticks at which each rate starts.
+     *  The rate before the first start is zero.
+     *  @param rates expected arrivals per tick from the start with
+     *  the same index
+     */
+    public PiecewiseDemand(long[] starts, double[] rates)
+    {
+        this(starts, rates, 0);
+    }
+
+    /**
+     *  @param starts ascending ticks, within the period, at which
+     *  each rate starts.  Before the first start, the last rate of
+     *  the previous period carries on.
+     *  @param rates expected arrivals per tick from the start with
+     *  the same index
+     *  @param period number of ticks after which the profile repeats
+     *  or 0 if it doesn't
+     *  @throws IllegalArgumentException if the pieces don't make
+     *  sense
+     */
+    public PiecewiseDemand(long[] starts, double[] rates, long period)
+    {
+        int     i;
+
+        if ((starts.length == 0) || (starts.length != rates.length) ||
+                (period < 0)) {
+            throw new IllegalArgumentException("need as many rates as" +
+                    " starts and a period that isn't negative");
+        }
+        for (i = 0; (i < starts.length); ++i) {
+            if ((starts[i] < 0) ||
+                    ((i > 0) && (starts[i] <= starts[i - 1])) ||
+                    ((period > 0) && (starts[i] >= period))) {
+                throw new IllegalArgumentException("start " + i +
+                        " (" + starts[i] + ") is out of order");
+            }
+            if ((Double.isFinite(rates[i]) == false) ||
+                    (rates[i] < 0)) {
+                throw new IllegalArgumentException("rate " + i +
+                        " (" + rates[i] + ") is out of range");
+            }
+        }
+
+        this.starts = starts.clone();
+        this.rates = rates.clone();
+        this.period = period;
+    }
+
+    /*
+     *  @return the index of the piece covering the tick within the
+     *  period, -1 if it's before the first piece
+     */
+    private int piece(long local)
+    {
+        int     which;
+
+        which = Arrays.binarySearch(starts, local);
+        if (which < 0) {
+            which = -which - 2;
+        }
+
+        return(which);
+    }
+
+    /**
+     *  @param tick the tick of interest
+     *  @return expected arrivals per tick at {@code tick}
+     */
+    public double       rateAt(long tick)
+    {
+        int     which;
+
+        if (period > 0) {
+            tick = Math.floorMod(tick, period);
+        }
+        which = piece(tick);
+        if (which < 0) {
+            /*
+             *  Before the first piece.
+             */
+            return((period > 0) ? rates[rates.length - 1] : 0.0);
+        }
+
+        return(rates[which]);
+    }
+
+    /**
+     *  @param tick the tick of interest
+     *  @return the first tick after {@code tick} where the rate may
+     *  be different, or {@code Long.MAX_VALUE} if it never changes
+     */
+    public long nextChange(long tick)
+    {
+        long    local;
+        long    base;
+        int     which;
+
+        local = tick;
+        base = 0;
+        if (period > 0) {
+            local = Math.floorMod(tick, period);
+            base = tick - local;
+        }
+
+        which = piece(local) + 1;
+        if (which < starts.length) {
+            return(base + starts[which]);
+        }
+        if (period > 0) {
+            /*
+             *  Around again.
+             */
+            return(base + period + starts[0]);
+        }
+
+        return(Long.MAX_VALUE);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[starts=" + Arrays.toString(starts) +
+                ",rates=" + Arrays.toString(rates) +
+                ",period=" + period + "]");
+    }
+
+    /**
+     *  Performs a unit test on the {@code PiecewiseDemand} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                     errors;
+        PiecewiseDemand         once;
+        PiecewiseDemand         daily;
+        DemandProfile           flat;
+        /*
+         *  Ticks to look at, the rates and next changes expected
+         *  for the one-off profile and for the daily one.
+         */
+        long    tick[]          = {0, 9, 10, 19, 20, 99, 100, 110, 125};
+        double  onceRate[]      = {0, 0, 1, 1, 0.5, 0.5, 0.5, 0.5,
+                                   0.5};
+        long    onceNext[]      = {10, 10, 20, 20, Long.MAX_VALUE,
+                                   Long.MAX_VALUE, Long.MAX_VALUE,
+                                   Long.MAX_VALUE, Long.MAX_VALUE};
+        double  dailyRate[]     = {0.5, 0.5, 1, 1, 0.5, 0.5, 0.5, 1,
+                                   0.5};
+        long    dailyNext[]     = {10, 10, 20, 20, 110, 110, 110, 120,
+                                   210};
+
+        errors = 0;
+        once = new PiecewiseDemand(new long[]{10, 20},
+                new double[]{1, 0.5});
+        daily = new PiecewiseDemand(new long[]{10, 20},
+                new double[]{1, 0.5}, 100);
+        System.out.println(once);
+        System.out.println(daily);
+        for (int i = 0; (i < tick.length); ++i) {
+            if ((once.rateAt(tick[i]) != onceRate[i]) ||
+                    (once.nextChange(tick[i]) != onceNext[i])) {
+                System.out.println("*** ERROR *** once at " + tick[i] +
+                        ": " + once.rateAt(tick[i]) + ", " +
+                        once.nextChange(tick[i]));
+                ++errors;
+            }
+            if ((daily.rateAt(tick[i]) != dailyRate[i]) ||
+                    (daily.nextChange(tick[i]) != dailyNext[i])) {
+                System.out.println("*** ERROR *** daily at " +
+                        tick[i] + ": " + daily.rateAt(tick[i]) + ", " +
+                        daily.nextChange(tick[i]));
+                ++errors;
+            }
+        }
+
+        flat = DemandProfile.constant(0.25);
+        if ((flat.rateAt(123456789) != 0.25) ||
+                (flat.nextChange(5) != Long.MAX_VALUE)) {
+            System.out.println("*** ERROR *** constant isn't");
+            ++errors;
+        }
+
+        try {
+            new PiecewiseDemand(new long[]{5, 5}, new double[]{1, 1});
+            System.out.println("*** ERROR *** repeated start" +
+                    " accepted");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            System.out.println("repeated start: " + e.getMessage());
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
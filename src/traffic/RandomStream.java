@@ -0,0 +1,179 @@
+package traffic;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code RandomStream} is a small, fast source of random numbers
+ *  (SplitMix64) whose whole state is one {@code long}.  Each
+ *  {@code Road} has its own stream so a road's spawns depend only on
+ *  its seed, and the state can be read back and restored exactly.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class RandomStream {
+    private static final long           GOLDEN  = 0x9e3779b97f4a7c15L;
+    private static final AtomicLong     seedUniquifier  =
+            new AtomicLong(System.nanoTime());
+
+    private long        state;
+
+    /**
+     *  Construct a stream with a seed nobody else is likely to have.
+     */
+    public RandomStream()
+    {
+        this(mix(seedUniquifier.addAndGet(GOLDEN) ^ System.nanoTime()));
+    }
+
+    /**
+     *  @param seed the seed of the stream
+     */
+    public RandomStream(long seed)
+    {
+        state = seed;
+    }
+
+    /**
+     *  @param seed a seed shared by a group of streams
+     *  @param stream which stream in the group
+     *  @return a seed for the stream that's unrelated to the seeds
+     *  of the other streams in the group
+     */
+    public static long  seedFor(long seed, long stream)
+    {
+        return(mix(seed + mix(stream * GOLDEN)));
+    }
+
+    /*
+     *  The SplitMix64 finalizer.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return(z ^ (z >>> 31));
+    }
+
+    /**
+     *  @return the next random {@code long}
+     */
+    public long nextLong()
+    {
+        state += GOLDEN;
+        return(mix(state));
+    }
+
+    /**
+     *  @return the next random number in [0, 1)
+     */
+    public double       nextDouble()
+    {
+        return((nextLong() >>> 11) * 0x1.0p-53);
+    }
+
+    /**
+     *  @param bound one more than the largest number wanted
+     *  @return the next random number in [0, bound)
+     */
+    public int  nextInt(int bound)
+    {
+        return((int)(((nextLong() >>> 32) * bound) >>> 32));
+    }
+
+    /**
+     *  @return the whole state of the stream
+     */
+    public long getState()
+    {
+        return(state);
+    }
+
+    /**
+     *  @param state state previously returned by {@code getState()}
+     *  or a seed
+     */
+    public void setState(long state)
+    {
+        this.state = state;
+    }
+
+    /**
+     *  Performs a unit test on the {@code RandomStream} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        RandomStream    first;
+        RandomStream    second;
+        long            saved;
+        long            expected[];
+        int             count[];
+        int             i;
+
+        errors = 0;
+
+        /*
+         *  Same seed, same numbers.  Saving and restoring the state
+         *  must pick up exactly where we left off.
+         */
+        first = new RandomStream(27);
+        second = new RandomStream(27);
+        for (i = 0; (i < 1000); ++i) {
+            if (first.nextLong() != second.nextLong()) {
+                System.out.println("*** ERROR *** streams with the" +
+                        " same seed differ at " + i);
+                ++errors;
+                break;
+            }
+        }
+        saved = first.getState();
+        expected = new long[10];
+        for (i = 0; (i < expected.length); ++i) {
+            expected[i] = first.nextLong();
+        }
+        second.setState(saved);
+        for (i = 0; (i < expected.length); ++i) {
+            if (second.nextLong() != expected[i]) {
+                System.out.println("*** ERROR *** restored stream" +
+                        " differs at " + i);
+                ++errors;
+                break;
+            }
+        }
+        if (seedFor(1, 2) == seedFor(1, 3)) {
+            System.out.println("*** ERROR *** seedFor() repeats");
+            ++errors;
+        }
+
+        /*
+         *  A rough check of uniformity.
+         */
+        count = new int[10];
+        for (i = 0; (i < 1000000); ++i) {
+            double      d;
+
+            d = first.nextDouble();
+            if ((d < 0) || (d >= 1)) {
+                System.out.println("*** ERROR *** " + d +
+                        " is out of range");
+                ++errors;
+                break;
+            }
+            ++count[first.nextInt(10)];
+        }
+        for (i = 0; (i < count.length); ++i) {
+            if (Math.abs(count[i] - 100000) > 2000) {
+                System.out.println("*** ERROR *** nextInt(10) gave " +
+                        i + " " + count[i] + " times");
+                ++errors;
+            }
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -1,61 +1,474 @@
 package traffic;
 
+import java.io.*;
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /**
  *  {@code Road} is class that allows vehicular traffic.
- *  @version 2020092700
+ *  @version 2026101925
  *  @author Richard Barton
  */
 public class Road {
+    /**
+     *  The road is always simulated cell by cell.
+     */
+    public static final int     CELLS   = 0;
+    /**
+     *  The road is always simulated as a queue.
+     */
+    public static final int     QUEUE   = 1;
+    /**
+     *  The road is simulated cell by cell while anything is watching
+     *  it and as a queue otherwise.
+     */
+    public static final int     AUTO    = 2;
+
     private final int           identifier;
-    private static int          nextIdentifier;
+    private static final AtomicInteger  nextIdentifier  =
+            new AtomicInteger();
     private final String        name;
     private final int           carCount;
     private final String        flow;
     private final int           hashCode;
+    private VehicleMix          mix;
+    private DemandProfile       demand;
+    private double              demandScale;
+    private ArrivalSchedule     schedule;
+    private final RandomStream  random;
+    private long                tick;
+    private int                 tickPeriod;
+    private boolean             outletBlocked;
+    private Network             network;
+    private int                 networkIndex;
+    private RoadHistory         history;
+    private OccupancyIndex      occupancy;
+    private ChangeSet           changes;
+    private boolean             offHeap;
+    private int                 detail;
+    private boolean             watched;
+    private int                 trips[];
+
+    /*
+     *  The arrivals waiting for room at the incoming end, oldest
+     *  first from waitingFirst, each packed into one long:  its tick
+     *  in the high 48 bits and its type code in the low 16 bits.
+     *  Arrivals that don't fit are turned away and counted.
+     */
+    private long                waiting[];
+    private int                 waitingFirst;
+    private int                 waitingCount;
+    private long                turnedAway;
+    private Statistics          waits;
+
+    /*
+     *  Where the fields of a slot are in the records of a lane kept
+     *  off the heap.
+     */
+    private static final int    RECORD          = 12;
+    private static final int    IDENTIFIER      = 0;
+    private static final int    CODE            = 4;
+    private static final int    CLOSED          = 6;
+    private static final int    DESTINATION     = 8;
+
+    /*
+     *  What comes between a glyph and the length of its run in a
+     *  snapshot in runs.
+     */
+    private static final char   RUN     = 'x';
+
+    /*
+     *  The fewest positions a stream of the vehicles splits off.
+     */
+    private static final int    SPLIT   = 1024;
 
     private Lane        lane;
 
     /*
-     *  This class manages individual lanes of a road.
+     *  This class manages individual lanes of a road.  The vehicles
+     *  are kept on the heap by HeapLane or off it by OffHeapLane.
+     *  Indices count from the incoming end unless they're positions,
+     *  as in snapshot(), which follow the flow.
      */
-    private class       Lane {
-        private final boolean   reverseFlow;
-        private final Vehicle   lane[];
+    private abstract class      Lane {
+        protected final boolean reverseFlow;
+        protected int           vacated;
+        protected int           vacatedCode;
 
         /*
          *  flow will determine the order in which Vehicles are
          *  accessed in accessor methods.
          */
-        public Lane(boolean reverseFlow) {
+        protected Lane(boolean reverseFlow) {
             this.reverseFlow = reverseFlow;
+        }
+
+        /*
+         *  Take every vehicle off the lane.  Closures stay.
+         */
+        public abstract void clear();
+
+        /*
+         *  The vehicle at a position, and the glyph for it.
+         */
+        public abstract Vehicle vehicleAt(int which);
+
+        public abstract char glyphAt(int which);
+
+        /*
+         *  Whether there's a vehicle at a position, and the code of
+         *  its type, as in codeOf().
+         */
+        public abstract boolean occupiedAt(int which);
+
+        public abstract int codeAt(int which);
+
+        /*
+         *  Closed slots can't be moved into.
+         */
+        public abstract boolean open(int which);
+
+        public abstract void close(int which, boolean close);
+
+        /*
+         *  Move every vehicle that can forward one slot and return
+         *  how many moved.
+         */
+        public abstract int advance();
+
+        /*
+         *  Put a new vehicle of the type in the incoming slot.
+         */
+        public abstract void place(int code);
+
+        /*
+         *  Count the vehicles lined up at the outgoing end, looking
+         *  no further back than the detector reaches.
+         */
+        public abstract int queue(int detector);
+
+        /*
+         *  Count the vehicles on the lane.
+         */
+        public abstract int occupancy();
+
+        /*
+         *  The incoming end of the lane is index 0 and the outgoing
+         *  end is carCount - 1, whatever the flow.
+         */
+        public abstract boolean inletEmpty();
+
+        public abstract boolean outletEmpty();
+
+        public abstract Vehicle outlet();
+
+        public abstract Vehicle releaseOutlet();
+
+        public abstract boolean admit(Vehicle arriving);
+
+        /*
+         *  Put a vehicle, or nothing, in a slot by index.
+         */
+        public abstract void set(int which, Vehicle vehicle);
+
+        /*
+         *  Write the slots to a checkpoint as records laid out as
+         *  off the heap, and read them back.
+         */
+        public abstract void save(Checkpoint.Writer out)
+            throws IOException;
+
+        public abstract void restore(Checkpoint.Reader in)
+            throws IOException;
+
+        /*
+         *  Cause the instance to adjust the position of its vehicles.
+         */
+        public void tick()
+        {
+            advance();
+            spawn();
+        }
+
+        /*
+         *  Fill the incoming slot, if it's empty, with whatever
+         *  arrives on this tick.  Return whether anything did.
+         */
+        public boolean spawn()
+        {
+            int             code;
+
+            code = arrival();
+            place(code);
+
+            return(code != VehicleType.EMPTY_CODE);
+        }
+
+        /*
+         *  Take whatever arrives on this tick and return the type
+         *  code of the vehicle that gets the incoming slot, or
+         *  EMPTY_CODE.  Nothing is created yet.
+         */
+        public int arrival()
+        {
+            int             code;
+            boolean         room;
+            VehicleType     type;
+
+            code = VehicleType.EMPTY_CODE;
+            room = (carCount > 0) && (inletEmpty() == true) &&
+                    (open(0) == true);
+            if ((waitingCount > 0) && (room == true)) {
+                /*
+                 *  The front of the entry queue gets on first, making
+                 *  room behind it for what arrives on this tick.
+                 */
+                code = enter();
+            }
+            if (schedule != null) {
+                /*
+                 *  Arrivals come from the demand profile.  Take
+                 *  everything scheduled up to now.  Only one vehicle
+                 *  fits in the incoming slot, and the rest wait in
+                 *  the entry queue if the road has one, the oldest
+                 *  going first.
+                 */
+                while (schedule.hasArrival(tick) == true) {
+                    long        at;
+                    int         taken;
+
+                    at = schedule.peekTick();
+                    taken = schedule.takeCode();
+                    if (waiting.length > 0) {
+                        join(taken, at);
+                    } else if ((code == VehicleType.EMPTY_CODE) &&
+                            (room == true)) {
+                        code = taken;
+                    } else {
+                        ++turnedAway;
+                    }
+                }
+            } else if (waiting.length > 0) {
+                /*
+                 *  With an entry queue the mix is drawn from on every
+                 *  tick, whether or not the incoming slot is empty,
+                 *  and what's drawn waits its turn.
+                 */
+                draw(tick);
+            } else if (room == true) {
+                /*
+                 *  The incoming slot is empty so pick a Vehicle for
+                 *  it.
+                 */
+                type = getVehicleMix().next(random.nextDouble());
+                if (type != null) {
+                    code = type.getCode();
+                }
+            }
+            if ((code == VehicleType.EMPTY_CODE) &&
+                    (waitingCount > 0) && (room == true)) {
+                /*
+                 *  An arrival to an empty queue can go straight on.
+                 */
+                code = enter();
+            }
+
+            return(code);
+        }
+
+        /*
+         *  Add the positions to a snapshot in runs of the same
+         *  glyph, as in snapshotRuns().
+         */
+        public void appendRuns(StringBuilder runs)
+        {
+            int             i;
+            int             start;
+            char            glyph;
+
+            for (start = 0; (start < carCount); start = i) {
+                glyph = glyphAt(start);
+                for (i = start + 1; (i < carCount) &&
+                        (glyphAt(i) == glyph); ++i) {
+                }
+                if (start > 0) {
+                    runs.append(' ');
+                }
+                runs.append(glyph);
+                if (i - start > 1) {
+                    runs.append(RUN).append(i - start);
+                }
+            }
+        }
+
+        /*
+         *  Tell the occupancy index and the change set, if there are
+         *  any, that the slot at a lane index went from holding one
+         *  code to another.
+         */
+        protected void  changed(int i, int before, int after)
+        {
+            if ((occupancy != null) &&
+                    ((before == VehicleType.EMPTY_CODE) !=
+                    (after == VehicleType.EMPTY_CODE))) {
+                occupancy.add(index(i),
+                        (after == VehicleType.EMPTY_CODE) ? -1 : 1);
+            }
+            if ((changes != null) && (before != after)) {
+                changes.add(index(i), after);
+            }
+        }
+
+        /*
+         *  Tell them what advance() did to each slot it looked at,
+         *  from the outgoing end back, and then to slot -1:  the code
+         *  of what moved into it, if anything did.  A slot a vehicle
+         *  left only changes if the one behind doesn't take its
+         *  place, or is of another type, so a queue moving up a slot
+         *  is two changes and one for each change of type in it.
+         */
+        protected void  moved(int i, int code)
+        {
+            if ((occupancy == null) && (changes == null)) {
+                return;
+            }
+            if (code != VehicleType.EMPTY_CODE) {
+                changed(i, (vacated == i) ? vacatedCode :
+                        VehicleType.EMPTY_CODE, code);
+                vacated = i - 1;
+                vacatedCode = code;
+            } else if ((vacated >= 0) && (vacated >= i)) {
+                changed(vacated, vacatedCode, VehicleType.EMPTY_CODE);
+                vacated = -1;
+            }
+        }
+
+        /*
+         *  Write a slot to a checkpoint as a record laid out as off
+         *  the heap.
+         */
+        protected void  saveSlot(Checkpoint.Writer out, Vehicle vehicle,
+                int i) throws IOException
+        {
+            if (vehicle == null) {
+                out.putInt(0);
+                out.putShort(VehicleType.EMPTY_CODE);
+            } else if (vehicle.getVehicleType() == null) {
+                throw new IllegalArgumentException("vehicle " +
+                        vehicle + " has no registered type");
+            } else {
+                out.putInt(vehicle.getIdentifier());
+                out.putShort(vehicle.getVehicleType().getCode());
+            }
+            out.putShort((open(i) == true) ? 0 : 1);
+            out.putInt((vehicle == null) ? Vehicle.NO_DESTINATION :
+                    vehicle.getDestination());
+        }
+
+        /*
+         *  Hand the vehicles on a range of positions to an action in
+         *  order, walking the slots as they're kept.
+         */
+        public abstract void scan(int from, int to,
+                Consumer<? super Vehicle> action);
+
+        /*
+         *  @return the lane index of a position
+         */
+        protected int   index(int which)
+        {
+            return((reverseFlow == true) ? (carCount - which - 1) :
+                    which);
+        }
+    }
+
+    /*
+     *  A lane of vehicles on the heap.
+     */
+    private final class HeapLane extends Lane {
+        private final Vehicle   lane[];
+        private boolean         closed[];
+
+        public HeapLane(boolean reverseFlow) {
+            super(reverseFlow);
             lane = new Vehicle[carCount];
         }
 
+        public void clear()
+        {
+            Arrays.fill(lane, null);
+        }
+
         public Vehicle vehicleAt(int which)
         {
             if ((which < 0) || (which >= carCount)) {
                 return(null);
             }
 
-            if (reverseFlow == true) {
-                /*
-                 *  Reverse the order of Vehicles.
-                 */
-                which = carCount - which - 1;
+            return(lane[index(which)]);
+        }
+
+        public char glyphAt(int which)
+        {
+            Vehicle         vehicle;
+
+            vehicle = lane[index(which)];
+            return((vehicle == null) ? VehicleType.EMPTY_GLYPH :
+                    vehicle.getGlyph());
+        }
+
+        public boolean occupiedAt(int which)
+        {
+            return(lane[index(which)] != null);
+        }
+
+        public void scan(int from, int to,
+                Consumer<? super Vehicle> action)
+        {
+            int             i;
+            int             step;
+
+            step = (reverseFlow == true) ? -1 : 1;
+            i = index(from);
+            for (int left = to - from; (left > 0); --left, i += step) {
+                if (lane[i] != null) {
+                    action.accept(lane[i]);
+                }
             }
+        }
 
-            return(lane[which]);
+        public int codeAt(int which)
+        {
+            return(codeOf(lane[index(which)]));
         }
 
         /*
-         *  Cause the instance to adjust the position of its vehicles.
+         *  Nothing is allocated for closures until the first one.
          */
-        public void tick()
+        public boolean open(int which)
+        {
+            return((closed == null) || (closed[which] == false));
+        }
+
+        public void close(int which, boolean close)
+        {
+            if (closed == null) {
+                if (close == false) {
+                    return;
+                }
+                closed = new boolean[carCount];
+            }
+            closed[which] = close;
+        }
+
+        public int advance()
         {
             int             i;
             int             j;
+            int             moves;
 
             /*
              *  We'll use the high indices as the outgoing end
@@ -64,13 +477,16 @@ public class Road {
              *  front of it must be empty.  So, we'll start at the
              *  outgoing end.
              */
+            moves = 0;
+            vacated = -1;
             for (i = carCount - 1, j = i - 1; (i > 0); --i, --j) {
-                if (lane[i] != null) {
+                if ((lane[i] != null) || (open(i) == false)) {
                     /*
-                     *  This "slot" in the road is not empty.  So, we
-                     *  can't advance the vehicle behind us into this
-                     *  slot.
+                     *  This "slot" in the road is not empty, or it's
+                     *  closed.  So, we can't advance the vehicle
+                     *  behind us into this slot.
                      */
+                    moved(i, VehicleType.EMPTY_CODE);
                     continue;
                 }
 
@@ -79,297 +495,3316 @@ public class Road {
                  *  Advance the next vehicle to this slot and empty
                  *  its former slot.
                  */
+                if (lane[j] != null) {
+                    ++moves;
+                }
+                moved(i, codeOf(lane[j]));
                 lane[i] = lane[j];
                 lane[j] = null;
             }
-            if ((carCount > 0) && (lane[0] == null)) {
-                /*
-                 *  The incoming slot is empty so get a Vehicle for it.
-                 */
-                lane[0] = Vehicle.nextRandom();
+            moved(-1, VehicleType.EMPTY_CODE);
+
+            return(moves);
+        }
+
+        public void place(int code)
+        {
+            if (code != VehicleType.EMPTY_CODE) {
+                changed(0, codeOf(lane[0]), code);
+                lane[0] = VehicleType.forCode(code).newVehicle();
+                lane[0].setDestination(
+                        tripFor(lane[0].getIdentifier()));
             }
         }
-    }
 
-    /**
-     *  @param name required name of road
-     *  @param carCount required number of cars in one direction
-     *  @param reverseFlow describes whether vehicles should travel the
-     *  other way.  The convention will be that reverseFlow will be
-     *  false for vehicles traveling north or east while reverseFlow
-     *  will be true for vehicles traveling south or west.
-     */
-    public Road(String name, int carCount, boolean reverseFlow)
-    {
-        int     i;
+        public int queue(int detector)
+        {
+            int             i;
+            int             end;
 
-        identifier = nextIdentifier++;
-        this.name = name;
-        if (carCount < 0) {
-            carCount = 0;
-        }
-        this.carCount = carCount;
-        if (reverseFlow == true) {
-            this.flow = "SW";
-        } else {
-            this.flow = "NE";
-        }
-        hashCode = Objects.hash(identifier, name, carCount, flow);
+            end = Math.max(0, carCount - detector);
+            for (i = carCount - 1; (i >= end); --i) {
+                if (lane[i] == null) {
+                    break;
+                }
+            }
 
-        this.lane = new Lane(reverseFlow);
-    }
+            return(carCount - 1 - i);
+        }
 
-    /**
-     *  @return the unique identifier of the road
-     */
-    public int  getIdentifier()
-    {
-        return(identifier);
-    }
+        public int occupancy()
+        {
+            int             count;
 
-    /**
-     *  @return the name of the road
-     */
-    public String       getName()
-    {
-        return(name);
-    }
+            count = 0;
+            for (Vehicle vehicle : lane) {
+                if (vehicle != null) {
+                    ++count;
+                }
+            }
 
-    /**
-     *  @return a {@code String} representation of the
-     *  vehicles on this instance of the road.
-     */
-    public String snapshot()
-    {
-        int     i;
-        int     whichVehicle;
-        char    charsOfVehicles[];
-        Vehicle thisVehicle;
+            return(count);
+        }
 
-        /*
-         *  Need to build a string of characters.
-         */
-        charsOfVehicles = new char[carCount];
+        public boolean inletEmpty()
+        {
+            return((carCount == 0) || (lane[0] == null));
+        }
 
-        for (whichVehicle = 0; (whichVehicle < carCount);
-             ++whichVehicle) {
-            /*
-             *  Assume this "slot" in the road is empty.
-             */
-            charsOfVehicles[whichVehicle] = '_';
-            thisVehicle = lane.vehicleAt(whichVehicle);
-            if (thisVehicle != null) {
-                /*
-                 *  There's a vehicle in this slot in the road.
-                 *  Get the first character of its type to use
-                 *  to represent the vehicle on the road.
-                 */
-                charsOfVehicles[whichVehicle] =
-                        thisVehicle.getType().charAt(0);
-            }
+        public boolean outletEmpty()
+        {
+            return((carCount == 0) || (lane[carCount - 1] == null));
+        }
+
+        public Vehicle outlet()
+        {
+            return((carCount > 0) ? lane[carCount - 1] : null);
+        }
+
+        public Vehicle releaseOutlet()
+        {
+            Vehicle         leaving;
+
+            leaving = outlet();
+            if (leaving != null) {
+                lane[carCount - 1] = null;
+                changed(carCount - 1, codeOf(leaving),
+                        VehicleType.EMPTY_CODE);
+            }
+
+            return(leaving);
+        }
+
+        public boolean admit(Vehicle arriving)
+        {
+            if ((carCount == 0) || (lane[0] != null) ||
+                    (open(0) == false)) {
+                return(false);
+            }
+            lane[0] = arriving;
+            changed(0, VehicleType.EMPTY_CODE, codeOf(arriving));
+
+            return(true);
+        }
+
+        public void set(int which, Vehicle vehicle)
+        {
+            changed(which, codeOf(lane[which]), codeOf(vehicle));
+            lane[which] = vehicle;
+        }
+
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            for (int i = 0; (i < carCount); ++i) {
+                saveSlot(out, lane[i], i);
+            }
+        }
+
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            for (int i = 0; (i < carCount); ++i) {
+                int         identifier;
+                int         code;
+                int         destination;
+
+                identifier = in.getInt();
+                code = in.getShort() & 0xffff;
+                close(i, in.getShort() != 0);
+                destination = in.getInt();
+                lane[i] = (code == VehicleType.EMPTY_CODE) ? null :
+                        Vehicle.revive(VehicleType.forCode(code),
+                        identifier, destination);
+            }
+        }
+    }
+
+    /*
+     *  A lane kept off the heap, in a record for each slot of
+     *  RECORD bytes:  the identifier of the vehicle in it, the code
+     *  of its type, which is EMPTY_CODE if there's no vehicle,
+     *  whether the slot is closed and the vehicle's destination.  A
+     *  vehicle is only an object on its way onto or off the lane, or
+     *  when someone looks at it, and comes back with the same
+     *  identifier, type and destination.
+     */
+    private final class OffHeapLane extends Lane {
+        private final ByteBuffer        cells;
+
+        public OffHeapLane(boolean reverseFlow) {
+            super(reverseFlow);
+            cells = LaneStore.allocate(carCount * RECORD);
+        }
+
+        private int     code(int i)
+        {
+            return(cells.getShort(i * RECORD + CODE) & 0xffff);
+        }
+
+        private Vehicle vehicle(int i)
+        {
+            int             code;
+
+            code = code(i);
+            if (code == VehicleType.EMPTY_CODE) {
+                return(null);
+            }
+
+            return(Vehicle.revive(VehicleType.forCode(code),
+                    cells.getInt(i * RECORD + IDENTIFIER),
+                    cells.getInt(i * RECORD + DESTINATION)));
+        }
+
+        private void    put(int i, int identifier, int code,
+                int destination)
+        {
+            cells.putInt(i * RECORD + IDENTIFIER, identifier);
+            cells.putShort(i * RECORD + CODE, (short)code);
+            cells.putInt(i * RECORD + DESTINATION, destination);
+        }
+
+        public void clear()
+        {
+            for (int i = 0; (i < carCount); ++i) {
+                cells.putShort(i * RECORD + CODE,
+                        (short)VehicleType.EMPTY_CODE);
+            }
+        }
+
+        public Vehicle vehicleAt(int which)
+        {
+            if ((which < 0) || (which >= carCount)) {
+                return(null);
+            }
+
+            return(vehicle(index(which)));
+        }
+
+        public char glyphAt(int which)
+        {
+            return(VehicleType.glyphFor(code(index(which))));
+        }
+
+        public boolean occupiedAt(int which)
+        {
+            return(code(index(which)) != VehicleType.EMPTY_CODE);
+        }
+
+        public void scan(int from, int to,
+                Consumer<? super Vehicle> action)
+        {
+            int             i;
+            int             step;
+
+            step = (reverseFlow == true) ? -1 : 1;
+            i = index(from);
+            for (int left = to - from; (left > 0); --left, i += step) {
+                if (code(i) != VehicleType.EMPTY_CODE) {
+                    action.accept(vehicle(i));
+                }
+            }
+        }
+
+        public int codeAt(int which)
+        {
+            return(code(index(which)));
+        }
+
+        public boolean open(int which)
+        {
+            return(cells.getShort(which * RECORD + CLOSED) == 0);
+        }
+
+        public void close(int which, boolean close)
+        {
+            cells.putShort(which * RECORD + CLOSED,
+                    (short)((close == true) ? 1 : 0));
+        }
+
+        public int advance()
+        {
+            int             i;
+            int             j;
+            int             moves;
+
+            /*
+             *  As on the heap, from the outgoing end back, but the
+             *  records move rather than references.
+             */
+            moves = 0;
+            vacated = -1;
+            for (i = carCount - 1, j = i - 1; (i > 0); --i, --j) {
+                int         code;
+
+                if ((code(i) != VehicleType.EMPTY_CODE) ||
+                        (open(i) == false)) {
+                    moved(i, VehicleType.EMPTY_CODE);
+                    continue;
+                }
+                code = code(j);
+                moved(i, code);
+                if (code != VehicleType.EMPTY_CODE) {
+                    ++moves;
+                    put(i, cells.getInt(j * RECORD + IDENTIFIER), code,
+                            cells.getInt(j * RECORD + DESTINATION));
+                    cells.putShort(j * RECORD + CODE,
+                            (short)VehicleType.EMPTY_CODE);
+                }
+            }
+            moved(-1, VehicleType.EMPTY_CODE);
+
+            return(moves);
+        }
+
+        /*
+         *  The vehicle takes the next identifier, as if it were
+         *  made, but nothing is.
+         */
+        public void place(int code)
+        {
+            if (code != VehicleType.EMPTY_CODE) {
+                int         identifier;
+
+                identifier = Vehicle.newIdentifier();
+                changed(0, code(0), code);
+                put(0, identifier, code, tripFor(identifier));
+            }
+        }
+
+        public int queue(int detector)
+        {
+            int             i;
+            int             end;
+
+            end = Math.max(0, carCount - detector);
+            for (i = carCount - 1; (i >= end); --i) {
+                if (code(i) == VehicleType.EMPTY_CODE) {
+                    break;
+                }
+            }
+
+            return(carCount - 1 - i);
+        }
+
+        public int occupancy()
+        {
+            int             count;
+
+            count = 0;
+            for (int i = 0; (i < carCount); ++i) {
+                if (code(i) != VehicleType.EMPTY_CODE) {
+                    ++count;
+                }
+            }
+
+            return(count);
+        }
+
+        public boolean inletEmpty()
+        {
+            return((carCount == 0) ||
+                    (code(0) == VehicleType.EMPTY_CODE));
+        }
+
+        public boolean outletEmpty()
+        {
+            return((carCount == 0) ||
+                    (code(carCount - 1) == VehicleType.EMPTY_CODE));
+        }
+
+        public Vehicle outlet()
+        {
+            return((carCount > 0) ? vehicle(carCount - 1) : null);
+        }
+
+        public Vehicle releaseOutlet()
+        {
+            Vehicle         leaving;
+
+            leaving = outlet();
+            if (leaving != null) {
+                changed(carCount - 1, code(carCount - 1),
+                        VehicleType.EMPTY_CODE);
+                cells.putShort((carCount - 1) * RECORD + CODE,
+                        (short)VehicleType.EMPTY_CODE);
+            }
+
+            return(leaving);
+        }
+
+        /*
+         *  Only vehicles of registered types can be kept off the
+         *  heap.
+         */
+        public boolean admit(Vehicle arriving)
+        {
+            if ((carCount == 0) || (inletEmpty() == false) ||
+                    (open(0) == false)) {
+                return(false);
+            }
+            set(0, arriving);
+
+            return(true);
+        }
+
+        public void set(int which, Vehicle vehicle)
+        {
+            if (vehicle == null) {
+                changed(which, code(which), VehicleType.EMPTY_CODE);
+                cells.putShort(which * RECORD + CODE,
+                        (short)VehicleType.EMPTY_CODE);
+                return;
+            }
+            if (vehicle.getVehicleType() == null) {
+                throw new IllegalArgumentException("vehicle " +
+                        vehicle + " has no registered type");
+            }
+            changed(which, code(which),
+                    vehicle.getVehicleType().getCode());
+            put(which, vehicle.getIdentifier(),
+                    vehicle.getVehicleType().getCode(),
+                    vehicle.getDestination());
+        }
+
+        /*
+         *  The records go to and from the file as they are.
+         */
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            out.putBlock(cells);
+        }
+
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            ByteBuffer      block;
+
+            block = in.getBlock(carCount * RECORD);
+            if (block.order() == cells.order()) {
+                cells.duplicate().put(block);
+                return;
+            }
+            for (int i = 0; (i < carCount); ++i) {
+                put(i, block.getInt(i * RECORD + IDENTIFIER),
+                        block.getShort(i * RECORD + CODE) & 0xffff,
+                        block.getInt(i * RECORD + DESTINATION));
+                close(i, block.getShort(i * RECORD + CLOSED) != 0);
+            }
+        }
+    }
+
+    /*
+     *  A lane kept as a queue rather than cell by cell.  Each vehicle
+     *  takes the road's free-flow time, carCount - 1 advances, to
+     *  reach the outgoing end, and then waits for the ones ahead of
+     *  it to leave, one a tick at most, with no more than carCount
+     *  vehicles on the lane.  Nothing is done for the vehicles that
+     *  are on their way, so a tick costs the log of the number of
+     *  vehicles, however long the road.
+     *
+     *  The vehicles are kept in the order they came in, with the
+     *  advance they came in on.  A vehicle is taken to be as far
+     *  along as it has had time to get, but no further than the
+     *  slot behind the one ahead of it, so the ones lined up at the
+     *  outgoing end come first, and the positions of the vehicles,
+     *  worked out when someone looks, fall in the order of the queue
+     *  and can be searched for.  Closures are kept for the lanes
+     *  that keep cells, but only a closed incoming slot holds
+     *  vehicles up.
+     */
+    private final class QueueLane extends Lane {
+        private Vehicle         queued[];
+        private long            entered[];
+        private int             first;
+        private int             count;
+        private long            clock;
+        private boolean         closed[];
+        private int             shown[];
+        private int             fresh[];
+
+        public QueueLane(boolean reverseFlow) {
+            super(reverseFlow);
+            queued = new Vehicle[16];
+            entered = new long[16];
+        }
+
+        /*
+         *  The lane index of the vehicle so many from the front.
+         */
+        private int     at(int k)
+        {
+            return((int)Math.min(clock - entered[first + k],
+                    carCount - 1 - k));
+        }
+
+        /*
+         *  How far from the front the vehicle at a lane index is,
+         *  or -1 less where it would go if there's none.
+         */
+        private int     find(int i)
+        {
+            int             low;
+            int             high;
+
+            low = 0;
+            high = count - 1;
+            while (low <= high) {
+                int         middle;
+                int         which;
+
+                middle = (low + high) >>> 1;
+                which = at(middle);
+                if (which == i) {
+                    return(middle);
+                }
+                if (which > i) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return(-(low + 1));
+        }
+
+        /*
+         *  The number of vehicles still on their way to the queue at
+         *  the outgoing end.  They're the ones at the back.
+         */
+        private int     moving()
+        {
+            int             low;
+            int             high;
+
+            low = 0;
+            high = count;
+            while (low < high) {
+                int         middle;
+
+                middle = (low + high) >>> 1;
+                if (clock - entered[first + middle] <
+                        carCount - 1 - middle) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            return(count - low);
+        }
+
+        /*
+         *  The vehicle at a lane index, or null.
+         */
+        private Vehicle vehicle(int i)
+        {
+            int             k;
+
+            k = find(i);
+            return((k < 0) ? null : queued[first + k]);
+        }
+
+        /*
+         *  Make room for one more vehicle at the back.
+         */
+        private void    room()
+        {
+            if (first + count < queued.length) {
+                return;
+            }
+            if (first > 0) {
+                System.arraycopy(queued, first, queued, 0, count);
+                System.arraycopy(entered, first, entered, 0, count);
+                Arrays.fill(queued, count, first + count, null);
+                first = 0;
+                return;
+            }
+            queued = Arrays.copyOf(queued, queued.length * 2);
+            entered = Arrays.copyOf(entered, entered.length * 2);
+        }
+
+        /*
+         *  Put a vehicle in the queue so many from the front.
+         */
+        private void    insert(int k, Vehicle vehicle, long when)
+        {
+            room();
+            System.arraycopy(queued, first + k, queued, first + k + 1,
+                    count - k);
+            System.arraycopy(entered, first + k, entered,
+                    first + k + 1, count - k);
+            queued[first + k] = vehicle;
+            entered[first + k] = when;
+            ++count;
+        }
+
+        private void    remove(int k)
+        {
+            System.arraycopy(queued, first + k + 1, queued, first + k,
+                    count - k - 1);
+            System.arraycopy(entered, first + k + 1, entered,
+                    first + k, count - k - 1);
+            queued[first + --count] = null;
+        }
+
+        /*
+         *  Before a change, lay the lane out as it is if the occupancy
+         *  index or the change set will have to be told about it.
+         */
+        private void    before()
+        {
+            if ((occupancy == null) && (changes == null)) {
+                shown = null;
+                return;
+            }
+            if (shown == null) {
+                shown = new int[carCount];
+                fresh = new int[carCount];
+                layout(shown);
+            }
+        }
+
+        /*
+         *  After it, tell them about each slot that changed.
+         */
+        private void    after()
+        {
+            int             swap[];
+
+            if (shown == null) {
+                return;
+            }
+            layout(fresh);
+            for (int i = 0; (i < carCount); ++i) {
+                if (shown[i] != fresh[i]) {
+                    changed(i, shown[i], fresh[i]);
+                }
+            }
+            swap = shown;
+            shown = fresh;
+            fresh = swap;
+        }
+
+        private void    layout(int into[])
+        {
+            Arrays.fill(into, VehicleType.EMPTY_CODE);
+            for (int k = 0; (k < count); ++k) {
+                into[at(k)] = codeOf(queued[first + k]);
+            }
+        }
+
+        public void clear()
+        {
+            before();
+            Arrays.fill(queued, first, first + count, null);
+            first = 0;
+            count = 0;
+            after();
+        }
+
+        public Vehicle vehicleAt(int which)
+        {
+            if ((which < 0) || (which >= carCount)) {
+                return(null);
+            }
+
+            return(vehicle(index(which)));
+        }
+
+        public char glyphAt(int which)
+        {
+            Vehicle         vehicle;
+
+            vehicle = vehicle(index(which));
+            return((vehicle == null) ? VehicleType.EMPTY_GLYPH :
+                    vehicle.getGlyph());
+        }
+
+        public boolean occupiedAt(int which)
+        {
+            return(find(index(which)) >= 0);
+        }
+
+        /*
+         *  The vehicles on the range are a run of the queue, found
+         *  by searching for its ends.
+         */
+        public void scan(int from, int to,
+                Consumer<? super Vehicle> action)
+        {
+            int             low;
+            int             high;
+            int             front;
+            int             back;
+
+            if (from >= to) {
+                return;
+            }
+            low = Math.min(index(from), index(to - 1));
+            high = Math.max(index(from), index(to - 1));
+            front = find(high);
+            front = (front < 0) ? -(front + 1) : front;
+            back = find(low - 1);
+            back = (back < 0) ? -(back + 1) : back;
+            if (reverseFlow == true) {
+                for (int k = front; (k < back); ++k) {
+                    action.accept(queued[first + k]);
+                }
+            } else {
+                for (int k = back - 1; (k >= front); --k) {
+                    action.accept(queued[first + k]);
+                }
+            }
+        }
+
+        public int codeAt(int which)
+        {
+            return(codeOf(vehicle(index(which))));
+        }
+
+        public boolean open(int which)
+        {
+            return((closed == null) || (closed[which] == false));
+        }
+
+        public void close(int which, boolean close)
+        {
+            if (closed == null) {
+                if (close == false) {
+                    return;
+                }
+                closed = new boolean[carCount];
+            }
+            closed[which] = close;
+        }
+
+        /*
+         *  The vehicles on their way move on a slot each.
+         */
+        public int advance()
+        {
+            int             moves;
+
+            before();
+            moves = moving();
+            ++clock;
+            after();
+
+            return(moves);
+        }
+
+        public void place(int code)
+        {
+            if (code != VehicleType.EMPTY_CODE) {
+                before();
+                room();
+                queued[first + count] =
+                        VehicleType.forCode(code).newVehicle();
+                queued[first + count].setDestination(tripFor(
+                        queued[first + count].getIdentifier()));
+                entered[first + count++] = clock;
+                after();
+            }
+        }
+
+        public int queue(int detector)
+        {
+            return(Math.max(0, Math.min(detector, count - moving())));
+        }
+
+        public int occupancy()
+        {
+            return(count);
+        }
+
+        public boolean inletEmpty()
+        {
+            return((count == 0) || (at(count - 1) > 0));
+        }
+
+        public boolean outletEmpty()
+        {
+            return((count == 0) || (at(0) < carCount - 1));
+        }
+
+        public Vehicle outlet()
+        {
+            return((outletEmpty() == true) ? null : queued[first]);
+        }
+
+        public Vehicle releaseOutlet()
+        {
+            Vehicle         leaving;
+
+            leaving = outlet();
+            if (leaving != null) {
+                before();
+                queued[first++] = null;
+                --count;
+                after();
+            }
+
+            return(leaving);
+        }
+
+        public boolean admit(Vehicle arriving)
+        {
+            if ((carCount == 0) || (inletEmpty() == false) ||
+                    (open(0) == false)) {
+                return(false);
+            }
+            before();
+            room();
+            queued[first + count] = arriving;
+            entered[first + count++] = clock;
+            after();
+
+            return(true);
+        }
+
+        /*
+         *  A vehicle put in a slot is taken to have come in as long
+         *  ago as it would have taken to get there.
+         */
+        public void set(int which, Vehicle vehicle)
+        {
+            int             k;
+
+            before();
+            k = find(which);
+            if ((k >= 0) && (vehicle == null)) {
+                remove(k);
+            } else if (k >= 0) {
+                queued[first + k] = vehicle;
+            } else if (vehicle != null) {
+                insert(-(k + 1), vehicle, clock - which);
+            }
+            after();
+        }
+
+        /*
+         *  The slots go to the checkpoint laid out as a lane of cells
+         *  would have them, so any lane can read them back.
+         */
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            for (int i = 0; (i < carCount); ++i) {
+                saveSlot(out, vehicle(i), i);
+            }
+        }
+
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            int             identifier[];
+            int             code[];
+            int             destination[];
+
+            identifier = new int[carCount];
+            code = new int[carCount];
+            destination = new int[carCount];
+            for (int i = 0; (i < carCount); ++i) {
+                identifier[i] = in.getInt();
+                code[i] = in.getShort() & 0xffff;
+                close(i, in.getShort() != 0);
+                destination[i] = in.getInt();
+            }
+            before();
+            Arrays.fill(queued, first, first + count, null);
+            first = 0;
+            count = 0;
+            for (int i = carCount - 1; (i >= 0); --i) {
+                if (code[i] != VehicleType.EMPTY_CODE) {
+                    insert(count, Vehicle.revive(
+                            VehicleType.forCode(code[i]),
+                            identifier[i], destination[i]), clock - i);
+                }
+            }
+            after();
+        }
+    }
+
+    /*
+     *  Goes over the vehicles on a range of positions, in order,
+     *  skipping the empty ones with the occupancy index if there is
+     *  one or having the lane walk its slots if there isn't, and
+     *  splits the range in half for parallel streams.
+     */
+    private final class Vehicles implements Spliterator<Vehicle> {
+        private int             from;
+        private final int       to;
+
+        Vehicles(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        /*
+         *  The next position from one with a vehicle, or to.
+         */
+        private int     next(int which)
+        {
+            if (occupancy != null) {
+                return(Math.min(occupancy.next(which), to));
+            }
+            while ((which < to) && (lane.occupiedAt(which) == false)) {
+                ++which;
+            }
+
+            return(which);
+        }
+
+        public boolean  tryAdvance(Consumer<? super Vehicle> action)
+        {
+            from = next(from);
+            if (from >= to) {
+                return(false);
+            }
+            action.accept(lane.vehicleAt(from++));
+
+            return(true);
+        }
+
+        public void     forEachRemaining(
+                Consumer<? super Vehicle> action)
+        {
+            int     which;
+
+            if (occupancy == null) {
+                lane.scan(from, to, action);
+            } else {
+                for (which = next(from); (which < to);
+                     which = next(which + 1)) {
+                    action.accept(lane.vehicleAt(which));
+                }
+            }
+            from = to;
+        }
+
+        public Spliterator<Vehicle>     trySplit()
+        {
+            Vehicles        prefix;
+            int             middle;
+
+            if (to - from < 2 * SPLIT) {
+                return(null);
+            }
+            middle = (from + to) >>> 1;
+            prefix = new Vehicles(from, middle);
+            from = middle;
+
+            return(prefix);
+        }
+
+        public long     estimateSize()
+        {
+            return(to - from);
+        }
+
+        public int      characteristics()
+        {
+            return(ORDERED | NONNULL);
+        }
+    }
+
+    /**
+     *  @param name required name of road
+     *  @param carCount required number of cars in one direction
+     *  @param reverseFlow describes whether vehicles should travel the
+     *  other way.  The convention will be that reverseFlow will be
+     *  false for vehicles traveling north or east while reverseFlow
+     *  will be true for vehicles traveling south or west.
+     */
+    public Road(String name, int carCount, boolean reverseFlow)
+    {
+        int     i;
+
+        identifier = nextIdentifier.getAndIncrement();
+        this.name = name;
+        if (carCount < 0) {
+            carCount = 0;
+        }
+        this.carCount = carCount;
+        if (reverseFlow == true) {
+            this.flow = "SW";
+        } else {
+            this.flow = "NE";
+        }
+        hashCode = Objects.hash(identifier, name, carCount, flow);
+        random = new RandomStream();
+        tickPeriod = 1;
+        demandScale = 1.0;
+        waiting = new long[0];
+        waits = new Statistics();
+
+        this.lane = new HeapLane(reverseFlow);
+    }
+
+    /**
+     *  @return the unique identifier of the road
+     */
+    public int  getIdentifier()
+    {
+        return(identifier);
+    }
+
+    /**
+     *  @return the name of the road
+     */
+    public String       getName()
+    {
+        return(name);
+    }
+
+    /**
+     *  @return the number of slots for vehicles on the road
+     */
+    public int  getCarCount()
+    {
+        return(carCount);
+    }
+
+    /**
+     *  @param which position on the road, as in {@code snapshot()}
+     *  @return the vehicle at the position or {@code null} if the
+     *  position is empty or off the road
+     */
+    public Vehicle      vehicleAt(int which)
+    {
+        return(lane.vehicleAt(which));
+    }
+
+    /**
+     *  Stream the vehicles on the road in the order of their
+     *  positions, as in {@code snapshot()}, without looking at the
+     *  empty positions one by one if the road keeps an occupancy
+     *  index.  A parallel stream splits the road into stretches of
+     *  equal length.  The road mustn't change while the stream is
+     *  used.  Vehicles kept off the heap come back as new objects
+     *  with the same identifiers.
+     *  @return the vehicles
+     */
+    public Stream<Vehicle>      vehicles()
+    {
+        return(StreamSupport.stream(new Vehicles(0, carCount), false));
+    }
+
+    /**
+     *  @return the distribution of vehicle types spawned onto the
+     *  road
+     */
+    public VehicleMix   getVehicleMix()
+    {
+        if (mix == null) {
+            /*
+             *  Nobody set one, so follow the registered defaults.
+             */
+            return(VehicleMix.standard());
+        }
+
+        return(mix);
+    }
+
+    /**
+     *  @param mix distribution of vehicle types to spawn onto the
+     *  road or {@code null} for the registered defaults
+     */
+    public void setVehicleMix(VehicleMix mix)
+    {
+        this.mix = mix;
+        reschedule();
+        wake();
+    }
+
+    /**
+     *  @return the demand profile of the road or {@code null} if
+     *  the road spawns from its vehicle mix on every tick
+     */
+    public DemandProfile        getDemand()
+    {
+        return(demand);
+    }
+
+    /**
+     *  @param demand profile of arrivals onto the road or
+     *  {@code null} to have the vehicle mix decide, on every tick,
+     *  whether to spawn a vehicle
+     */
+    public void setDemand(DemandProfile demand)
+    {
+        this.demand = demand;
+        reschedule();
+        wake();
+    }
+
+    /**
+     *  @return the factor the demand profile is multiplied by
+     */
+    public double       getDemandScale()
+    {
+        return(demandScale);
+    }
+
+    /**
+     *  Turn the demand profile up or down, for a spike or a lull.
+     *  @param demandScale the factor to multiply the demand profile
+     *  by
+     *  @throws IllegalArgumentException if the factor is negative
+     */
+    public void setDemandScale(double demandScale)
+    {
+        if ((Double.isFinite(demandScale) == false) ||
+                (demandScale < 0)) {
+            throw new IllegalArgumentException("demand scale " +
+                    demandScale + " is out of range");
+        }
+        this.demandScale = demandScale;
+        reschedule();
+        wake();
+    }
+
+    /**
+     *  @return the most arrivals that wait for room at the incoming
+     *  end
+     */
+    public int  getEntryQueueBound()
+    {
+        return(waiting.length);
+    }
+
+    /**
+     *  Let arriving vehicles wait their turn while the incoming end
+     *  is full, rather than be turned away, so a study of a congested
+     *  road counts the demand it couldn't take.  The ones that don't
+     *  fit in the queue are still turned away, the newest first if
+     *  it's made shorter.  A road without a demand profile draws from
+     *  its vehicle mix on every tick while it has a queue, rather
+     *  than only when the incoming slot is empty, so the same seed
+     *  spawns other traffic with a queue than without.
+     *  @param bound the most that can wait, 0 for none
+     *  @throws IllegalArgumentException if bound is negative
+     */
+    public void setEntryQueueBound(int bound)
+    {
+        long    kept[];
+
+        if (bound < 0) {
+            throw new IllegalArgumentException("entry queue bound " +
+                    bound + " is out of range");
+        }
+        kept = new long[bound];
+        for (int i = 0; (i < waitingCount); ++i) {
+            if (i < bound) {
+                kept[i] = waiting[(waitingFirst + i) % waiting.length];
+            } else {
+                ++turnedAway;
+            }
+        }
+        waitingFirst = 0;
+        waitingCount = Math.min(waitingCount, bound);
+        waiting = kept;
+        wake();
+    }
+
+    /**
+     *  @return how many arrivals are waiting for room at the
+     *  incoming end
+     */
+    public int  getEntryQueueLength()
+    {
+        return(waitingCount);
+    }
+
+    /**
+     *  @return how many arrivals found no room, in the incoming slot
+     *  or the entry queue, and never got on the road.  Without a
+     *  demand profile or an entry queue the mix is only drawn from
+     *  when there's room, so none are.
+     */
+    public long getTurnedAwayCount()
+    {
+        return(turnedAway);
+    }
+
+    /**
+     *  @return the ticks the vehicles that got on from the entry
+     *  queue spent waiting in it
+     */
+    public Statistics   getEntryWaits()
+    {
+        return(new Statistics(waits));
+    }
+
+    /*
+     *  Draw from the vehicle mix for a tick, putting whatever arrives
+     *  in the entry queue.
+     */
+    private void        draw(long at)
+    {
+        VehicleType     type;
+
+        type = getVehicleMix().next(random.nextDouble());
+        if (type != null) {
+            join(type.getCode(), at);
+        }
+    }
+
+    /*
+     *  Put an arrival at the back of the entry queue, or turn it
+     *  away if the queue is full.
+     */
+    private void        join(int code, long at)
+    {
+        if (waitingCount == waiting.length) {
+            ++turnedAway;
+            return;
+        }
+        waiting[(waitingFirst + waitingCount++) % waiting.length] =
+                (at << 16) | code;
+    }
+
+    /*
+     *  Take the arrival at the front of the entry queue and return
+     *  its type code.
+     */
+    private int enter()
+    {
+        long    entry;
+
+        entry = waiting[waitingFirst];
+        waitingFirst = (waitingFirst + 1) % waiting.length;
+        --waitingCount;
+        waits.add(tick - (entry >> 16));
+
+        return((int)entry & 0xffff);
+    }
+
+    /**
+     *  @return whether vehicles are kept from leaving the road, by a
+     *  red light for instance
+     */
+    public boolean      isOutletBlocked()
+    {
+        return(outletBlocked);
+    }
+
+    /**
+     *  @param outletBlocked whether vehicles are kept from leaving
+     *  the road
+     */
+    public void setOutletBlocked(boolean outletBlocked)
+    {
+        this.outletBlocked = outletBlocked;
+        wake();
+    }
+
+    /**
+     *  @param which position on the road, as in {@code snapshot()}
+     *  @return whether vehicles are kept from moving into the
+     *  position
+     */
+    public boolean      isSlotClosed(int which)
+    {
+        if ((which < 0) || (which >= carCount)) {
+            return(false);
+        }
+
+        return(lane.open(laneIndex(which)) == false);
+    }
+
+    /**
+     *  Close a position on the road, for a lane closure.  A vehicle
+     *  already there can still move on but no other can move in.
+     *  @param which position on the road, as in {@code snapshot()}
+     *  @param closed whether to close or open the position
+     */
+    public void setSlotClosed(int which, boolean closed)
+    {
+        if ((which < 0) || (which >= carCount)) {
+            return;
+        }
+        lane.close(laneIndex(which), closed);
+        wake();
+    }
+
+    /**
+     *  @return whether the vehicles on the road are kept off the heap
+     */
+    public boolean      isOffHeap()
+    {
+        return(lane instanceof OffHeapLane);
+    }
+
+    /**
+     *  Keep the vehicles on the road off the heap, as compact records
+     *  of their identifiers and types, or on it.  Off the heap, a
+     *  road costs the garbage collector nothing however long it is,
+     *  but a vehicle taken off it, or looked at, is a new object with
+     *  the same identifier and type as the one put on it.  The
+     *  vehicles on the road and the closures move with the change.
+     *  A road simulated as a queue keeps its vehicles on the heap
+     *  until it goes back to cells.
+     *  @param offHeap whether to keep the vehicles off the heap
+     *  @throws IllegalArgumentException if a vehicle on the road
+     *  has no registered type and can't be kept off the heap
+     */
+    public void setOffHeap(boolean offHeap)
+    {
+        if ((isQueued() == true) || (offHeap == isOffHeap())) {
+            this.offHeap = offHeap;
+            return;
+        }
+        relane((offHeap == true) ? new OffHeapLane(lane.reverseFlow) :
+                new HeapLane(lane.reverseFlow));
+        this.offHeap = offHeap;
+    }
+
+    /**
+     *  @return whether the road is being simulated as a queue rather
+     *  than cell by cell
+     */
+    public boolean      isQueued()
+    {
+        return(lane instanceof QueueLane);
+    }
+
+    /**
+     *  @return how the road is simulated:  {@code CELLS}, {@code
+     *  QUEUE} or {@code AUTO}
+     */
+    public int  getDetail()
+    {
+        return(detail);
+    }
+
+    /**
+     *  Simulate the road cell by cell, or as a queue, which costs a
+     *  tick next to nothing however long the road is.  As a queue,
+     *  a vehicle takes as long to reach the outgoing end as it would
+     *  with nothing ahead of it, carCount - 1 ticks, and then waits
+     *  its turn to leave, with one leaving a tick at most and no
+     *  more than carCount on the road.  Positions are worked out
+     *  when something looks, taking each vehicle to be as far along
+     *  as it has had time to get short of the one ahead of it.
+     *  <p>
+     *  The vehicles keep their places, and are the same vehicles,
+     *  whenever the road changes from one to the other, so it can
+     *  be changed between any two ticks.  With {@code AUTO} the road
+     *  is simulated cell by cell while it's watched, keeps a change
+     *  set, a history or an occupancy index, and as a queue while
+     *  nothing is looking at it that closely.
+     *  @param detail {@code CELLS}, {@code QUEUE} or {@code AUTO}
+     *  @throws IllegalArgumentException if the detail is none of
+     *  those
+     */
+    public void setDetail(int detail)
+    {
+        if ((detail != CELLS) && (detail != QUEUE) &&
+                (detail != AUTO)) {
+            throw new IllegalArgumentException("no detail " + detail +
+                    " for " + name);
+        }
+        this.detail = detail;
+        redetail();
+    }
+
+    /**
+     *  @return whether something said it's watching the road
+     */
+    public boolean      isWatched()
+    {
+        return(watched);
+    }
+
+    /**
+     *  Say something is watching the road, or has stopped, so that
+     *  with {@code AUTO} detail it's simulated cell by cell or not.
+     *  @param watched whether the road is being watched
+     */
+    public void setWatched(boolean watched)
+    {
+        this.watched = watched;
+        redetail();
+    }
+
+    /*
+     *  Change to the lane the detail calls for, if it isn't that
+     *  already.
+     */
+    private void        redetail()
+    {
+        boolean queue;
+
+        queue = (detail == QUEUE) || ((detail == AUTO) &&
+                (watched == false) && (changes == null) &&
+                (history == null) && (occupancy == null));
+        if (queue == isQueued()) {
+            return;
+        }
+        if (queue == true) {
+            relane(new QueueLane(lane.reverseFlow));
+        } else {
+            relane((offHeap == true) ?
+                    new OffHeapLane(lane.reverseFlow) :
+                    new HeapLane(lane.reverseFlow));
+        }
+    }
+
+    /*
+     *  Move the vehicles and the closures to another lane, from the
+     *  outgoing end back.
+     */
+    private void        relane(Lane next)
+    {
+        ChangeSet       sink;
+        OccupancyIndex  index;
+
+        /*
+         *  Nothing a viewer can see changes, and the index is
+         *  counted over again after.
+         */
+        sink = changes;
+        index = occupancy;
+        changes = null;
+        occupancy = null;
+        for (int i = carCount - 1; (i >= 0); --i) {
+            next.set(i, lane.vehicleAt(lane.index(i)));
+            next.close(i, lane.open(i) == false);
+        }
+        changes = sink;
+        occupancy = index;
+        lane = next;
+        reindex();
+        wake();
+    }
+
+    /*
+     *  @return the lane index, counting from the incoming end, of a
+     *  position on the road
+     */
+    private int laneIndex(int which)
+    {
+        return(lane.index(which));
+    }
+
+    /**
+     *  @param seed seed of the random numbers the road spawns with.
+     *  Two roads with the same seed and settings spawn the same
+     *  vehicles.
+     */
+    public void setSeed(long seed)
+    {
+        random.setState(seed);
+        reschedule();
+        wake();
+    }
+
+    /**
+     *  @return the number of ticks the road has run.  A road in a
+     *  network is always at the network's tick.
+     */
+    public long getTick()
+    {
+        if (network != null) {
+            return(network.getTick());
+        }
+
+        return(tick);
+    }
+
+    /**
+     *  @return how many of the network's ticks go by for each tick
+     *  of the road
+     */
+    public int  getTickPeriod()
+    {
+        return(tickPeriod);
+    }
+
+    /**
+     *  Slow a road down relative to the network it's in.  A road
+     *  with a period of 5 only ticks on every fifth step of the
+     *  network.  Vehicles arriving in between wait for its tick.
+     *  Roads on their own tick whenever {@code tick()} is called.
+     *  @param tickPeriod how many of the network's ticks go by for
+     *  each tick of the road
+     *  @throws IllegalArgumentException if the period isn't positive
+     */
+    public void setTickPeriod(int tickPeriod)
+    {
+        if (tickPeriod < 1) {
+            throw new IllegalArgumentException("tick period " +
+                    tickPeriod + " isn't positive");
+        }
+        this.tickPeriod = tickPeriod;
+        wake();
+    }
+
+    /**
+     *  @return the network the road belongs to or {@code null}
+     */
+    public Network      getNetwork()
+    {
+        return(network);
+    }
+
+    /*
+     *  Let the network know something about the road has changed,
+     *  in case it stopped paying attention to it.
+     */
+    private void wake()
+    {
+        if (network != null) {
+            network.wake(this);
+        }
+    }
+
+    /*
+     *  Throw away any precomputed arrivals and start over from the
+     *  current tick.
+     */
+    private void reschedule()
+    {
+        schedule = null;
+        if (demand != null) {
+            schedule = new ArrivalSchedule(scaledDemand(),
+                    getVehicleMix(), random, tick);
+        }
+    }
+
+    /*
+     *  The demand profile times the scale.
+     */
+    private DemandProfile       scaledDemand()
+    {
+        return((demandScale == 1.0) ? demand :
+                demand.scaled(demandScale));
+    }
+
+    /**
+     *  @return a {@code String} representation of the
+     *  vehicles on this instance of the road.
+     */
+    public String snapshot()
+    {
+        int     whichVehicle;
+        char    charsOfVehicles[];
+
+        /*
+         *  Need to build a string of characters.
+         */
+        charsOfVehicles = new char[carCount];
+
+        for (whichVehicle = 0; (whichVehicle < carCount);
+             ++whichVehicle) {
+            /*
+             *  The type of the vehicle in this slot, if there is
+             *  one, decides how it's represented on the road.
+             */
+            charsOfVehicles[whichVehicle] = lane.glyphAt(whichVehicle);
+        }
+
+        /*
+         *  Instantiate a String of our characters.
+         */
+        return(new String(charsOfVehicles));
+    }
+
+    /**
+     *  A snapshot for long roads, as runs of the same glyph.  Each
+     *  run is the glyph, followed by {@code x} and the length of the
+     *  run if it's longer than one, and runs are separated by a
+     *  space, so {@code "_____cccm"} is {@code "_x5 cx3 m"}.  It's
+     *  made from the lane without making the snapshot first.  It
+     *  pays on roads that are mostly jammed or empty; a road in
+     *  stop and go traffic takes more than its snapshot.
+     *  @return the runs of the vehicles on this instance of the road
+     */
+    public String       snapshotRuns()
+    {
+        StringBuilder   runs;
+
+        runs = new StringBuilder();
+        lane.appendRuns(runs);
+
+        return(runs.toString());
+    }
+
+    /**
+     *  @param runs a snapshot in runs, as {@code snapshotRuns()}
+     *  makes them
+     *  @return the snapshot it stands for, as {@code snapshot()}
+     *  makes them
+     *  @throws IllegalArgumentException if runs isn't a snapshot in
+     *  runs
+     */
+    public static String        expandRuns(String runs)
+    {
+        StringBuilder   snapshot;
+        int             i;
+
+        snapshot = new StringBuilder();
+        i = 0;
+        while (i < runs.length()) {
+            char    glyph;
+            int     length;
+
+            if ((i > 0) && (runs.charAt(i++) != ' ')) {
+                throw new IllegalArgumentException("no space before " +
+                        (i - 1) + " in \"" + runs + "\"");
+            }
+            if (i == runs.length()) {
+                throw new IllegalArgumentException("no glyph at " + i +
+                        " in \"" + runs + "\"");
+            }
+            glyph = runs.charAt(i++);
+            length = 1;
+            if ((i < runs.length()) && (runs.charAt(i) == RUN)) {
+                int     end;
+
+                for (end = ++i; (end < runs.length()) &&
+                        (Character.isDigit(runs.charAt(end)) == true);
+                     ++end) {
+                }
+                try {
+                    length = Integer.parseInt(
+                            runs.substring(i, end));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad length" +
+                            " at " + i + " in \"" + runs + "\"");
+                }
+                i = end;
+            }
+            for (; (length > 0); --length) {
+                snapshot.append(glyph);
+            }
+        }
+
+        return(snapshot.toString());
+    }
+
+    /**
+     *  Keep the snapshots of the road's last ticks, so they can be
+     *  looked at again.  What the road was after each tick is kept,
+     *  in far less memory than the snapshots.  Changing the number
+     *  of ticks starts the history over.
+     *  @param ticks how many ticks to keep, or 0 to keep none
+     *  @throws IllegalArgumentException if ticks is negative
+     */
+    public void setHistory(int ticks)
+    {
+        if (ticks < 0) {
+            throw new IllegalArgumentException("can't keep " + ticks +
+                    " ticks of history");
+        }
+        history = (ticks == 0) ? null :
+                new RoadHistory(carCount, ticks);
+        remember();
+        redetail();
+    }
+
+    /**
+     *  @return how many ticks of snapshots are kept
+     */
+    public int  getHistory()
+    {
+        return((history == null) ? 0 : history.ticks());
+    }
+
+    /**
+     *  @param tick a tick of the road within its history
+     *  @return what {@code snapshot()} returned at the end of that
+     *  tick
+     *  @throws IllegalArgumentException if the tick isn't in the
+     *  history
+     */
+    public String       snapshotAt(long tick)
+    {
+        if ((history == null) || (tick < history.earliest()) ||
+                (tick > this.tick)) {
+            throw new IllegalArgumentException("tick " + tick +
+                    " isn't in the history of " + name);
+        }
+
+        return(history.snapshotAt(tick));
+    }
+
+    /*
+     *  Add what the road is now to its history.
+     */
+    private void        remember()
+    {
+        if (history == null) {
+            return;
+        }
+        glyphsInto(history.frame(), 0);
+        history.add(tick);
+    }
+
+    /*
+     *  Copy the road's snapshot into some characters from a place,
+     *  without making a string of it.
+     */
+    void        glyphsInto(char into[], int at)
+    {
+        for (int i = 0; (i < carCount); ++i) {
+            into[at + i] = lane.glyphAt(i);
+        }
+    }
+
+    /**
+     *  Keep an index of where the vehicles are, so the vehicles on a
+     *  stretch of the road, the densest window of a width and a
+     *  coarse view of the road are found without looking at every
+     *  position.  Moving vehicles keeps it up to date, at a cost
+     *  that grows with the log of the road's length for each queue
+     *  that moves.
+     *  @param window the width of the windows {@code densestWindow()}
+     *  answers for at once, or 0 to drop the index
+     *  @throws IllegalArgumentException if the window is negative
+     *  or longer than the road
+     */
+    public void setOccupancyIndex(int window)
+    {
+        if ((window < 0) || (window > carCount)) {
+            throw new IllegalArgumentException("no windows of " +
+                    window + " on " + name);
+        }
+        occupancy = (window == 0) ? null :
+                new OccupancyIndex(carCount, window);
+        reindex();
+        redetail();
+    }
+
+    /**
+     *  @return the width of the windows the occupancy index finds
+     *  the densest of, or 0 if there is no index
+     */
+    public int  getOccupancyWindow()
+    {
+        return((occupancy == null) ? 0 : occupancy.window());
+    }
+
+    /*
+     *  Count the vehicles on the road over again.
+     */
+    private void        reindex()
+    {
+        if (occupancy != null) {
+            occupancy.rebuild(lane::occupiedAt);
+        }
+    }
+
+    /*
+     *  List every position as changed, after the lane was changed
+     *  all at once.
+     */
+    private void        changedAll()
+    {
+        if (changes != null) {
+            for (int i = 0; (i < carCount); ++i) {
+                changes.add(i, lane.codeAt(i));
+            }
+        }
+    }
+
+    /*
+     *  @return the type code of a vehicle, which is EMPTY_CODE for
+     *  none and UNREGISTERED_CODE if its type was never registered
+     */
+    private static int  codeOf(Vehicle vehicle)
+    {
+        if (vehicle == null) {
+            return(VehicleType.EMPTY_CODE);
+        }
+        if (vehicle.getVehicleType() == null) {
+            return(ChangeSet.UNREGISTERED_CODE);
+        }
+
+        return(vehicle.getVehicleType().getCode());
+    }
+
+    /**
+     *  Note each position whose vehicle changes from now on, as the
+     *  road ticks, hands vehicles on and takes them in, in a change
+     *  set and nowhere else, for a road with one reader.  The road
+     *  only adds to it; whoever reads it clears it.
+     *  @param changes the change set, or null to stop
+     *  @throws IllegalArgumentException if another road feeds the
+     *  change set
+     */
+    public void setChangeSet(ChangeSet changes)
+    {
+        ChangeSet       set;
+
+        if ((changes != null) && (changes.fed == true)) {
+            set = this.changes;
+            while ((set != null) && (set != changes)) {
+                set = set.next;
+            }
+            if (set == null) {
+                throw new IllegalArgumentException(
+                        "change set fed by another road");
+            }
+        }
+        while (this.changes != null) {
+            set = this.changes;
+            this.changes = set.next;
+            set.next = null;
+            set.fed = false;
+        }
+        if (changes != null) {
+            changes.fed = true;
+            this.changes = changes;
+        }
+        redetail();
+    }
+
+    /**
+     *  Note each position whose vehicle changes from now on in a
+     *  change set as well as in any the road already feeds, so each
+     *  reader of the road can have its own.  The road only adds to
+     *  it; whoever reads it clears it.
+     *  @param changes the change set
+     *  @throws IllegalArgumentException if it's null or a road
+     *  already feeds it
+     */
+    public void addChangeSet(ChangeSet changes)
+    {
+        if (changes == null) {
+            throw new IllegalArgumentException("no change set");
+        }
+        if (changes.fed == true) {
+            throw new IllegalArgumentException(
+                    "change set already fed by a road");
+        }
+        changes.next = this.changes;
+        changes.fed = true;
+        this.changes = changes;
+        redetail();
+    }
+
+    /**
+     *  Stop adding to a change set, going on with any others the road
+     *  feeds.  Nothing happens if the road doesn't feed it.
+     *  @param changes the change set
+     */
+    public void removeChangeSet(ChangeSet changes)
+    {
+        ChangeSet       set;
+
+        if (this.changes == null) {
+            return;
+        }
+        if (this.changes == changes) {
+            this.changes = changes.next;
+        } else {
+            set = this.changes;
+            while ((set.next != null) && (set.next != changes)) {
+                set = set.next;
+            }
+            if (set.next == null) {
+                return;
+            }
+            set.next = changes.next;
+        }
+        changes.next = null;
+        changes.fed = false;
+        redetail();
+    }
+
+    /**
+     *  @return the change set the road was last given to add to, or
+     *  null if it feeds none
+     */
+    public ChangeSet    getChangeSet()
+    {
+        return(changes);
+    }
+
+    /**
+     *  @param from the first position, as in {@code snapshot()}
+     *  @param to the position after the last
+     *  @return the number of vehicles from one to the other
+     *  @throws IllegalArgumentException if they're not positions on
+     *  the road in order
+     */
+    public int  countVehicles(int from, int to)
+    {
+        int     count;
+
+        if ((from < 0) || (from > to) || (to > carCount)) {
+            throw new IllegalArgumentException("no positions " + from +
+                    " to " + to + " on " + name);
+        }
+        if (occupancy != null) {
+            return(occupancy.count(from, to));
+        }
+
+        count = 0;
+        for (int i = from; (i < to); ++i) {
+            if (lane.occupiedAt(i) == true) {
+                ++count;
+            }
+        }
+
+        return(count);
+    }
+
+    /**
+     *  @param width the width of the window
+     *  @return the first position of the first window of that many
+     *  positions with the most vehicles in it.  It's found at once
+     *  if the width is the occupancy index's window, and by looking
+     *  along the road otherwise.
+     *  @throws IllegalArgumentException if the width isn't from 1 to
+     *  the length of the road
+     */
+    public int  densestWindow(int width)
+    {
+        int     count;
+        int     most;
+        int     densest;
+
+        if ((width < 1) || (width > carCount)) {
+            throw new IllegalArgumentException("no windows of " +
+                    width + " on " + name);
+        }
+        if (width == getOccupancyWindow()) {
+            return(occupancy.densest());
+        }
+
+        count = countVehicles(0, width);
+        most = count;
+        densest = 0;
+        for (int i = width; (i < carCount); ++i) {
+            if (lane.occupiedAt(i) == true) {
+                ++count;
+            }
+            if (lane.occupiedAt(i - width) == true) {
+                --count;
+            }
+            if (count > most) {
+                most = count;
+                densest = i - width + 1;
+            }
+        }
+
+        return(densest);
+    }
+
+    /**
+     *  A coarse view of the road, for drawing it smaller than a
+     *  position a pixel.
+     *  @param buckets how many stretches to split the road into
+     *  @return the number of vehicles on each stretch, in the order
+     *  of {@code snapshot()}.  Stretch b is from position
+     *  b * length / buckets up to the next one's.
+     *  @throws IllegalArgumentException if buckets isn't positive
+     */
+    public int[]        occupancyProfile(int buckets)
+    {
+        int     profile[];
+
+        if (buckets < 1) {
+            throw new IllegalArgumentException(buckets +
+                    " stretches of " + name);
+        }
+        profile = new int[buckets];
+        for (int b = 0; (b < buckets); ++b) {
+            profile[b] = countVehicles(
+                    (int)((long)b * carCount / buckets),
+                    (int)((long)(b + 1) * carCount / buckets));
+        }
+
+        return(profile);
+    }
+
+    /**
+     *  Cause the {@code Road} instance to adjust the
+     *  position of its vehicles.
+     */
+    public void tick()
+    {
+        /*
+         *  The lane manages its own ticks.
+         */
+        lane.tick();
+        ++tick;
+        remember();
+    }
+
+    /*
+     *  The rest of the tick, for the network, which ticks its roads
+     *  in phases so vehicles can be handed from road to road.
+     */
+    void joinNetwork(Network network, int networkIndex)
+    {
+        this.network = network;
+        this.networkIndex = networkIndex;
+    }
+
+    int networkIndex()
+    {
+        return(networkIndex);
+    }
+
+    Vehicle     outletVehicle()
+    {
+        return(lane.outlet());
+    }
+
+    boolean     outletEmpty()
+    {
+        return(lane.outletEmpty());
+    }
+
+    /*
+     *  The number of vehicles on the road.
+     */
+    int occupancy()
+    {
+        return(lane.occupancy());
+    }
+
+    Vehicle     releaseOutlet()
+    {
+        return(lane.releaseOutlet());
+    }
+
+    boolean     inletFree()
+    {
+        return((carCount > 0) && (lane.inletEmpty() == true) &&
+                (lane.open(0) == true));
+    }
+
+    int advance()
+    {
+        return(lane.advance());
+    }
+
+    boolean     admit(Vehicle arriving)
+    {
+        return(lane.admit(arriving));
+    }
+
+    /*
+     *  Take the arrivals for the current tick and return the type
+     *  code of the vehicle to spawn, if any.  Roads can do this at
+     *  the same time, since each only touches its own state.
+     */
+    int arrival()
+    {
+        return(lane.arrival());
+    }
+
+    /*
+     *  Spawn what arrival() picked and finish the tick.  The network
+     *  does this one road at a time, in order, so vehicles get the
+     *  same identifiers however many threads picked the arrivals.
+     */
+    void        finishTick(int code)
+    {
+        lane.place(code);
+        ++tick;
+        remember();
+    }
+
+    /*
+     *  Empty the road and start it over at tick 0 with a new seed,
+     *  keeping its settings and its lane, for the network to run
+     *  another replica.
+     */
+    void        reset(long seed)
+    {
+        lane.clear();
+        waitingFirst = 0;
+        waitingCount = 0;
+        turnedAway = 0;
+        waits = new Statistics();
+        tick = 0;
+        random.setState(seed);
+        reschedule();
+        reindex();
+        changedAll();
+        setHistory(getHistory());
+    }
+
+    /*
+     *  Write everything about the road that changes as it runs to a
+     *  checkpoint:  its tick, the settings events change, its random
+     *  numbers, its schedule of arrivals and its lane.
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putLong(tick);
+        out.putInt(tickPeriod);
+        out.putByte((outletBlocked == true) ? 1 : 0);
+        out.putDouble(demandScale);
+        out.putLong(random.getState());
+        if (schedule != null) {
+            schedule.save(out);
+        }
+        lane.save(out);
+        out.putInt(waitingCount);
+        for (int i = 0; (i < waitingCount); ++i) {
+            out.putLong(waiting[(waitingFirst + i) % waiting.length]);
+        }
+        out.putLong(turnedAway);
+        waits.save(out);
+    }
+
+    /*
+     *  Read the road back.  The checkpoint has been checked to have
+     *  a road as long as this one with a demand if this one has.
+     */
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        tick = in.getLong();
+        tickPeriod = in.getInt();
+        outletBlocked = (in.getByte() != 0);
+        demandScale = in.getDouble();
+        random.setState(in.getLong());
+        schedule = null;
+        if (demand != null) {
+            schedule = new ArrivalSchedule(scaledDemand(),
+                    getVehicleMix(), random, in);
+        }
+        lane.restore(in);
+        waitingFirst = 0;
+        waitingCount = in.getInt();
+        if ((waitingCount < 0) || (waitingCount > waiting.length)) {
+            throw new IllegalArgumentException("checkpoint has " +
+                    waitingCount + " arrivals waiting for " + this);
+        }
+        for (int i = 0; (i < waitingCount); ++i) {
+            waiting[i] = in.getLong();
+        }
+        turnedAway = in.getLong();
+        waits.restore(in);
+        reindex();
+        changedAll();
+        setHistory(getHistory());
+    }
+
+    /*
+     *  The destinations the vehicles spawned on the road head for,
+     *  picked by identifier so a replay picks the same, or null for
+     *  none.
+     */
+    void        setTrips(int trips[])
+    {
+        this.trips = trips;
+    }
+
+    int tripFor(int identifier)
+    {
+        if (trips == null) {
+            return(Vehicle.NO_DESTINATION);
+        }
+
+        return(trips[Math.floorMod(identifier, trips.length)]);
+    }
+
+    /*
+     *  The number of vehicles lined up at the outgoing end, up to
+     *  the detector length, for signals that react to queues.
+     */
+    int queueLength(int detector)
+    {
+        return(lane.queue(detector));
+    }
+
+    /*
+     *  Count the vehicles of each type into a row of columns indexed
+     *  by type code, in one pass from the incoming end, leaving out
+     *  types with no column, and the number lined up there.
+     */
+    int census(int column[][], int row)
+    {
+        int     lined;
+        boolean lining;
+
+        lined = 0;
+        lining = true;
+        for (int i = 0; (i < carCount); ++i) {
+            int     code;
+
+            code = lane.codeAt((lane.reverseFlow == true) ?
+                    (carCount - i - 1) : i);
+            if (code == VehicleType.EMPTY_CODE) {
+                lining = false;
+                continue;
+            }
+            if (lining == true) {
+                ++lined;
+            }
+            if ((code > 0) && (code < column.length)) {
+                ++column[code][row];
+            }
+        }
+
+        return(lined);
+    }
+
+    /*
+     *  The vehicles expected to arrive per tick around a tick, as
+     *  far as one a tick, for weighing up the road.
+     */
+    double      expectedRate(long when)
+    {
+        if (demand != null) {
+            return(Math.min(1.0, demand.rateAt(when) * demandScale));
+        }
+
+        return(getVehicleMix().spawnProbability());
+    }
+
+    /*
+     *  Whether an empty incoming slot might be filled on any tick,
+     *  so the road can never be left alone while it's empty.
+     */
+    boolean     spawnsEveryTick()
+    {
+        return((schedule == null) && (getVehicleMix().canSpawn()));
+    }
+
+    /*
+     *  The tick of the next scheduled arrival, no later than limit,
+     *  or Long.MAX_VALUE.
+     */
+    long        nextArrival(long limit)
+    {
+        if (schedule == null) {
+            return(Long.MAX_VALUE);
+        }
+
+        return(schedule.nextArrival(limit));
+    }
+
+    /*
+     *  The network is about to tick the road.  Anything that arrived
+     *  since the road's last tick waits for this one, but if the
+     *  network skipped ticks that couldn't have changed the road,
+     *  whatever arrived before them found the incoming slot full and
+     *  joined the entry queue, or was turned away if there wasn't
+     *  room.
+     */
+    void        catchUp(long now)
+    {
+        if (tick >= now) {
+            return;
+        }
+        if ((schedule != null) && (waiting.length > 0)) {
+            while (schedule.hasArrival(now - tickPeriod) == true) {
+                long        at;
+
+                at = schedule.peekTick();
+                join(schedule.takeCode(), at);
+            }
+        } else if (schedule != null) {
+            turnedAway += schedule.skipBefore(now - tickPeriod + 1);
+        } else if ((waiting.length > 0) &&
+                (getVehicleMix().canSpawn() == true)) {
+            for (long t = tick; (t <= now - tickPeriod);
+                 t += tickPeriod) {
+                draw(t);
+            }
+        }
+        tick = now;
+    }
+
+    /*
+     *  The road joins a network that's already on a tick.  Nothing
+     *  that would have arrived before then ever did, so none of it
+     *  waits or counts as turned away.
+     */
+    void        startAt(long now)
+    {
+        if (tick >= now) {
+            return;
+        }
+        if (schedule != null) {
+            schedule.skipBefore(now - tickPeriod + 1);
+        }
+        tick = now;
+    }
+
+    /**
+     *  Compare two {@code Road} objects
+     *  @param otherObject the object to compare to this object
+     *  @return equal or not
+     */
+    public boolean equals(Object otherObject)
+    {
+        Road    otherMe;
+
+        if (otherObject == null) {
+            /*
+             *  The caller didn't give us anything.
+             */
+            return(false);
+        }
+
+        if (this == otherObject) {
+            /*
+             *  They're at the same address!
+             */
+            return(true);
+        }
+
+        if (getClass() != otherObject.getClass()) {
+            /*
+             *  They're different classes.
+             */
+            return(false);
+        }
+
+        /*
+         *  We know the otherObject must be a non-null reference to
+         *  this class.
+         */
+        otherMe = (Road)otherObject;
+
+        /*
+         *  We're going to trust identifier to be unique.
+         */
+        if (identifier != otherMe.identifier) {
+            /*
+             *  They're different identifiers.
+             */
+            return(false);
+        }
+
+        return(true);
+    }
+
+    /**
+     *  @return object's hash code
+     */
+    public int hashCode()
+    {
+        return(hashCode);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[identifier=" + identifier +
+                ",name=" + name +
+                ",carCount=" + carCount +
+                ",flow=" + flow + "]");
+    }
+
+    /*
+     *  Run some ticks with car configurations and make sure the road
+     *  is behaving.
+     */
+    private static int testRoadTicks(int carCount,
+                                     boolean reverseFlow)
+    {
+        int     errors;
+        int     i;
+        int     maxTicks;
+        char    lastSnapshot[];
+        String  roadName;
+        Road    roadToTest;
+
+        errors = 0;
+        roadName = "Road with " + carCount + " cars, " +
+                ((reverseFlow == false) ? "NE" : "SW") + " flow";
+
+        roadToTest = new Road(roadName, carCount, reverseFlow);
+
+        /*
+         *  We'll run some number of ticks of the clock on the given
+         *  road configuration to output what happens on the road.
+         *  Then we'll compare each snapshot with the last to see if
+         *  vehicles advanced as they should.
+         */
+        lastSnapshot = null;
+        maxTicks = (3 * carCount) + 2;
+        System.out.println("    " + roadToTest.getName());
+        for (i = 0; (i < maxTicks); ++i) {
+            int         j;
+            int         k;
+            String      snapshot;
+            char        thisSnapshot[];
+
+            roadToTest.tick();
+            snapshot = roadToTest.snapshot();
+            System.out.printf("%2d: %s\n", i, snapshot);
+
+            thisSnapshot = snapshot.toCharArray();
+            if (reverseFlow == true) {
+                /*
+                 *  To avoid having two different loops below that
+                 *  simulate the tick by using the character array,
+                 *  we'll just reverse the array when the flow is
+                 *  reversed.
+                 */
+                for (j = 0, k = thisSnapshot.length - 1; (j < k);
+                     ++j, --k) {
+                    char        temp;
+
+                    temp = thisSnapshot[j];
+                    thisSnapshot[j] = thisSnapshot[k];
+                    thisSnapshot[k] = temp;
+                }
+            }
+
+            if (lastSnapshot != null) {
+                /*
+                 *  Advance the vehicles in the last snapshot to see if
+                 *  this snapshot looks correct.
+                 */
+                for (j = lastSnapshot.length - 1, k = j - 1;
+                     (k >= 0); --j, --k) {
+                    if (lastSnapshot[j] != '_') {
+                        /*
+                         *  This slot isn't empty so we can't advance
+                         *  anything to here.
+                         */
+                        continue;
+                    }
+
+                    /*
+                     *  This slot must be empty.  Move the following
+                     *  vehicle here.
+                     */
+                    lastSnapshot[j] = lastSnapshot[k];
+                    lastSnapshot[k] = '_';
+                }
+                if (lastSnapshot.length > 0) {
+                    lastSnapshot[0] = thisSnapshot[0];
+                }
+
+                /*
+                 *  Now compare them to make sure tick() did the
+                 *  right thing.
+                 */
+                for (j = lastSnapshot.length - 1; (j >= 0); --j) {
+                    if (thisSnapshot[j] == lastSnapshot[j]) {
+                        /*
+                         *  This one's correct.
+                         */
+                        continue;
+                    }
+
+                    /*
+                     *  Something's wrong.
+                     */
+                    k = j;
+                    if (reverseFlow == true) {
+                        /*
+                         *  In order to provide the correct position
+                         *  when the flow is reversed, we need to
+                         *  reverse the position number.
+                         */
+                        k = carCount - j - 1;
+                    }
+                    System.out.println("**** ERROR:  Position " +
+                            k + " should be '" +
+                            lastSnapshot[j] + "'");
+                    ++errors;
+                }
+            }
+            lastSnapshot = thisSnapshot;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Give a road a mix of nothing but motorcycles and make sure
+     *  that's all that shows up on it.
+     */
+    private static int testRoadMix()
+    {
+        int             errors;
+        int             i;
+        Road            roadToTest;
+        VehicleMix      motorcycles;
+        String          snapshot;
+
+        errors = 0;
+        roadToTest = new Road("Motorcycles only", 20, false);
+        motorcycles = new VehicleMix(
+                new VehicleType[]{VehicleType.forName("motorcycle")},
+                new double[]{0.5});
+        roadToTest.setVehicleMix(motorcycles);
+        if (roadToTest.getVehicleMix() != motorcycles) {
+            System.out.println("**** ERROR:  mix wasn't set");
+            ++errors;
+        }
+
+        snapshot = "";
+        for (i = 0; (i < 100); ++i) {
+            roadToTest.tick();
+            snapshot = roadToTest.snapshot();
+        }
+        System.out.println("    " + roadToTest.getName());
+        System.out.println("    " + snapshot);
+        if ((snapshot.indexOf('m') < 0) ||
+                (snapshot.replace("m", "").replace("_", "").
+                        isEmpty() == false)) {
+            System.out.println("**** ERROR:  \"" + snapshot +
+                    "\" isn't just motorcycles");
+            ++errors;
         }
 
         /*
-         *  Instantiate a String of our characters.
+         *  Back to the registered defaults.
          */
-        return(new String(charsOfVehicles));
+        roadToTest.setVehicleMix(null);
+        if (roadToTest.getVehicleMix() != VehicleMix.standard()) {
+            System.out.println("**** ERROR:  mix wasn't reset");
+            ++errors;
+        }
+
+        return(errors);
     }
 
-    /**
-     *  Cause the {@code Road} instance to adjust the
-     *  position of its vehicles.
+    /*
+     *  Give a road a demand profile that's quiet for a while and then
+     *  busy.  Two roads with the same seed must see the same traffic.
      */
-    public void tick()
+    private static int testRoadDemand()
+    {
+        int             errors;
+        int             i;
+        Road            first;
+        Road            second;
+        Road            legacy[];
+        DemandProfile   rushHour;
+
+        errors = 0;
+        rushHour = new PiecewiseDemand(new long[]{50, 5000},
+                new double[]{2.0, 0.1});
+        first = new Road("Rush hour", 30, true);
+        second = new Road("Rush hour again", 30, true);
+        for (Road which : new Road[]{first, second}) {
+            which.setDemand(rushHour);
+            which.setSeed(27);
+            if (which.getDemand() != rushHour) {
+                System.out.println("**** ERROR:  demand wasn't set");
+                ++errors;
+            }
+        }
+
+        System.out.println("    " + first.getName());
+        for (i = 0; (i < 9000); ++i) {
+            String      snapshot;
+
+            first.tick();
+            second.tick();
+            snapshot = first.snapshot();
+            if ((i % 500) == 0) {
+                System.out.printf("%4d: %s\n", i, snapshot);
+            }
+            if ((i < 50) && (snapshot.replace("_", "").
+                    isEmpty() == false)) {
+                System.out.println("**** ERROR:  " + i + ": \"" +
+                        snapshot + "\" before any demand");
+                ++errors;
+            }
+            if (snapshot.equals(second.snapshot()) == false) {
+                System.out.println("**** ERROR:  " + i + ": roads" +
+                        " with the same seed differ");
+                ++errors;
+                break;
+            }
+        }
+        if ((first.getTick() != 9000) ||
+                (first.snapshot().indexOf('_') >= 0)) {
+            System.out.println("**** ERROR:  rush hour should have" +
+                    " filled the road after " + first.getTick() +
+                    " ticks");
+            ++errors;
+        }
+
+        /*
+         *  Roads without a profile are repeatable by seed too.
+         */
+        legacy = new Road[]{new Road("Seeded", 40, false),
+                new Road("Seeded again", 40, false)};
+        for (Road which : legacy) {
+            which.setSeed(-27);
+            for (i = 0; (i < 25); ++i) {
+                which.tick();
+            }
+        }
+        if (legacy[0].snapshot().equals(legacy[1].snapshot()) ==
+                false) {
+            System.out.println("**** ERROR:  seeded roads differ");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Three roads see the same rush of arrivals with nothing
+     *  leaving them:  one turns away what doesn't fit, one queues a
+     *  few and one queues everything.  They have to account for the
+     *  same arrivals, and once vehicles leave and the rush is over
+     *  everything queued has to get on.  A road without a demand
+     *  profile queues what it draws from its mix, and a full queue of
+     *  one with one arrival a tick turns none away while the
+     *  incoming slot clears every tick.
+     */
+    private static int testEntryQueue()
     {
+        int             errors;
+        Road            road[];
+        long            arrived;
+        Statistics      waits;
+        Road            mixed;
+        Road            steady;
+
+        errors = 0;
+        road = new Road[3];
+        for (int i = 0; (i < road.length); ++i) {
+            road[i] = new Road("Entry queue " + i, 20, false);
+            road[i].setSeed(31);
+            road[i].setDemand(new PiecewiseDemand(new long[]{0, 1000},
+                    new double[]{0.6, 0}));
+            road[i].setEntryQueueBound(new int[]{0, 30, 5000}[i]);
+        }
+        for (int t = 0; (t < 1000); ++t) {
+            for (Road which : road) {
+                which.tick();
+            }
+        }
+        road[1].setEntryQueueBound(10);
+        arrived = road[2].occupancy() + road[2].getEntryQueueLength();
+        for (Road which : road) {
+            if (which.occupancy() + which.getEntryQueueLength() +
+                    which.getTurnedAwayCount() != arrived) {
+                System.out.println("**** ERROR:  " + which +
+                        " lost arrivals:  " + which.occupancy() +
+                        " on, " + which.getEntryQueueLength() +
+                        " waiting, " + which.getTurnedAwayCount() +
+                        " turned away, not " + arrived);
+                ++errors;
+            }
+        }
+        if ((road[0].getEntryQueueLength() != 0) ||
+                (road[1].getEntryQueueLength() != 10) ||
+                (road[2].getTurnedAwayCount() != 0) ||
+                (road[2].getEntryWaits().getCount() != 20)) {
+            System.out.println("**** ERROR:  queues of " +
+                    road[1].getEntryQueueLength() + " and " +
+                    road[2].getEntryQueueLength());
+            ++errors;
+        }
+
+        for (int t = 0; (t < 3000); ++t) {
+            if (road[2].outletVehicle() != null) {
+                road[2].releaseOutlet();
+            }
+            road[2].tick();
+        }
+        waits = road[2].getEntryWaits();
+        System.out.printf("    %d arrivals waited %.1f ticks on " +
+                "average, %.0f at most\n", waits.getCount(),
+                waits.getMean(), waits.getMaximum());
+        if ((road[2].getEntryQueueLength() != 0) ||
+                (waits.getCount() != arrived) ||
+                (waits.getMaximum() < 500) ||
+                (waits.getMinimum() != 0)) {
+            System.out.println("**** ERROR:  " + waits);
+            ++errors;
+        }
+
         /*
-         *  The lane manages its own ticks.
+         *  A road drawing from its mix queues what it draws too.
          */
-        lane.tick();
+        mixed = new Road("Entry queue mixed", 20, false);
+        mixed.setSeed(31);
+        mixed.setEntryQueueBound(50);
+        for (int t = 0; (t < 1000); ++t) {
+            mixed.tick();
+        }
+        if ((mixed.occupancy() != 20) ||
+                (mixed.getEntryWaits().getCount() != 20) ||
+                (mixed.getEntryQueueLength() != 50) ||
+                (mixed.getTurnedAwayCount() == 0)) {
+            System.out.println("**** ERROR:  mix queued " +
+                    mixed.getEntryQueueLength() + " and turned away " +
+                    mixed.getTurnedAwayCount());
+            ++errors;
+        }
+
+        /*
+         *  The front of the queue gets on before the tick's arrival
+         *  is queued, so there's always room for it once the queue
+         *  has filled while the incoming slot was closed.
+         */
+        steady = new Road("Entry queue steady", 20, false);
+        steady.setSeed(31);
+        steady.setVehicleMix(new VehicleMix(
+                new VehicleType[]{VehicleType.forName("car")},
+                new double[]{1.0}));
+        steady.setEntryQueueBound(1);
+        steady.setSlotClosed(0, true);
+        for (int t = 0; (t < 5); ++t) {
+            steady.tick();
+        }
+        steady.setSlotClosed(0, false);
+        arrived = steady.getTurnedAwayCount();
+        for (int t = 0; (t < 1000); ++t) {
+            if (steady.outletVehicle() != null) {
+                steady.releaseOutlet();
+            }
+            steady.tick();
+        }
+        if ((arrived != 4) || (steady.getTurnedAwayCount() != 4) ||
+                (steady.getEntryQueueLength() != 1) ||
+                (steady.getEntryWaits().getCount() != 1000)) {
+            System.out.println("**** ERROR:  queue of one turned " +
+                    (steady.getTurnedAwayCount() - arrived) +
+                    " away, let " + steady.getEntryWaits().getCount() +
+                    " on");
+            ++errors;
+        }
+        try {
+            road[0].setEntryQueueBound(-1);
+            System.out.println("**** ERROR:  negative bound");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+        }
+
+        return(errors);
     }
 
-    /**
-     *  Compare two {@code Road} objects
-     *  @param otherObject the object to compare to this object
-     *  @return equal or not
+    /*
+     *  Run a merge for some ticks, with the lanes off the heap from
+     *  a tick on, and note the identifiers of the vehicles on every
+     *  tick, counting from the first one made.
      */
-    public boolean equals(Object otherObject)
+    private static List<String> runMerge(long offHeapFrom)
     {
-        Road    otherMe;
+        Network         network;
+        Road            road[];
+        List<String>    seen;
+        int             base;
 
-        if (otherObject == null) {
-            /*
-             *  The caller didn't give us anything.
-             */
-            return(false);
+        network = new Network();
+        road = new Road[]{new Road("Left", 7, false),
+                new Road("Right", 5, true), new Road("Out", 12, true)};
+        for (Road which : road) {
+            network.add(which);
         }
+        network.connect(road[0], road[2]);
+        network.connect(road[1], road[2]);
+        network.drain(road[2]);
+        road[0].setDemand(DemandProfile.constant(0.4));
+        road[1].setDemand(DemandProfile.constant(0.3));
+        road[2].setDemand(DemandProfile.constant(0.05));
+        road[2].setSlotClosed(6, true);
+        network.schedule(500, Network.EVENT_OPEN_SLOT, road[2], 6);
+        network.reset(35);
 
-        if (this == otherObject) {
-            /*
-             *  They're at the same address!
-             */
-            return(true);
+        seen = new ArrayList<>();
+        base = new Car().getIdentifier();
+        for (long t = 0; (t < 800); ++t) {
+            StringBuilder       line;
+
+            if (t == offHeapFrom) {
+                for (Road which : road) {
+                    which.setOffHeap(true);
+                }
+            }
+            network.step();
+            line = new StringBuilder();
+            for (Road which : road) {
+                line.append(which.snapshot()).append(' ');
+                for (int i = 0; (i < which.getCarCount()); ++i) {
+                    Vehicle     vehicle;
+
+                    vehicle = which.vehicleAt(i);
+                    if (vehicle != null) {
+                        line.append(vehicle.getIdentifier() - base).
+                                append(',');
+                    }
+                }
+            }
+            seen.add(line.toString());
+        }
+
+        return(seen);
+    }
+
+    /*
+     *  Keep lanes off the heap and bring them back, and check the
+     *  vehicles and closures come through the same.
+     */
+    private static int testOffHeap()
+    {
+        int             errors;
+        List<String>    heap;
+        List<String>    offHeap;
+        Road            road;
+        Vehicle         first;
+
+        errors = 0;
+
+        /*
+         *  Off the heap from the start, and from partway with
+         *  vehicles and a closure on the roads, the vehicles are the
+         *  same as on the heap, down to their identifiers.
+         */
+        heap = runMerge(-1);
+        for (long from : new long[]{0, 300}) {
+            offHeap = runMerge(from);
+            for (int t = 0; (t < heap.size()); ++t) {
+                if (heap.get(t).equals(offHeap.get(t)) == false) {
+                    System.out.println("**** ERROR:  off the heap" +
+                            " from " + from + " at " + t + ": " +
+                            offHeap.get(t) + " != " + heap.get(t));
+                    ++errors;
+                    break;
+                }
+            }
+        }
+        System.out.println("    " + heap.get(heap.size() - 1));
+
+        /*
+         *  A vehicle put on the road off the heap comes back as the
+         *  same vehicle, and stays it back on the heap.  The closed
+         *  slot holds it up.
+         */
+        road = new Road("Round trip", 6, true);
+        road.setOffHeap(true);
+        road.setSlotClosed(2, true);
+        first = new Motorcycle();
+        road.admit(first);
+        for (int i = 0; (i < 3); ++i) {
+            road.advance();
+        }
+        if ((road.isOffHeap() == false) ||
+                (first.equals(road.vehicleAt(3)) == false) ||
+                (road.vehicleAt(3).getClass() != Motorcycle.class) ||
+                (road.snapshot().equals("___m__") == false)) {
+            System.out.println("**** ERROR:  " + road.snapshot() +
+                    " " + road.vehicleAt(3) + " != " + first);
+            ++errors;
+        }
+        road.setOffHeap(false);
+        if ((road.isOffHeap() == true) ||
+                (road.vehicleAt(3) != road.vehicleAt(3)) ||
+                (first.equals(road.vehicleAt(3)) == false) ||
+                (road.isSlotClosed(2) == false)) {
+            System.out.println("**** ERROR:  back on the heap " +
+                    road.vehicleAt(3) + " != " + first);
+            ++errors;
+        }
+
+        /*
+         *  Vehicles of types that aren't registered stay on the
+         *  heap.
+         */
+        road = new Road("Odd", 3, false);
+        road.lane.admit(new Vehicle("hovercraft") {});
+        try {
+            road.setOffHeap(true);
+            System.out.println("**** ERROR:  hovercraft off the heap");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            if (road.isOffHeap() == true) {
+                System.out.println("**** ERROR:  half off the heap");
+                ++errors;
+            }
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  The snapshots of a road's recent ticks come back from its
+     *  history, on the heap and off it, and older ones are gone.
+     */
+    private static int testHistory()
+    {
+        int             errors;
+        List<String>    snapshots;
+        Road            road;
+
+        errors = 0;
+        for (boolean offHeap : new boolean[]{false, true}) {
+            road = new Road("Rewind", 200, offHeap);
+            road.setOffHeap(offHeap);
+            road.setDemand(new PiecewiseDemand(new long[]{0, 2000},
+                    new double[]{0.3, 1.0}));
+            road.setSeed(5);
+            road.setHistory(500);
+            snapshots = new ArrayList<>();
+            snapshots.add(road.snapshot());
+            for (int t = 1; (t <= 5000); ++t) {
+                if ((t % 3) != 0) {
+                    /*
+                     *  Something downstream takes two vehicles in
+                     *  three.
+                     */
+                    road.lane.releaseOutlet();
+                }
+                road.tick();
+                snapshots.add(road.snapshot());
+            }
+            for (int t = 5000 - 500; (t <= 5000); ++t) {
+                if (road.snapshotAt(t).equals(snapshots.get(t)) ==
+                        false) {
+                    System.out.println("**** ERROR:  history at " +
+                            t + ": " + road.snapshotAt(t) + " != " +
+                            snapshots.get(t));
+                    ++errors;
+                    break;
+                }
+            }
+            System.out.println("    " + road.history.size() +
+                    " characters of history for " +
+                    (5000 - road.history.earliest()) + " ticks of " +
+                    road.getCarCount() + " positions");
+            if (road.history.size() > 500 * 200 / 4) {
+                System.out.println("**** ERROR:  history too big");
+                ++errors;
+            }
+            for (long t : new long[]{3000, 5001}) {
+                try {
+                    road.snapshotAt(t);
+                    System.out.println("**** ERROR:  history at " + t);
+                    ++errors;
+                } catch (IllegalArgumentException e) {
+                }
+            }
         }
 
-        if (getClass() != otherObject.getClass()) {
-            /*
-             *  They're different classes.
-             */
-            return(false);
-        }
+        return(errors);
+    }
 
-        /*
-         *  We know the otherObject must be a non-null reference to
-         *  this class.
-         */
-        otherMe = (Road)otherObject;
+    /*
+     *  Snapshots in runs stand for the snapshots of busy roads,
+     *  either way and on the heap and off it, and of odd ones.
+     */
+    private static int testRuns()
+    {
+        int             errors;
+        Road            road;
+        String          runs;
 
-        /*
-         *  We're going to trust identifier to be unique.
-         */
-        if (identifier != otherMe.identifier) {
-            /*
-             *  They're different identifiers.
-             */
-            return(false);
+        errors = 0;
+        for (int which = 0; (which < 4); ++which) {
+            road = new Road("Runs", 150, (which & 0x1) != 0);
+            road.setOffHeap(which >= 2);
+            road.setSeed(which);
+            road.setDemand(DemandProfile.constant(0.1 + 0.2 * which));
+            for (int t = 1; (t <= 800); ++t) {
+                if ((t % 4) != 0) {
+                    road.lane.releaseOutlet();
+                }
+                road.tick();
+                runs = road.snapshotRuns();
+                if (expandRuns(runs).equals(road.snapshot()) == false) {
+                    System.out.println("**** ERROR:  runs at " + t +
+                            ": " + runs + " != " + road.snapshot());
+                    ++errors;
+                    break;
+                }
+                if (t == 800) {
+                    System.out.println("    " + runs.length() +
+                            " characters for " + road.getCarCount() +
+                            ": " + runs);
+                }
+            }
         }
 
-        return(true);
+        road = new Road("Nowhere", 0, false);
+        if ((road.snapshotRuns().isEmpty() == false) ||
+                (expandRuns("").isEmpty() == false)) {
+            System.out.println("**** ERROR:  runs of nothing");
+            ++errors;
+        }
+        road = new Road("Odd", 4, false);
+        road.lane.admit(new Vehicle("xylophone") {});
+        road.advance();
+        road.lane.admit(new Vehicle("xylophone") {});
+        if ((road.snapshotRuns().equals("xx2 _x2") == false) ||
+                (expandRuns("_ xx2 _").equals("_xx_") == false) ||
+                (expandRuns("_x12").equals("____________") == false)) {
+            System.out.println("**** ERROR:  runs of x: " +
+                    road.snapshotRuns());
+            ++errors;
+        }
+        for (String bad : new String[]{" c", "cc", "c ", "cx", "cxy",
+                "c x3"}) {
+            try {
+                System.out.println("**** ERROR:  \"" + bad +
+                        "\" is \"" + expandRuns(bad) + "\"");
+                ++errors;
+            } catch (IllegalArgumentException e) {
+            }
+        }
+
+        return(errors);
     }
 
-    /**
-     *  @return object's hash code
+    /*
+     *  A road with an occupancy index has to answer as its twin
+     *  without one does, as a jam builds and clears, either way and
+     *  on the heap and off it.
      */
-    public int hashCode()
+    private static int testOccupancy()
     {
-        return(hashCode);
+        int             errors;
+        RandomStream    random;
+
+        errors = 0;
+        random = new RandomStream(3);
+        for (int which = 0; (which < 3); ++which) {
+            Road        indexed;
+            Road        plain;
+
+            indexed = new Road("Indexed", 2000, which > 0);
+            plain = new Road("Plain", 2000, which > 0);
+            indexed.setOccupancyIndex(100);
+            for (Road road : new Road[]{indexed, plain}) {
+                road.setOffHeap(which == 2);
+                road.setSeed(which);
+                road.setDemand(new PiecewiseDemand(
+                        new long[]{0, 2500}, new double[]{0.9, 0.2}));
+            }
+            for (int t = 1; (t <= 5000); ++t) {
+                int     from;
+                int     to;
+
+                for (Road road : new Road[]{indexed, plain}) {
+                    if ((t % 3) != 0) {
+                        road.lane.releaseOutlet();
+                    }
+                    road.tick();
+                }
+                if (t == 1100) {
+                    indexed.setOffHeap(which != 2);
+                }
+                if ((t % 10) != 0) {
+                    continue;
+                }
+                from = random.nextInt(2000);
+                to = from + random.nextInt(2000 - from + 1);
+                if ((indexed.countVehicles(from, to) !=
+                        plain.countVehicles(from, to)) ||
+                        (indexed.densestWindow(100) !=
+                        plain.densestWindow(100)) ||
+                        (Arrays.equals(indexed.occupancyProfile(40),
+                        plain.occupancyProfile(40)) == false)) {
+                    System.out.println("**** ERROR:  index at " + t +
+                            ": " + indexed.countVehicles(from, to) +
+                            " != " + plain.countVehicles(from, to) +
+                            " from " + from + " to " + to +
+                            " or densest " +
+                            indexed.densestWindow(100) + " != " +
+                            plain.densestWindow(100));
+                    ++errors;
+                    break;
+                }
+            }
+            System.out.println("    " +
+                    indexed.countVehicles(0, 2000) + " vehicles, " +
+                    indexed.countVehicles(
+                    indexed.densestWindow(100),
+                    indexed.densestWindow(100) + 100) +
+                    " in the densest 100 at " +
+                    indexed.densestWindow(100) + ": " +
+                    Arrays.toString(indexed.occupancyProfile(16)));
+        }
+
+        return(errors);
     }
 
-    /**
-     *  @return {@code String} representation of object
+    /*
+     *  Streaming the vehicles has to find the same ones in the same
+     *  order as looking at every position, either way, on the heap
+     *  and off it or as a queue and with the occupancy index and
+     *  without, split for a parallel stream or not and one at a time
+     *  or in bulk.
      */
-    public String toString()
+    private static int testVehicles()
     {
-        return(getClass().getName() +
-                "[identifier=" + identifier +
-                ",name=" + name +
-                ",carCount=" + carCount +
-                ",flow=" + flow + "]");
+        int             errors;
+
+        errors = 0;
+        for (int which = 0; (which < 16); ++which) {
+            Road            road;
+            List<Integer>   expected;
+            List<Integer>   streamed;
+            List<Integer>   stepped;
+            Iterator<Vehicle>       iterator;
+
+            road = new Road("Stream " + which, 9000,
+                    (which & 0x1) != 0);
+            road.setOffHeap((which & 0x2) != 0);
+            if ((which & 0x4) != 0) {
+                road.setOccupancyIndex(50);
+            }
+            if ((which & 0x8) != 0) {
+                road.setDetail(QUEUE);
+            }
+            road.setSeed(which);
+            road.setDemand(new PiecewiseDemand(
+                    new long[]{0, 6000}, new double[]{0.3, 0.05}));
+            for (int t = 1; (t <= 12000); ++t) {
+                if ((t % 4) != 0) {
+                    road.lane.releaseOutlet();
+                }
+                road.tick();
+            }
+
+            expected = new ArrayList<>();
+            for (int i = 0; (i < road.getCarCount()); ++i) {
+                if (road.vehicleAt(i) != null) {
+                    expected.add(road.vehicleAt(i).getIdentifier());
+                }
+            }
+            streamed = road.vehicles().parallel().map(
+                    Vehicle::getIdentifier).collect(
+                    Collectors.toList());
+            stepped = new ArrayList<>();
+            iterator = road.vehicles().iterator();
+            while (iterator.hasNext() == true) {
+                stepped.add(iterator.next().getIdentifier());
+            }
+            if ((expected.size() != road.occupancy()) ||
+                    (streamed.equals(expected) == false) ||
+                    (stepped.equals(expected) == false) ||
+                    (road.vehicles().parallel().count() !=
+                    expected.size())) {
+                System.out.println("*** ERROR *** streamed " +
+                        streamed.size() + " and " + stepped.size() +
+                        " vehicles of " + expected.size() + " on " +
+                        road.getName());
+                ++errors;
+            }
+        }
+
+        return(errors);
     }
 
     /*
-     *  Run some ticks with car configurations and make sure the road
-     *  is behaving.
+     *  A copy of the snapshot kept up to date from the change set
+     *  has to match the snapshot, either way and on the heap and off
+     *  it, through queues, a road starting over and a move off the
+     *  heap, with far fewer changes than positions.
      */
-    private static int testRoadTicks(int carCount,
-                                     boolean reverseFlow)
+    private static int testChanges()
     {
-        int     errors;
-        int     i;
-        int     maxTicks;
-        char    lastSnapshot[];
-        String  roadName;
-        Road    roadToTest;
+        int             errors;
 
         errors = 0;
-        roadName = "Road with " + carCount + " cars, " +
-                ((reverseFlow == false) ? "NE" : "SW") + " flow";
+        for (int which = 0; (which < 3); ++which) {
+            Road        road;
+            ChangeSet   changes;
+            char        mirror[];
+            String      before;
+            long        total;
+            long        differ;
 
-        roadToTest = new Road(roadName, carCount, reverseFlow);
+            road = new Road("Changes", 300, which > 0);
+            road.setOffHeap(which == 2);
+            road.setSeed(which);
+            road.setDemand(new PiecewiseDemand(new long[]{0, 1500},
+                    new double[]{0.9, 0.3}));
+            changes = new ChangeSet();
+            road.setChangeSet(changes);
+            before = road.snapshot();
+            mirror = before.toCharArray();
+            total = 0;
+            differ = 0;
+            for (int t = 1; (t <= 3000); ++t) {
+                String  after;
 
-        /*
-         *  We'll run some number of ticks of the clock on the given
-         *  road configuration to output what happens on the road.
-         *  Then we'll compare each snapshot with the last to see if
-         *  vehicles advanced as they should.
-         */
-        lastSnapshot = null;
-        maxTicks = (3 * carCount) + 2;
-        System.out.println("    " + roadToTest.getName());
-        for (i = 0; (i < maxTicks); ++i) {
-            int         j;
-            int         k;
-            String      snapshot;
-            char        thisSnapshot[];
+                if ((t % 3) != 0) {
+                    road.lane.releaseOutlet();
+                }
+                if (t == 1000) {
+                    road.reset(11);
+                }
+                if (t == 2000) {
+                    road.setOffHeap(which != 2);
+                }
+                road.tick();
+                changes.applyTo(mirror);
+                total += changes.size();
+                changes.clear();
+                after = road.snapshot();
+                if (after.equals(new String(mirror)) == false) {
+                    System.out.println("**** ERROR:  changes at " +
+                            t + ": " + new String(mirror) + " != " +
+                            after);
+                    ++errors;
+                    break;
+                }
+                for (int i = 0; (i < after.length()); ++i) {
+                    if (after.charAt(i) != before.charAt(i)) {
+                        ++differ;
+                    }
+                }
+                before = after;
+            }
+            System.out.println("    " + total + " changes for " +
+                    differ + " positions that changed");
 
-            roadToTest.tick();
-            snapshot = roadToTest.snapshot();
-            System.out.printf("%2d: %s\n", i, snapshot);
+            /*
+             *  The reset lists every position once.
+             */
+            if (total > differ + differ / 20 + road.getCarCount()) {
+                System.out.println("**** ERROR:  too many changes");
+                ++errors;
+            }
+        }
 
-            thisSnapshot = snapshot.toCharArray();
-            if (reverseFlow == true) {
-                /*
-                 *  To avoid having two different loops below that
-                 *  simulate the tick by using the character array,
-                 *  we'll just reverse the array when the flow is
-                 *  reversed.
-                 */
-                for (j = 0, k = thisSnapshot.length - 1; (j < k);
-                     ++j, --k) {
-                    char        temp;
+        return(errors);
+    }
 
-                    temp = thisSnapshot[j];
-                    thisSnapshot[j] = thisSnapshot[k];
-                    thisSnapshot[k] = temp;
-                }
-            }
+    /*
+     *  A road simulated as a queue has to match one simulated cell
+     *  by cell while traffic flows freely, either way.  Changing
+     *  between the two in a jam has to keep the vehicles where they
+     *  are.  A change set and an occupancy index have to keep up
+     *  with a queue, and AUTO has to follow what's watching.
+     */
+    private static int testDetail()
+    {
+        int             errors;
+        Road            road;
+        ChangeSet       changes;
+        char            mirror[];
 
-            if (lastSnapshot != null) {
-                /*
-                 *  Advance the vehicles in the last snapshot to see if
-                 *  this snapshot looks correct.
-                 */
-                for (j = lastSnapshot.length - 1, k = j - 1;
-                     (k >= 0); --j, --k) {
-                    if (lastSnapshot[j] != '_') {
-                        /*
-                         *  This slot isn't empty so we can't advance
-                         *  anything to here.
-                         */
-                        continue;
-                    }
+        errors = 0;
+        for (int which = 0; (which < 2); ++which) {
+            Road        cells;
+            Road        queued;
 
-                    /*
-                     *  This slot must be empty.  Move the following
-                     *  vehicle here.
-                     */
-                    lastSnapshot[j] = lastSnapshot[k];
-                    lastSnapshot[k] = '_';
-                }
-                if (lastSnapshot.length > 0) {
-                    lastSnapshot[0] = thisSnapshot[0];
+            cells = new Road("Cells", 400, which > 0);
+            queued = new Road("Queued", 400, which > 0);
+            queued.setDetail(QUEUE);
+            for (Road both : new Road[]{cells, queued}) {
+                both.setSeed(which);
+                both.setDemand(DemandProfile.constant(0.4));
+            }
+            for (int t = 1; (t <= 1500); ++t) {
+                cells.lane.releaseOutlet();
+                queued.lane.releaseOutlet();
+                cells.tick();
+                queued.tick();
+                if (cells.snapshot().equals(
+                        queued.snapshot()) == false) {
+                    System.out.println("**** ERROR:  queue at " + t +
+                            ": " + queued.snapshot() + " != " +
+                            cells.snapshot());
+                    ++errors;
+                    break;
                 }
+            }
+        }
 
-                /*
-                 *  Now compare them to make sure tick() did the
-                 *  right thing.
-                 */
-                for (j = lastSnapshot.length - 1; (j >= 0); --j) {
-                    if (thisSnapshot[j] == lastSnapshot[j]) {
-                        /*
-                         *  This one's correct.
-                         */
-                        continue;
-                    }
+        road = new Road("Switching", 300, true);
+        road.setSeed(5);
+        road.setDemand(new PiecewiseDemand(new long[]{0, 1200},
+                new double[]{0.7, 0.2}));
+        road.setDetail(AUTO);
+        for (int t = 1; (t <= 3000); ++t) {
+            if ((t % 3) == 0) {
+                road.lane.releaseOutlet();
+            }
+            road.tick();
+            if ((t % 37) == 0) {
+                String          before;
+                List<Integer>   identifiers;
 
-                    /*
-                     *  Something's wrong.
-                     */
-                    k = j;
-                    if (reverseFlow == true) {
-                        /*
-                         *  In order to provide the correct position
-                         *  when the flow is reversed, we need to
-                         *  reverse the position number.
-                         */
-                        k = carCount - j - 1;
-                    }
-                    System.out.println("**** ERROR:  Position " +
-                            k + " should be '" +
-                            lastSnapshot[j] + "'");
+                before = road.snapshot();
+                identifiers = road.vehicles().map(
+                        Vehicle::getIdentifier).collect(
+                        Collectors.toList());
+                road.setWatched(road.isWatched() == false);
+                if ((road.isQueued() == road.isWatched()) ||
+                        (road.snapshot().equals(before) == false) ||
+                        (road.vehicles().map(
+                        Vehicle::getIdentifier).collect(
+                        Collectors.toList()).equals(
+                        identifiers) == false)) {
+                    System.out.println("**** ERROR:  switch at " + t +
+                            ": " + road.snapshot() + " != " + before);
                     ++errors;
+                    break;
                 }
             }
-            lastSnapshot = thisSnapshot;
+        }
+        System.out.println("    " + road.occupancy() +
+                " vehicles after switching: " + road.snapshotRuns());
+
+        road = new Road("Queue watched", 300, false);
+        road.setSeed(6);
+        road.setDemand(new PiecewiseDemand(new long[]{0, 1500},
+                new double[]{0.9, 0.3}));
+        road.setDetail(QUEUE);
+        road.setOccupancyIndex(20);
+        changes = new ChangeSet();
+        road.setChangeSet(changes);
+        mirror = road.snapshot().toCharArray();
+        for (int t = 1; (t <= 3000); ++t) {
+            if ((t % 3) != 0) {
+                road.lane.releaseOutlet();
+            }
+            road.tick();
+            changes.applyTo(mirror);
+            changes.clear();
+            if ((road.isQueued() == false) ||
+                    (road.snapshot().equals(new String(mirror)) ==
+                    false) || (road.countVehicles(0, 300) !=
+                    road.occupancy())) {
+                System.out.println("**** ERROR:  watched queue at " +
+                        t + ": " + new String(mirror) + " != " +
+                        road.snapshot());
+                ++errors;
+                break;
+            }
+        }
+
+        road = new Road("Auto", 50, false);
+        road.setDetail(AUTO);
+        if (road.isQueued() == false) {
+            System.out.println("**** ERROR:  AUTO isn't queued");
+            ++errors;
+        }
+        road.setChangeSet(new ChangeSet());
+        if (road.isQueued() == true) {
+            System.out.println("**** ERROR:  a change set is queued");
+            ++errors;
+        }
+        road.setChangeSet(null);
+        road.setHistory(5);
+        if (road.isQueued() == true) {
+            System.out.println("**** ERROR:  a history is queued");
+            ++errors;
+        }
+        road.setHistory(0);
+        road.setOffHeap(true);
+        if ((road.isQueued() == false) || (road.isOffHeap() == true)) {
+            System.out.println("**** ERROR:  queued off the heap");
+            ++errors;
+        }
+        road.setDetail(CELLS);
+        if ((road.isQueued() == true) || (road.isOffHeap() == false)) {
+            System.out.println("**** ERROR:  cells on the heap");
+            ++errors;
+        }
+        try {
+            road.setDetail(3);
+            System.out.println("**** ERROR:  detail 3");
+            ++errors;
+        } catch (IllegalArgumentException e) {
         }
 
         return(errors);
@@ -779,6 +4214,56 @@ public class Road {
         errors += testRoadTicks(10, false);
         errors += testRoadTicks(10, true);
 
+        /*
+         *  A road with its own mix only spawns what's in the mix.
+         */
+        errors += testRoadMix();
+
+        /*
+         *  Roads with demand profiles and seeds.
+         */
+        errors += testRoadDemand();
+
+        /*
+         *  Lanes kept off the heap.
+         */
+        errors += testOffHeap();
+
+        /*
+         *  Snapshots of the last ticks.
+         */
+        errors += testHistory();
+
+        /*
+         *  Snapshots in runs.
+         */
+        errors += testRuns();
+
+        /*
+         *  Counting vehicles on stretches of the road.
+         */
+        errors += testOccupancy();
+
+        /*
+         *  Change sets for viewers.
+         */
+        errors += testChanges();
+
+        /*
+         *  Streams of vehicles.
+         */
+        errors += testVehicles();
+
+        /*
+         *  Roads simulated as queues.
+         */
+        errors += testDetail();
+
+        /*
+         *  Arrivals waiting for room.
+         */
+        errors += testEntryQueue();
+
         if (errors > 0) {
             /*
              *  We found a problem during unit test.
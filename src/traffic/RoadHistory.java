@@ -0,0 +1,334 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code RoadHistory} keeps what a {@code Road}'s snapshot was over
+ *  its last so many ticks, in far less memory than the snapshots.
+ *  Each frame is stored against the frame before as runs:  of
+ *  positions that kept their glyph, of positions that took the glyph
+ *  one position along either way, which is how a moving queue
+ *  looks, and of exclusive ors of the glyphs of the rest.  A jammed
+ *  or flowing road takes a character or two a tick.  Every
+ *  {@code KEYFRAME} frames the frame is stored against an empty road
+ *  instead, so a frame is brought back from at most that many.  The
+ *  encoded frames go round a ring of characters that grows only as
+ *  far as it needs to hold the ticks asked for; older frames go a
+ *  keyframe's worth at a time.
+ *  <p>
+ *  An encoded frame is a run of tokens, each with its kind in the
+ *  top two bits and the length of its run in the rest.  An exclusive
+ *  or token is followed by that many exclusive ors.  Positions after
+ *  the last token kept their glyphs.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+final class RoadHistory {
+    /**
+     *  Frames from one keyframe to the next.
+     */
+    static final int            KEYFRAME        = 64;
+
+    /*
+     *  Kinds of token:  positions that took the glyph one below
+     *  them, that kept theirs, that took the glyph one above them,
+     *  and exclusive ors.  A copying kind less KEEP is how far along
+     *  it copies from.
+     */
+    private static final int    FROM_BELOW      = 0;
+    private static final int    KEEP            = 1;
+    private static final int    FROM_ABOVE      = 2;
+    private static final int    XOR             = 3;
+    private static final int    KIND_SHIFT      = 14;
+    private static final int    LONGEST = (1 << KIND_SHIFT) - 1;
+
+    private final int           cells;
+    private final int           ticks;
+    private final long          frameTick[];
+    private final long          frameStart[];
+    private long                first;
+    private long                next;
+    private char                data[];
+    private long                dataEnd;
+
+    /*
+     *  The road with nothing on it, the last frame added, the frame
+     *  being added and room to encode it.
+     */
+    private final char          empty[];
+    private final char          last[];
+    private final char          frame[];
+    private final char          work[];
+
+    /**
+     *  @param cells the number of positions on the road
+     *  @param ticks the number of ticks to keep at least
+     */
+    RoadHistory(int cells, int ticks)
+    {
+        this.cells = cells;
+        this.ticks = ticks;
+        frameTick = new long[ticks + 2 * KEYFRAME];
+        frameStart = new long[frameTick.length];
+        data = new char[Integer.highestOneBit(Math.max(64,
+                cells * 4)) * 2];
+        empty = new char[cells];
+        Arrays.fill(empty, VehicleType.EMPTY_GLYPH);
+        last = new char[cells];
+        frame = new char[cells];
+        work = new char[cells * 2 + 1];
+    }
+
+    /**
+     *  @return the number of ticks kept at least
+     */
+    int ticks()
+    {
+        return(ticks);
+    }
+
+    /**
+     *  @return the frame to fill in before {@code add()}
+     */
+    char[]      frame()
+    {
+        return(frame);
+    }
+
+    /**
+     *  Add the filled in frame as the snapshot of a tick, later than
+     *  the one before.
+     *  @param tick the tick
+     */
+    void        add(long tick)
+    {
+        int     length;
+        int     at;
+
+        length = encode(((next % KEYFRAME) == 0) ? empty : last);
+        System.arraycopy(frame, 0, last, 0, cells);
+
+        /*
+         *  Drop the oldest keyframe's worth of frames if there's no
+         *  room and enough would be left, or else make more room.
+         */
+        if (next - first == frameTick.length) {
+            first += KEYFRAME;
+        }
+        while (dataEnd + length - start(first) > data.length) {
+            if (next - first - KEYFRAME >= ticks) {
+                first += KEYFRAME;
+            } else {
+                grow();
+            }
+        }
+
+        at = (int)(next % frameTick.length);
+        frameTick[at] = tick;
+        frameStart[at] = dataEnd;
+        for (int i = 0; (i < length); ++i) {
+            data[(int)(dataEnd++ & (data.length - 1))] = work[i];
+        }
+        ++next;
+    }
+
+    /*
+     *  Encode the frame against another into the work buffer.
+     *  @return its length
+     */
+    private int encode(char against[])
+    {
+        int     length;
+        int     i;
+
+        length = 0;
+        i = 0;
+        while (i < cells) {
+            int     best;
+            int     kind;
+            int     run;
+            int     header;
+
+            /*
+             *  Take the longest run of positions that didn't change
+             *  or moved one along, or else the positions up to where
+             *  one starts.
+             */
+            best = 0;
+            kind = KEEP;
+            for (int k = FROM_BELOW; (k <= FROM_ABOVE); ++k) {
+                run = copyRun(against, i, k - KEEP);
+                if (run > best) {
+                    best = run;
+                    kind = k;
+                }
+            }
+            if ((best > 0) && (kind == KEEP) && (i + best == cells)) {
+                break;
+            }
+            if (best > 0) {
+                work[length++] = (char)((kind << KIND_SHIFT) | best);
+                i += best;
+                continue;
+            }
+
+            header = length++;
+            run = 0;
+            while ((i < cells) && (run < LONGEST) &&
+                    (copies(against, i) == false)) {
+                work[length++] = (char)(frame[i] ^ against[i]);
+                ++i;
+                ++run;
+            }
+            work[header] = (char)((XOR << KIND_SHIFT) | run);
+        }
+
+        return(length);
+    }
+
+    /*
+     *  @return how many positions from a position match the other
+     *  frame that many along, up to the longest run
+     */
+    private int copyRun(char against[], int from, int offset)
+    {
+        int     i;
+        int     end;
+
+        if (from + offset < 0) {
+            return(0);
+        }
+        i = from;
+        end = Math.min(cells - Math.max(offset, 0), from + LONGEST);
+        while ((i < end) && (frame[i] == against[i + offset])) {
+            ++i;
+        }
+
+        return(i - from);
+    }
+
+    /*
+     *  @return whether a position has a glyph the other frame has at
+     *  it or one along
+     */
+    private boolean     copies(char against[], int i)
+    {
+        return((frame[i] == against[i]) ||
+                ((i > 0) && (frame[i] == against[i - 1])) ||
+                ((i < cells - 1) && (frame[i] == against[i + 1])));
+    }
+
+    /*
+     *  Double the ring, keeping the frames where they are.
+     */
+    private void        grow()
+    {
+        char    larger[];
+
+        larger = new char[data.length * 2];
+        for (long p = start(first); (p < dataEnd); ++p) {
+            larger[(int)(p & (larger.length - 1))] =
+                    data[(int)(p & (data.length - 1))];
+        }
+        data = larger;
+    }
+
+    /*
+     *  Where a frame starts in the ring, counting from the first
+     *  character ever added, or the end for the frame after the
+     *  last.
+     */
+    private long        start(long frame)
+    {
+        if (frame == next) {
+            return(dataEnd);
+        }
+
+        return(frameStart[(int)(frame % frameTick.length)]);
+    }
+
+    /**
+     *  @return the earliest tick a snapshot is kept for, or
+     *  {@code Long.MAX_VALUE} if there are none
+     */
+    long        earliest()
+    {
+        if (first == next) {
+            return(Long.MAX_VALUE);
+        }
+
+        return(frameTick[(int)(first % frameTick.length)]);
+    }
+
+    /**
+     *  @param tick a tick no earlier than {@code earliest()}
+     *  @return the snapshot of the last frame added on or before it
+     */
+    String      snapshotAt(long tick)
+    {
+        long    low;
+        long    high;
+        char    glyphs[];
+        char    before[];
+
+        /*
+         *  The last frame no later than the tick.
+         */
+        low = first;
+        high = next - 1;
+        while (low < high) {
+            long    middle;
+
+            middle = (low + high + 1) >>> 1;
+            if (frameTick[(int)(middle % frameTick.length)] <= tick) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        glyphs = empty.clone();
+        before = new char[cells];
+        for (long f = low - (low % KEYFRAME); (f <= low); ++f) {
+            long    p;
+            long    end;
+            int     i;
+
+            System.arraycopy(glyphs, 0, before, 0, cells);
+            p = start(f);
+            end = start(f + 1);
+            i = 0;
+            while (p < end) {
+                int     token;
+                int     kind;
+                int     offset;
+
+                token = at(p++);
+                kind = token >>> KIND_SHIFT;
+                offset = kind - KEEP;
+                for (int n = token & LONGEST; (n > 0); --n, ++i) {
+                    if (kind == XOR) {
+                        glyphs[i] = (char)(before[i] ^ at(p++));
+                    } else {
+                        glyphs[i] = before[i + offset];
+                    }
+                }
+            }
+        }
+
+        return(new String(glyphs));
+    }
+
+    private char        at(long p)
+    {
+        return(data[(int)(p & (data.length - 1))]);
+    }
+
+    /**
+     *  @return the number of characters the frames take
+     */
+    long        size()
+    {
+        return(dataEnd - start(first));
+    }
+}
@@ -0,0 +1,613 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code Routes} keeps, for each destination the vehicles of a
+ *  {@code Network} can head for, a table of the road to leave each
+ *  road onto to get there soonest, so a junction decides where a
+ *  vehicle goes by looking it up rather than searching.  A table is
+ *  built by a shortest path search back from its destination, with
+ *  each road costing its weight to go along, and the tables are
+ *  built a destination to a task on a fork/join pool.
+ *  <p>
+ *  The tables are kept until something they depend on changes.  A
+ *  change to how the roads connect throws all of them out, but a
+ *  change to the weight of a road only throws out the ones it can
+ *  change:  a road that costs more only matters to the destinations
+ *  some road is routed through it to, and a road that costs less
+ *  only to the destinations it can reach.  Otherwise only the
+ *  road's own distance is put right.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+final class Routes {
+    /**
+     *  No road:  the destination can't be reached, or it's here.
+     */
+    static final int            NONE    = -1;
+
+    private int                 count;
+    private int                 nextStart[];
+    private int                 next[];
+    private int                 feederStart[];
+    private int                 feeder[];
+    private double              weight[];
+    private int                 destination[];
+    private int                 destinations;
+    private int                 hop[][];
+    private double              distance[][];
+    private boolean             stale[];
+    private long                built;
+
+    /*
+     *  Builds the tables of a range of destinations, splitting it
+     *  until there's one each.
+     */
+    private final class Build extends RecursiveAction {
+        private static final long       serialVersionUID        = 1L;
+        private final int       list[];
+        private final int       from;
+        private final int       to;
+
+        Build(int[] list, int from, int to)
+        {
+            this.list = list;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void  compute()
+        {
+            int     middle;
+
+            if (to - from == 1) {
+                build(list[from]);
+                return;
+            }
+            middle = (from + to) >>> 1;
+            invokeAll(new Build(list, from, middle),
+                    new Build(list, middle, to));
+        }
+    }
+
+    Routes()
+    {
+        destination = new int[4];
+        hop = new int[4][];
+        distance = new double[4][];
+        stale = new boolean[4];
+        nextStart = new int[1];
+        next = new int[0];
+        feederStart = new int[1];
+        feeder = new int[0];
+        weight = new double[0];
+    }
+
+    /**
+     *  Take the roads as they connect now.  Every table is built
+     *  over again when next asked for.
+     *  @param count the number of roads
+     *  @param downstream the road each road feeds, or NONE
+     *  @param turns the other roads each road can feed, or null
+     *  @param drains whether each road's vehicles leave the network,
+     *  so it feeds nothing
+     *  @param weight what each road costs to go along, kept and
+     *  changed through {@code setWeight()}
+     */
+    void        setGraph(int count, int downstream[], int turns[][],
+            boolean drains[], double weight[])
+    {
+        int     fill[];
+
+        this.count = count;
+        this.weight = weight;
+        nextStart = new int[count + 1];
+        for (int i = 0; (i < count); ++i) {
+            nextStart[i + 1] = nextStart[i];
+            if (drains[i] == true) {
+                continue;
+            }
+            if (downstream[i] != NONE) {
+                ++nextStart[i + 1];
+            }
+            if (turns[i] != null) {
+                nextStart[i + 1] += turns[i].length;
+            }
+        }
+        next = new int[nextStart[count]];
+        feederStart = new int[count + 1];
+        for (int i = 0; (i < count); ++i) {
+            int     at;
+
+            at = nextStart[i];
+            if (at == nextStart[i + 1]) {
+                continue;
+            }
+            if (downstream[i] != NONE) {
+                next[at++] = downstream[i];
+            }
+            if (turns[i] != null) {
+                for (int turn : turns[i]) {
+                    next[at++] = turn;
+                }
+            }
+        }
+        for (int to : next) {
+            ++feederStart[to + 1];
+        }
+        for (int i = 0; (i < count); ++i) {
+            feederStart[i + 1] += feederStart[i];
+        }
+        feeder = new int[next.length];
+        fill = Arrays.copyOf(feederStart, count);
+        for (int i = 0; (i < count); ++i) {
+            for (int j = nextStart[i]; (j < nextStart[i + 1]); ++j) {
+                feeder[fill[next[j]]++] = i;
+            }
+        }
+        for (int d = 0; (d < destinations); ++d) {
+            stale[d] = true;
+        }
+    }
+
+    /**
+     *  Add a destination.
+     *  @param road the road vehicles are to end up on
+     *  @return its identifier, the same one if it was added before
+     */
+    int add(int road)
+    {
+        for (int d = 0; (d < destinations); ++d) {
+            if (destination[d] == road) {
+                return(d);
+            }
+        }
+        if (destinations == destination.length) {
+            destination = Arrays.copyOf(destination, destinations * 2);
+            hop = Arrays.copyOf(hop, destinations * 2);
+            distance = Arrays.copyOf(distance, destinations * 2);
+            stale = Arrays.copyOf(stale, destinations * 2);
+        }
+        destination[destinations] = road;
+        stale[destinations] = true;
+
+        return(destinations++);
+    }
+
+    /**
+     *  @return the number of destinations
+     */
+    int destinations()
+    {
+        return(destinations);
+    }
+
+    /**
+     *  @param which a destination
+     *  @return the road it is
+     */
+    int roadOf(int which)
+    {
+        return(destination[which]);
+    }
+
+    /**
+     *  @return how many tables have been built, for seeing how much
+     *  a change cost
+     */
+    long        getBuildCount()
+    {
+        return(built);
+    }
+
+    /**
+     *  Change what a road costs to go along, throwing out the tables
+     *  the change can make a difference to.
+     *  @param road the road
+     *  @param cost the new weight, infinite if nothing should be
+     *  routed onto the road
+     */
+    void        setWeight(int road, double cost)
+    {
+        double  was;
+
+        was = weight[road];
+        weight[road] = cost;
+        if ((road >= count) || (cost == was)) {
+            return;
+        }
+        for (int d = 0; (d < destinations); ++d) {
+            if (stale[d] == true) {
+                continue;
+            }
+            if (cost > was) {
+                if (routedThrough(d, road) == true) {
+                    stale[d] = true;
+                } else {
+                    distance[d][road] += cost - was;
+                }
+            } else if ((road == destination[d]) ||
+                    (hop[d][road] != NONE)) {
+                stale[d] = true;
+            }
+        }
+    }
+
+    /*
+     *  Whether some road is routed through a road to a destination.
+     */
+    private boolean     routedThrough(int which, int road)
+    {
+        if (road == destination[which]) {
+            return(true);
+        }
+        for (int j = feederStart[road]; (j < feederStart[road + 1]);
+             ++j) {
+            if (hop[which][feeder[j]] == road) {
+                return(true);
+            }
+        }
+
+        return(false);
+    }
+
+    /**
+     *  Build the tables that were thrown out, in parallel if there's
+     *  more than one.
+     *  @param pool the pool to build them on
+     */
+    void        refresh(ForkJoinPool pool)
+    {
+        int     list[];
+        int     size;
+
+        list = new int[destinations];
+        size = 0;
+        for (int d = 0; (d < destinations); ++d) {
+            if (stale[d] == true) {
+                list[size++] = d;
+            }
+        }
+        if (size == 1) {
+            build(list[0]);
+        } else if (size > 1) {
+            pool.invoke(new Build(list, 0, size));
+        }
+        for (int i = 0; (i < size); ++i) {
+            stale[list[i]] = false;
+        }
+        built += size;
+    }
+
+    /**
+     *  @param which a destination
+     *  @param road the road a vehicle is on
+     *  @return the road to leave it onto, or NONE
+     */
+    int next(int which, int road)
+    {
+        return(hop[which][road]);
+    }
+
+    /**
+     *  @param which a destination
+     *  @param road the road a vehicle is on
+     *  @return what it costs to get to the end of the destination
+     *  from the start of the road, infinite if it can't
+     */
+    double      distance(int which, int road)
+    {
+        return(distance[which][road]);
+    }
+
+    /*
+     *  Build the table of a destination.  A road's distance is its
+     *  weight and the distance of the nearest road it feeds, so the
+     *  roads are settled nearest first, back from the destination.
+     *  Each road is routed to the nearest road it feeds even if it
+     *  can't be routed onto itself, so vehicles on a closed road
+     *  still find the way.
+     */
+    private void        build(int which)
+    {
+        int             table[];
+        double          far[];
+        double          via[];
+        int             heap[];
+        int             place[];
+        int             size;
+        int             start;
+
+        table = new int[count];
+        far = new double[count];
+        via = new double[count];
+        heap = new int[count];
+        place = new int[count];
+        Arrays.fill(table, NONE);
+        Arrays.fill(far, Double.POSITIVE_INFINITY);
+        Arrays.fill(via, Double.POSITIVE_INFINITY);
+        Arrays.fill(place, -1);
+        start = destination[which];
+        size = 0;
+        if (start < count) {
+            far[start] = weight[start];
+            place[start] = 0;
+            heap[size++] = start;
+        }
+        while (size > 0) {
+            int     road;
+
+            road = heap[0];
+            place[road] = -2;
+            heap[0] = heap[--size];
+            if (size > 0) {
+                place[heap[0]] = 0;
+                down(heap, place, far, size, 0);
+            }
+            for (int j = feederStart[road]; (j < feederStart[road + 1]);
+                 ++j) {
+                int     from;
+
+                from = feeder[j];
+                if ((from == start) || (place[from] == -2) ||
+                        (far[road] >= via[from])) {
+                    continue;
+                }
+                via[from] = far[road];
+                table[from] = road;
+                if (weight[from] + via[from] >= far[from]) {
+                    continue;
+                }
+                far[from] = weight[from] + via[from];
+                if (place[from] < 0) {
+                    place[from] = size;
+                    heap[size++] = from;
+                }
+                up(heap, place, far, place[from]);
+            }
+        }
+        hop[which] = table;
+        distance[which] = far;
+    }
+
+    private static void up(int heap[], int place[], double key[],
+            int at)
+    {
+        int     road;
+
+        road = heap[at];
+        while (at > 0) {
+            int     parent;
+
+            parent = (at - 1) >>> 1;
+            if (key[heap[parent]] <= key[road]) {
+                break;
+            }
+            heap[at] = heap[parent];
+            place[heap[at]] = at;
+            at = parent;
+        }
+        heap[at] = road;
+        place[road] = at;
+    }
+
+    private static void down(int heap[], int place[], double key[],
+            int size, int at)
+    {
+        int     road;
+
+        road = heap[at];
+        while (2 * at + 1 < size) {
+            int     child;
+
+            child = 2 * at + 1;
+            if ((child + 1 < size) &&
+                    (key[heap[child + 1]] < key[heap[child]])) {
+                ++child;
+            }
+            if (key[road] <= key[heap[child]]) {
+                break;
+            }
+            heap[at] = heap[child];
+            place[heap[at]] = at;
+            at = child;
+        }
+        heap[at] = road;
+        place[road] = at;
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + count +
+                ",destinations=" + destinations +
+                ",built=" + built + "]");
+    }
+
+    /*
+     *  The tables built for a grid have to agree with a search from
+     *  every road, before and after weights change, and a change
+     *  has to throw out only the tables it can matter to.
+     */
+    private static int  testGrid()
+    {
+        int             errors;
+        int             side;
+        int             count;
+        int             downstream[];
+        int             turns[][];
+        boolean         drains[];
+        double          weight[];
+        Routes          routes;
+        RandomStream    random;
+        long            before;
+
+        errors = 0;
+        side = 40;
+        count = side * side;
+        downstream = new int[count];
+        turns = new int[count][];
+        drains = new boolean[count];
+        weight = new double[count];
+        random = new RandomStream(9);
+        for (int i = 0; (i < count); ++i) {
+            int     row;
+            int     column;
+
+            row = i / side;
+            column = i % side;
+            downstream[i] = (column + 1 < side) ? i + 1 : NONE;
+            turns[i] = (row + 1 < side) ? new int[]{i + side} :
+                    (row > 0) ? new int[]{i - side} : null;
+            weight[i] = 1 + random.nextInt(20);
+        }
+        drains[count - 1] = true;
+        downstream[count - 1] = NONE;
+        routes = new Routes();
+        routes.setGraph(count, downstream, turns, drains, weight);
+        for (int d = 0; (d < 12); ++d) {
+            routes.add(random.nextInt(count));
+        }
+        if (routes.add(routes.roadOf(3)) != 3) {
+            System.out.println("*** ERROR *** added a destination" +
+                    " twice");
+            ++errors;
+        }
+        routes.refresh(ForkJoinPool.commonPool());
+        errors += check(routes, downstream, turns, drains, weight);
+
+        /*
+         *  A road no route goes through costs more:  nothing is
+         *  built.  A road on a route costs more or closes, or one
+         *  costs less:  some are.
+         */
+        for (int round = 0; (round < 40); ++round) {
+            int     road;
+
+            road = random.nextInt(count);
+            before = routes.getBuildCount();
+            if ((round % 4) == 3) {
+                routes.setWeight(road, Double.POSITIVE_INFINITY);
+            } else {
+                routes.setWeight(road, weight[road] *
+                        (((round % 2) == 0) ? 3 : 0.3));
+            }
+            routes.refresh(ForkJoinPool.commonPool());
+            errors += check(routes, downstream, turns, drains, weight);
+            if (errors > 0) {
+                System.out.println("*** ERROR *** after round " +
+                        round + " on road " + road);
+                return(errors);
+            }
+            if (round < 3) {
+                System.out.println("change " + round + " rebuilt " +
+                        (routes.getBuildCount() - before) + " of " +
+                        routes.destinations());
+            }
+        }
+        System.out.println(routes);
+        if (routes.getBuildCount() >= 41 * routes.destinations()) {
+            System.out.println("*** ERROR *** every change rebuilt" +
+                    " every table");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Compare the distances with a search from each road, which
+     *  takes no notice of the tables, and make sure the next hops
+     *  lead that far.
+     */
+    private static int  check(Routes routes, int downstream[],
+            int turns[][], boolean drains[], double weight[])
+    {
+        int     errors;
+        int     count;
+
+        errors = 0;
+        count = downstream.length;
+        for (int d = 0; (d < routes.destinations()); ++d) {
+            double  far[];
+            boolean changed;
+
+            /*
+             *  Relax every road until nothing changes.
+             */
+            far = new double[count];
+            Arrays.fill(far, Double.POSITIVE_INFINITY);
+            far[routes.roadOf(d)] = weight[routes.roadOf(d)];
+            do {
+                changed = false;
+                for (int i = 0; (i < count); ++i) {
+                    double  best;
+
+                    if ((i == routes.roadOf(d)) ||
+                            (drains[i] == true)) {
+                        continue;
+                    }
+                    best = (downstream[i] == NONE) ?
+                            Double.POSITIVE_INFINITY :
+                            far[downstream[i]];
+                    if (turns[i] != null) {
+                        for (int turn : turns[i]) {
+                            best = Math.min(best, far[turn]);
+                        }
+                    }
+                    if (weight[i] + best < far[i]) {
+                        far[i] = weight[i] + best;
+                        changed = true;
+                    }
+                }
+            } while (changed == true);
+            for (int i = 0; (i < count); ++i) {
+                int     hop;
+
+                hop = routes.next(d, i);
+                if ((near(far[i], routes.distance(d, i)) == false) ||
+                        ((Double.isFinite(far[i]) == true) &&
+                        (i != routes.roadOf(d)) &&
+                        ((hop == NONE) || (near(weight[i] +
+                        routes.distance(d, hop), far[i]) == false)))) {
+                    System.out.println("*** ERROR *** destination " +
+                            d + " road " + i + ": " +
+                            routes.distance(d, i) + " for " + far[i] +
+                            " through " + hop);
+                    return(errors + 1);
+                }
+            }
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Whether two distances are the same but for rounding.
+     */
+    private static boolean      near(double a, double b)
+    {
+        return((a == b) || (Math.abs(a - b) <= 1e-9 * Math.abs(a)));
+    }
+
+    /**
+     *  Unit test.
+     *  @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = testGrid();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,930 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code Signals} holds the traffic signals of a {@code Network}.
+ *  A signal stands at an intersection and controls the outgoing ends
+ *  of the roads approaching it.  One approach has green at a time and
+ *  the others wait, with an all red clearance between greens.
+ *  <p>
+ *  A fixed-time plan gives each approach its green for a set number
+ *  of ticks in a cycle that starts at an offset from tick 0, so the
+ *  intersections along a corridor can be coordinated into a green
+ *  wave.  An actuated plan keeps green for at least a minimum and at
+ *  most a maximum number of ticks, and gives it up early when
+ *  nothing is queued at the green approach but something is queued
+ *  at another.  Queues are read from the lanes, as far back from the
+ *  outgoing end as the detector reaches.
+ *  <p>
+ *  The state of every intersection is kept in primitive arrays
+ *  indexed by intersection, with the approaches of all of them in
+ *  one array.  The network evaluates every intersection at the start
+ *  of each step, in parallel like the rest of the step, and wakes the
+ *  approaches that turn green.
+ *  @version 2026101903
+ *  @author Richard Barton
+ */
+public final class Signals {
+    /**
+     *  Plan with fixed green times.
+     */
+    public static final int     FIXED           = 0;
+    /**
+     *  Plan with green times that follow the queues.
+     */
+    public static final int     ACTUATED        = 1;
+
+    private static final int    NONE            = -1;
+    /*
+     *  What an intersection shows during the all red clearance.
+     */
+    private static final int    CLEARANCE       = -1;
+
+    private final Network       network;
+    private int                 count;
+
+    /*
+     *  Indexed by intersection.  The approaches of intersection i are
+     *  approachRoad[first[i]] up to approachRoad[first[i] + size[i]].
+     *  current is the approach, counting from 0, that has green.
+     */
+    private byte                plan[];
+    private int                 first[];
+    private int                 size[];
+    private int                 cycle[];
+    private int                 offset[];
+    private int                 clearance[];
+    private int                 minGreen[];
+    private int                 maxGreen[];
+    private int                 detector[];
+    private int                 current[];
+    private int                 following[];
+    private long                since[];
+
+    /*
+     *  Indexed by approach, across all intersections.
+     */
+    private int                 approachCount;
+    private int                 approachRoad[];
+    private int                 approachGreen[];
+    private int                 owner[];
+
+    /*
+     *  Indexed by road, the approach it is or NONE.
+     */
+    private int                 signalOf[];
+
+    /*
+     *  Roads that turned green on this step.
+     */
+    private int                 turned[];
+    private final AtomicInteger turnedCount;
+
+    /*
+     *  Signals belong to their network.
+     */
+    Signals(Network network)
+    {
+        this.network = network;
+        plan = new byte[16];
+        first = new int[16];
+        size = new int[16];
+        cycle = new int[16];
+        offset = new int[16];
+        clearance = new int[16];
+        minGreen = new int[16];
+        maxGreen = new int[16];
+        detector = new int[16];
+        current = new int[16];
+        following = new int[16];
+        since = new long[16];
+        approachRoad = new int[16];
+        approachGreen = new int[16];
+        owner = new int[16];
+        signalOf = new int[0];
+        turned = new int[16];
+        turnedCount = new AtomicInteger();
+    }
+
+    /*
+     *  Write the state of the intersections to a checkpoint.  The
+     *  plans come with the network.
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putInt(count);
+        for (int i = 0; (i < count); ++i) {
+            out.putInt(current[i]);
+            out.putInt(following[i]);
+            out.putLong(since[i]);
+        }
+    }
+
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        if (in.getInt() != count) {
+            throw new IllegalArgumentException("checkpoint has a" +
+                    " different number of signals");
+        }
+        for (int i = 0; (i < count); ++i) {
+            current[i] = in.getInt();
+            following[i] = in.getInt();
+            since[i] = in.getLong();
+        }
+        turnedCount.set(0);
+    }
+
+    /**
+     *  Put a fixed-time signal on an intersection.  The approaches
+     *  get green in order, each followed by the clearance, so the
+     *  cycle is the sum of the greens and clearances.
+     *  @param approaches the roads approaching the intersection
+     *  @param green how many ticks each approach has green
+     *  @param clearance how many ticks of all red follow each green
+     *  @param offset the tick, within the cycle, that the first
+     *  approach turns green on
+     *  @return the index of the intersection
+     *  @throws IllegalArgumentException if the roads aren't in the
+     *  network or already have a signal, or the times are out of
+     *  range
+     */
+    public int  addFixed(Road[] approaches, int[] green, int clearance,
+                         int offset)
+    {
+        int     which;
+        int     total;
+        int     i;
+
+        if (approaches.length != green.length) {
+            throw new IllegalArgumentException("approaches.length (" +
+                    approaches.length + ") != green.length (" +
+                    green.length + ")");
+        }
+        total = 0;
+        for (i = 0; (i < green.length); ++i) {
+            if (green[i] < 1) {
+                throw new IllegalArgumentException("green time " +
+                        green[i] + " isn't positive");
+            }
+            total += green[i] + clearance;
+        }
+
+        which = add(FIXED, approaches, clearance);
+        for (i = 0; (i < green.length); ++i) {
+            approachGreen[first[which] + i] = green[i];
+        }
+        cycle[which] = total;
+        this.offset[which] = Math.floorMod(offset, total);
+        current[which] = fixedPhase(which, network.getTick());
+        wakeApproaches(which);
+
+        return(which);
+    }
+
+    /**
+     *  Put an actuated signal on an intersection.  The first
+     *  approach starts with green.
+     *  @param approaches the roads approaching the intersection
+     *  @param minGreen fewest ticks of green once it's given
+     *  @param maxGreen most ticks of green while another approach
+     *  waits
+     *  @param clearance how many ticks of all red follow each green
+     *  @param detector how many positions back from the outgoing end
+     *  of each approach the queue is read
+     *  @return the index of the intersection
+     *  @throws IllegalArgumentException if the roads aren't in the
+     *  network or already have a signal, or the times are out of
+     *  range
+     */
+    public int  addActuated(Road[] approaches, int minGreen,
+                            int maxGreen, int clearance, int detector)
+    {
+        int     which;
+
+        if ((minGreen < 1) || (maxGreen < minGreen) || (detector < 1)) {
+            throw new IllegalArgumentException("green times " +
+                    minGreen + " to " + maxGreen + " or detector " +
+                    detector + " out of range");
+        }
+
+        which = add(ACTUATED, approaches, clearance);
+        this.minGreen[which] = minGreen;
+        this.maxGreen[which] = maxGreen;
+        this.detector[which] = detector;
+        current[which] = 0;
+        since[which] = network.getTick();
+        wakeApproaches(which);
+
+        return(which);
+    }
+
+    /*
+     *  Add an intersection and its approaches.
+     */
+    private int add(int kind, Road[] approaches, int clearance)
+    {
+        int     which;
+        int     roads;
+        int     i;
+
+        if ((approaches.length == 0) || (clearance < 0)) {
+            throw new IllegalArgumentException("no approaches or" +
+                    " clearance " + clearance + " is negative");
+        }
+        roads = network.getRoads().size();
+        if (signalOf.length < roads) {
+            i = signalOf.length;
+            signalOf = Arrays.copyOf(signalOf,
+                    Math.max(roads, signalOf.length * 2));
+            Arrays.fill(signalOf, i, signalOf.length, NONE);
+        }
+        for (i = 0; (i < approaches.length); ++i) {
+            int         road;
+
+            road = network.indexOf(approaches[i]);
+            if (signalOf[road] != NONE) {
+                throw new IllegalArgumentException(approaches[i] +
+                        " already has a signal");
+            }
+            for (int j = 0; (j < i); ++j) {
+                if (approaches[j] == approaches[i]) {
+                    throw new IllegalArgumentException(approaches[i] +
+                            " approaches twice");
+                }
+            }
+        }
+
+        which = count;
+        if (which == plan.length) {
+            grow(which * 2);
+        }
+        while (approachCount + approaches.length >
+                approachRoad.length) {
+            approachRoad = Arrays.copyOf(approachRoad,
+                    approachRoad.length * 2);
+            approachGreen = Arrays.copyOf(approachGreen,
+                    approachGreen.length * 2);
+            owner = Arrays.copyOf(owner, owner.length * 2);
+        }
+        plan[which] = (byte)kind;
+        first[which] = approachCount;
+        size[which] = approaches.length;
+        this.clearance[which] = clearance;
+        for (i = 0; (i < approaches.length); ++i) {
+            int         road;
+
+            road = network.indexOf(approaches[i]);
+            approachRoad[approachCount] = road;
+            owner[approachCount] = which;
+            signalOf[road] = approachCount;
+            ++approachCount;
+        }
+        ++count;
+        if (count > turned.length) {
+            turned = Arrays.copyOf(turned, turned.length * 2);
+        }
+
+        return(which);
+    }
+
+    /*
+     *  Make room for more intersections.
+     */
+    private void        grow(int length)
+    {
+        plan = Arrays.copyOf(plan, length);
+        first = Arrays.copyOf(first, length);
+        size = Arrays.copyOf(size, length);
+        cycle = Arrays.copyOf(cycle, length);
+        offset = Arrays.copyOf(offset, length);
+        clearance = Arrays.copyOf(clearance, length);
+        minGreen = Arrays.copyOf(minGreen, length);
+        maxGreen = Arrays.copyOf(maxGreen, length);
+        detector = Arrays.copyOf(detector, length);
+        current = Arrays.copyOf(current, length);
+        following = Arrays.copyOf(following, length);
+        since = Arrays.copyOf(since, length);
+    }
+
+    /*
+     *  A new signal changes what the approaches may do, so have the
+     *  network look at them again.
+     */
+    private void        wakeApproaches(int which)
+    {
+        int     i;
+
+        for (i = 0; (i < size[which]); ++i) {
+            network.wake(network.road(approachRoad[first[which] + i]));
+        }
+    }
+
+    /*
+     *  Put every intersection back the way it starts, for a network
+     *  starting over at the tick.
+     */
+    void        reset(long tick)
+    {
+        int     i;
+
+        for (i = 0; (i < count); ++i) {
+            current[i] = (plan[i] == FIXED) ? fixedPhase(i, tick) : 0;
+            since[i] = tick;
+        }
+        turnedCount.set(0);
+    }
+
+    /**
+     *  Set the offsets of fixed-time signals along a corridor so a
+     *  platoon let go by one green reaches the next signal as it
+     *  turns green.  Each road of the corridor must be an approach
+     *  of a fixed-time signal and feed the next one.  The first
+     *  signal keeps its offset.
+     *  @param corridor the approaches along the corridor, in the
+     *  direction of travel
+     *  @throws IllegalArgumentException if a road doesn't have a
+     *  fixed-time signal
+     */
+    public void greenWave(Road[] corridor)
+    {
+        long    start;
+        int     i;
+
+        start = 0;
+        for (i = 0; (i < corridor.length); ++i) {
+            int         which;
+            int         approach;
+            Road        road;
+
+            road = corridor[i];
+            which = approachOf(road);
+            if ((which == NONE) || (plan[owner[which]] != FIXED)) {
+                throw new IllegalArgumentException(road +
+                        " doesn't have a fixed-time signal");
+            }
+            approach = which;
+            which = owner[which];
+            if (i == 0) {
+                start = offset[which] + greenStart(which, approach);
+            } else {
+                /*
+                 *  The head of the platoon needs a tick to cross and
+                 *  then one tick per position, on the road's own
+                 *  ticks, to get to the outgoing end.
+                 */
+                start += 1 + (long)(road.getCarCount() - 1) *
+                        road.getTickPeriod();
+                offset[which] = (int)Math.floorMod(start -
+                        greenStart(which, approach),
+                        (long)cycle[which]);
+                current[which] = fixedPhase(which, network.getTick());
+                wakeApproaches(which);
+            }
+        }
+    }
+
+    /*
+     *  @return the tick, within the cycle, that the approach turns
+     *  green on, not counting the offset
+     */
+    private int greenStart(int which, int approach)
+    {
+        int     start;
+        int     i;
+
+        start = 0;
+        for (i = first[which]; (i < approach); ++i) {
+            start += approachGreen[i] + clearance[which];
+        }
+
+        return(start);
+    }
+
+    /*
+     *  @return the approach, across all intersections, a road is or
+     *  NONE
+     */
+    private int approachOf(Road road)
+    {
+        int     which;
+
+        which = network.indexOf(road);
+        return((which < signalOf.length) ? signalOf[which] : NONE);
+    }
+
+    /**
+     *  @param road a road in the network
+     *  @return whether vehicles may leave the road, which they can
+     *  if it doesn't have a signal
+     */
+    public boolean      isGreen(Road road)
+    {
+        return(isGreen(network.indexOf(road)));
+    }
+
+    /*
+     *  Whether a road, by index, has green.
+     */
+    boolean     isGreen(int road)
+    {
+        int     approach;
+        int     which;
+
+        if (road >= signalOf.length) {
+            return(true);
+        }
+        approach = signalOf[road];
+        if (approach == NONE) {
+            return(true);
+        }
+        which = owner[approach];
+
+        return(current[which] == approach - first[which]);
+    }
+
+    /*
+     *  @return the roads approaching an intersection, by index
+     */
+    int[]       approaches(int which)
+    {
+        return(Arrays.copyOfRange(approachRoad, first[which],
+                first[which] + size[which]));
+    }
+
+    /**
+     *  @return the number of intersections with signals
+     */
+    public int  size()
+    {
+        return(count);
+    }
+
+    /**
+     *  @param which index of an intersection
+     *  @return {@code FIXED} or {@code ACTUATED}
+     */
+    public int  getPlan(int which)
+    {
+        return(plan[which]);
+    }
+
+    /**
+     *  @param which index of an intersection
+     *  @return the approach, counting from 0 in the order they were
+     *  given, that has green or -1 during the clearance
+     */
+    public int  getGreen(int which)
+    {
+        return(current[which]);
+    }
+
+    /**
+     *  @param which index of an intersection
+     *  @return the offset of a fixed-time plan
+     */
+    public int  getOffset(int which)
+    {
+        return(offset[which]);
+    }
+
+    /*
+     *  @return the phase a fixed-time plan shows on the tick
+     */
+    private int fixedPhase(int which, long tick)
+    {
+        long    local;
+        int     i;
+
+        local = Math.floorMod(tick - offset[which], (long)cycle[which]);
+        for (i = 0; (i < size[which]); ++i) {
+            local -= approachGreen[first[which] + i];
+            if (local < 0) {
+                return(i);
+            }
+            local -= clearance[which];
+            if (local < 0) {
+                return(CLEARANCE);
+            }
+        }
+
+        return(CLEARANCE);
+    }
+
+    /*
+     *  @return the next approach after the green one with a queue
+     *  or NONE
+     */
+    private int waiting(int which)
+    {
+        int     i;
+
+        for (i = 1; (i < size[which]); ++i) {
+            int         approach;
+
+            approach = (current[which] + i) % size[which];
+            if (network.road(approachRoad[first[which] + approach])
+                    .queueLength(detector[which]) > 0) {
+                return(approach);
+            }
+        }
+
+        return(NONE);
+    }
+
+    /*
+     *  Work out what every intersection in a range shows on the
+     *  tick.  Each intersection only touches its own entries, so
+     *  ranges can be evaluated at the same time.  Approaches that
+     *  turn green are collected for the network to wake.
+     */
+    void        evaluate(int from, int to, long tick)
+    {
+        int     i;
+
+        for (i = from; (i < to); ++i) {
+            int         phase;
+
+            if (plan[i] == FIXED) {
+                phase = fixedPhase(i, tick);
+            } else {
+                phase = actuatedPhase(i, tick);
+            }
+            if (phase != current[i]) {
+                current[i] = phase;
+                since[i] = tick;
+                if (phase != CLEARANCE) {
+                    turned[turnedCount.getAndIncrement()] =
+                            approachRoad[first[i] + phase];
+                }
+            }
+        }
+    }
+
+    /*
+     *  @return the phase an actuated plan moves to on the tick
+     */
+    private int actuatedPhase(int which, long tick)
+    {
+        long    elapsed;
+        int     next;
+
+        elapsed = tick - since[which];
+        if (current[which] == CLEARANCE) {
+            return((elapsed >= clearance[which]) ? following[which] :
+                    CLEARANCE);
+        }
+        if (elapsed < minGreen[which]) {
+            return(current[which]);
+        }
+
+        /*
+         *  Rest in green until another approach has a queue, then
+         *  hand over when the green queue has cleared or time's up.
+         */
+        next = waiting(which);
+        if ((next == NONE) ||
+                ((elapsed < maxGreen[which]) &&
+                (network.road(approachRoad[first[which] +
+                        current[which]]).queueLength(
+                        detector[which]) > 0))) {
+            return(current[which]);
+        }
+        following[which] = next;
+
+        return((clearance[which] == 0) ? next : CLEARANCE);
+    }
+
+    /*
+     *  Hand over the roads that turned green, in index order so the
+     *  order doesn't depend on which thread found them, and start
+     *  over.
+     */
+    int turnedGreen(int[] into)
+    {
+        int     found;
+
+        found = turnedCount.getAndSet(0);
+        System.arraycopy(turned, 0, into, 0, found);
+        Arrays.sort(into, 0, found);
+
+        return(found);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() + "[intersections=" + count +
+                ",approaches=" + approachCount + "]");
+    }
+
+    /*
+     *  Build a corridor of intersections, each with the corridor road
+     *  and a cross street approaching it.  The corridor roads feed
+     *  each other and the last one drains.
+     */
+    private static Road[]       corridor(Network network, int length,
+                                         double demand)
+    {
+        Road    main[];
+        int     i;
+
+        main = new Road[length];
+        for (i = 0; (i < length); ++i) {
+            Road        cross;
+
+            main[i] = new Road("Main " + i, 8, false);
+            main[i].setSeed(i);
+            main[i].setDemand(DemandProfile.constant(
+                    (i == 0) ? demand : 0));
+            network.add(main[i]);
+            cross = new Road("Cross " + i, 4, false);
+            cross.setDemand(DemandProfile.constant(0));
+            network.add(cross);
+            network.drain(cross);
+            network.getSignals().addFixed(new Road[]{main[i], cross},
+                    new int[]{10, 8}, 1, 7 * i);
+            if (i > 0) {
+                network.connect(main[i - 1], main[i]);
+            }
+        }
+        network.drain(main[length - 1]);
+
+        return(main);
+    }
+
+    /*
+     *  @return the vehicles on the roads summed over the ticks
+     */
+    private static long occupancy(Network network, int ticks)
+    {
+        long    total;
+
+        total = 0;
+        for (; (ticks > 0); --ticks) {
+            network.step();
+            for (Road road : network.getRoads()) {
+                for (int i = 0; (i < road.getCarCount()); ++i) {
+                    if (road.vehicleAt(i) != null) {
+                        ++total;
+                    }
+                }
+            }
+        }
+
+        return(total);
+    }
+
+    /*
+     *  Fixed-time plans show what they're supposed to, never let a
+     *  vehicle through on red and a green wave gets a platoon down a
+     *  corridor with fewer stops.
+     */
+    private static int  testFixed()
+    {
+        int             errors;
+        Network         network;
+        Road            main[];
+        Signals         signals;
+        long            plain;
+        long            wave;
+        int             t;
+
+        errors = 0;
+        network = new Network();
+        main = corridor(network, 6, 0.25);
+        signals = network.getSignals();
+        for (t = 0; (t < 300); ++t) {
+            Vehicle     waiting;
+
+            waiting = main[3].vehicleAt(7);
+            network.step();
+            for (int i = 0; (i < signals.size()); ++i) {
+                long        local;
+                int         expected;
+
+                local = Math.floorMod(t - 7 * i, 20);
+                expected = (local < 10) ? 0 : ((local < 11) ? -1 :
+                        ((local < 19) ? 1 : -1));
+                if (signals.getGreen(i) != expected) {
+                    System.out.println("*** ERROR *** tick " + t +
+                            ": intersection " + i + " shows " +
+                            signals.getGreen(i) + " not " + expected);
+                    ++errors;
+                }
+            }
+            if ((signals.isGreen(main[3]) == false) &&
+                    (waiting != null) &&
+                    (main[3].vehicleAt(7) != waiting)) {
+                /*
+                 *  The signal shows what it showed during the step,
+                 *  so whatever waited at red must still be there.
+                 */
+                System.out.println("*** ERROR *** tick " + t +
+                        ": ran the red light at 3");
+                ++errors;
+            }
+        }
+
+        /*
+         *  Same demand with and without coordination.
+         */
+        network = new Network();
+        corridor(network, 6, 0.25);
+        plain = occupancy(network, 3000);
+        network = new Network();
+        main = corridor(network, 6, 0.25);
+        network.getSignals().greenWave(main);
+        wave = occupancy(network, 3000);
+        System.out.println("vehicle ticks: uncoordinated " + plain +
+                ", green wave " + wave + " (" +
+                Arrays.toString(new int[]{
+                        network.getSignals().getOffset(0),
+                        network.getSignals().getOffset(1),
+                        network.getSignals().getOffset(2)}) + "...)");
+        if (wave >= plain) {
+            System.out.println("*** ERROR *** the green wave didn't" +
+                    " help");
+            ++errors;
+        }
+
+        try {
+            network.getSignals().addFixed(new Road[]{main[0]},
+                    new int[]{5}, 0, 0);
+            System.out.println("*** ERROR *** two signals on a road");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            System.out.println("two signals: " + e.getMessage());
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  An actuated signal rests on the busy approach, shares when both
+     *  are busy and keeps its greens between the minimum and the
+     *  maximum.
+     */
+    private static int  testActuated()
+    {
+        int             errors;
+        Network         network;
+        Road            north;
+        Road            east;
+        Signals         signals;
+        long            greenSince;
+        int             served[];
+        int             t;
+
+        errors = 0;
+        network = new Network();
+        signals = network.getSignals();
+        north = new Road("North", 10, false);
+        east = new Road("East", 10, false);
+        north.setSeed(1);
+        east.setSeed(2);
+        north.setDemand(DemandProfile.constant(0.3));
+        east.setDemand(DemandProfile.constant(0));
+        network.add(north);
+        network.add(east);
+        network.drain(north);
+        network.drain(east);
+        signals.addActuated(new Road[]{east, north}, 4, 12, 2, 3);
+        network.step(200);
+        if ((signals.isGreen(north) == false) ||
+                (network.getExitCount() < 40)) {
+            System.out.println("*** ERROR *** didn't rest on the" +
+                    " busy approach: " + network.getExitCount() +
+                    " through");
+            ++errors;
+        }
+
+        /*
+         *  Both busy.  Green changes hands no sooner than the
+         *  minimum, and no later than the maximum when the other
+         *  approach has a queue.
+         */
+        east.setDemand(DemandProfile.constant(0.3));
+        greenSince = -1;
+        served = new int[2];
+        for (t = 0; (t < 2000); ++t) {
+            int         green;
+            Road        other;
+            boolean     mustChange;
+
+            green = signals.getGreen(0);
+            other = (green == 0) ? north : east;
+            mustChange = (green != -1) && (greenSince >= 0) &&
+                    (network.getTick() - greenSince >= 12) &&
+                    (other.queueLength(3) > 0);
+            network.step();
+            if (signals.getGreen(0) == green) {
+                if (mustChange == true) {
+                    System.out.println("*** ERROR *** tick " + t +
+                            ": green held past the maximum");
+                    ++errors;
+                }
+                continue;
+            }
+            if ((green != -1) && (greenSince >= 0)) {
+                ++served[green];
+                if (network.getTick() - 1 - greenSince < 4) {
+                    System.out.println("*** ERROR *** tick " + t +
+                            ": green of " + (network.getTick() - 1 -
+                            greenSince) + " ticks");
+                    ++errors;
+                }
+            }
+            greenSince = network.getTick() - 1;
+        }
+        System.out.println("actuated: " + Arrays.toString(served) +
+                " greens, " + network.getExitCount() + " through, " +
+                north.snapshot() + " " + east.snapshot());
+        if ((served[0] < 50) || (served[1] < 50)) {
+            System.out.println("*** ERROR *** approaches weren't" +
+                    " served in turn");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Time a big grid of signalized intersections against the same
+     *  roads with no signals.
+     */
+    private static int  testCost()
+    {
+        int             errors;
+        long            elapsed[];
+        int             intersections;
+
+        errors = 0;
+        intersections = 50000;
+        elapsed = new long[3];
+        for (int pass = 0; (pass < elapsed.length); ++pass) {
+            Network     network;
+            long        start;
+
+            network = new Network();
+            if (pass == 2) {
+                network.setParallelism(4);
+            }
+            for (int i = 0; (i < intersections); ++i) {
+                Road    a;
+                Road    b;
+
+                a = new Road("A " + i, 6, false);
+                b = new Road("B " + i, 6, true);
+                a.setSeed(2 * i);
+                b.setSeed(2 * i + 1);
+                a.setDemand(DemandProfile.constant(0.05));
+                b.setDemand(DemandProfile.constant(0.05));
+                network.add(a);
+                network.add(b);
+                network.drain(a);
+                network.drain(b);
+                if (pass > 0) {
+                    network.getSignals().addFixed(new Road[]{a, b},
+                            new int[]{6, 6}, 1, i);
+                }
+            }
+            network.step(50);
+            start = System.nanoTime();
+            network.step(200);
+            elapsed[pass] = System.nanoTime() - start;
+            System.out.printf("%d intersections, %s: %.1f us/step," +
+                    " %d active\n", intersections,
+                    (pass == 0) ? "no signals" :
+                    ((pass == 1) ? "signals" : "signals, 4 threads"),
+                    elapsed[pass] / 200 / 1000.0,
+                    network.getActiveCount());
+        }
+
+        return(errors);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Signals} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = 0;
+        errors += testFixed();
+        errors += testActuated();
+        errors += testCost();
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package traffic;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ *  {@code SnapshotExporter} writes the snapshots of every road of a
+ *  {@code Network}, tick after tick, to gzipped text files, without
+ *  holding up the thread stepping the network.  After each step that
+ *  thread calls {@code export()}, which only copies the glyphs of the
+ *  roads into a frame taken from a pool and queues it.  Compressor
+ *  threads turn the frames into text, deflate it and write it, and
+ *  put the frames back in the pool, so once the pool is full nothing
+ *  is allocated for a tick on either side.  If the compressors fall a
+ *  whole pool behind, {@code export()} waits for a frame to come back
+ *  rather than drop one.
+ *  <p>
+ *  The ticks are split into files of {@code ticksPerFile} each, named
+ *  for the first of them, and each file is written by one compressor
+ *  thread from start to end, the files going to the threads in turn.
+ *  A file holds, for each tick,
+ *  <pre>
+ *      tick 123
+ *      ___c__m__c_cc
+ *      ...
+ *  </pre>
+ *  a line with the tick and then a line for each road, in the
+ *  network's order, with its snapshot in UTF-8.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class SnapshotExporter implements Closeable {
+    private final Network       network;
+    private final List<Road>    roads;
+    private final int           offset[];
+    private final Path          directory;
+    private final String        prefix;
+    private final long          ticksPerFile;
+    private final int           level;
+    private final BlockingQueue<Frame>  pool;
+    private final Compressor    compressor[];
+    private final AtomicLong    bytesWritten;
+    private final AtomicLong    waitCount;
+    private volatile IOException        failure;
+    private boolean             open;
+
+    /*
+     *  The glyphs of the roads after a tick, laid end to end.  A frame
+     *  with a negative tick tells a compressor to stop.
+     */
+    private static final class Frame {
+        final char              glyphs[];
+        long                    tick;
+
+        Frame(int cells)
+        {
+            glyphs = new char[cells];
+        }
+    }
+
+    /*
+     *  A thread deflating frames into files, with everything it uses
+     *  kept from one frame and file to the next.
+     */
+    private final class Compressor extends Thread {
+        final BlockingQueue<Frame>      queue;
+        final Deflater          deflater;
+        final CRC32             crc;
+        byte                    text[];
+        final byte              out[];
+        OutputStream            file;
+        long                    fileStart;
+        long                    textSize;
+
+        Compressor(int which, int frames)
+        {
+            super("SnapshotExporter " + which);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<>(frames);
+            deflater = new Deflater(level, true);
+            crc = new CRC32();
+            text = new byte[64 + 4 * offset[offset.length - 1] +
+                    roads.size()];
+            out = new byte[1 << 16];
+        }
+
+        public void     run()
+        {
+            while (true) {
+                Frame   frame;
+
+                try {
+                    frame = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (frame.tick < 0) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        write(frame);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                pool.add(frame);
+            }
+            try {
+                endFile();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private void    write(Frame frame) throws IOException
+        {
+            int     length;
+
+            if ((file != null) &&
+                    (frame.tick - frame.tick % ticksPerFile !=
+                    fileStart)) {
+                endFile();
+            }
+            if (file == null) {
+                fileStart = frame.tick - frame.tick % ticksPerFile;
+                file = Files.newOutputStream(pathFor(fileStart));
+                file.write(new byte[]{(byte)0x1f, (byte)0x8b,
+                        Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+                        (byte)0xff});
+                bytesWritten.addAndGet(10);
+                deflater.reset();
+                crc.reset();
+                textSize = 0;
+            }
+            length = text(frame);
+            crc.update(text, 0, length);
+            textSize += length;
+            deflater.setInput(text, 0, length);
+            while (deflater.needsInput() == false) {
+                drain();
+            }
+        }
+
+        /*
+         *  Turn a frame into lines of text.
+         *  @return how long it is
+         */
+        private int     text(Frame frame)
+        {
+            String  header;
+            int     at;
+
+            header = "tick " + frame.tick + "\n";
+            at = 0;
+            for (int i = 0; (i < header.length()); ++i) {
+                text[at++] = (byte)header.charAt(i);
+            }
+            for (int r = 0; (r < roads.size()); ++r) {
+                for (int i = offset[r]; (i < offset[r + 1]); ++i) {
+                    char    c;
+
+                    c = frame.glyphs[i];
+                    if (c < 0x80) {
+                        text[at++] = (byte)c;
+                    } else if (c < 0x800) {
+                        text[at++] = (byte)(0xc0 | (c >> 6));
+                        text[at++] = (byte)(0x80 | (c & 0x3f));
+                    } else {
+                        text[at++] = (byte)(0xe0 | (c >> 12));
+                        text[at++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                        text[at++] = (byte)(0x80 | (c & 0x3f));
+                    }
+                }
+                text[at++] = '\n';
+            }
+
+            return(at);
+        }
+
+        private void    drain() throws IOException
+        {
+            int     length;
+
+            length = deflater.deflate(out);
+            if (length > 0) {
+                file.write(out, 0, length);
+                bytesWritten.addAndGet(length);
+            }
+        }
+
+        /*
+         *  Finish the file being written, if there is one, with the
+         *  check and length gzip ends with.
+         */
+        private void    endFile() throws IOException
+        {
+            byte    trailer[];
+
+            if (file == null) {
+                return;
+            }
+            try {
+                deflater.finish();
+                while (deflater.finished() == false) {
+                    drain();
+                }
+                trailer = new byte[8];
+                for (int i = 0; (i < 4); ++i) {
+                    trailer[i] = (byte)(crc.getValue() >>> (8 * i));
+                    trailer[4 + i] = (byte)(textSize >>> (8 * i));
+                }
+                file.write(trailer);
+                bytesWritten.addAndGet(trailer.length);
+            } finally {
+                file.close();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     *  Start exporting the roads of a network.  Roads added to it
+     *  later aren't exported.
+     *  @param network the network
+     *  @param directory where to write the files
+     *  @param prefix what the names of the files start with
+     *  @param ticksPerFile the number of ticks in each file
+     *  @param threads the number of compressor threads
+     *  @param frames the number of frames in the pool, at least one
+     *  for each thread
+     *  @throws IllegalArgumentException if there are no ticks to a
+     *  file, no threads or too few frames
+     */
+    public SnapshotExporter(Network network, Path directory,
+                            String prefix, long ticksPerFile,
+                            int threads, int frames)
+    {
+        if ((ticksPerFile < 1) || (threads < 1) || (frames < threads)) {
+            throw new IllegalArgumentException("bad exporter " +
+                    ticksPerFile + " ticks to a file, " + threads +
+                    " threads, " + frames + " frames");
+        }
+        this.network = network;
+        roads = new ArrayList<>(network.getRoads());
+        offset = new int[roads.size() + 1];
+        for (int r = 0; (r < roads.size()); ++r) {
+            offset[r + 1] = offset[r] + roads.get(r).getCarCount();
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.ticksPerFile = ticksPerFile;
+        level = Deflater.BEST_SPEED;
+        pool = new ArrayBlockingQueue<>(frames);
+        for (int f = 0; (f < frames); ++f) {
+            pool.add(new Frame(offset[roads.size()]));
+        }
+        bytesWritten = new AtomicLong();
+        waitCount = new AtomicLong();
+        compressor = new Compressor[threads];
+        for (int t = 0; (t < threads); ++t) {
+            compressor[t] = new Compressor(t, frames + 1);
+            compressor[t].start();
+        }
+        open = true;
+    }
+
+    /**
+     *  @param start the first tick in a file
+     *  @return the file
+     */
+    public Path pathFor(long start)
+    {
+        return(directory.resolve(String.format("%s-%012d.gz", prefix,
+                start)));
+    }
+
+    /**
+     *  Queue the roads as they are now for writing.  Call it from the
+     *  thread that steps the network, after a step.
+     *  @throws IllegalStateException if a file couldn't be written or
+     *  the exporter has been closed
+     */
+    public void export()
+    {
+        Frame   frame;
+
+        if (open == false) {
+            throw new IllegalStateException("exporter closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("export failed: " +
+                    failure.getMessage(), failure);
+        }
+        frame = pool.poll();
+        if (frame == null) {
+            waitCount.incrementAndGet();
+            try {
+                frame = pool.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted", e);
+            }
+        }
+        for (int r = 0; (r < roads.size()); ++r) {
+            roads.get(r).glyphsInto(frame.glyphs, offset[r]);
+        }
+        frame.tick = network.getTick();
+        compressor[(int)((frame.tick / ticksPerFile) %
+                compressor.length)].queue.add(frame);
+    }
+
+    /**
+     *  @return the number of bytes written to the files so far
+     */
+    public long getBytesWritten()
+    {
+        return(bytesWritten.get());
+    }
+
+    /**
+     *  @return the number of times {@code export()} had to wait for
+     *  a frame to come back
+     */
+    public long getWaitCount()
+    {
+        return(waitCount.get());
+    }
+
+    /**
+     *  Write what's queued, finish the files and stop the threads.
+     *  @throws IOException if a file couldn't be written
+     */
+    public void close() throws IOException
+    {
+        if (open == false) {
+            return;
+        }
+        open = false;
+        for (Compressor which : compressor) {
+            Frame   stop;
+
+            stop = new Frame(0);
+            stop.tick = -1;
+            which.queue.add(stop);
+        }
+        for (Compressor which : compressor) {
+            try {
+                which.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + roads.size() +
+                ",threads=" + compressor.length +
+                ",bytes=" + bytesWritten.get() +
+                ",waits=" + waitCount.get() + "]");
+    }
+
+    /*
+     *  Export a busy network over several files and read them back.
+     *  They have to hold exactly the snapshots of every tick.
+     */
+    private static int  testExport()
+    {
+        int             errors;
+        Network         network;
+        StringBuilder   expected;
+        StringBuilder   exported;
+        Path            directory;
+        long            inline;
+        long            queued;
+        int             ticks;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 60); ++i) {
+            Road    road;
+
+            road = new Road("Export " + i, 100 + 7 * i, (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 3) == 0) ? 0.6 : 0));
+            network.add(road);
+            if ((i % 3) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+            if ((i % 3) == 2) {
+                network.drain(road);
+            }
+        }
+        network.step(50);
+
+        ticks = 450;
+        expected = new StringBuilder();
+        exported = new StringBuilder();
+        try {
+            SnapshotExporter    exporter;
+
+            directory = Files.createTempDirectory("export");
+            exporter = new SnapshotExporter(network, directory, "run",
+                    100, 4, 32);
+            queued = 0;
+            for (int t = 0; (t < ticks); ++t) {
+                long    before;
+
+                network.step();
+                before = System.nanoTime();
+                exporter.export();
+                queued += System.nanoTime() - before;
+                expected.append("tick ").append(
+                        network.getTick()).append('\n');
+                for (Road road : network.getRoads()) {
+                    expected.append(road.snapshot()).append('\n');
+                }
+            }
+            exporter.close();
+
+            /*
+             *  The same number of ticks gzipped inline, for comparison.
+             */
+            inline = System.nanoTime();
+            try (Writer writer = new OutputStreamWriter(
+                    new GZIPOutputStream(
+                    OutputStream.nullOutputStream()), "UTF-8")) {
+                for (int t = 0; (t < ticks); ++t) {
+                    network.step();
+                    writer.write("tick " + network.getTick() + "\n");
+                    for (Road road : network.getRoads()) {
+                        writer.write(road.snapshot() + "\n");
+                    }
+                }
+            }
+            inline = System.nanoTime() - inline;
+            System.out.printf("export %.1f us a tick, inline gzip" +
+                    " %.1f us a tick\n", queued / 1e3 / ticks,
+                    inline / 1e3 / ticks);
+            System.out.println(exporter);
+
+            for (long first = 0; (first < network.getTick());
+                 first += 100) {
+                Path    path;
+
+                path = exporter.pathFor(first);
+                if (Files.exists(path) == false) {
+                    continue;
+                }
+                try (InputStream in = new GZIPInputStream(
+                        Files.newInputStream(path))) {
+                    exported.append(new String(in.readAllBytes(),
+                            "UTF-8"));
+                }
+                Files.delete(path);
+            }
+            Files.delete(directory);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            return(errors + 1);
+        }
+        if (exported.toString().equals(expected.toString()) == false) {
+            System.out.println("*** ERROR *** exported " +
+                    exported.length() + " characters, not " +
+                    expected.length());
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = testExport();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
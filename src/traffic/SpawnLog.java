@@ -0,0 +1,429 @@
+package traffic;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code SpawnLog} records what a {@code Network} spawns, so a run
+ *  can be brought back exactly without keeping its frames.  Apart
+ *  from the random numbers that pick arrivals, a network only does
+ *  what follows from where it is, so the roads that spawned, the
+ *  ticks they spawned on and the types they spawned are all it takes
+ *  to run it again:  build the network the same way, replay the log
+ *  into it and step to whatever tick is wanted.
+ *  <p>
+ *  The log is a run of numbers of seven bits to a byte, low bits
+ *  first, with the top bit set on every byte but the last of a
+ *  number.  After a header naming the number of roads, the vehicle
+ *  types, the first vehicle identifier and the ticks covered, each
+ *  tick that spawned anything is
+ *  <pre>
+ *      varint  ticks since the last tick that spawned anything
+ *      varint  number of spawns
+ *      varint  (road - road of the spawn before) * types + type code
+ *      ...     one for each spawn, by increasing road
+ *  </pre>
+ *  so a spawn on a busy network usually takes a single byte.
+ *  @version 2026101900
+ *  @author Richard Barton
+ */
+public final class SpawnLog {
+    /*
+     *  "TSL" and the version of the format.
+     */
+    private static final int    MAGIC   = 0x54534c01;
+
+    private int                 roadCount;
+    private String              typeName[];
+    private int                 firstIdentifier;
+    private long                startTick;
+    private long                endTick;
+    private long                lastTick;
+    private long                spawnCount;
+    private byte                data[];
+    private int                 length;
+
+    /*
+     *  The spawns of the tick being recorded, as road << 16 | code,
+     *  in the order of the roads, which is the order the network
+     *  spawns in.
+     */
+    private long                pending[];
+    private int                 pendingCount;
+
+    /**
+     *  Reads the spawns of a log back one tick at a time.
+     */
+    final class Cursor {
+        private final Input     in;
+        private long            tick;
+        private int             left;
+        private int             base;
+        private int             road;
+        private int             code;
+
+        private Cursor()
+        {
+            in = new Input(data, 0, length);
+            tick = startTick;
+            readTick();
+        }
+
+        private void    readTick()
+        {
+            if (in.atEnd() == true) {
+                tick = Long.MAX_VALUE;
+                left = 0;
+                return;
+            }
+            tick += in.get();
+            left = (int)in.get();
+            base = 0;
+        }
+
+        /**
+         *  Move to the next spawn on a tick.
+         *  @param now the tick, no earlier than the last one asked
+         *  about
+         *  @return whether there is one
+         */
+        boolean next(long now)
+        {
+            long    value;
+
+            if (tick != now) {
+                return(false);
+            }
+            value = in.get();
+            base += (int)(value / typeName.length);
+            road = base;
+            code = (int)(value % typeName.length);
+            if (--left == 0) {
+                readTick();
+            }
+
+            return(true);
+        }
+
+        /**
+         *  @return the road of the spawn
+         */
+        int     road()
+        {
+            return(road);
+        }
+
+        /**
+         *  @return the type code of what it spawned
+         */
+        int     code()
+        {
+            return(code);
+        }
+    }
+
+    /*
+     *  Reads numbers out of some bytes.
+     */
+    private static final class Input {
+        private final byte      data[];
+        private int             position;
+        private final int       limit;
+
+        Input(byte data[], int position, int limit)
+        {
+            this.data = data;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean atEnd()
+        {
+            return(position == limit);
+        }
+
+        long    get()
+        {
+            long    value;
+            int     shift;
+            int     b;
+
+            value = 0;
+            shift = 0;
+            do {
+                if ((position == limit) || (shift > 63)) {
+                    throw new IllegalArgumentException("spawn log" +
+                            " is cut short");
+                }
+                b = data[position++];
+                value |= (long)(b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return(value);
+        }
+
+        String  getString()
+        {
+            int     size;
+            String  string;
+
+            size = (int)get();
+            if (limit - position < size) {
+                throw new IllegalArgumentException("spawn log is cut" +
+                        " short");
+            }
+            string = new String(data, position, size,
+                    StandardCharsets.UTF_8);
+            position += size;
+
+            return(string);
+        }
+    }
+
+    /**
+     *  Construct an empty log, for a network to record into.
+     */
+    public SpawnLog()
+    {
+        data = new byte[4096];
+        pending = new long[64];
+    }
+
+    /**
+     *  Read a log written by {@code write()}.
+     *  @param path the file to read
+     *  @return the log
+     *  @throws IOException if the file can't be read
+     *  @throws IllegalArgumentException if it isn't a spawn log
+     */
+    public static SpawnLog      read(Path path) throws IOException
+    {
+        byte            bytes[];
+        Input           in;
+        SpawnLog        log;
+
+        bytes = Files.readAllBytes(path);
+        in = new Input(bytes, 0, bytes.length);
+        if ((bytes.length == 0) || (in.get() != MAGIC)) {
+            throw new IllegalArgumentException(path +
+                    " isn't a spawn log");
+        }
+        log = new SpawnLog();
+        log.roadCount = (int)in.get();
+        log.typeName = new String[(int)in.get()];
+        log.typeName[0] = "";
+        for (int i = 1; (i < log.typeName.length); ++i) {
+            log.typeName[i] = in.getString();
+        }
+        log.firstIdentifier = (int)in.get();
+        log.startTick = in.get();
+        log.endTick = log.startTick + in.get();
+        log.spawnCount = in.get();
+        log.data = Arrays.copyOfRange(bytes, in.position, bytes.length);
+        log.length = log.data.length;
+
+        return(log);
+    }
+
+    /**
+     *  Write the log to a file.
+     *  @param path the file to write, replacing it if it's there
+     *  @throws IOException if the file can't be written
+     *  @throws IllegalStateException if nothing was ever recorded
+     */
+    public void write(Path path) throws IOException
+    {
+        SpawnLog        header;
+
+        if (typeName == null) {
+            throw new IllegalStateException("nothing recorded");
+        }
+        header = new SpawnLog();
+        header.put(MAGIC);
+        header.put(roadCount);
+        header.put(typeName.length);
+        for (int i = 1; (i < typeName.length); ++i) {
+            byte    bytes[];
+
+            bytes = typeName[i].getBytes(StandardCharsets.UTF_8);
+            header.put(bytes.length);
+            header.room(bytes.length);
+            System.arraycopy(bytes, 0, header.data, header.length,
+                    bytes.length);
+            header.length += bytes.length;
+        }
+        header.put(firstIdentifier);
+        header.put(startTick);
+        header.put(endTick - startTick);
+        header.put(spawnCount);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(header.data, 0, header.length);
+            out.write(data, 0, length);
+        }
+    }
+
+    /*
+     *  Make room for some more bytes.
+     */
+    private void        room(int bytes)
+    {
+        if (data.length - length < bytes) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2,
+                    length + bytes));
+        }
+    }
+
+    /*
+     *  Add a number that isn't negative.
+     */
+    private void        put(long value)
+    {
+        room(10);
+        while ((value & ~0x7fL) != 0) {
+            data[length++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte)value;
+    }
+
+    /*
+     *  Start recording a network of some roads at a tick.
+     */
+    void        start(int roads, long tick)
+    {
+        List<VehicleType>       types;
+
+        if (typeName != null) {
+            throw new IllegalArgumentException("spawn log has been" +
+                    " recorded already");
+        }
+        roadCount = roads;
+        types = VehicleType.all();
+        typeName = new String[types.size() + 1];
+        typeName[0] = "";
+        for (VehicleType type : types) {
+            typeName[type.getCode()] = type.getName();
+        }
+        firstIdentifier = Vehicle.peekIdentifier();
+        startTick = tick;
+        endTick = tick;
+        lastTick = tick;
+    }
+
+    /*
+     *  A road spawned on the tick being recorded.
+     */
+    void        spawn(int road, int code)
+    {
+        if (pendingCount == pending.length) {
+            pending = Arrays.copyOf(pending, pendingCount * 2);
+        }
+        pending[pendingCount++] = ((long)road << 16) | code;
+    }
+
+    /*
+     *  The network has finished a tick.
+     */
+    void        endTick(long tick)
+    {
+        if (pendingCount > 0) {
+            int     base;
+
+            put(tick - lastTick);
+            put(pendingCount);
+            base = 0;
+            for (int i = 0; (i < pendingCount); ++i) {
+                int     road;
+
+                road = (int)(pending[i] >>> 16);
+                put((long)(road - base) * typeName.length +
+                        (pending[i] & 0xffff));
+                base = road;
+            }
+            lastTick = tick;
+            spawnCount += pendingCount;
+            pendingCount = 0;
+        }
+        endTick = tick + 1;
+    }
+
+    /*
+     *  Start replaying into a network of some roads.  Vehicles made
+     *  from here on get the identifiers they got when the log was
+     *  recorded.
+     *  @return a cursor at the first spawn
+     *  @throws IllegalArgumentException if the log was recorded on a
+     *  network with other roads or vehicle types
+     */
+    Cursor      replay(int roads)
+    {
+        if (typeName == null) {
+            throw new IllegalArgumentException("nothing recorded");
+        }
+        if (roads != roadCount) {
+            throw new IllegalArgumentException("spawn log has " +
+                    roadCount + " roads, not " + roads);
+        }
+        for (int code = 1; (code < typeName.length); ++code) {
+            VehicleType type;
+
+            type = VehicleType.forCode(code);
+            if ((type == null) ||
+                    (type.getName().equals(typeName[code]) == false)) {
+                throw new IllegalArgumentException("spawn log has no" +
+                        " vehicle type " + typeName[code]);
+            }
+        }
+        Vehicle.setNextIdentifier(firstIdentifier);
+
+        return(new Cursor());
+    }
+
+    /**
+     *  @return the tick the recording started on
+     */
+    public long getStartTick()
+    {
+        return(startTick);
+    }
+
+    /**
+     *  @return the tick after the last one recorded
+     */
+    public long getEndTick()
+    {
+        return(endTick);
+    }
+
+    /**
+     *  @return the number of vehicles spawned
+     */
+    public long getSpawnCount()
+    {
+        return(spawnCount);
+    }
+
+    /**
+     *  @return the number of bytes the spawns take, without the
+     *  header
+     */
+    public int  getByteCount()
+    {
+        return(length);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + roadCount +
+                ",ticks=" + startTick + ".." + endTick +
+                ",spawns=" + spawnCount +
+                ",bytes=" + length + "]");
+    }
+}
@@ -0,0 +1,657 @@
+package traffic;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code StateFile} keeps the glyph at every position of every road
+ *  of a {@code Network} in a file mapped into memory, so tools on the
+ *  same machine can map it too and read the roads straight out of the
+ *  page cache, with nothing serialized or sent to any of them.  Put
+ *  it somewhere backed by memory, like {@code /dev/shm}, and it never
+ *  needs to touch a disk.
+ *  <p>
+ *  The file has every road feed it a {@code ChangeSet}, alongside any
+ *  the road feeds other readers, and after each step the thread
+ *  ticking the network calls {@code publish()}, which writes only the
+ *  positions that changed.  The roads are grouped, in the network's
+ *  order, into blocks of about {@code BLOCK} positions, each with a
+ *  sequence number and the tick it shows.  A block being written has
+ *  an odd sequence number, so a reader that sees the same even number
+ *  before and after copying a block has a copy that wasn't written to
+ *  meanwhile.  A reader that gets every block showing the same tick
+ *  has a whole frame.
+ *  <p>
+ *  The file is in the byte order of the machine, after a magic
+ *  number that gives the order away:
+ *  <pre>
+ *      long    MAGIC
+ *      int     number of blocks
+ *      int     number of roads
+ *      long    sequence    } for each block, the sequence number,
+ *      long    tick        } the tick it shows and its first road
+ *      int     first road  }
+ *      int     (unused)    }
+ *      int     offset      } for each road, where its glyphs start
+ *      int     positions   } in the file and how many there are
+ *      int     length      } for each road, its name in bytes of
+ *      ...     name        } UTF-8
+ *      char    glyphs      from each road's offset, as in
+ *                          {@code Road.snapshot()}
+ *  </pre>
+ *  with everything 8 byte numbers are in on a multiple of 8.
+ *  {@code View} is a reader.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public final class StateFile implements Closeable {
+    /**
+     *  "TRAFSTAT" and the version of the format.
+     */
+    public static final long    MAGIC   = 0x5452414653544101L;
+    /**
+     *  The number of positions a block is filled up to.
+     */
+    public static final int     BLOCK   = 1 << 15;
+
+    private static final int    HEADER  = 16;
+    private static final int    BLOCK_ENTRY     = 24;
+    private static final int    ROAD_ENTRY      = 8;
+    private static final VarHandle      LONGS   =
+            MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final Network       network;
+    private final List<Road>    roads;
+    private final FileChannel   channel;
+    private final MappedByteBuffer      map;
+    private final int           offset[];
+    private final int           blockStart[];
+    private final ChangeSet     changes[];
+    private boolean             open;
+
+    /**
+     *  Lay out the file for the roads of a network and write where
+     *  they are now.  Roads added to the network later aren't in it.
+     *  Each road feeds the file a change set of its own.
+     *  @param network the network
+     *  @param path the file to write, replacing it if it's there
+     *  @throws IOException if the file can't be written
+     */
+    public StateFile(Network network, Path path) throws IOException
+    {
+        this(network, path, BLOCK);
+    }
+
+    /*
+     *  With blocks of some number of positions.
+     */
+    StateFile(Network network, Path path, int block) throws IOException
+    {
+        List<Integer>   starts;
+        byte            name[][];
+        int             filled;
+        long            size;
+
+        this.network = network;
+        roads = new ArrayList<>(network.getRoads());
+        starts = new ArrayList<>();
+        filled = block;
+        for (int r = 0; (r < roads.size()); ++r) {
+            if (filled + roads.get(r).getCarCount() > block) {
+                starts.add(r);
+                filled = 0;
+            }
+            filled += roads.get(r).getCarCount();
+        }
+        blockStart = new int[starts.size() + 1];
+        for (int b = 0; (b < starts.size()); ++b) {
+            blockStart[b] = starts.get(b);
+        }
+        blockStart[starts.size()] = roads.size();
+
+        /*
+         *  The tables, the names and then the glyphs.
+         */
+        size = HEADER + BLOCK_ENTRY * (blockStart.length - 1) +
+                ROAD_ENTRY * roads.size();
+        name = new byte[roads.size()][];
+        for (int r = 0; (r < roads.size()); ++r) {
+            name[r] = roads.get(r).getName().getBytes(
+                    StandardCharsets.UTF_8);
+            size += 4 + name[r].length;
+        }
+        size = (size + 7) & ~7L;
+        offset = new int[roads.size()];
+        for (int r = 0; (r < roads.size()); ++r) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("network too big" +
+                        " for a state file");
+            }
+            offset[r] = (int)size;
+            size += 2 * roads.get(r).getCarCount();
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(size, HEADER));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        map.order(ByteOrder.nativeOrder());
+        map.putLong(0, MAGIC);
+        map.putInt(8, blockStart.length - 1);
+        map.putInt(12, roads.size());
+        for (int b = 0; (b < blockStart.length - 1); ++b) {
+            map.putLong(sequenceAt(b), 0);
+            map.putLong(sequenceAt(b) + 8, network.getTick());
+            map.putInt(sequenceAt(b) + 16, blockStart[b]);
+        }
+        map.position(HEADER + BLOCK_ENTRY * (blockStart.length - 1));
+        for (int r = 0; (r < roads.size()); ++r) {
+            map.putInt(offset[r]);
+            map.putInt(roads.get(r).getCarCount());
+        }
+        for (int r = 0; (r < roads.size()); ++r) {
+            map.putInt(name[r].length);
+            map.put(name[r]);
+        }
+        changes = new ChangeSet[roads.size()];
+        for (int r = 0; (r < roads.size()); ++r) {
+            String  glyphs;
+
+            glyphs = roads.get(r).snapshot();
+            for (int i = 0; (i < glyphs.length()); ++i) {
+                map.putChar(offset[r] + 2 * i, glyphs.charAt(i));
+            }
+            changes[r] = new ChangeSet();
+            roads.get(r).addChangeSet(changes[r]);
+        }
+        open = true;
+    }
+
+    private static int  sequenceAt(int block)
+    {
+        return(HEADER + BLOCK_ENTRY * block);
+    }
+
+    /**
+     *  Write what changed on the roads since the last call.  Call it
+     *  from the thread that steps the network, after a step.
+     *  @throws IllegalStateException if the file has been closed
+     */
+    public void publish()
+    {
+        long    now;
+
+        if (open == false) {
+            throw new IllegalStateException("state file closed");
+        }
+        now = network.getTick();
+        for (int b = 0; (b < blockStart.length - 1); ++b) {
+            int     at;
+            long    sequence;
+            boolean writing;
+
+            at = sequenceAt(b);
+            sequence = (long)LONGS.get(map, at);
+            writing = false;
+            for (int r = blockStart[b]; (r < blockStart[b + 1]); ++r) {
+                if ((changes[r].size() > 0) && (writing == false)) {
+                    LONGS.setOpaque(map, at, sequence + 1);
+                    VarHandle.releaseFence();
+                    writing = true;
+                }
+                for (int i = 0; (i < changes[r].size()); ++i) {
+                    int     code;
+
+                    code = changes[r].code(i);
+                    map.putChar(offset[r] + 2 * changes[r].position(i),
+                            (code == ChangeSet.UNREGISTERED_CODE) ?
+                            '?' : VehicleType.glyphFor(code));
+                }
+                changes[r].clear();
+            }
+            LONGS.setRelease(map, at + 8, now);
+            if (writing == true) {
+                LONGS.setRelease(map, at, sequence + 2);
+            }
+        }
+    }
+
+    /**
+     *  @return the number of blocks the roads are in
+     */
+    public int  getBlockCount()
+    {
+        return(blockStart.length - 1);
+    }
+
+    /**
+     *  Stop writing the file and have the roads stop feeding it,
+     *  leaving any change sets they feed other readers as they are.
+     *  The file is left as it was last published, for readers that
+     *  still have it mapped.
+     *  @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException
+    {
+        if (open == false) {
+            return;
+        }
+        open = false;
+        for (int r = 0; (r < roads.size()); ++r) {
+            roads.get(r).removeChangeSet(changes[r]);
+        }
+        channel.close();
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[roads=" + roads.size() +
+                ",blocks=" + (blockStart.length - 1) +
+                ",bytes=" + map.capacity() +
+                ",open=" + open + "]");
+    }
+
+    /**
+     *  {@code View} reads a state file, maybe in another process from
+     *  the one writing it.  A view only copies what it's asked for.
+     */
+    public static final class View implements Closeable {
+        private final FileChannel       channel;
+        private final MappedByteBuffer  map;
+        private final int               blockCount;
+        private final int               blockOf[];
+        private final int               blockStart[];
+        private final int               offset[];
+        private final int               cells[];
+        private final String            name[];
+
+        /**
+         *  @param path the file to read
+         *  @throws IOException if the file can't be read
+         *  @throws IllegalArgumentException if it isn't a state file
+         *  written on a machine with the same byte order
+         */
+        public View(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                int     roadCount;
+
+                if (channel.size() < HEADER) {
+                    throw new IllegalArgumentException(path +
+                            " isn't a state file");
+                }
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+                map.order(ByteOrder.nativeOrder());
+                if (map.getLong(0) != MAGIC) {
+                    throw new IllegalArgumentException(path +
+                            " isn't a state file in this byte order");
+                }
+                blockCount = map.getInt(8);
+                roadCount = map.getInt(12);
+                blockStart = new int[blockCount + 1];
+                for (int b = 0; (b < blockCount); ++b) {
+                    blockStart[b] = map.getInt(sequenceAt(b) + 16);
+                }
+                blockStart[blockCount] = roadCount;
+                blockOf = new int[roadCount];
+                offset = new int[roadCount];
+                cells = new int[roadCount];
+                name = new String[roadCount];
+                map.position(sequenceAt(blockCount));
+                for (int r = 0; (r < roadCount); ++r) {
+                    offset[r] = map.getInt();
+                    cells[r] = map.getInt();
+                }
+                for (int r = 0; (r < roadCount); ++r) {
+                    byte    bytes[];
+
+                    bytes = new byte[map.getInt()];
+                    map.get(bytes);
+                    name[r] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                for (int b = 0; (b < blockCount); ++b) {
+                    for (int r = blockStart[b]; (r < blockStart[b + 1]);
+                         ++r) {
+                        blockOf[r] = b;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         *  @return the number of roads
+         */
+        public int      getRoadCount()
+        {
+            return(cells.length);
+        }
+
+        /**
+         *  @param road a road, in the order of the network's
+         *  @return its name
+         */
+        public String   getName(int road)
+        {
+            return(name[road]);
+        }
+
+        /**
+         *  @param road a road, in the order of the network's
+         *  @return its number of positions
+         */
+        public int      getCarCount(int road)
+        {
+            return(cells[road]);
+        }
+
+        /**
+         *  Copy the glyphs of a road as they were at some tick, waiting
+         *  out a write if one is going on.
+         *  @param road a road, in the order of the network's
+         *  @param glyphs where to copy them, at least as long as the
+         *  road
+         *  @return the tick
+         */
+        public long     read(int road, char glyphs[])
+        {
+            int     at;
+
+            at = sequenceAt(blockOf[road]);
+            while (true) {
+                long    before;
+                long    tick;
+
+                before = (long)LONGS.getAcquire(map, at);
+                if ((before & 0x1) == 0) {
+                    tick = (long)LONGS.getAcquire(map, at + 8);
+                    copy(road, glyphs);
+                    VarHandle.acquireFence();
+                    if ((long)LONGS.getOpaque(map, at) == before) {
+                        return(tick);
+                    }
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        /**
+         *  Copy the glyphs of every road as they were at one tick,
+         *  trying again until no block is written to and every block
+         *  shows the same tick meanwhile.
+         *  @param glyphs where to copy them, by road
+         *  @return the tick
+         */
+        public long     readAll(char glyphs[][])
+        {
+            while (true) {
+                long    tick;
+                boolean whole;
+
+                tick = -1;
+                whole = true;
+                for (int b = 0; (b < blockCount) && (whole == true);
+                     ++b) {
+                    int     at;
+                    long    before;
+                    long    shows;
+
+                    at = sequenceAt(b);
+                    before = (long)LONGS.getAcquire(map, at);
+                    shows = (long)LONGS.getAcquire(map, at + 8);
+                    for (int r = blockStart[b]; (r < blockStart[b + 1]);
+                         ++r) {
+                        copy(r, glyphs[r]);
+                    }
+                    VarHandle.acquireFence();
+                    whole = ((before & 0x1) == 0) &&
+                            ((long)LONGS.getOpaque(map, at) ==
+                            before) && ((tick < 0) || (shows == tick));
+                    tick = shows;
+                }
+                if (whole == true) {
+                    return(tick);
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        private void    copy(int road, char glyphs[])
+        {
+            for (int i = 0; (i < cells[road]); ++i) {
+                glyphs[i] = map.getChar(offset[road] + 2 * i);
+            }
+        }
+
+        /**
+         *  @param road a road, in the order of the network's
+         *  @return its snapshot
+         */
+        public String   snapshot(int road)
+        {
+            char    glyphs[];
+
+            glyphs = new char[cells[road]];
+            read(road, glyphs);
+
+            return(new String(glyphs));
+        }
+
+        public void     close() throws IOException
+        {
+            channel.close();
+        }
+
+        /**
+         *  @return {@code String} representation of object
+         */
+        public String   toString()
+        {
+            return(getClass().getName() +
+                    "[roads=" + cells.length +
+                    ",blocks=" + blockCount + "]");
+        }
+    }
+
+    /*
+     *  A view in another thread reads whole frames as fast as it can
+     *  while the network runs.  Every frame it gets has to be one the
+     *  network was really at, never a mix of two ticks.
+     */
+    private static int  testFrames()
+    {
+        int             errors;
+        Network         network;
+        Path            path;
+        Map<Long, String>       frames;
+        List<Long>      ticks;
+        List<String>    seen;
+        Thread          reader;
+        AtomicBoolean   done;
+
+        errors = 0;
+        network = new Network();
+        for (int i = 0; (i < 24); ++i) {
+            Road    road;
+
+            road = new Road("State " + i, 150 + 25 * i, (i & 0x1) != 0);
+            road.setSeed(i);
+            road.setDemand(DemandProfile.constant(
+                    ((i % 3) == 0) ? 0.7 : 0));
+            network.add(road);
+            if ((i % 3) != 0) {
+                network.connect(network.getRoads().get(i - 1), road);
+            }
+            if ((i % 3) == 2) {
+                network.drain(road);
+            }
+        }
+        network.step(50);
+
+        frames = new HashMap<>();
+        ticks = Collections.synchronizedList(new ArrayList<>());
+        seen = Collections.synchronizedList(new ArrayList<>());
+        done = new AtomicBoolean();
+        try {
+            path = Files.createTempFile("network", ".state");
+            try (StateFile state = new StateFile(network, path, 1000);
+                 View view = new View(path)) {
+                char    glyphs[][];
+
+                System.out.println(state);
+                if (state.getBlockCount() < 4) {
+                    System.out.println("*** ERROR *** only " +
+                            state.getBlockCount() + " blocks");
+                    ++errors;
+                }
+                glyphs = new char[view.getRoadCount()][];
+                for (int r = 0; (r < glyphs.length); ++r) {
+                    glyphs[r] = new char[view.getCarCount(r)];
+                }
+                frames.put(network.getTick(), frame(network));
+                reader = new Thread(() -> {
+                    long    last;
+
+                    last = -1;
+                    while (done.get() == false) {
+                        long            tick;
+                        StringBuilder   all;
+
+                        tick = view.readAll(glyphs);
+                        if (tick == last) {
+                            continue;
+                        }
+                        all = new StringBuilder();
+                        for (char road[] : glyphs) {
+                            all.append(road).append('|');
+                        }
+                        ticks.add(tick);
+                        seen.add(all.toString());
+                        last = tick;
+                    }
+                });
+                reader.start();
+                for (int t = 0; (t < 1000); ++t) {
+                    network.step();
+                    state.publish();
+                    frames.put(network.getTick(), frame(network));
+                }
+                done.set(true);
+                reader.join();
+
+                for (int r = 0; (r < view.getRoadCount()); ++r) {
+                    if ((view.getName(r).equals(
+                            network.getRoads().get(r).getName()) ==
+                            false) ||
+                            (view.snapshot(r).equals(network.getRoads(
+                            ).get(r).snapshot()) == false)) {
+                        System.out.println("*** ERROR *** road " + r +
+                                " " + view.getName(r) + " " +
+                                view.snapshot(r) + " != " +
+                                network.getRoads().get(r).snapshot());
+                        ++errors;
+                    }
+                }
+            }
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            return(errors + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return(errors + 1);
+        }
+
+        System.out.println("read " + ticks.size() + " frames of " +
+                new HashSet<>(ticks).size() + " ticks");
+        if (new HashSet<>(ticks).size() < 10) {
+            System.out.println("*** ERROR *** too few ticks read");
+            ++errors;
+        }
+        for (int i = 0; (i < ticks.size()); ++i) {
+            if (seen.get(i).equals(frames.get(ticks.get(i))) == false) {
+                System.out.println("*** ERROR *** frame read at tick " +
+                        ticks.get(i) + " isn't one the network was at");
+                ++errors;
+                break;
+            }
+        }
+
+        return(errors);
+    }
+
+    private static String       frame(Network network)
+    {
+        StringBuilder   all;
+
+        all = new StringBuilder();
+        for (Road road : network.getRoads()) {
+            all.append(road.snapshot()).append('|');
+        }
+
+        return(all.toString());
+    }
+
+    /*
+     *  Only state files are read.
+     */
+    private static int  testNotState()
+    {
+        int     errors;
+        Path    path;
+
+        errors = 0;
+        try {
+            path = Files.createTempFile("network", ".state");
+            Files.write(path, new byte[64]);
+            try (View view = new View(path)) {
+                System.out.println("*** ERROR *** read " + view);
+                ++errors;
+            } catch (IllegalArgumentException e) {
+                /*
+                 *  As it should.
+                 */
+            }
+            Files.delete(path);
+        } catch (IOException e) {
+            System.out.println("*** ERROR *** " + e);
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    public static void main(String[] args)
+    {
+        int     errors;
+
+        errors = testFrames();
+        errors += testNotState();
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
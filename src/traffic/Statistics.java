@@ -0,0 +1,252 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  {@code Statistics} keeps the count, mean, variance and range of a
+ *  stream of numbers without keeping the numbers.  The mean and
+ *  variance are updated with Welford's method, so they stay accurate
+ *  over millions of values, and two sets of statistics kept apart,
+ *  on different threads for instance, can be merged.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public final class Statistics {
+    private long        count;
+    private double      mean;
+    private double      squares;
+    private double      minimum;
+    private double      maximum;
+
+    /**
+     *  Construct statistics of nothing yet.
+     */
+    public Statistics()
+    {
+        minimum = Double.POSITIVE_INFINITY;
+        maximum = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     *  @param other statistics to copy
+     */
+    public Statistics(Statistics other)
+    {
+        count = other.count;
+        mean = other.mean;
+        squares = other.squares;
+        minimum = other.minimum;
+        maximum = other.maximum;
+    }
+
+    /**
+     *  @param value the next number of the stream
+     */
+    public void add(double value)
+    {
+        double  delta;
+
+        ++count;
+        delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+    }
+
+    /**
+     *  Take in the numbers another set of statistics has seen, as if
+     *  they had been added here.
+     *  @param other the statistics to merge
+     */
+    public void merge(Statistics other)
+    {
+        long    total;
+        double  delta;
+
+        if (other.count == 0) {
+            return;
+        }
+        total = count + other.count;
+        delta = other.mean - mean;
+        squares += other.squares +
+                delta * delta * ((double)count * other.count / total);
+        mean += delta * other.count / total;
+        count = total;
+        minimum = Math.min(minimum, other.minimum);
+        maximum = Math.max(maximum, other.maximum);
+    }
+
+    /*
+     *  Write the statistics to a checkpoint, and read them back.
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putLong(count);
+        out.putDouble(mean);
+        out.putDouble(squares);
+        out.putDouble(minimum);
+        out.putDouble(maximum);
+    }
+
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        count = in.getLong();
+        mean = in.getDouble();
+        squares = in.getDouble();
+        minimum = in.getDouble();
+        maximum = in.getDouble();
+    }
+
+    /**
+     *  @return how many numbers there have been
+     */
+    public long getCount()
+    {
+        return(count);
+    }
+
+    /**
+     *  @return the mean of the numbers or 0 if there are none
+     */
+    public double       getMean()
+    {
+        return(mean);
+    }
+
+    /**
+     *  @return the sample variance of the numbers or 0 if there are
+     *  fewer than two
+     */
+    public double       getVariance()
+    {
+        return((count < 2) ? 0 : (squares / (count - 1)));
+    }
+
+    /**
+     *  @return the sample standard deviation of the numbers
+     */
+    public double       getStandardDeviation()
+    {
+        return(Math.sqrt(getVariance()));
+    }
+
+    /**
+     *  @return the standard error of the mean
+     */
+    public double       getStandardError()
+    {
+        return((count == 0) ? 0 : Math.sqrt(getVariance() / count));
+    }
+
+    /**
+     *  @return the smallest number or positive infinity if there are
+     *  none
+     */
+    public double       getMinimum()
+    {
+        return(minimum);
+    }
+
+    /**
+     *  @return the largest number or negative infinity if there are
+     *  none
+     */
+    public double       getMaximum()
+    {
+        return(maximum);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[count=" + count +
+                ",mean=" + mean +
+                ",deviation=" + getStandardDeviation() +
+                ",minimum=" + minimum +
+                ",maximum=" + maximum + "]");
+    }
+
+    /**
+     *  Performs a unit test on the {@code Statistics} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        Random          random;
+        double          value[];
+        Statistics      all;
+        Statistics      part[];
+        double          mean;
+        double          variance;
+        int             i;
+
+        errors = 0;
+        random = new Random(32);
+
+        /*
+         *  Numbers with a big offset, which trips up the textbook sum
+         *  of squares, against a two pass computation.  The mean is
+         *  only good to the last few bits of 1e9.
+         */
+        value = new double[100000];
+        all = new Statistics();
+        part = new Statistics[]{new Statistics(), new Statistics(),
+                new Statistics()};
+        mean = 0;
+        for (i = 0; (i < value.length); ++i) {
+            value[i] = 1e9 + random.nextGaussian() * 3;
+            mean += value[i];
+            all.add(value[i]);
+            part[Math.min(i / 1000, 2)].add(value[i]);
+        }
+        mean /= value.length;
+        variance = 0;
+        for (i = 0; (i < value.length); ++i) {
+            variance += (value[i] - mean) * (value[i] - mean);
+        }
+        variance /= value.length - 1;
+        System.out.println(all);
+        if ((Math.abs(all.getMean() - mean) > 1e-4) ||
+                (Math.abs(all.getVariance() - variance) > 1e-6)) {
+            System.out.println("*** ERROR *** mean " + all.getMean() +
+                    " variance " + all.getVariance() + " should be " +
+                    mean + " and " + variance);
+            ++errors;
+        }
+
+        /*
+         *  Parts of very different sizes merge into the whole, and
+         *  merging nothing changes nothing.
+         */
+        part[0].merge(new Statistics());
+        part[1].merge(part[2]);
+        part[0].merge(part[1]);
+        if ((part[0].getCount() != all.getCount()) ||
+                (Math.abs(part[0].getMean() - mean) > 1e-4) ||
+                (Math.abs(part[0].getVariance() - variance) > 1e-6) ||
+                (part[0].getMinimum() != all.getMinimum()) ||
+                (part[0].getMaximum() != all.getMaximum())) {
+            System.out.println("*** ERROR *** merged " + part[0] +
+                    " != " + all);
+            ++errors;
+        }
+        all = new Statistics();
+        all.merge(part[0]);
+        if (all.getVariance() != part[0].getVariance()) {
+            System.out.println("*** ERROR *** merge into nothing");
+            ++errors;
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  {@code TimingWheel} holds events to be fired at given ticks.  It's
+ *  a hierarchical timing wheel of four levels of 256 slots, covering
+ *  2^32 ticks, with a list for anything further out.  Scheduling and
+ *  cancelling are O(1) and advancing only looks at the slots that
+ *  come due, skipping over empty stretches.
+ *  <p>
+ *  Events live in parallel primitive arrays and are linked into their
+ *  slots by index, so nothing is allocated per event once the arrays
+ *  have grown big enough.  An event is a kind, a target and a
+ *  {@code long} argument whose meanings are up to the caller.
+ *  @version 2026101902
+ *  @author Richard Barton
+ */
+public final class TimingWheel {
+    /**
+     *  {@code Handler} is called for each event as it fires.
+     */
+    public interface Handler {
+        /**
+         *  @param tick the tick the event fired on
+         *  @param kind the kind of event
+         *  @param target what the event is for
+         *  @param argument anything else the event needs
+         */
+        void    fire(long tick, int kind, int target, long argument);
+    }
+
+    private static final int    BITS            = 8;
+    private static final int    SLOTS           = 1 << BITS;
+    private static final int    MASK            = SLOTS - 1;
+    private static final int    LEVELS          = 4;
+    private static final int    WORDS           = SLOTS / 64;
+    private static final int    OVERFLOW        = LEVELS * SLOTS;
+    private static final int    NIL             = -1;
+
+    private long                now;
+    private int                 size;
+    private final int           head[];
+    private final long          occupied[];
+
+    /*
+     *  The events, by index.  list is the slot an event is linked
+     *  into, or NIL if the index is free.  The generation goes up
+     *  each time an index is freed so stale handles can be spotted.
+     */
+    private long                time[];
+    private int                 kind[];
+    private int                 target[];
+    private long                argument[];
+    private int                 next[];
+    private int                 prev[];
+    private int                 list[];
+    private int                 generation[];
+    private int                 freeHead;
+
+    /**
+     *  @param start the first tick to be advanced through
+     */
+    public TimingWheel(long start)
+    {
+        now = start;
+        head = new int[OVERFLOW + 1];
+        Arrays.fill(head, NIL);
+        occupied = new long[LEVELS * WORDS];
+        time = new long[0];
+        kind = new int[0];
+        target = new int[0];
+        argument = new long[0];
+        next = new int[0];
+        prev = new int[0];
+        list = new int[0];
+        generation = new int[0];
+        freeHead = NIL;
+        grow(64);
+    }
+
+    /*
+     *  Make room for more events and put the new indices on the free
+     *  list.
+     */
+    private void        grow(int capacity)
+    {
+        int     old;
+        int     i;
+
+        old = time.length;
+        time = Arrays.copyOf(time, capacity);
+        kind = Arrays.copyOf(kind, capacity);
+        target = Arrays.copyOf(target, capacity);
+        argument = Arrays.copyOf(argument, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        list = Arrays.copyOf(list, capacity);
+        generation = Arrays.copyOf(generation, capacity);
+        for (i = capacity - 1; (i >= old); --i) {
+            list[i] = NIL;
+            next[i] = freeHead;
+            freeHead = i;
+        }
+    }
+
+    /**
+     *  Schedule an event.  Events for ticks already passed fire on
+     *  the next advance.
+     *  @param tick when the event fires
+     *  @param kind the kind of event
+     *  @param target what the event is for
+     *  @param argument anything else the event needs
+     *  @return a handle for cancelling the event
+     */
+    public long schedule(long tick, int kind, int target, long argument)
+    {
+        int     which;
+
+        if (freeHead == NIL) {
+            grow(time.length * 2);
+        }
+        which = freeHead;
+        freeHead = next[which];
+
+        time[which] = tick;
+        this.kind[which] = kind;
+        this.target[which] = target;
+        this.argument[which] = argument;
+        place(which);
+        ++size;
+
+        return(((long)generation[which] << 32) | which);
+    }
+
+    /**
+     *  @param handle what {@code schedule()} returned
+     *  @return whether the event was still pending and is now
+     *  cancelled
+     */
+    public boolean      cancel(long handle)
+    {
+        int     which;
+
+        which = (int)handle;
+        if ((which < 0) || (which >= time.length) ||
+                (list[which] == NIL) ||
+                (generation[which] != (int)(handle >>> 32))) {
+            return(false);
+        }
+        unlink(which);
+        release(which);
+        --size;
+
+        return(true);
+    }
+
+    /**
+     *  Fire every event due up to and including a tick.  The handler
+     *  may schedule and cancel events.
+     *  @param through the last tick to fire events for
+     *  @param handler called for each event
+     */
+    public void advance(long through, Handler handler)
+    {
+        while (now <= through) {
+            long        skip;
+
+            if (size == 0) {
+                /*
+                 *  Nothing to do at all.
+                 */
+                now = through + 1;
+                break;
+            }
+
+            fireNow(handler);
+            ++now;
+
+            /*
+             *  Jump over the ticks where nothing can happen.
+             */
+            skip = nextBusy();
+            if (skip > now) {
+                now = Math.min(skip, through + 1);
+            }
+        }
+    }
+
+    /*
+     *  Cascade whatever is due from the higher levels and fire the
+     *  events for the current tick.
+     */
+    private void        fireNow(Handler handler)
+    {
+        int     slot;
+
+        if ((now & MASK) == 0) {
+            if ((now & 0xffffffffL) == 0) {
+                relink(OVERFLOW);
+            }
+            if ((now & 0xffffffL) == 0) {
+                relink((3 * SLOTS) + (int)((now >>> 24) & MASK));
+            }
+            if ((now & 0xffffL) == 0) {
+                relink((2 * SLOTS) + (int)((now >>> 16) & MASK));
+            }
+            relink(SLOTS + (int)((now >>> 8) & MASK));
+        }
+
+        /*
+         *  Take the events one at a time, since the handler may add
+         *  or cancel events in this very slot.
+         */
+        slot = (int)(now & MASK);
+        while (head[slot] != NIL) {
+            int     which;
+            int     whichKind;
+            int     whichTarget;
+            long    whichArgument;
+
+            which = head[slot];
+            whichKind = kind[which];
+            whichTarget = target[which];
+            whichArgument = argument[which];
+            unlink(which);
+            release(which);
+            --size;
+            handler.fire(now, whichKind, whichTarget, whichArgument);
+        }
+    }
+
+    /*
+     *  @return the first tick, at or after now, that might have
+     *  something to cascade or fire
+     */
+    private long        nextBusy()
+    {
+        int     level;
+        int     first;
+        long    boundary;
+
+        if ((now & MASK) == 0) {
+            return(now);
+        }
+        first = firstOccupied(0, (int)(now & MASK));
+        if (first >= 0) {
+            return((now & ~(long)MASK) | first);
+        }
+
+        /*
+         *  Nothing left on the lowest level.  Look for the next slot
+         *  to cascade on each level up.
+         */
+        boundary = (now | MASK) + 1;
+        for (level = 1; (level < LEVELS); ++level) {
+            int     shift;
+            long    below;
+
+            shift = BITS * level;
+            below = (1L << (shift + BITS)) - 1;
+            if ((boundary & below) == 0) {
+                return(boundary);
+            }
+            first = firstOccupied(level,
+                    (int)((boundary >>> shift) & MASK));
+            if (first >= 0) {
+                return((boundary & ~below) | ((long)first << shift));
+            }
+            boundary = (boundary | below) + 1;
+        }
+
+        return(boundary);
+    }
+
+    /*
+     *  @return the first occupied slot of the level at or after the
+     *  given slot, or -1
+     */
+    private int firstOccupied(int level, int from)
+    {
+        int     word;
+        long    bits;
+
+        word = from >>> 6;
+        bits = occupied[(level * WORDS) + word] & (-1L << (from & 63));
+        for (;;) {
+            if (bits != 0) {
+                return((word << 6) + Long.numberOfTrailingZeros(bits));
+            }
+            if (++word == WORDS) {
+                return(-1);
+            }
+            bits = occupied[(level * WORDS) + word];
+        }
+    }
+
+    /*
+     *  Link an event into the slot for its tick, relative to now.
+     */
+    private void        place(int which)
+    {
+        long    t;
+        int     slot;
+
+        t = Math.max(time[which], now);
+        if ((t >>> BITS) == (now >>> BITS)) {
+            slot = (int)(t & MASK);
+        } else if ((t >>> (2 * BITS)) == (now >>> (2 * BITS))) {
+            slot = SLOTS + (int)((t >>> BITS) & MASK);
+        } else if ((t >>> (3 * BITS)) == (now >>> (3 * BITS))) {
+            slot = (2 * SLOTS) + (int)((t >>> (2 * BITS)) & MASK);
+        } else if ((t >>> (4 * BITS)) == (now >>> (4 * BITS))) {
+            slot = (3 * SLOTS) + (int)((t >>> (3 * BITS)) & MASK);
+        } else {
+            slot = OVERFLOW;
+        }
+
+        list[which] = slot;
+        prev[which] = NIL;
+        next[which] = head[slot];
+        if (head[slot] != NIL) {
+            prev[head[slot]] = which;
+        }
+        head[slot] = which;
+        if (slot < OVERFLOW) {
+            occupied[slot >>> 6] |= 1L << (slot & 63);
+        }
+    }
+
+    private void        unlink(int which)
+    {
+        int     slot;
+
+        slot = list[which];
+        if (prev[which] != NIL) {
+            next[prev[which]] = next[which];
+        } else {
+            head[slot] = next[which];
+        }
+        if (next[which] != NIL) {
+            prev[next[which]] = prev[which];
+        }
+        if ((head[slot] == NIL) && (slot < OVERFLOW)) {
+            occupied[slot >>> 6] &= ~(1L << (slot & 63));
+        }
+    }
+
+    private void        release(int which)
+    {
+        list[which] = NIL;
+        ++generation[which];
+        next[which] = freeHead;
+        freeHead = which;
+    }
+
+    /*
+     *  Move everything in a slot down to where it belongs now.
+     */
+    private void        relink(int slot)
+    {
+        int     which;
+
+        which = head[slot];
+        head[slot] = NIL;
+        if (slot < OVERFLOW) {
+            occupied[slot >>> 6] &= ~(1L << (slot & 63));
+        }
+        while (which != NIL) {
+            int     after;
+
+            after = next[which];
+            place(which);
+            which = after;
+        }
+    }
+
+    /**
+     *  Drop every pending event and start over at a tick, keeping the
+     *  room already made for events.  Handles of the dropped events
+     *  are no good afterwards.
+     *  @param start the first tick to be advanced through
+     */
+    public void clear(long start)
+    {
+        int     i;
+
+        Arrays.fill(head, NIL);
+        Arrays.fill(occupied, 0);
+        freeHead = NIL;
+        for (i = time.length - 1; (i >= 0); --i) {
+            if (list[i] != NIL) {
+                list[i] = NIL;
+                ++generation[i];
+            }
+            next[i] = freeHead;
+            freeHead = i;
+        }
+        size = 0;
+        now = start;
+    }
+
+    /*
+     *  Write the wheel to a checkpoint just as it is, so events fire
+     *  in the same order after it's restored and handles stay good.
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putLong(now);
+        out.putInt(size);
+        out.putInt(freeHead);
+        for (int slot : head) {
+            out.putInt(slot);
+        }
+        for (long word : occupied) {
+            out.putLong(word);
+        }
+        out.putInt(time.length);
+        for (int i = 0; (i < time.length); ++i) {
+            out.putLong(time[i]);
+            out.putInt(kind[i]);
+            out.putInt(target[i]);
+            out.putLong(argument[i]);
+            out.putInt(next[i]);
+            out.putInt(prev[i]);
+            out.putInt(list[i]);
+            out.putInt(generation[i]);
+        }
+    }
+
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        int     capacity;
+
+        now = in.getLong();
+        size = in.getInt();
+        freeHead = in.getInt();
+        for (int i = 0; (i < head.length); ++i) {
+            head[i] = in.getInt();
+        }
+        for (int i = 0; (i < occupied.length); ++i) {
+            occupied[i] = in.getLong();
+        }
+        capacity = in.getInt();
+        time = new long[capacity];
+        kind = new int[capacity];
+        target = new int[capacity];
+        argument = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        list = new int[capacity];
+        generation = new int[capacity];
+        for (int i = 0; (i < capacity); ++i) {
+            time[i] = in.getLong();
+            kind[i] = in.getInt();
+            target[i] = in.getInt();
+            argument[i] = in.getLong();
+            next[i] = in.getInt();
+            prev[i] = in.getInt();
+            list[i] = in.getInt();
+            generation[i] = in.getInt();
+        }
+    }
+
+    /**
+     *  @return the number of pending events
+     */
+    public int  size()
+    {
+        return(size);
+    }
+
+    /**
+     *  @return the next tick to be advanced through
+     */
+    public long getNow()
+    {
+        return(now);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[now=" + now +
+                ",size=" + size + "]");
+    }
+
+    /*
+     *  Counts what fired for the unit test.  The argument of each
+     *  event is the tick it should fire on.
+     */
+    private static class        Checker implements Handler {
+        private long    fired;
+        private long    wrong;
+
+        public void fire(long tick, int kind, int target,
+                         long argument)
+        {
+            ++fired;
+            if (argument != tick) {
+                if (wrong < 5) {
+                    System.out.println("*** ERROR *** event for " +
+                            argument + " fired at " + tick);
+                }
+                ++wrong;
+            }
+        }
+    }
+
+    /**
+     *  Performs a unit test on the {@code TimingWheel} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        TimingWheel     wheel;
+        Checker         checker;
+        Random          random;
+        long            handle[];
+        int             cancelled;
+        int             capacity;
+        long            start;
+        long            far[];
+        int             i;
+
+        errors = 0;
+        random = new Random(30);
+
+        /*
+         *  A million events over a million ticks, a tenth of them
+         *  cancelled.
+         */
+        wheel = new TimingWheel(0);
+        checker = new Checker();
+        handle = new long[1000000];
+        for (i = 0; (i < handle.length); ++i) {
+            long    tick;
+
+            tick = random.nextInt(1 << 20);
+            handle[i] = wheel.schedule(tick, i & 0x7, i, tick);
+        }
+        cancelled = 0;
+        for (i = 0; (i < handle.length); i += 10) {
+            if (wheel.cancel(handle[i]) == true) {
+                ++cancelled;
+            }
+            if (wheel.cancel(handle[i]) == true) {
+                System.out.println("*** ERROR *** cancelled twice");
+                ++errors;
+            }
+        }
+        capacity = wheel.time.length;
+        wheel.advance((1 << 20) - 1, checker);
+        System.out.println(wheel + ": fired " + checker.fired);
+        if ((checker.wrong > 0) ||
+                (checker.fired != handle.length - cancelled) ||
+                (wheel.size() != 0)) {
+            System.out.println("*** ERROR *** " + checker.fired +
+                    " fired, " + checker.wrong + " at the wrong tick");
+            ++errors;
+        }
+
+        /*
+         *  Handles of fired events are stale.  The indices are reused
+         *  without growing.
+         */
+        if (wheel.cancel(handle[1]) == true) {
+            System.out.println("*** ERROR *** fired event cancelled");
+            ++errors;
+        }
+        for (i = 0; (i < handle.length); ++i) {
+            wheel.schedule(wheel.getNow() + i, 0, 0,
+                    wheel.getNow() + i);
+        }
+        if (wheel.time.length != capacity) {
+            System.out.println("*** ERROR *** grew from " + capacity +
+                    " to " + wheel.time.length);
+            ++errors;
+        }
+
+        /*
+         *  Far off events, across the 2^32 boundary and beyond it,
+         *  starting from an awkward tick.
+         */
+        start = (1L << 32) - 300;
+        wheel = new TimingWheel(start);
+        checker = new Checker();
+        far = new long[]{start, start + 299, start + 300, start + 301,
+                start + 70000, (1L << 33) + 5, (1L << 40) + 12345,
+                (1L << 40) + 12345};
+        for (long tick : far) {
+            wheel.schedule(tick, 0, 0, tick);
+        }
+        wheel.advance(1L << 41, checker);
+        if ((checker.wrong > 0) || (checker.fired != far.length)) {
+            System.out.println("*** ERROR *** far events: " +
+                    checker.fired + " fired, " + checker.wrong +
+                    " at the wrong tick");
+            ++errors;
+        }
+
+        /*
+         *  An event scheduled by the handler for the same tick fires
+         *  in the same advance.
+         */
+        final TimingWheel       chained;
+        final int               chainCount[]    = {0};
+
+        chained = new TimingWheel(0);
+        chained.schedule(5, 0, 0, 0);
+        chained.advance(5, (tick, kind, target, argument) -> {
+            ++chainCount[0];
+            if (kind == 0) {
+                chained.schedule(tick, 1, 0, 0);
+            }
+        });
+        if (chainCount[0] != 2) {
+            System.out.println("*** ERROR *** chained event didn't" +
+                    " fire");
+            ++errors;
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
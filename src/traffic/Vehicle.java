@@ -1,28 +1,132 @@
 package traffic;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /**
  *  {@code Vehicle} is an abstract class defining things
  *  that travel on our roads.
- *  @version 2020091800
+ *  @version 2026101905
  *  @author Richard Barton
  */
 public abstract class Vehicle {
+    /**
+     *  The destination of a vehicle that isn't going anywhere in
+     *  particular.
+     */
+    public static final int     NO_DESTINATION  = -1;
+
     private final int           identifier;
-    private static int          nextIdentifier;
+    private static final AtomicInteger  nextIdentifier  =
+            new AtomicInteger();
     private final String        type;
+    private final VehicleType   vehicleType;
     private final int           hashCode;
-    private static final Random ourRandom       = new Random();
+    private int                 destination;
+    private static final RandomStream   ourRandom       =
+            new RandomStream();
+
+    /*
+     *  The identifier a vehicle being brought back, rather than made,
+     *  takes instead of a new one, or -1.
+     */
+    private static final ThreadLocal<int[]>     revived =
+            ThreadLocal.withInitial(() -> new int[]{-1});
 
     /**
      *  @param type required type of vehicle
      */
     public Vehicle(String type)
     {
-        identifier = nextIdentifier++;
+        int     given[];
+
+        given = revived.get();
+        if (given[0] >= 0) {
+            identifier = given[0];
+            given[0] = -1;
+        } else {
+            identifier = nextIdentifier.getAndIncrement();
+        }
         this.type = type;
+        vehicleType = VehicleType.forName(type);
         hashCode = Objects.hash(identifier, type);
+        destination = NO_DESTINATION;
+    }
+
+    /*
+     *  Write the identifier counter and the random numbers shared by
+     *  all vehicles to a checkpoint.
+     */
+    static void save(Checkpoint.Writer out) throws IOException
+    {
+        out.putInt(nextIdentifier.get());
+        synchronized (ourRandom) {
+            out.putLong(ourRandom.getState());
+        }
+    }
+
+    static void restore(Checkpoint.Reader in) throws IOException
+    {
+        nextIdentifier.set(in.getInt());
+        synchronized (ourRandom) {
+            ourRandom.setState(in.getLong());
+        }
+    }
+
+    /*
+     *  The identifier the next vehicle gets, and setting it, so a
+     *  replayed run hands out the identifiers it did when recorded.
+     */
+    static int  peekIdentifier()
+    {
+        return(nextIdentifier.get());
+    }
+
+    static void setNextIdentifier(int identifier)
+    {
+        nextIdentifier.set(identifier);
+    }
+
+    /*
+     *  @return a new identifier, for a vehicle that isn't made as an
+     *  object
+     */
+    static int  newIdentifier()
+    {
+        return(nextIdentifier.getAndIncrement());
+    }
+
+    /*
+     *  @return a vehicle of the type with an identifier handed out
+     *  before, standing for the one it was handed to
+     */
+    static Vehicle      revive(VehicleType type, int identifier)
+    {
+        int     given[];
+
+        given = revived.get();
+        given[0] = identifier;
+        try {
+            return(type.newVehicle());
+        } finally {
+            given[0] = -1;
+        }
+    }
+
+    /*
+     *  @return a vehicle brought back as above, on its way to a
+     *  destination
+     */
+    static Vehicle      revive(VehicleType type, int identifier,
+            int destination)
+    {
+        Vehicle revived;
+
+        revived = revive(type, identifier);
+        revived.destination = destination;
+
+        return(revived);
     }
 
     /**
@@ -33,6 +137,25 @@ public abstract class Vehicle {
         return(identifier);
     }
 
+    /**
+     *  @return the identifier of the destination the vehicle is
+     *  routed to, as handed out by {@code Network.addDestination()},
+     *  or {@code NO_DESTINATION}
+     */
+    public int  getDestination()
+    {
+        return(destination);
+    }
+
+    /**
+     *  @param destination the identifier of the destination to route
+     *  the vehicle to, or {@code NO_DESTINATION}
+     */
+    public void setDestination(int destination)
+    {
+        this.destination = destination;
+    }
+
     /**
      *  @return the type of the vehicle
      */
@@ -41,36 +164,58 @@ public abstract class Vehicle {
         return(type);
     }
 
+    /**
+     *  @return the registered type of the vehicle or {@code null}
+     *  if its type was never registered
+     */
+    public VehicleType  getVehicleType()
+    {
+        return(vehicleType);
+    }
+
+    /**
+     *  @return the character used for the vehicle in snapshots.
+     *  Vehicles of unregistered types use the first character of
+     *  their type.
+     */
+    public char getGlyph()
+    {
+        if (vehicleType == null) {
+            return(type.charAt(0));
+        }
+
+        return(vehicleType.getGlyph());
+    }
+
     /**
      *  @return an instance of a randomly selected subclass
      *  of {@code Vehicle} or {@code null}.
-     *  Roughly 20% of the time we'll return a {@code Car},
-     *  5% of the time we'll return a {@code Motorcycle}
+     *  The chances come from the registered {@code VehicleType}s.
+     *  Out of the box, roughly 20% of the time we'll return a
+     *  {@code Car}, 5% of the time we'll return a {@code Motorcycle}
      *  and the rest of the time we'll return {@code null}.
      */
     static public Vehicle      nextRandom()
     {
-        int             nextRandom;
+        return(nextRandom(VehicleMix.standard()));
+    }
+
+    /**
+     *  @param mix the distribution of types to pick from
+     *  @return an instance of a type randomly selected from the
+     *  mix or {@code null}
+     */
+    static public Vehicle      nextRandom(VehicleMix mix)
+    {
+        double  draw;
 
         /*
-         *  Get a random number between 0 and 99, inclusive.
+         *  One random number picks the type.
          */
-        nextRandom = ourRandom.nextInt(100);
-        if (nextRandom < 20) {
-            /*
-             *  20% cars
-             */
-            return(new Car());
-        }
-
-        if (nextRandom < 25) {
-            /*
-             *  5% motorcycles
-             */
-            return(new Motorcycle());
+        synchronized (ourRandom) {
+            draw = ourRandom.nextDouble();
         }
-
-        return(null);
+        return(mix.nextVehicle(draw));
     }
 
     /**
@@ -0,0 +1,389 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code VehicleMix} is the distribution of vehicle types a road
+ *  spawns.  It's sampled with Walker's alias method, so picking a
+ *  type costs one random number and one table lookup no matter how
+ *  many types there are.  Whatever probability the types don't add
+ *  up to is the chance that nothing is spawned.
+ *  When a road's arrivals come from a {@code DemandProfile}, only the
+ *  relative weights of the types matter.
+ *  @version 2026101903
+ *  @author Richard Barton
+ */
+public final class VehicleMix {
+    private final List<VehicleType>     types;
+    private final int                   columns;
+    private final VehicleType           outcome[];
+    private final double                threshold[];
+    private final int                   alias[];
+    private final double                arrivalThreshold[];
+    private final int                   arrivalAlias[];
+    private final double                spawnProbability;
+
+    /**
+     *  @param types the types in the mix
+     *  @param probabilities chance, per tick, of spawning the type
+     *  with the same index
+     *  @throws IllegalArgumentException if the arrays don't match or
+     *  the probabilities are out of range
+     */
+    public VehicleMix(VehicleType[] types, double[] probabilities)
+    {
+        double          total;
+        double          weight[];
+        int             i;
+
+        if (types.length != probabilities.length) {
+            throw new IllegalArgumentException("types.length (" +
+                    types.length + ") != probabilities.length (" +
+                    probabilities.length + ")");
+        }
+
+        total = 0;
+        for (i = 0; (i < probabilities.length); ++i) {
+            if ((types[i] == null) ||
+                    (Double.isNaN(probabilities[i])) ||
+                    (probabilities[i] < 0)) {
+                throw new IllegalArgumentException("bad type or" +
+                        " probability at " + i);
+            }
+            total += probabilities[i];
+        }
+        if (total > 1.0 + 1e-9) {
+            throw new IllegalArgumentException("probabilities add" +
+                    " up to " + total);
+        }
+        spawnProbability = Math.min(1.0, total);
+        this.types = Collections.unmodifiableList(
+                new ArrayList<>(Arrays.asList(types)));
+
+        /*
+         *  The last outcome is "nothing", a null type.
+         */
+        columns = types.length + 1;
+        outcome = Arrays.copyOf(types, columns);
+        weight = Arrays.copyOf(probabilities, columns);
+        weight[types.length] = Math.max(0.0, 1.0 - total);
+
+        threshold = new double[columns];
+        alias = new int[columns];
+        buildAlias(weight, threshold, alias);
+
+        /*
+         *  A second table, without "nothing", for picking the type
+         *  of a vehicle we already know is arriving.
+         */
+        i = (total > 0) ? types.length : 0;
+        arrivalThreshold = new double[i];
+        arrivalAlias = new int[i];
+        if (i > 0) {
+            buildAlias(Arrays.copyOf(probabilities, types.length),
+                    arrivalThreshold, arrivalAlias);
+        }
+    }
+
+    /*
+     *  Vose's construction of the alias table.  Each column keeps its
+     *  own outcome with probability threshold[i] and gives the rest
+     *  to alias[i].
+     */
+    static void buildAlias(double[] weight, double[] threshold,
+                           int[] alias)
+    {
+        int             n;
+        int             small[];
+        int             large[];
+        int             smallCount;
+        int             largeCount;
+        double          total;
+        double          scaled[];
+        int             i;
+
+        n = weight.length;
+        total = 0;
+        for (i = 0; (i < n); ++i) {
+            total += weight[i];
+        }
+
+        scaled = new double[n];
+        small = new int[n];
+        large = new int[n];
+        smallCount = 0;
+        largeCount = 0;
+        for (i = 0; (i < n); ++i) {
+            scaled[i] = (total > 0) ? (weight[i] * n / total) : 1.0;
+            alias[i] = i;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while ((smallCount > 0) && (largeCount > 0)) {
+            int         less;
+            int         more;
+
+            /*
+             *  Fill the rest of a short column from a tall one.
+             */
+            less = small[--smallCount];
+            more = large[--largeCount];
+            threshold[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        /*
+         *  Anything left over is full, give or take rounding.
+         */
+        while (largeCount > 0) {
+            threshold[large[--largeCount]] = 1.0;
+        }
+        while (smallCount > 0) {
+            threshold[small[--smallCount]] = 1.0;
+        }
+    }
+
+    /**
+     *  @return the mix of every registered type at its default
+     *  probability
+     */
+    public static VehicleMix    standard()
+    {
+        return(VehicleType.standardMix());
+    }
+
+    /**
+     *  @param u a uniformly distributed random number in [0, 1)
+     *  @return the type picked by {@code u} or {@code null} if
+     *  nothing should be spawned
+     */
+    public VehicleType  next(double u)
+    {
+        double          x;
+        int             column;
+
+        /*
+         *  The integer part picks the column and the fraction picks
+         *  between the column and its alias.
+         */
+        x = u * columns;
+        column = (int)x;
+        if (column >= columns) {
+            column = columns - 1;
+        }
+        if ((x - column) >= threshold[column]) {
+            column = alias[column];
+        }
+
+        return(outcome[column]);
+    }
+
+    /**
+     *  @param u a uniformly distributed random number in [0, 1)
+     *  @return the type of an arriving vehicle picked by {@code u}
+     *  in proportion to the weights of the types, or {@code null} if
+     *  the mix can't spawn anything
+     */
+    public VehicleType  nextArrival(double u)
+    {
+        double          x;
+        int             column;
+
+        if (arrivalAlias.length == 0) {
+            return(null);
+        }
+        x = u * arrivalAlias.length;
+        column = (int)x;
+        if (column >= arrivalAlias.length) {
+            column = arrivalAlias.length - 1;
+        }
+        if ((x - column) >= arrivalThreshold[column]) {
+            column = arrivalAlias[column];
+        }
+
+        return(outcome[column]);
+    }
+
+    /**
+     *  @param u a uniformly distributed random number in [0, 1)
+     *  @return a new vehicle of the type picked by {@code u} or
+     *  {@code null}
+     */
+    public Vehicle      nextVehicle(double u)
+    {
+        VehicleType     type;
+
+        type = next(u);
+        if (type == null) {
+            return(null);
+        }
+
+        return(type.newVehicle());
+    }
+
+    /**
+     *  @return whether the mix ever spawns anything
+     */
+    public boolean      canSpawn()
+    {
+        return(arrivalAlias.length > 0);
+    }
+
+    /*
+     *  The chance of spawning something on a tick.
+     */
+    double      spawnProbability()
+    {
+        return(spawnProbability);
+    }
+
+    /**
+     *  @return the types in the mix
+     */
+    public List<VehicleType>    getTypes()
+    {
+        return(types);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() + "[types=" + types + "]");
+    }
+
+    /**
+     *  Performs a unit test on the {@code VehicleMix} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        Random          random;
+        VehicleType     types[];
+        double          probabilities[];
+        VehicleMix      mix;
+        int             count[];
+        int             draws;
+        int             i;
+
+        errors = 0;
+        random = new Random(26);
+
+        /*
+         *  A mix with many types of very different weights, made up
+         *  of the two registered types over and over.
+         */
+        types = new VehicleType[40];
+        probabilities = new double[types.length];
+        for (i = 0; (i < types.length); ++i) {
+            types[i] = VehicleType.forCode(1 + (i & 0x1));
+            probabilities[i] = (i + 1) / 1000.0;
+        }
+        mix = new VehicleMix(types, probabilities);
+
+        /*
+         *  Every one of the 40 entries should come up about as often
+         *  as asked for.  Since the entries repeat types, count by
+         *  the entry the alias table picked.
+         */
+        count = new int[types.length + 1];
+        draws = 4000000;
+        for (int n = 0; (n < draws); ++n) {
+            double      x;
+            int         column;
+
+            x = random.nextDouble() * mix.columns;
+            column = (int)x;
+            if ((x - column) >= mix.threshold[column]) {
+                column = mix.alias[column];
+            }
+            ++count[column];
+        }
+        for (i = 0; (i <= types.length); ++i) {
+            double      expected;
+            double      actual;
+
+            expected = (i < types.length) ? probabilities[i] :
+                    (1.0 - (41 * 40 / 2) / 1000.0);
+            actual = (double)count[i] / draws;
+            if (Math.abs(actual - expected) > 0.002) {
+                System.out.println("*** ERROR *** entry " + i +
+                        ": " + actual + " should be " + expected);
+                ++errors;
+            }
+        }
+
+        /*
+         *  The standard mix should give the old 20/5/75 split.
+         */
+        mix = standard();
+        System.out.println(mix);
+        count = new int[3];
+        for (int n = 0; (n < draws); ++n) {
+            VehicleType type;
+
+            type = mix.next(random.nextDouble());
+            ++count[(type == null) ? 0 : type.getCode()];
+        }
+        if ((Math.abs(count[0] / (double)draws - 0.75) > 0.002) ||
+                (Math.abs(count[1] / (double)draws - 0.20) > 0.002) ||
+                (Math.abs(count[2] / (double)draws - 0.05) > 0.002)) {
+            System.out.println("*** ERROR *** standard mix is off: " +
+                    Arrays.toString(count));
+            ++errors;
+        }
+
+        /*
+         *  Arrivals are 80% cars and 20% motorcycles in the
+         *  standard mix.
+         */
+        count = new int[3];
+        for (int n = 0; (n < draws); ++n) {
+            ++count[mix.nextArrival(random.nextDouble()).getCode()];
+        }
+        if ((Math.abs(count[1] / (double)draws - 0.80) > 0.002) ||
+                (Math.abs(count[2] / (double)draws - 0.20) > 0.002)) {
+            System.out.println("*** ERROR *** arrivals are off: " +
+                    Arrays.toString(count));
+            ++errors;
+        }
+
+        /*
+         *  An empty mix never spawns anything.
+         */
+        mix = new VehicleMix(new VehicleType[0], new double[0]);
+        if ((mix.next(0.0) != null) ||
+                (mix.next(0.9999999999) != null) ||
+                (mix.nextArrival(0.5) != null)) {
+            System.out.println("*** ERROR *** empty mix spawned");
+            ++errors;
+        }
+        try {
+            new VehicleMix(new VehicleType[]{VehicleType.forCode(1)},
+                    new double[]{1.5});
+            System.out.println("*** ERROR *** probability over 1" +
+                    " accepted");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            System.out.println("too likely: " + e.getMessage());
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}
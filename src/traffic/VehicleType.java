@@ -0,0 +1,430 @@
+package traffic;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ *  {@code VehicleType} describes one kind of {@code Vehicle} that can
+ *  be spawned onto our roads:  its class, the glyph used for it in
+ *  {@code Road.snapshot()}, the default probability of spawning one
+ *  and any other attributes that go along with it.
+ *  Types are registered once at startup and each is given a small,
+ *  dense code starting at 1.  Code 0 is reserved for an empty slot.
+ *  Codes are kept in 16 bits, unsigned, so there can be no more than
+ *  {@code MAX_CODE} types.
+ *  @version 2026101901
+ *  @author Richard Barton
+ */
+public final class VehicleType {
+    /**
+     *  The code used for a slot in the road with no vehicle in it.
+     */
+    public static final int     EMPTY_CODE      = 0;
+    /**
+     *  The highest code a type can have.
+     */
+    public static final int     MAX_CODE        = 0xffff;
+    /**
+     *  The glyph used for a slot in the road with no vehicle in it.
+     */
+    public static final char    EMPTY_GLYPH     = '_';
+
+    private static volatile Map<String, VehicleType>    byName  =
+            Collections.emptyMap();
+    private static volatile VehicleType                 byCode[] =
+            {null};
+    private static volatile VehicleMix                  standardMix;
+
+    private final int                           code;
+    private final String                        name;
+    private final char                          glyph;
+    private final Class<? extends Vehicle>      vehicleClass;
+    private final Supplier<? extends Vehicle>   factory;
+    private final double                        probability;
+    private final Map<String, Object>           attributes;
+
+    static {
+        /*
+         *  The types we've always had.
+         */
+        register("car", 'c', Car.class, Car::new, 0.20);
+        register("motorcycle", 'm', Motorcycle.class,
+                Motorcycle::new, 0.05);
+    }
+
+    private VehicleType(int code, String name, char glyph,
+                        Class<? extends Vehicle> vehicleClass,
+                        Supplier<? extends Vehicle> factory,
+                        double probability,
+                        Map<String, ?> attributes)
+    {
+        this.code = code;
+        this.name = name;
+        this.glyph = glyph;
+        this.vehicleClass = vehicleClass;
+        this.factory = factory;
+        this.probability = probability;
+        this.attributes = Collections.unmodifiableMap(
+                new HashMap<>(attributes));
+    }
+
+    /**
+     *  Register a new type of vehicle with no extra attributes.
+     *  @param name required type name, as returned by
+     *  {@code Vehicle.getType()}
+     *  @param glyph character used for the type in snapshots
+     *  @param vehicleClass the class of the vehicles
+     *  @param factory makes a new vehicle of the type
+     *  @param probability default chance, per tick, that a road
+     *  spawns one of these
+     *  @return the newly registered type
+     */
+    public static VehicleType   register(String name, char glyph,
+            Class<? extends Vehicle> vehicleClass,
+            Supplier<? extends Vehicle> factory, double probability)
+    {
+        return(register(name, glyph, vehicleClass, factory, probability,
+                Collections.emptyMap()));
+    }
+
+    /**
+     *  Register a new type of vehicle.
+     *  @param name required type name, as returned by
+     *  {@code Vehicle.getType()}
+     *  @param glyph character used for the type in snapshots
+     *  @param vehicleClass the class of the vehicles
+     *  @param factory makes a new vehicle of the type
+     *  @param probability default chance, per tick, that a road
+     *  spawns one of these
+     *  @param attributes anything else worth knowing about the type
+     *  @return the newly registered type
+     *  @throws IllegalArgumentException if the name is already
+     *  registered, the probabilities would add up to more than 1 or
+     *  there are already {@code MAX_CODE} types
+     */
+    public static synchronized VehicleType register(String name,
+            char glyph, Class<? extends Vehicle> vehicleClass,
+            Supplier<? extends Vehicle> factory, double probability,
+            Map<String, ?> attributes)
+    {
+        double          total;
+        VehicleType     newType;
+        VehicleType     newByCode[];
+        Map<String, VehicleType>        newByName;
+
+        if ((name == null) || (vehicleClass == null) ||
+                (factory == null) || (attributes == null)) {
+            throw new IllegalArgumentException("missing argument");
+        }
+        if (byName.containsKey(name) == true) {
+            throw new IllegalArgumentException("type \"" + name +
+                    "\" is already registered");
+        }
+        if ((glyph == EMPTY_GLYPH) || (Double.isNaN(probability)) ||
+                (probability < 0) || (probability > 1)) {
+            throw new IllegalArgumentException("bad glyph or" +
+                    " probability for \"" + name + "\"");
+        }
+        if (byCode.length > MAX_CODE) {
+            throw new IllegalArgumentException("no code left for \"" +
+                    name + "\"");
+        }
+
+        /*
+         *  All the default probabilities together can't be more than
+         *  certain.  Whatever is left over is the chance of nothing.
+         */
+        total = probability;
+        for (int i = 1; (i < byCode.length); ++i) {
+            total += byCode[i].probability;
+        }
+        if (total > 1.0 + 1e-9) {
+            throw new IllegalArgumentException("probabilities add" +
+                    " up to " + total);
+        }
+
+        /*
+         *  Publish new tables so readers never need to lock.
+         */
+        newType = new VehicleType(byCode.length, name, glyph,
+                vehicleClass, factory, probability, attributes);
+        newByCode = Arrays.copyOf(byCode, byCode.length + 1);
+        newByCode[newType.code] = newType;
+        newByName = new HashMap<>(byName);
+        newByName.put(name, newType);
+        byName = newByName;
+        byCode = newByCode;
+        standardMix = null;
+
+        return(newType);
+    }
+
+    /**
+     *  @param name type name
+     *  @return the registered type with that name or {@code null}
+     */
+    public static VehicleType   forName(String name)
+    {
+        return(byName.get(name));
+    }
+
+    /**
+     *  @param code type code
+     *  @return the registered type with that code or {@code null}
+     *  for {@code EMPTY_CODE} or an unknown code
+     */
+    public static VehicleType   forCode(int code)
+    {
+        VehicleType     types[];
+
+        types = byCode;
+        if ((code <= EMPTY_CODE) || (code >= types.length)) {
+            return(null);
+        }
+
+        return(types[code]);
+    }
+
+    /**
+     *  @return all the registered types in code order
+     */
+    public static List<VehicleType>     all()
+    {
+        VehicleType     types[];
+
+        types = byCode;
+        return(Collections.unmodifiableList(
+                Arrays.asList(types).subList(1, types.length)));
+    }
+
+    /**
+     *  @return one more than the highest registered code
+     */
+    public static int   codeLimit()
+    {
+        return(byCode.length);
+    }
+
+    /**
+     *  @param code type code, possibly {@code EMPTY_CODE}
+     *  @return the glyph to show for the code
+     */
+    public static char  glyphFor(int code)
+    {
+        VehicleType     type;
+
+        type = forCode(code);
+        if (type == null) {
+            return(EMPTY_GLYPH);
+        }
+
+        return(type.glyph);
+    }
+
+    /**
+     *  @return the mix of every registered type at its default
+     *  probability
+     */
+    public static VehicleMix    standardMix()
+    {
+        VehicleMix      mix;
+
+        mix = standardMix;
+        if (mix == null) {
+            VehicleType     types[];
+            double          probabilities[];
+
+            /*
+             *  Something was registered since we last built it.
+             */
+            types = byCode;
+            types = Arrays.copyOfRange(types, 1, types.length);
+            probabilities = new double[types.length];
+            for (int i = 0; (i < types.length); ++i) {
+                probabilities[i] = types[i].probability;
+            }
+            mix = new VehicleMix(types, probabilities);
+            standardMix = mix;
+        }
+
+        return(mix);
+    }
+
+    /**
+     *  @return a new vehicle of this type
+     */
+    public Vehicle      newVehicle()
+    {
+        return(factory.get());
+    }
+
+    /**
+     *  @return the dense code of the type
+     */
+    public int  getCode()
+    {
+        return(code);
+    }
+
+    /**
+     *  @return the name of the type
+     */
+    public String       getName()
+    {
+        return(name);
+    }
+
+    /**
+     *  @return the character used for the type in snapshots
+     */
+    public char getGlyph()
+    {
+        return(glyph);
+    }
+
+    /**
+     *  @return the class of the vehicles of this type
+     */
+    public Class<? extends Vehicle>     getVehicleClass()
+    {
+        return(vehicleClass);
+    }
+
+    /**
+     *  @return the default probability of spawning one of these
+     */
+    public double       getProbability()
+    {
+        return(probability);
+    }
+
+    /**
+     *  @param attribute name of the attribute
+     *  @return the value of the attribute or {@code null}
+     */
+    public Object       getAttribute(String attribute)
+    {
+        return(attributes.get(attribute));
+    }
+
+    /**
+     *  @return all the attributes of the type
+     */
+    public Map<String, Object>  getAttributes()
+    {
+        return(attributes);
+    }
+
+    /**
+     *  @return {@code String} representation of object
+     */
+    public String toString()
+    {
+        return(getClass().getName() +
+                "[code=" + code +
+                ",name=" + name +
+                ",glyph=" + glyph +
+                ",probability=" + probability + "]");
+    }
+
+    /*
+     *  A Vehicle we can register in the unit test.
+     */
+    private static class        Truck extends Vehicle {
+        public Truck()
+        {
+            super("truck");
+        }
+    }
+
+    /**
+     *  Performs a unit test on the {@code VehicleType} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             errors;
+        VehicleType     car;
+        VehicleType     motorcycle;
+        VehicleType     truck;
+        Vehicle         vehicle;
+
+        errors = 0;
+
+        /*
+         *  The built in types must be there with the codes and glyphs
+         *  that snapshots have always used.
+         */
+        car = forName("car");
+        motorcycle = forName("motorcycle");
+        System.out.println(car);
+        System.out.println(motorcycle);
+        if ((car == null) || (car.getCode() != 1) ||
+                (car.getGlyph() != 'c') || (forCode(1) != car)) {
+            System.out.println("*** ERROR *** car isn't registered" +
+                    " correctly");
+            ++errors;
+        }
+        if ((motorcycle == null) || (motorcycle.getCode() != 2) ||
+                (motorcycle.getGlyph() != 'm') ||
+                (forCode(2) != motorcycle)) {
+            System.out.println("*** ERROR *** motorcycle isn't" +
+                    " registered correctly");
+            ++errors;
+        }
+        if ((forCode(EMPTY_CODE) != null) || (forCode(99) != null) ||
+                (glyphFor(EMPTY_CODE) != EMPTY_GLYPH)) {
+            System.out.println("*** ERROR *** empty or unknown codes" +
+                    " aren't handled");
+            ++errors;
+        }
+
+        /*
+         *  Register a new type and make sure it behaves.
+         */
+        truck = register("truck", 't', Truck.class, Truck::new, 0.10,
+                Map.of("length", 2));
+        System.out.println(truck);
+        vehicle = truck.newVehicle();
+        if ((truck.getCode() != 3) || (codeLimit() != 4) ||
+                (all().size() != 3) ||
+                (vehicle.getVehicleType() != truck) ||
+                (vehicle.getGlyph() != 't') ||
+                (Integer.valueOf(2).equals(
+                        truck.getAttribute("length")) == false)) {
+            System.out.println("*** ERROR *** truck isn't registered" +
+                    " correctly");
+            ++errors;
+        }
+        if (standardMix().getTypes().size() != 3) {
+            System.out.println("*** ERROR *** standard mix wasn't" +
+                    " rebuilt after registering");
+            ++errors;
+        }
+
+        /*
+         *  Things that must be refused.
+         */
+        try {
+            register("truck", 'T', Truck.class, Truck::new, 0.01);
+            System.out.println("*** ERROR *** duplicate name accepted");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            System.out.println("duplicate name: " + e.getMessage());
+        }
+        try {
+            register("bus", 'b', Truck.class, Truck::new, 0.70);
+            System.out.println("*** ERROR *** total probability over" +
+                    " 1 accepted");
+            ++errors;
+        } catch (IllegalArgumentException e) {
+            System.out.println("too likely: " + e.getMessage());
+        }
+
+        if (errors > 0) {
+            System.out.println("\nUNIT TEST FAILED with " + errors +
+                    " errors");
+            System.exit(1);
+        }
+    }
+}